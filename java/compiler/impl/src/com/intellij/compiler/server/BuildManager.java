@@ -1165,6 +1165,8 @@ public class BuildManager implements ApplicationComponent{
     private final Set<String> myChanged = new THashSet<String>(FileUtil.PATH_HASHING_STRATEGY);
     private final Set<String> myDeleted = new THashSet<String>(FileUtil.PATH_HASHING_STRATEGY);
     private long myNextEventOrdinal = 0L;
+    // identifies the sequence of events; a new sequence starts every time collected changes are dropped
+    private String myEventSequenceId = UUID.randomUUID().toString();
     private boolean myNeedRescan = true;
 
     private ProjectData(SequentialTaskExecutor taskQueue) {
@@ -1189,6 +1191,7 @@ public class BuildManager implements ApplicationComponent{
       final CmdlineRemoteProto.Message.ControllerMessage.FSEvent.Builder builder =
         CmdlineRemoteProto.Message.ControllerMessage.FSEvent.newBuilder();
       builder.setOrdinal(++myNextEventOrdinal);
+      builder.setSequenceId(myEventSequenceId);
       builder.addAllChangedPaths(myChanged);
       myChanged.clear();
       builder.addAllDeletedPaths(myDeleted);
@@ -1205,6 +1208,7 @@ public class BuildManager implements ApplicationComponent{
     public void dropChanges() {
       myNeedRescan = true;
       myNextEventOrdinal = 0L;
+      myEventSequenceId = UUID.randomUUID().toString();
       myChanged.clear();
       myDeleted.clear();
     }
@@ -15,6 +15,7 @@
  */
 package com.intellij.ide.util.gotoByName;
 
+import com.intellij.navigation.CachedNamesContributor;
 import com.intellij.navigation.GotoClassContributor;
 import com.intellij.navigation.NavigationItem;
 import com.intellij.openapi.project.Project;
@@ -26,13 +27,19 @@ import org.jetbrains.annotations.NotNull;
 
 import java.util.ArrayList;
 
-public class DefaultClassNavigationContributor implements GotoClassContributor {
+public class DefaultClassNavigationContributor implements GotoClassContributor, CachedNamesContributor {
   @Override
   @NotNull
   public String[] getNames(Project project, boolean includeNonProjectItems) {
     return PsiShortNamesCache.getInstance(project).getAllClassNames();
   }
 
+  @NotNull
+  @Override
+  public Object[] getNamesDependencies(@NotNull Project project) {
+    return ContributorsBasedGotoByModel.getIndexedNamesDependencies(project);
+  }
+
   @Override
   @NotNull
   public NavigationItem[] getItemsByName(String name, final String pattern, Project project, boolean includeNonProjectItems) {
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.psi.impl.search;
+
+import com.intellij.ide.highlighter.JavaFileType;
+import com.intellij.lexer.JavaLexer;
+import com.intellij.lexer.Lexer;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.util.registry.Registry;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.pom.java.LanguageLevel;
+import com.intellij.psi.JavaTokenType;
+import com.intellij.psi.TokenType;
+import com.intellij.psi.impl.source.tree.ElementType;
+import com.intellij.psi.search.DelegatingGlobalSearchScope;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.tree.IElementType;
+import com.intellij.psi.tree.TokenSet;
+import com.intellij.util.containers.Stack;
+import com.intellij.util.indexing.*;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.DataInputOutputUtil;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import com.intellij.util.io.KeyDescriptor;
+import gnu.trove.THashMap;
+import gnu.trove.THashSet;
+import gnu.trove.TIntHashSet;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Maps a method name to the argument counts of all calls with that name in a java file.
+ * Occurrences of the name which are not plain calls (static imports, method references, comments, string literals where a
+ * language may be injected etc.) are recorded as {@link #UNKNOWN_ARITY}, as well as calls with type arguments among their
+ * arguments.
+ * <p/>
+ * Resolve is not available during indexing, so instead of resolved targets the index stores what is needed to prove that a file
+ * cannot contain a usage of a method with a given parameter count. Like the id index, it is built by the lexer and doesn't need
+ * PSI. Usage searchers use it to skip such files without loading PSI.
+ * Note that calls with a wrong number of arguments (i.e. red code) are not reported as usages when the index is in use.
+ *
+ * @see #excludeFilesWithoutCalls(GlobalSearchScope, String, TIntHashSet)
+ */
+public class JavaMethodCallIndex extends FileBasedIndexExtension<String, int[]> {
+  @NonNls public static final ID<String, int[]> NAME = ID.create("java.method.call.arity");
+  public static final int UNKNOWN_ARITY = -1;
+
+  private final EnumeratorStringDescriptor myKeyDescriptor = new EnumeratorStringDescriptor();
+
+  private final DataExternalizer<int[]> myValueExternalizer = new DataExternalizer<int[]>() {
+    @Override
+    public void save(DataOutput out, int[] value) throws IOException {
+      DataInputOutputUtil.writeINT(out, value.length);
+      for (int arity : value) {
+        DataInputOutputUtil.writeINT(out, arity + 1);
+      }
+    }
+
+    @Override
+    public int[] read(DataInput in) throws IOException {
+      int[] result = new int[DataInputOutputUtil.readINT(in)];
+      for (int i = 0; i < result.length; i++) {
+        result[i] = DataInputOutputUtil.readINT(in) - 1;
+      }
+      return result;
+    }
+  };
+
+  private final FileBasedIndex.InputFilter myInputFilter = new FileBasedIndex.InputFilter() {
+    @Override
+    public boolean acceptInput(VirtualFile file) {
+      return file.getFileType() == JavaFileType.INSTANCE;
+    }
+  };
+
+  private final DataIndexer<String, int[], FileContent> myIndexer = new DataIndexer<String, int[], FileContent>() {
+    @NotNull
+    @Override
+    public Map<String, int[]> map(FileContent inputData) {
+      final Map<String, TIntHashSet> arities = new THashMap<String, TIntHashSet>();
+      // brackets opened and not closed yet, the ones of call arguments know the method name
+      final Stack<Arguments> brackets = new Stack<Arguments>();
+      String identifier = null;
+
+      Lexer lexer = new JavaLexer(LanguageLevel.HIGHEST);
+      lexer.start(inputData.getContentAsText());
+      for (IElementType type; (type = lexer.getTokenType()) != null; lexer.advance()) {
+        if (type == TokenType.WHITE_SPACE) continue;
+        if (ElementType.JAVA_COMMENT_BIT_SET.contains(type) || type == JavaTokenType.STRING_LITERAL) {
+          recordWords(arities, lexer.getTokenSequence());
+          continue;
+        }
+
+        Arguments arguments = brackets.isEmpty() ? null : brackets.peek();
+        if (arguments != null && !CLOSING_BRACKETS.contains(type)) arguments.myEmpty = false;
+
+        String name = identifier;
+        identifier = null;
+        if (name != null && type != JavaTokenType.LPARENTH) {
+          // static imports, method references, fields etc.
+          record(arities, name, UNKNOWN_ARITY);
+        }
+
+        if (type == JavaTokenType.IDENTIFIER) {
+          identifier = lexer.getTokenText();
+        }
+        else if (OPENING_BRACKETS.contains(type)) {
+          brackets.push(new Arguments(type == JavaTokenType.LPARENTH ? name : null));
+        }
+        else if (CLOSING_BRACKETS.contains(type)) {
+          if (arguments == null) continue;
+          brackets.pop();
+          if (arguments.myName != null) {
+            // commas between type arguments can't be told from the ones between call arguments
+            int arity = arguments.myTypeArguments ? UNKNOWN_ARITY : arguments.myEmpty ? 0 : arguments.myCommas + 1;
+            record(arities, arguments.myName, arity);
+          }
+        }
+        else if (arguments != null && type == JavaTokenType.COMMA) {
+          arguments.myCommas++;
+        }
+        else if (arguments != null && type == JavaTokenType.LT) {
+          arguments.myTypeArguments = true;
+        }
+      }
+      if (identifier != null) record(arities, identifier, UNKNOWN_ARITY);
+      for (Arguments arguments : brackets) {
+        if (arguments.myName != null) record(arities, arguments.myName, UNKNOWN_ARITY);
+      }
+
+      Map<String, int[]> result = new THashMap<String, int[]>(arities.size());
+      for (Map.Entry<String, TIntHashSet> entry : arities.entrySet()) {
+        int[] values = entry.getValue().toArray();
+        Arrays.sort(values);
+        result.put(entry.getKey(), values);
+      }
+      return result;
+    }
+  };
+
+  private static final TokenSet OPENING_BRACKETS = TokenSet.create(JavaTokenType.LPARENTH, JavaTokenType.LBRACKET, JavaTokenType.LBRACE);
+  private static final TokenSet CLOSING_BRACKETS = TokenSet.create(JavaTokenType.RPARENTH, JavaTokenType.RBRACKET, JavaTokenType.RBRACE);
+
+  private static class Arguments {
+    // name of the called method, null if the bracket doesn't open call arguments
+    @Nullable private final String myName;
+    private int myCommas;
+    private boolean myEmpty = true;
+    private boolean myTypeArguments;
+
+    private Arguments(@Nullable String name) {
+      myName = name;
+    }
+  }
+
+  private static void recordWords(@NotNull Map<String, TIntHashSet> arities, @NotNull CharSequence text) {
+    for (String word : StringUtil.getWordsIn(text.toString())) {
+      record(arities, word, UNKNOWN_ARITY);
+    }
+  }
+
+  private static void record(@NotNull Map<String, TIntHashSet> arities, @NotNull String name, int arity) {
+    TIntHashSet set = arities.get(name);
+    if (set == null) {
+      arities.put(name, set = new TIntHashSet(2));
+    }
+    set.add(arity);
+  }
+
+  @NotNull
+  @Override
+  public ID<String, int[]> getName() {
+    return NAME;
+  }
+
+  @NotNull
+  @Override
+  public DataIndexer<String, int[], FileContent> getIndexer() {
+    return myIndexer;
+  }
+
+  @Override
+  public KeyDescriptor<String> getKeyDescriptor() {
+    return myKeyDescriptor;
+  }
+
+  @Override
+  public DataExternalizer<int[]> getValueExternalizer() {
+    return myValueExternalizer;
+  }
+
+  @Override
+  public FileBasedIndex.InputFilter getInputFilter() {
+    return myInputFilter;
+  }
+
+  @Override
+  public boolean dependsOnFileContent() {
+    return true;
+  }
+
+  @Override
+  public int getVersion() {
+    return 1;
+  }
+
+  /**
+   * @param arities argument counts a call must have to possibly refer to the searched method(s)
+   * @return the scope without java files where every occurrence of {@code methodName} is a call with some other argument count,
+   *         or {@code scope} itself when the index is disabled
+   */
+  @NotNull
+  public static GlobalSearchScope excludeFilesWithoutCalls(@NotNull final GlobalSearchScope scope,
+                                                           @NotNull final String methodName,
+                                                           @NotNull final TIntHashSet arities) {
+    if (!Registry.is("find.usages.use.method.call.index")) return scope;
+
+    final Set<VirtualFile> excluded = ApplicationManager.getApplication().runReadAction(new Computable<Set<VirtualFile>>() {
+      @Override
+      public Set<VirtualFile> compute() {
+        final Set<VirtualFile> result = new THashSet<VirtualFile>();
+        FileBasedIndex.getInstance().processValues(NAME, methodName, null, new FileBasedIndex.ValueProcessor<int[]>() {
+          @Override
+          public boolean process(VirtualFile file, int[] value) {
+            for (int arity : value) {
+              if (arity == UNKNOWN_ARITY || arities.contains(arity)) return true;
+            }
+            result.add(file);
+            return true;
+          }
+        }, scope);
+        return result;
+      }
+    });
+    if (excluded.isEmpty()) return scope;
+
+    return new ExcludingFilesScope(scope, excluded);
+  }
+
+  private static class ExcludingFilesScope extends DelegatingGlobalSearchScope {
+    private final Set<VirtualFile> myExcluded;
+
+    private ExcludingFilesScope(@NotNull GlobalSearchScope baseScope, @NotNull Set<VirtualFile> excluded) {
+      super(baseScope, excluded);
+      myExcluded = excluded;
+    }
+
+    @Override
+    public boolean contains(VirtualFile file) {
+      return !myExcluded.contains(file) && super.contains(file);
+    }
+  }
+}
@@ -4,6 +4,7 @@ import com.intellij.openapi.application.QueryExecutorBase;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.psi.*;
+import com.intellij.psi.search.GlobalSearchScope;
 import com.intellij.psi.search.SearchRequestCollector;
 import com.intellij.psi.search.SearchScope;
 import com.intellij.psi.search.UsageSearchContext;
@@ -11,6 +12,7 @@ import com.intellij.psi.search.searches.MethodReferencesSearch;
 import com.intellij.psi.search.searches.ReferencesSearch;
 import com.intellij.psi.util.PsiUtil;
 import com.intellij.util.Processor;
+import gnu.trove.TIntHashSet;
 import org.jetbrains.annotations.NotNull;
 
 /**
@@ -53,7 +55,7 @@ public class MethodUsagesSearcher extends QueryExecutorBase<PsiReference, Method
                                                              || method.hasModifierProperty(PsiModifier.FINAL)
                                                              || method.hasModifierProperty(PsiModifier.PRIVATE));
     if (needStrictSignatureSearch) {
-      ReferencesSearch.searchOptimized(method, searchScope, false, collector, consumer);
+      ReferencesSearch.searchOptimized(method, restrictByCallArity(searchScope, method), false, collector, consumer);
       return;
     }
 
@@ -69,7 +71,7 @@ public class MethodUsagesSearcher extends QueryExecutorBase<PsiReference, Method
       accessScope = accessScope.union(method1.getUseScope());
     }
 
-    final SearchScope restrictedByAccess = searchScope.intersectWith(accessScope);
+    final SearchScope restrictedByAccess = restrictByCallArity(searchScope.intersectWith(accessScope), methods);
 
     short searchContext = UsageSearchContext.IN_CODE | UsageSearchContext.IN_COMMENTS | UsageSearchContext.IN_FOREIGN_LANGUAGES;
     collector.searchWord(textToSearch, restrictedByAccess, searchContext, true,
@@ -79,4 +81,16 @@ public class MethodUsagesSearcher extends QueryExecutorBase<PsiReference, Method
 
   }
 
+  @NotNull
+  private static SearchScope restrictByCallArity(@NotNull SearchScope scope, @NotNull PsiMethod... methods) {
+    if (!(scope instanceof GlobalSearchScope)) return scope;
+
+    TIntHashSet arities = new TIntHashSet();
+    for (PsiMethod method : methods) {
+      if (method.isVarArgs()) return scope;
+      arities.add(method.getParameterList().getParametersCount());
+    }
+    return JavaMethodCallIndex.excludeFilesWithoutCalls((GlobalSearchScope)scope, methods[0].getName(), arities);
+  }
+
 }
@@ -0,0 +1,9 @@
+public class A {
+  public void foo() {
+  }
+
+  public int bar;
+
+  public void baz() {
+  }
+}
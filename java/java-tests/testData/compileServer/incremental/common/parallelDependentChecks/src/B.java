@@ -0,0 +1,5 @@
+public class B {
+  void f(A a) {
+    a.foo();
+  }
+}
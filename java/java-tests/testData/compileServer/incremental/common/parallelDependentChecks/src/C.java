@@ -0,0 +1,5 @@
+public class C {
+  long f(A a) {
+    return a.bar;
+  }
+}
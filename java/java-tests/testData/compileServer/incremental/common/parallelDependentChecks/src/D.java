@@ -0,0 +1,5 @@
+public class D {
+  void f(A a) {
+    a.baz();
+  }
+}
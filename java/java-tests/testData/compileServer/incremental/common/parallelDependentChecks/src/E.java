@@ -0,0 +1,6 @@
+public class E {
+  void f(A a) {
+    a.baz();
+    a.foo();
+  }
+}
@@ -0,0 +1,5 @@
+public class G {
+  A f() {
+    return new A();
+  }
+}
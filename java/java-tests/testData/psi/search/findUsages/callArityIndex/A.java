@@ -0,0 +1,4 @@
+public class A {
+  public static void foo(int i) { }
+  public static void foo(int i, int j) { }
+}
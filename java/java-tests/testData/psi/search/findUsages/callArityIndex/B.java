@@ -0,0 +1,5 @@
+class B {
+  void bar() {
+    A.foo(1);
+  }
+}
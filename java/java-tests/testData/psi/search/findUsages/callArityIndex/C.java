@@ -0,0 +1,5 @@
+class C {
+  void bar() {
+    A.foo(1, 2);
+  }
+}
@@ -0,0 +1,5 @@
+/**
+ * @see A#foo(int)
+ */
+class D {
+}
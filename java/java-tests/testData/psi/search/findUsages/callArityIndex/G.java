@@ -0,0 +1,5 @@
+class G {
+  void bar() {
+    A.foo(java.util.Collections.<String, Integer>emptyMap().size());
+  }
+}
@@ -0,0 +1,5 @@
+class H {
+  void bar() {
+    A.foo(Math.max(1, 2));
+  }
+}
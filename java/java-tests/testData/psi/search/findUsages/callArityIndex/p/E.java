@@ -0,0 +1,9 @@
+package p;
+
+import static p.F.foo;
+
+class E {
+  void bar() {
+    foo(1, 2);
+  }
+}
@@ -0,0 +1,11 @@
+package p;
+
+class F {
+  static void foo(int i, int j) { }
+
+  interface Two {
+    void call(int i, int j);
+  }
+
+  Two two = F::foo;
+}
@@ -26,7 +26,10 @@ import com.intellij.openapi.module.ModuleManager;
 import com.intellij.openapi.module.StdModuleTypes;
 import com.intellij.openapi.projectRoots.impl.JavaSdkImpl;
 import com.intellij.openapi.util.TextRange;
+import com.intellij.openapi.util.registry.Registry;
+import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.*;
+import com.intellij.psi.impl.search.JavaMethodCallIndex;
 import com.intellij.psi.search.searches.MethodReferencesSearch;
 import com.intellij.psi.search.searches.OverridingMethodsSearch;
 import com.intellij.psi.search.searches.ReferencesSearch;
@@ -38,8 +41,10 @@ import com.intellij.testFramework.fixtures.TempDirTestFixture;
 import com.intellij.usageView.UsageInfo;
 import com.intellij.util.Processor;
 import com.intellij.util.containers.IntArrayList;
+import gnu.trove.TIntHashSet;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -107,6 +112,49 @@ public class FindUsagesTest extends PsiTestCase{
     assertEquals(1, ReferencesSearch.search(usedMethod).findAll().size());
   }
 
+  public void testCallArityIndex() throws Throwable {
+    // without the index every java file may contain a call
+    assertEquals(Arrays.asList("A.java", "B.java", "C.java", "D.java", "E.java", "F.java", "G.java", "H.java"), getFilesWithPossibleCalls(1));
+
+    final boolean useIndex = Registry.is("find.usages.use.method.call.index");
+    Registry.get("find.usages.use.method.call.index").setValue(true);
+    try {
+      // C calls foo with two arguments only; B and H with one, the call in H has a comma in a nested call
+      // D mentions foo in javadoc, E imports it statically, F refers to it by a method reference,
+      // G calls it with type arguments in the argument list, so their arities are unknown
+      assertEquals(Arrays.asList("A.java", "B.java", "D.java", "E.java", "F.java", "G.java", "H.java"), getFilesWithPossibleCalls(1));
+      assertEquals(Arrays.asList("A.java", "C.java", "D.java", "E.java", "F.java", "G.java"), getFilesWithPossibleCalls(2));
+
+      PsiClass aClass = myJavaFacade.findClass("A", GlobalSearchScope.allScope(myProject));
+      PsiMethod oneArg = aClass.findMethodsByName("foo", false)[0];
+      assertEquals(1, oneArg.getParameterList().getParametersCount());
+      assertEquals(Arrays.asList("B.java", "D.java", "G.java", "H.java"), getReferencingFileNames(oneArg));
+    }
+    finally {
+      Registry.get("find.usages.use.method.call.index").setValue(useIndex);
+    }
+  }
+
+  private List<String> getFilesWithPossibleCalls(int arity) {
+    GlobalSearchScope projectScope = GlobalSearchScope.projectScope(myProject);
+    GlobalSearchScope scope = JavaMethodCallIndex.excludeFilesWithoutCalls(projectScope, "foo", new TIntHashSet(new int[]{arity}));
+    List<String> files = new ArrayList<String>();
+    for (VirtualFile file : FileTypeIndex.getFiles(StdFileTypes.JAVA, projectScope)) {
+      if (scope.contains(file)) files.add(file.getName());
+    }
+    Collections.sort(files);
+    return files;
+  }
+
+  private static List<String> getReferencingFileNames(PsiMethod method) {
+    List<String> files = new ArrayList<String>();
+    for (PsiReference reference : ReferencesSearch.search(method).findAll()) {
+      files.add(reference.getElement().getContainingFile().getName());
+    }
+    Collections.sort(files);
+    return files;
+  }
+
   private static void addReference(PsiReference ref, ArrayList<PsiFile> filesList, IntArrayList startsList, IntArrayList endsList) {
     PsiElement element = ref.getElement();
     filesList.add(element.getContainingFile());
@@ -1466,6 +1466,10 @@ public final class CmdlineRemoteProto {
         java.util.List<String> getDeletedPathsList();
         int getDeletedPathsCount();
         String getDeletedPaths(int index);
+        
+        // optional string sequence_id = 4;
+        boolean hasSequenceId();
+        String getSequenceId();
       }
       public static final class FSEvent extends
           com.google.protobuf.GeneratedMessageLite
@@ -1524,10 +1528,43 @@ public final class CmdlineRemoteProto {
           return deletedPaths_.get(index);
         }
         
+        // optional string sequence_id = 4;
+        public static final int SEQUENCE_ID_FIELD_NUMBER = 4;
+        private java.lang.Object sequenceId_;
+        public boolean hasSequenceId() {
+          return ((bitField0_ & 0x00000002) == 0x00000002);
+        }
+        public String getSequenceId() {
+          java.lang.Object ref = sequenceId_;
+          if (ref instanceof String) {
+            return (String) ref;
+          } else {
+            com.google.protobuf.ByteString bs = 
+                (com.google.protobuf.ByteString) ref;
+            String s = bs.toStringUtf8();
+            if (com.google.protobuf.Internal.isValidUtf8(bs)) {
+              sequenceId_ = s;
+            }
+            return s;
+          }
+        }
+        private com.google.protobuf.ByteString getSequenceIdBytes() {
+          java.lang.Object ref = sequenceId_;
+          if (ref instanceof String) {
+            com.google.protobuf.ByteString b = 
+                com.google.protobuf.ByteString.copyFromUtf8((String) ref);
+            sequenceId_ = b;
+            return b;
+          } else {
+            return (com.google.protobuf.ByteString) ref;
+          }
+        }
+        
         private void initFields() {
           ordinal_ = 0L;
           changedPaths_ = com.google.protobuf.LazyStringArrayList.EMPTY;
           deletedPaths_ = com.google.protobuf.LazyStringArrayList.EMPTY;
+          sequenceId_ = "";
         }
         private byte memoizedIsInitialized = -1;
         public final boolean isInitialized() {
@@ -1554,6 +1591,9 @@ public final class CmdlineRemoteProto {
           for (int i = 0; i < deletedPaths_.size(); i++) {
             output.writeBytes(3, deletedPaths_.getByteString(i));
           }
+          if (((bitField0_ & 0x00000002) == 0x00000002)) {
+            output.writeBytes(4, getSequenceIdBytes());
+          }
         }
         
         private int memoizedSerializedSize = -1;
@@ -1584,6 +1624,10 @@ public final class CmdlineRemoteProto {
             size += dataSize;
             size += 1 * getDeletedPathsList().size();
           }
+          if (((bitField0_ & 0x00000002) == 0x00000002)) {
+            size += com.google.protobuf.CodedOutputStream
+              .computeBytesSize(4, getSequenceIdBytes());
+          }
           memoizedSerializedSize = size;
           return size;
         }
@@ -1692,6 +1736,8 @@ public final class CmdlineRemoteProto {
             bitField0_ = (bitField0_ & ~0x00000002);
             deletedPaths_ = com.google.protobuf.LazyStringArrayList.EMPTY;
             bitField0_ = (bitField0_ & ~0x00000004);
+            sequenceId_ = "";
+            bitField0_ = (bitField0_ & ~0x00000008);
             return this;
           }
           
@@ -1741,6 +1787,10 @@ public final class CmdlineRemoteProto {
               bitField0_ = (bitField0_ & ~0x00000004);
             }
             result.deletedPaths_ = deletedPaths_;
+            if (((from_bitField0_ & 0x00000008) == 0x00000008)) {
+              to_bitField0_ |= 0x00000002;
+            }
+            result.sequenceId_ = sequenceId_;
             result.bitField0_ = to_bitField0_;
             return result;
           }
@@ -1770,6 +1820,9 @@ public final class CmdlineRemoteProto {
               }
               
             }
+            if (other.hasSequenceId()) {
+              setSequenceId(other.getSequenceId());
+            }
             return this;
           }
           
@@ -1813,6 +1866,11 @@ public final class CmdlineRemoteProto {
                   deletedPaths_.add(input.readBytes());
                   break;
                 }
+                case 34: {
+                  bitField0_ |= 0x00000008;
+                  sequenceId_ = input.readBytes();
+                  break;
+                }
               }
             }
           }
@@ -1952,6 +2010,42 @@ public final class CmdlineRemoteProto {
             
           }
           
+          // optional string sequence_id = 4;
+          private java.lang.Object sequenceId_ = "";
+          public boolean hasSequenceId() {
+            return ((bitField0_ & 0x00000008) == 0x00000008);
+          }
+          public String getSequenceId() {
+            java.lang.Object ref = sequenceId_;
+            if (!(ref instanceof String)) {
+              String s = ((com.google.protobuf.ByteString) ref).toStringUtf8();
+              sequenceId_ = s;
+              return s;
+            } else {
+              return (String) ref;
+            }
+          }
+          public Builder setSequenceId(String value) {
+            if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000008;
+            sequenceId_ = value;
+            
+            return this;
+          }
+          public Builder clearSequenceId() {
+            bitField0_ = (bitField0_ & ~0x00000008);
+            sequenceId_ = getDefaultInstance().getSequenceId();
+            
+            return this;
+          }
+          void setSequenceId(com.google.protobuf.ByteString value) {
+            bitField0_ |= 0x00000008;
+            sequenceId_ = value;
+            
+          }
+          
           // @@protoc_insertion_point(builder_scope:org.jetbrains.jpsservice.Message.ControllerMessage.FSEvent)
         }
         
@@ -21,8 +21,13 @@ package org.jetbrains.jps.api;
  */
 public interface GlobalOptions {
   String USE_MEMORY_TEMP_CACHE_OPTION = "use.memory.temp.cache";
+  String USE_CONTENT_HASHES_OPTION = "use.content.hashes";
   String USE_EXTERNAL_JAVAC_OPTION = "use.external.javac.process";
   String GENERATE_CLASSPATH_INDEX_OPTION = "generate.classpath.index";
   String COMPILE_PARALLEL_OPTION = "compile.parallel";
   String COMPILE_PARALLEL_MAX_THREADS_OPTION = "compile.parallel.max.threads";
+  String LOCAL_BUILD_CACHE_DIR_OPTION = "compile.local.build.cache.dir";
+  String USE_CLASSPATH_JAR_CACHE_OPTION = "compile.javac.cache.classpath.jars";
+  String USE_CONFIGURATION_FILE_CACHE_OPTION = "jps.model.cache.configuration.files";
+  String BUILD_PROFILING_REPORT_OPTION = "compile.profiling.report";
 }
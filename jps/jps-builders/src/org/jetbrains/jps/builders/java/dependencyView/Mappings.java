@@ -19,13 +19,16 @@ import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.util.Ref;
 import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.SmartList;
 import com.intellij.util.io.IntInlineKeyDescriptor;
 import gnu.trove.*;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.TestOnly;
 import org.jetbrains.asm4.ClassReader;
 import org.jetbrains.asm4.Opcodes;
 import org.jetbrains.jps.incremental.storage.FileKeyDescriptor;
+import org.jetbrains.jps.service.SharedThreadPool;
 
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -33,6 +36,7 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.lang.annotation.RetentionPolicy;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 
@@ -50,6 +54,9 @@ public class Mappings {
   private static final IntInlineKeyDescriptor INT_KEY_DESCRIPTOR = new IntInlineKeyDescriptor();
   private static final int DEFAULT_SET_CAPACITY = 32;
   private static final float DEFAULT_SET_LOAD_FACTOR = 0.98f;
+  private static final int DEFAULT_PARALLEL_CHECKS_THRESHOLD = 512;
+  private static volatile int ourParallelChecksThreshold = DEFAULT_PARALLEL_CHECKS_THRESHOLD;
+  private static volatile int ourParallelChecksShards = 0; // the number of processors by default
   private static final CollectionFactory<ClassRepr> ourClassSetConstructor = new CollectionFactory<ClassRepr>() {
     public Set<ClassRepr> create() {
       return new HashSet<ClassRepr>(DEFAULT_SET_CAPACITY, DEFAULT_SET_LOAD_FACTOR);
@@ -89,6 +96,16 @@ public class Mappings {
   @Nullable
   private Collection<String> myRemovedFiles;
 
+  /**
+   * Overrides the number of dependent classes per thread which makes their usages be matched in parallel, and the maximal number
+   * of threads. Zero values restore the defaults.
+   */
+  @TestOnly
+  public static void setParallelChecks(int threshold, int shards) {
+    ourParallelChecksThreshold = threshold > 0 ? threshold : DEFAULT_PARALLEL_CHECKS_THRESHOLD;
+    ourParallelChecksShards = shards;
+  }
+
   private Mappings(final Mappings base) throws IOException {
     myLock = base.myLock;
     myIsDelta = true;
@@ -807,6 +824,9 @@ public class Mappings {
 
     final boolean myEasyMode; // true means: no need to search for affected files, only preprocess data for integrate
 
+    // many changed classes share the dependents, and reading a dependent class means deserializing all classes of its source file
+    final Map<File, Collection<ClassRepr>> myDependentFilesClasses = new THashMap<File, Collection<ClassRepr>>(FileUtil.FILE_HASHING_STRATEGY);
+
     private class DelayedWorks {
       class Triple {
         final int owner;
@@ -1810,66 +1830,170 @@ public class Mappings {
       debug("End of added classes processing.");
     }
 
-    private void calculateAffectedFiles(final DiffState state) {
-      debug("Checking dependent classes:");
+    private class DependentCheck {
+      final DiffState myState;
+      final int myClass;
+      final File myFile;
+      final ClassRepr myRepr;
+
+      /**
+       * constraints of the affected usages found in the class before the first unconditionally affected usage, in the order of usages
+       */
+      @Nullable List<Util.UsageConstraint> myConstraints;
+      @Nullable String myUnconditionalReason;
+
+      private DependentCheck(DiffState state, int depClass, File depFile, ClassRepr repr) {
+        myState = state;
+        myClass = depClass;
+        myFile = depFile;
+        myRepr = repr;
+      }
+
+      /**
+       * Matches the usages of the class against the state. Only reads the deserialized class representation and the state,
+       * so the checks may run concurrently; the constraints, which need to access the mappings, are checked later in {@link #isAffected()}.
+       */
+      void matchUsages() {
+        for (UsageRepr.Usage usage : myRepr.getUsages()) {
+          if (usage instanceof UsageRepr.AnnotationUsage) {
+            for (final UsageRepr.AnnotationUsage query : myState.myAnnotationQuery) {
+              if (query.satisfies(usage)) {
+                myUnconditionalReason = "Added file due to annotation query";
+                return;
+              }
+            }
+          }
+          else if (myState.myAffectedUsages.contains(usage)) {
+            final Util.UsageConstraint constraint = myState.myUsageConstraints.get(usage);
 
-      state.myDependants.forEach(new TIntProcedure() {
-        @Override
-        public boolean execute(final int depClass) {
-          final File depFile = myClassToSourceFile.get(depClass);
+            if (constraint == null) {
+              myUnconditionalReason = "Added file with no constraints";
+              return;
+            }
+            if (myConstraints == null) {
+              myConstraints = new SmartList<Util.UsageConstraint>();
+            }
+            myConstraints.add(constraint);
+          }
+        }
+      }
 
-          if (depFile == null || myAffectedFiles.contains(depFile) || myCompiledFiles.contains(depFile)) {
-            return true;
+      boolean isAffected() {
+        if (myConstraints != null) {
+          for (Util.UsageConstraint constraint : myConstraints) {
+            if (constraint.checkResidence(myClass)) {
+              debug("Added file with satisfied constraint");
+              return true;
+            }
           }
+        }
+        if (myUnconditionalReason != null) {
+          debug(myUnconditionalReason);
+          return true;
+        }
+        return false;
+      }
+    }
+
+    @Nullable
+    private ClassRepr getDependentRepr(final File depFile, final int depClass) {
+      Collection<ClassRepr> classes = myDependentFilesClasses.get(depFile);
+      if (classes == null && !myDependentFilesClasses.containsKey(depFile)) {
+        classes = mySourceFileToClasses.get(depFile);
+        myDependentFilesClasses.put(depFile, classes);
+      }
+      if (classes != null) {
+        for (ClassRepr repr : classes) {
+          if (repr.name == depClass) {
+            return repr;
+          }
+        }
+      }
+      return null;
+    }
 
-          debug("Dependent class: ", depClass);
+    private void calculateAffectedFiles(final List<DiffState> states) {
+      debug("Checking dependent classes:");
 
-          final ClassRepr classRepr = getReprByName(depFile, depClass);
+      final List<DependentCheck> checks = new ArrayList<DependentCheck>();
+      for (final DiffState state : states) {
+        state.myDependants.forEach(new TIntProcedure() {
+          @Override
+          public boolean execute(final int depClass) {
+            final File depFile = myClassToSourceFile.get(depClass);
 
-          if (classRepr == null) {
-            return true;
-          }
+            if (depFile == null || myAffectedFiles.contains(depFile) || myCompiledFiles.contains(depFile)) {
+              return true;
+            }
 
-          final Set<UsageRepr.Usage> depUsages = classRepr.getUsages();
+            final ClassRepr classRepr = getDependentRepr(depFile, depClass);
 
-          if (depUsages == null || depUsages.isEmpty()) {
+            if (classRepr != null && !classRepr.getUsages().isEmpty()) {
+              checks.add(new DependentCheck(state, depClass, depFile, classRepr));
+            }
             return true;
           }
+        });
+      }
 
-          for (UsageRepr.Usage usage : depUsages) {
-            if (usage instanceof UsageRepr.AnnotationUsage) {
-              for (final UsageRepr.AnnotationUsage query : state.myAnnotationQuery) {
-                if (query.satisfies(usage)) {
-                  debug("Added file due to annotation query");
-                  myAffectedFiles.add(depFile);
-
-                  return true;
-                }
-              }
-            }
-            else if (state.myAffectedUsages.contains(usage)) {
-              final Util.UsageConstraint constraint = state.myUsageConstraints.get(usage);
+      matchUsages(checks);
 
-              if (constraint == null) {
-                debug("Added file with no constraints");
-                myAffectedFiles.add(depFile);
+      for (DependentCheck check : checks) {
+        if (myAffectedFiles.contains(check.myFile)) {
+          continue;
+        }
+        debug("Dependent class: ", check.myClass);
+        if (check.isAffected()) {
+          myAffectedFiles.add(check.myFile);
+        }
+      }
+    }
 
-                return true;
-              }
-              else {
-                if (constraint.checkResidence(depClass)) {
-                  debug("Added file with satisfied constraint");
-                  myAffectedFiles.add(depFile);
+    private void matchUsages(final List<DependentCheck> checks) {
+      final int maxShards = ourParallelChecksShards > 0 ? ourParallelChecksShards : Runtime.getRuntime().availableProcessors();
+      final int shardCount = Math.min(maxShards, checks.size() / ourParallelChecksThreshold);
+      if (shardCount <= 1) {
+        for (DependentCheck check : checks) {
+          check.matchUsages();
+        }
+        return;
+      }
 
-                  return true;
-                }
-              }
+      final List<Future<?>> futures = new ArrayList<Future<?>>(shardCount - 1);
+      final int shardSize = (checks.size() + shardCount - 1) / shardCount;
+      for (int from = shardSize; from < checks.size(); from += shardSize) {
+        final List<DependentCheck> shard = checks.subList(from, Math.min(from + shardSize, checks.size()));
+        futures.add(SharedThreadPool.getInstance().executeOnPooledThread(new Runnable() {
+          @Override
+          public void run() {
+            for (DependentCheck check : shard) {
+              check.matchUsages();
             }
           }
-
-          return true;
+        }));
+      }
+      for (DependentCheck check : checks.subList(0, shardSize)) {
+        check.matchUsages();
+      }
+      for (Future<?> future : futures) {
+        try {
+          future.get();
         }
-      });
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new RuntimeException(e);
+        }
+        catch (ExecutionException e) {
+          final Throwable cause = e.getCause();
+          if (cause instanceof RuntimeException) {
+            throw (RuntimeException)cause;
+          }
+          if (cause instanceof Error) {
+            throw (Error)cause;
+          }
+          throw new RuntimeException(cause);
+        }
+      }
     }
 
     boolean differentiate() {
@@ -1894,6 +2018,7 @@ public class Mappings {
           }
         });
 
+        final List<DiffState> states = new ArrayList<DiffState>(newClasses.size());
         for (final FileClasses compiledFile : newClasses) {
           final File fileName = compiledFile.myFileName;
           final Set<ClassRepr> classes = compiledFile.myFileClasses;
@@ -1911,10 +2036,14 @@ public class Mappings {
           processAddedClasses(state, fileName);
 
           if (!myEasyMode) {
-            calculateAffectedFiles(state);
+            states.add(state);
           }
         }
 
+        if (!myEasyMode) {
+          calculateAffectedFiles(states);
+        }
+
         debug("End of Differentiate.");
 
         if (myEasyMode) {
@@ -24,6 +24,7 @@ import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.util.concurrency.SequentialTaskExecutor;
 import com.intellij.util.io.DataOutputStream;
+import com.intellij.util.io.IOUtil;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.Channels;
 import org.jetbrains.annotations.Nullable;
@@ -67,6 +68,8 @@ final class BuildSession implements Runnable, CanceledStatus {
   // state
   private EventsProcessor myEventsProcessor = new EventsProcessor();
   private volatile long myLastEventOrdinal;
+  // IDE starts a new sequence of event ordinals every time it loses track of changes
+  private String myEventSequenceId = "";
   private volatile ProjectDescriptor myProjectDescriptor;
   private final Map<Pair<String, String>, ConstantSearchFuture> mySearchTasks = Collections.synchronizedMap(new HashMap<Pair<String, String>, ConstantSearchFuture>());
   private final ConstantSearch myConstantSearch = new ConstantSearch();
@@ -99,7 +102,7 @@ final class BuildSession implements Runnable, CanceledStatus {
       builderParams.put(pair.getKey(), pair.getValue());
     }
     myInitialFSDelta = delta;
-    JpsModelLoaderImpl loader = new JpsModelLoaderImpl(myProjectPath, globalOptionsPath, pathVars, null);
+    JpsModelLoaderImpl loader = new JpsModelLoaderImpl(myProjectPath, globalOptionsPath, pathVars, null, builderParams);
     myForceModelLoading = Boolean.parseBoolean(builderParams.get(BuildMain.FORCE_MODEL_LOADING_PARAMETER.toString()));
     myBuildRunner = new BuildRunner(loader, scopes, filePaths, builderParams);
   }
@@ -188,7 +191,7 @@ final class BuildSession implements Runnable, CanceledStatus {
       // optimization: check whether we can skip the build
       final boolean hasWorkToDoWithModules = fsStateStream.readBoolean();
       if (!myForceModelLoading && (myBuildType == BuildType.MAKE || myBuildType == BuildType.UP_TO_DATE_CHECK) && !hasWorkToDoWithModules && scopeContainsModulesOnly(myBuildRunner.getScopes()) && !containsChanges(myInitialFSDelta)) {
-        updateFsStateOnDisk(dataStorageRoot, fsStateStream, myInitialFSDelta.getOrdinal());
+        updateFsStateOnDisk(dataStorageRoot, fsStateStream, myInitialFSDelta.getOrdinal(), myInitialFSDelta.getSequenceId());
         return;
       }
     }
@@ -213,6 +216,7 @@ final class BuildSession implements Runnable, CanceledStatus {
         }
       }
       myLastEventOrdinal = myInitialFSDelta != null? myInitialFSDelta.getOrdinal() : 0L;
+      myEventSequenceId = myInitialFSDelta != null? myInitialFSDelta.getSequenceId() : "";
 
       // free memory
       myInitialFSDelta = null;
@@ -345,8 +349,7 @@ final class BuildSession implements Runnable, CanceledStatus {
             if (fileStamp == -1L) {
               fileStamp = FileSystemUtil.lastModified(file); // lazy init
             }
-            final long stamp = timestamps.getStamp(file, descriptor.getTarget());
-            if (stamp != fileStamp) {
+            if (timestamps.isModified(file, descriptor.getTarget(), fileStamp)) {
               if (!cacheCleared) {
                 pd.getFSCache().clear();
                 cacheCleared = true;
@@ -355,7 +358,7 @@ final class BuildSession implements Runnable, CanceledStatus {
             }
             else {
               if (LOG.isDebugEnabled()) {
-                LOG.debug(descriptor.getTarget() + ": Path considered up-to-date: " + changed + "; timestamp= " + stamp);
+                LOG.debug(descriptor.getTarget() + ": Path considered up-to-date: " + changed + "; timestamp= " + fileStamp);
               }
             }
           }
@@ -369,7 +372,7 @@ final class BuildSession implements Runnable, CanceledStatus {
     }
   }
 
-  private void updateFsStateOnDisk(File dataStorageRoot, DataInputStream original, final long ordinal) {
+  private void updateFsStateOnDisk(File dataStorageRoot, DataInputStream original, final long ordinal, String sequenceId) {
     final File file = new File(dataStorageRoot, FS_STATE_FILE);
     try {
       final BufferExposingByteArrayOutputStream bytes = new BufferExposingByteArrayOutputStream();
@@ -377,6 +380,7 @@ final class BuildSession implements Runnable, CanceledStatus {
       try {
         out.writeInt(FSState.VERSION);
         out.writeLong(ordinal);
+        IOUtil.writeString(sequenceId, out);
         out.writeBoolean(false);
         while (true) {
           final int b = original.read();
@@ -407,6 +411,7 @@ final class BuildSession implements Runnable, CanceledStatus {
       try {
         out.writeInt(FSState.VERSION);
         out.writeLong(myLastEventOrdinal);
+        IOUtil.writeString(myEventSequenceId, out);
         out.writeBoolean(hasWorkToDo(state, pd));
         state.save(out);
       }
@@ -476,7 +481,9 @@ final class BuildSession implements Runnable, CanceledStatus {
         return null;
       }
       final long savedOrdinal = in.readLong();
-      if (savedOrdinal + 1L != myInitialFSDelta.getOrdinal()) {
+      final String savedSequenceId = IOUtil.readString(in);
+      if (savedOrdinal + 1L != myInitialFSDelta.getOrdinal() || !savedSequenceId.equals(myInitialFSDelta.getSequenceId())) {
+        // some events were missed, e.g. the state was saved before the IDE was restarted
         return null;
       }
       return in;
@@ -142,6 +142,7 @@ public class ClasspathBootstrap {
     cp.add(getResourceFile(JpsModelImpl.class));  // jps-model-impl
     cp.add(getResourceFile(Message.class)); // protobuf
     cp.add(getResourceFile(Version.class)); // netty
+    cp.add(getResourceFile(ClassWriter.class));  // asm
 
     final Class<StandardJavaFileManager> optimizedFileManagerClass = getOptimizedFileManagerClass();
     if (optimizedFileManagerClass != null) {
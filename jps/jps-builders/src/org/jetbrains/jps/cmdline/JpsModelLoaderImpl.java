@@ -17,13 +17,18 @@ package org.jetbrains.jps.cmdline;
 
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.util.ParameterizedRunnable;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.jps.api.GlobalOptions;
+import org.jetbrains.jps.incremental.Utils;
 import org.jetbrains.jps.model.JpsElementFactory;
 import org.jetbrains.jps.model.JpsModel;
+import org.jetbrains.jps.model.serialization.JpsConfigurationFileCache;
 import org.jetbrains.jps.model.serialization.JpsGlobalLoader;
 import org.jetbrains.jps.model.serialization.JpsProjectLoader;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.Map;
 
 /**
@@ -31,17 +36,25 @@ import java.util.Map;
  */
 public class JpsModelLoaderImpl implements JpsModelLoader {
   private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.cmdline.JpsModelLoaderImpl");
+  private static final String CONFIGURATION_FILE_CACHE_NAME = "configuration-files.dat";
   private final String myProjectPath;
   private final String myGlobalOptionsPath;
   private final Map<String, String> myPathVars;
   private final ParameterizedRunnable<JpsModel> myModelInitializer;
+  private final boolean myUseConfigurationFileCache;
 
   public JpsModelLoaderImpl(String projectPath, String globalOptionsPath, Map<String, String> pathVars,
                             ParameterizedRunnable<JpsModel> initializer) {
+    this(projectPath, globalOptionsPath, pathVars, initializer, Collections.<String, String>emptyMap());
+  }
+
+  public JpsModelLoaderImpl(String projectPath, String globalOptionsPath, Map<String, String> pathVars,
+                            ParameterizedRunnable<JpsModel> initializer, Map<String, String> builderParams) {
     myProjectPath = projectPath;
     myGlobalOptionsPath = globalOptionsPath;
     myPathVars = pathVars;
     myModelInitializer = initializer;
+    myUseConfigurationFileCache = Utils.isBuildOptionEnabled(builderParams, GlobalOptions.USE_CONFIGURATION_FILE_CACHE_OPTION);
   }
 
   @Override
@@ -53,7 +66,12 @@ public class JpsModelLoaderImpl implements JpsModelLoader {
         if (myGlobalOptionsPath != null) {
           JpsGlobalLoader.loadGlobalSettings(model.getGlobal(), myPathVars, myGlobalOptionsPath);
         }
-        JpsProjectLoader.loadProject(model.getProject(), myPathVars, myProjectPath);
+        final JpsConfigurationFileCache fileCache = createConfigurationFileCache();
+        JpsProjectLoader.loadProject(model.getProject(), myPathVars, myProjectPath, fileCache);
+        if (fileCache != null) {
+          fileCache.save();
+          LOG.info(fileCache.getStatistics());
+        }
         if (myModelInitializer != null) {
           myModelInitializer.run(model);
         }
@@ -70,6 +88,15 @@ public class JpsModelLoaderImpl implements JpsModelLoader {
     }
   }
 
+  @Nullable
+  private JpsConfigurationFileCache createConfigurationFileCache() {
+    if (!myUseConfigurationFileCache) {
+      return null;
+    }
+    final File dataStorageRoot = Utils.getDataStorageRoot(myProjectPath);
+    return dataStorageRoot != null ? JpsConfigurationFileCache.load(new File(dataStorageRoot, CONFIGURATION_FILE_CACHE_NAME)) : null;
+  }
+
   private static boolean isDirectoryBased(File projectFile) {
     return !(projectFile.isFile() && projectFile.getName().endsWith(".ipr"));
   }
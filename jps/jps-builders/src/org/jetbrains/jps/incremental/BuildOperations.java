@@ -98,7 +98,13 @@ public class BuildOperations {
       };
       //noinspection unchecked
       BuildOutputConsumerImpl outputConsumer = new BuildOutputConsumerImpl(target, context);
-      ((TargetBuilder<R, T>)builder).build(target, holder, outputConsumer, context);
+      final long start = System.nanoTime();
+      try {
+        ((TargetBuilder<R, T>)builder).build(target, holder, outputConsumer, context);
+      }
+      finally {
+        BuildProfile.addTime(context, builder.getPresentableName(), Collections.singleton(target), System.nanoTime() - start);
+      }
       outputConsumer.fireFileGeneratedEvent();
       context.checkCanceled();
     }
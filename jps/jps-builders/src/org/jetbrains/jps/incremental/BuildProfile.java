@@ -0,0 +1,179 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.incremental;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.jps.api.GlobalOptions;
+import org.jetbrains.jps.builders.BuildTarget;
+import org.jetbrains.jps.incremental.messages.BuildMessage;
+import org.jetbrains.jps.incremental.messages.CompilerMessage;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Collects time spent by builders and by the phases of the build (javac, class post-processing, dependency analysis, storage flush)
+ * for every target. Enabled by {@link GlobalOptions#BUILD_PROFILING_REPORT_OPTION} build option; the collected data is saved
+ * in JSON format to the build data storage root and a short summary is reported to the IDE.
+ * <p/>
+ * Phases are measured inside the builders which run them, so time of a builder includes time of its phases.
+ */
+public class BuildProfile {
+  private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.incremental.BuildProfile");
+  public static final String FILE_NAME = "build-profile.json";
+  public static final String FS_STATE_INITIALIZATION = "FS state initialization";
+  public static final String JAVAC = "javac";
+  public static final String CLASS_POST_PROCESSING = "class post-processing";
+  public static final String DEPENDENCY_ANALYSIS = "dependency analysis";
+  public static final String STORAGE_FLUSH = "storage flush";
+  private static final String PROJECT = "<project>";
+  private static final int SUMMARY_SIZE = 5;
+  private static final GlobalContextKey<BuildProfile> KEY = GlobalContextKey.create("_build_profile_");
+  private final long myStartTime = System.nanoTime();
+  private final Map<String, Map<String, Counter>> myCounters = new HashMap<String, Map<String, Counter>>();
+
+  static void install(CompileContext context) {
+    KEY.set(context, new BuildProfile());
+  }
+
+  @Nullable
+  static BuildProfile getInstance(@Nullable CompileContext context) {
+    return context != null ? KEY.get(context) : null;
+  }
+
+  /**
+   * Registers time spent by {@code activity} (a builder or a phase of the build) when processing {@code targets}. Does nothing if
+   * profiling isn't enabled for the build.
+   *
+   * @param targets targets processed by the activity, or an empty collection if the activity isn't related to particular targets
+   */
+  public static void addTime(@Nullable CompileContext context, @NotNull String activity,
+                             @NotNull Collection<? extends BuildTarget<?>> targets, long nanos) {
+    final BuildProfile profile = getInstance(context);
+    if (profile != null) {
+      profile.add(activity, getTargetsName(targets), nanos);
+    }
+  }
+
+  private synchronized void add(String activity, String targetsName, long nanos) {
+    Map<String, Counter> counters = myCounters.get(activity);
+    if (counters == null) {
+      counters = new HashMap<String, Counter>();
+      myCounters.put(activity, counters);
+    }
+    Counter counter = counters.get(targetsName);
+    if (counter == null) {
+      counter = new Counter(targetsName);
+      counters.put(targetsName, counter);
+    }
+    counter.myNanos += nanos;
+    counter.myCount++;
+  }
+
+  private static String getTargetsName(Collection<? extends BuildTarget<?>> targets) {
+    if (targets.isEmpty()) {
+      return PROJECT;
+    }
+    final List<String> names = new ArrayList<String>(targets.size());
+    for (BuildTarget<?> target : targets) {
+      names.add(target.getPresentableName());
+    }
+    return StringUtil.join(names, ", ");
+  }
+
+  /**
+   * Saves the collected data to {@link #FILE_NAME} in the build data storage root and reports the activities which took most time.
+   */
+  synchronized void report(CompileContext context, File dataStorageRoot) {
+    final long totalTime = System.nanoTime() - myStartTime;
+    final List<Counter> activities = new ArrayList<Counter>();
+    for (Map.Entry<String, Map<String, Counter>> entry : myCounters.entrySet()) {
+      final Counter activity = new Counter(entry.getKey());
+      for (Counter counter : entry.getValue().values()) {
+        activity.myNanos += counter.myNanos;
+        activity.myCount += counter.myCount;
+      }
+      activities.add(activity);
+    }
+    Collections.sort(activities);
+
+    final File file = new File(dataStorageRoot, FILE_NAME);
+    try {
+      FileUtil.createParentDirs(file);
+      final Writer writer = new BufferedWriter(new FileWriter(file));
+      try {
+        writer.write("{\"totalTime\": " + toMillis(totalTime) + ", \"activities\": [");
+        for (int i = 0; i < activities.size(); i++) {
+          final Counter activity = activities.get(i);
+          writer.write((i > 0 ? "," : "") + "\n{" + toJson(activity) + ", \"targets\": [");
+          final List<Counter> targets = new ArrayList<Counter>(myCounters.get(activity.myName).values());
+          Collections.sort(targets);
+          for (int j = 0; j < targets.size(); j++) {
+            writer.write((j > 0 ? "," : "") + "\n  {" + toJson(targets.get(j)) + "}");
+          }
+          writer.write("\n]}");
+        }
+        writer.write("\n]}\n");
+      }
+      finally {
+        writer.close();
+      }
+    }
+    catch (IOException e) {
+      LOG.info("Cannot save build profile: " + e.getMessage(), e);
+    }
+
+    final StringBuilder summary = new StringBuilder("Build profile: total ").append(toSeconds(totalTime));
+    for (Counter activity : activities.subList(0, Math.min(SUMMARY_SIZE, activities.size()))) {
+      summary.append("; ").append(activity.myName).append(" ").append(toSeconds(activity.myNanos));
+    }
+    summary.append(". Details are saved to ").append(file.getPath());
+    LOG.info(summary.toString());
+    context.processMessage(new CompilerMessage("", BuildMessage.Kind.INFO, summary.toString()));
+  }
+
+  private static String toJson(Counter counter) {
+    return "\"name\": \"" + StringUtil.escapeStringCharacters(counter.myName) + "\", \"time\": " + toMillis(counter.myNanos) +
+           ", \"count\": " + counter.myCount;
+  }
+
+  private static long toMillis(long nanos) {
+    return nanos / 1000000;
+  }
+
+  private static String toSeconds(long nanos) {
+    return String.format(Locale.US, "%.1fs", nanos / 1e9);
+  }
+
+  private static class Counter implements Comparable<Counter> {
+    private final String myName;
+    private long myNanos;
+    private int myCount;
+
+    private Counter(String name) {
+      myName = name;
+    }
+
+    @Override
+    public int compareTo(Counter o) {
+      return myNanos > o.myNanos ? -1 : myNanos < o.myNanos ? 1 : myName.compareTo(o.myName);
+    }
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.incremental;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
+import gnu.trove.TObjectIntHashMap;
+import org.jetbrains.jps.builders.impl.BuildTargetChunk;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records when and on which thread the target chunks were built. The timeline is saved in the Trace Event Format
+ * (can be opened in chrome://tracing) to show how well the build was parallelized. Recorded only when the build profiling report
+ * is enabled.
+ */
+class BuildTimeline {
+  private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.incremental.BuildTimeline");
+  public static final String FILE_NAME = "build-timeline.json";
+  private final long myStartTime = System.currentTimeMillis();
+  private final List<ChunkEvent> myEvents = new ArrayList<ChunkEvent>();
+
+  public synchronized void chunkBuilt(BuildTargetChunk chunk, long startTime, long endTime, boolean doneSomething, long criticalPath) {
+    myEvents.add(new ChunkEvent(chunk.toString(), Thread.currentThread().getName(), startTime - myStartTime, endTime - startTime,
+                                doneSomething, criticalPath));
+  }
+
+  public synchronized void save(File dataStorageRoot) {
+    final File file = new File(dataStorageRoot, FILE_NAME);
+    try {
+      FileUtil.createParentDirs(file);
+      final Writer writer = new BufferedWriter(new FileWriter(file));
+      try {
+        writer.write("{\"traceEvents\": [");
+        final TObjectIntHashMap<String> threadIds = new TObjectIntHashMap<String>();
+        boolean first = true;
+        for (ChunkEvent event : myEvents) {
+          int tid = threadIds.get(event.myThreadName);
+          if (tid == 0) {
+            tid = threadIds.size() + 1;
+            threadIds.put(event.myThreadName, tid);
+            writer.write((first ? "" : ",") + "\n{\"name\": \"thread_name\", \"ph\": \"M\", \"pid\": 1, \"tid\": " + tid +
+                         ", \"args\": {\"name\": \"" + escape(event.myThreadName) + "\"}}");
+            first = false;
+          }
+          writer.write((first ? "" : ",") + "\n{\"name\": \"" + escape(event.myChunkName) + "\", \"ph\": \"X\", \"pid\": 1, \"tid\": " + tid +
+                       ", \"ts\": " + event.myStart * 1000 + ", \"dur\": " + event.myDuration * 1000 +
+                       ", \"args\": {\"compiled\": " + event.myDoneSomething + ", \"criticalPath\": " + event.myCriticalPath + "}}");
+          first = false;
+        }
+        writer.write("\n]}\n");
+      }
+      finally {
+        writer.close();
+      }
+    }
+    catch (IOException e) {
+      LOG.info("Cannot save build timeline: " + e.getMessage(), e);
+    }
+  }
+
+  private static String escape(String s) {
+    return StringUtil.escapeStringCharacters(s);
+  }
+
+  private static class ChunkEvent {
+    private final String myChunkName;
+    private final String myThreadName;
+    private final long myStart;
+    private final long myDuration;
+    private final boolean myDoneSomething;
+    private final long myCriticalPath;
+
+    private ChunkEvent(String chunkName, String threadName, long start, long duration, boolean doneSomething, long criticalPath) {
+      myChunkName = chunkName;
+      myThreadName = threadName;
+      myStart = start;
+      myDuration = duration;
+      myDoneSomething = doneSomething;
+      myCriticalPath = criticalPath;
+    }
+  }
+}
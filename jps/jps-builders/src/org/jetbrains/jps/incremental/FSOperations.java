@@ -174,7 +174,7 @@ public class FSOperations {
       if (rootIndex.isFileAccepted(file, rd) && (filter == null || filter.accept(file))) {
         boolean markDirty = forceDirty;
         if (!markDirty) {
-          markDirty = tsStorage.getStamp(file, rd.getTarget()) != FileSystemUtil.lastModified(file);
+          markDirty = tsStorage.isModified(file, rd.getTarget(), FileSystemUtil.lastModified(file));
         }
         if (markDirty) {
           // if it is full project rebuild, all storages are already completely cleared;
@@ -50,6 +50,7 @@ import org.jetbrains.jps.incremental.fs.BuildFSState;
 import org.jetbrains.jps.incremental.java.ExternalJavacDescriptor;
 import org.jetbrains.jps.incremental.messages.*;
 import org.jetbrains.jps.incremental.storage.OneToManyPathsMapping;
+import org.jetbrains.jps.incremental.storage.TargetBuildTimes;
 import org.jetbrains.jps.indices.ModuleExcludeIndex;
 import org.jetbrains.jps.model.java.JpsJavaExtensionService;
 import org.jetbrains.jps.model.java.compiler.JpsJavaCompilerConfiguration;
@@ -95,6 +96,7 @@ public class IncProjectBuilder {
   private final BuilderRegistry myBuilderRegistry;
   private final Map<String, String> myBuilderParams;
   private final CanceledStatus myCancelStatus;
+  private final boolean myProfilingEnabled;
   @Nullable private final Callbacks.ConstantAffectionResolver myConstantSearch;
   private final List<MessageHandler> myMessageHandlers = new ArrayList<MessageHandler>();
   private final MessageHandler myMessageDispatcher = new MessageHandler() {
@@ -109,6 +111,9 @@ public class IncProjectBuilder {
   private final float myTotalTargetsWork;
   private final int myTotalModuleLevelBuilderCount;
   private final List<Future> myAsyncTasks = Collections.synchronizedList(new ArrayList<Future>());
+  @Nullable private final LocalBuildCache myBuildCache;
+  private final TargetBuildTimes myTargetBuildTimes;
+  @Nullable private final BuildTimeline myTimeline;
 
   public IncProjectBuilder(ProjectDescriptor pd, BuilderRegistry builderRegistry, Map<String, String> builderParams, CanceledStatus cs,
                            @Nullable Callbacks.ConstantAffectionResolver constantSearch) {
@@ -116,9 +121,13 @@ public class IncProjectBuilder {
     myBuilderRegistry = builderRegistry;
     myBuilderParams = builderParams;
     myCancelStatus = cs;
+    myProfilingEnabled = Utils.isBuildOptionEnabled(builderParams, GlobalOptions.BUILD_PROFILING_REPORT_OPTION);
     myConstantSearch = constantSearch;
     myTotalTargetsWork = pd.getBuildTargetIndex().getAllTargets().size();
     myTotalModuleLevelBuilderCount = builderRegistry.getModuleLevelBuilderCount();
+    myBuildCache = LocalBuildCache.createIfEnabled(builderParams);
+    myTargetBuildTimes = new TargetBuildTimes(pd.dataManager.getDataPaths().getDataStorageRoot());
+    myTimeline = myProfilingEnabled ? new BuildTimeline() : null;
   }
 
   public void addMessageHandler(MessageHandler handler) {
@@ -207,7 +216,13 @@ public class IncProjectBuilder {
     }
     finally {
       memWatcher.stop();
+      final long flushStart = System.nanoTime();
       flushContext(context);
+      final BuildProfile profile = BuildProfile.getInstance(context);
+      if (profile != null) {
+        BuildProfile.addTime(context, BuildProfile.STORAGE_FLUSH, Collections.<BuildTarget<?>>emptyList(), System.nanoTime() - flushStart);
+        profile.report(context, myProjectDescriptor.dataManager.getDataPaths().getDataStorageRoot());
+      }
       // wait for the async tasks
       synchronized (myAsyncTasks) {
         for (Future task : myAsyncTasks) {
@@ -270,6 +285,16 @@ public class IncProjectBuilder {
       context.processMessage(new ProgressMessage("Checking sources"));
       buildChunks(context);
 
+      final int unchangedFiles = myProjectDescriptor.timestamps.getStorage().resetUnchangedContentCount();
+      if (unchangedFiles > 0) {
+        final String message = unchangedFiles + " file(s) with changed timestamps but unchanged content were not recompiled";
+        LOG.info(message);
+        context.processMessage(new ProgressMessage(message));
+      }
+      if (myBuildCache != null) {
+        myBuildCache.reportStatistics(context);
+      }
+
       context.processMessage(new ProgressMessage("Running 'after' tasks"));
       runTasks(context, myBuilderRegistry.getAfterTasks());
 
@@ -310,6 +335,9 @@ public class IncProjectBuilder {
     // in make mode it is critical to traverse file system as fast as possible, so we choose speed over memory savings
     myProjectDescriptor.setFSCache(isProjectRebuild? FSCache.NO_CACHE : new FSCache());
     JavaBuilderUtil.CONSTANT_SEARCH_SERVICE.set(context, myConstantSearch);
+    if (myProfilingEnabled) {
+      BuildProfile.install(context);
+    }
     return context;
   }
 
@@ -494,12 +522,14 @@ public class IncProjectBuilder {
 
         for (BuildTargetChunk chunk : targetIndex.getSortedTargetChunks(context)) {
           try {
-            buildChunkIfAffected(context, scope, chunk);
+            buildChunkIfAffected(context, scope, chunk, -1);
           }
           finally {
             context.updateCompilationStartStamp();
+            final long flushStart = System.nanoTime();
             pd.dataManager.closeSourceToOutputStorages(Collections.singleton(chunk));
             pd.dataManager.flush(true);
+            BuildProfile.addTime(context, BuildProfile.STORAGE_FLUSH, chunk.getTargets(), System.nanoTime() - flushStart);
           }
         }
       }
@@ -507,15 +537,27 @@ public class IncProjectBuilder {
     catch (IOException e) {
       throw new ProjectBuildException(e);
     }
+    finally {
+      if (myTimeline != null) {
+        myTimeline.save(myProjectDescriptor.dataManager.getDataPaths().getDataStorageRoot());
+      }
+      myTargetBuildTimes.save();
+    }
   }
 
   private static class BuildChunkTask {
     private final BuildTargetChunk myChunk;
+    private final int myIndex;
     private final Set<BuildChunkTask> myNotBuiltDependencies = new THashSet<BuildChunkTask>();
     private final List<BuildChunkTask> myTasksDependsOnThis = new ArrayList<BuildChunkTask>();
+    /**
+     * estimated time (ms) needed to build this chunk and the longest chain of chunks depending on it
+     */
+    private long myCriticalPath;
 
-    private BuildChunkTask(BuildTargetChunk chunk) {
+    private BuildChunkTask(BuildTargetChunk chunk, int index) {
       myChunk = chunk;
+      myIndex = index;
     }
 
     public BuildTargetChunk getChunk() {
@@ -555,6 +597,16 @@ public class IncProjectBuilder {
     private final Object myQueueLock = new Object();
     private final CountDownLatch myTasksCountDown;
     private final List<BuildChunkTask> myTasks;
+    // the tasks with the longest critical path are started first, the rest are taken in the topological order
+    private final PriorityQueue<BuildChunkTask> myReadyTasks = new PriorityQueue<BuildChunkTask>(11, new Comparator<BuildChunkTask>() {
+      @Override
+      public int compare(BuildChunkTask o1, BuildChunkTask o2) {
+        if (o1.myCriticalPath != o2.myCriticalPath) {
+          return o1.myCriticalPath > o2.myCriticalPath ? -1 : 1;
+        }
+        return o1.myIndex - o2.myIndex;
+      }
+    });
 
     private BuildParallelizer(CompileContext context) {
       myContext = context;
@@ -565,7 +617,7 @@ public class IncProjectBuilder {
       myTasks = new ArrayList<BuildChunkTask>(chunks.size());
       Map<BuildTarget<?>, BuildChunkTask> targetToTask = new THashMap<BuildTarget<?>, BuildChunkTask>();
       for (BuildTargetChunk chunk : chunks) {
-        BuildChunkTask task = new BuildChunkTask(chunk);
+        BuildChunkTask task = new BuildChunkTask(chunk, myTasks.size());
         myTasks.add(task);
         for (BuildTarget<?> target : chunk.getTargets()) {
           targetToTask.put(target, task);
@@ -583,9 +635,43 @@ public class IncProjectBuilder {
         }
       }
 
+      computeCriticalPaths();
       myTasksCountDown = new CountDownLatch(myTasks.size());
     }
 
+    private void computeCriticalPaths() {
+      long knownTimeSum = 0;
+      int knownTimeCount = 0;
+      for (BuildChunkTask task : myTasks) {
+        for (BuildTarget<?> target : task.getChunk().getTargets()) {
+          final long time = myTargetBuildTimes.getAverageTime(target);
+          if (time >= 0) {
+            knownTimeSum += time;
+            knownTimeCount++;
+          }
+        }
+      }
+      final long defaultTime = knownTimeCount > 0 ? Math.max(1, knownTimeSum / knownTimeCount) : 1;
+
+      // tasks are sorted topologically, so all tasks depending on a task are processed before it
+      final CompileScope scope = myContext.getScope();
+      for (int i = myTasks.size() - 1; i >= 0; i--) {
+        final BuildChunkTask task = myTasks.get(i);
+        long ownTime = 0;
+        if (isAffected(scope, task.getChunk())) {
+          for (BuildTarget<?> target : task.getChunk().getTargets()) {
+            final long time = myTargetBuildTimes.getAverageTime(target);
+            ownTime += time >= 0 ? time : defaultTime;
+          }
+        }
+        long dependentsPath = 0;
+        for (BuildChunkTask dependent : task.myTasksDependsOnThis) {
+          dependentsPath = Math.max(dependentsPath, dependent.myCriticalPath);
+        }
+        task.myCriticalPath = ownTime + dependentsPath;
+      }
+    }
+
     public void buildInParallel() throws IOException, ProjectBuildException {
       List<BuildChunkTask> initialTasks = new ArrayList<BuildChunkTask>();
       for (BuildChunkTask task : myTasks) {
@@ -634,21 +720,31 @@ public class IncProjectBuilder {
       }
     }
 
-    private void queueTask(final BuildChunkTask task) {
-      final CompileContext chunkLocalContext = createContextWrapper(myContext);
+    private void queueTask(final BuildChunkTask readyTask) {
+      synchronized (myQueueLock) {
+        myReadyTasks.add(readyTask);
+      }
+      // every queued runnable takes the most important of the ready tasks at the moment it is started by the executor
       myParallelBuildExecutor.execute(new Runnable() {
         @Override
         public void run() {
+          final BuildChunkTask task;
+          synchronized (myQueueLock) {
+            task = myReadyTasks.poll();
+          }
           try {
             try {
               if (myException.get() == null) {
-                buildChunkIfAffected(chunkLocalContext, myContext.getScope(), task.getChunk());
+                final CompileContext chunkLocalContext = createContextWrapper(myContext);
+                buildChunkIfAffected(chunkLocalContext, myContext.getScope(), task.getChunk(), task.myCriticalPath);
               }
             }
             finally {
               myContext.updateCompilationStartStamp();
+              final long flushStart = System.nanoTime();
               myProjectDescriptor.dataManager.closeSourceToOutputStorages(Collections.singletonList(task.getChunk()));
               myProjectDescriptor.dataManager.flush(true);
+              BuildProfile.addTime(myContext, BuildProfile.STORAGE_FLUSH, task.getChunk().getTargets(), System.nanoTime() - flushStart);
             }
           }
           catch (Throwable e) {
@@ -671,9 +767,27 @@ public class IncProjectBuilder {
     }
   }
 
-  private void buildChunkIfAffected(CompileContext context, CompileScope scope, BuildTargetChunk chunk) throws ProjectBuildException {
+  private void buildChunkIfAffected(CompileContext context, CompileScope scope, BuildTargetChunk chunk, long criticalPath)
+    throws ProjectBuildException {
     if (isAffected(scope, chunk)) {
-      buildTargetsChunk(context, chunk);
+      final long start = System.currentTimeMillis();
+      boolean doneSomething = false;
+      try {
+        doneSomething = buildTargetsChunk(context, chunk);
+      }
+      finally {
+        final long end = System.currentTimeMillis();
+        if (myTimeline != null) {
+          myTimeline.chunkBuilt(chunk, start, end, doneSomething, criticalPath);
+        }
+        if (doneSomething) {
+          // up-to-date checks are fast and would only spoil the estimation of time needed to compile the targets
+          final Set<? extends BuildTarget<?>> targets = chunk.getTargets();
+          for (BuildTarget<?> target : targets) {
+            myTargetBuildTimes.addBuildTime(target, (end - start) / targets.size());
+          }
+        }
+      }
     }
     else {
       updateDoneFraction(context, chunk.getTargets().size());
@@ -705,12 +819,33 @@ public class IncProjectBuilder {
         }
       }
 
-      return runModuleLevelBuilders(context, new ModuleChunk(moduleTargets));
+      final boolean doneSomething = runModuleLevelBuilders(context, new ModuleChunk(moduleTargets));
+      if (doneSomething) {
+        // circular dependencies are never cached
+        for (ModuleBuildTarget target : moduleTargets) {
+          LocalBuildCache.forgetTargetKey(context, target);
+        }
+      }
+      return doneSomething;
     }
 
     final BuildTarget<?> target = targets.iterator().next();
     if (target instanceof ModuleBuildTarget) {
-      return runModuleLevelBuilders(context, new ModuleChunk(Collections.singleton((ModuleBuildTarget)target)));
+      final ModuleBuildTarget moduleTarget = (ModuleBuildTarget)target;
+      final ModuleChunk moduleChunk = new ModuleChunk(Collections.singleton(moduleTarget));
+      final LocalBuildCache.CacheKey cacheKey = myBuildCache != null ? myBuildCache.computeKey(context, moduleTarget) : null;
+      if (cacheKey != null && myBuildCache.restore(context, moduleChunk, cacheKey)) {
+        updateDoneFraction(context, 1.0f);
+        return true;
+      }
+      final boolean doneSomething = runModuleLevelBuilders(context, moduleChunk);
+      if (myBuildCache != null) {
+        myBuildCache.targetBuilt(context, moduleTarget, cacheKey, doneSomething);
+      }
+      else if (doneSomething) {
+        LocalBuildCache.forgetTargetKey(context, moduleTarget);
+      }
+      return doneSomething;
     }
 
     final List<TargetBuilder<?, ?>> builders = BuilderRegistry.getInstance().getTargetBuilders();
@@ -727,13 +862,15 @@ public class IncProjectBuilder {
     context.setDone(processed / myTotalTargetsWork);
   }
 
-  private void buildTargetsChunk(CompileContext context, final BuildTargetChunk chunk) throws ProjectBuildException {
+  private boolean buildTargetsChunk(CompileContext context, final BuildTargetChunk chunk) throws ProjectBuildException {
     boolean doneSomething;
     try {
       Utils.ERRORS_DETECTED_KEY.set(context, Boolean.FALSE);
 
       for (BuildTarget<?> target : chunk.getTargets()) {
+        final long start = System.nanoTime();
         BuildOperations.ensureFSStateInitialized(context, target);
+        BuildProfile.addTime(context, BuildProfile.FS_STATE_INITIALIZATION, Collections.singleton(target), System.nanoTime() - start);
       }
 
       doneSomething = processDeletedPaths(context, chunk.getTargets());
@@ -752,6 +889,7 @@ public class IncProjectBuilder {
       //    }
       //  }));
       //}
+      return doneSomething;
     }
     catch (ProjectBuildException e) {
       throw e;
@@ -963,7 +1101,14 @@ public class IncProjectBuilder {
 
           for (ModuleLevelBuilder builder : builders) {
             processDeletedPaths(context, chunk.getTargets());
-            final ModuleLevelBuilder.ExitCode buildResult = builder.build(context, chunk, dirtyFilesHolder, outputConsumer);
+            final long start = System.nanoTime();
+            final ModuleLevelBuilder.ExitCode buildResult;
+            try {
+              buildResult = builder.build(context, chunk, dirtyFilesHolder, outputConsumer);
+            }
+            finally {
+              BuildProfile.addTime(context, builder.getPresentableName(), chunk.getTargets(), System.nanoTime() - start);
+            }
 
             doneSomething |= (buildResult != ModuleLevelBuilder.ExitCode.NOTHING_DONE);
 
@@ -0,0 +1,521 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.incremental;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.Ref;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
+import gnu.trove.THashSet;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.asm4.ClassReader;
+import org.jetbrains.jps.ModuleChunk;
+import org.jetbrains.jps.ProjectPaths;
+import org.jetbrains.jps.api.GlobalOptions;
+import org.jetbrains.jps.builders.BuildRootDescriptor;
+import org.jetbrains.jps.builders.BuildRootIndex;
+import org.jetbrains.jps.builders.BuildTarget;
+import org.jetbrains.jps.builders.DirtyFilesHolder;
+import org.jetbrains.jps.builders.FileProcessor;
+import org.jetbrains.jps.builders.impl.BuildOutputConsumerImpl;
+import org.jetbrains.jps.builders.impl.DirtyFilesHolderBase;
+import org.jetbrains.jps.builders.java.JavaBuilderUtil;
+import org.jetbrains.jps.builders.java.JavaSourceRootDescriptor;
+import org.jetbrains.jps.builders.java.dependencyView.Callbacks;
+import org.jetbrains.jps.builders.java.dependencyView.Mappings;
+import org.jetbrains.jps.builders.storage.SourceToOutputMapping;
+import org.jetbrains.jps.cmdline.ProjectDescriptor;
+import org.jetbrains.jps.incremental.messages.ProgressMessage;
+import org.jetbrains.jps.model.java.JpsJavaExtensionService;
+import org.jetbrains.jps.model.java.LanguageLevel;
+import org.jetbrains.jps.model.java.compiler.JpsCompilerExcludes;
+import org.jetbrains.jps.model.java.compiler.JpsJavaCompilerConfiguration;
+import org.jetbrains.jps.model.java.compiler.JpsJavaCompilerOptions;
+import org.jetbrains.jps.model.module.JpsModule;
+
+import java.io.*;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Content-addressed cache of compilation results of {@link ModuleBuildTarget}s, enabled by {@link GlobalOptions#LOCAL_BUILD_CACHE_DIR_OPTION}.
+ * <p/>
+ * A target is keyed by the contents of its sources, the compiler settings and the keys of the module targets it depends on
+ * (so the key of a target changes whenever anything it is compiled against changes). An entry holds the target's output files
+ * and its source-to-output mapping. When a dirty target's key is found in the cache, the outputs are copied back instead of running
+ * the module-level builders, and dependency information is rebuilt from the restored class files, so that dependent targets
+ * are marked for recompilation exactly as if the target had been compiled.
+ * <p/>
+ * The key of the last successful build of every target is kept in the target's data directory; it is dropped whenever the target
+ * is built in a way the cache can't account for.
+ */
+public class LocalBuildCache {
+  private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.incremental.LocalBuildCache");
+  private static final int VERSION = 1;
+  private static final String TARGET_KEY_FILE_NAME = "build-cache-key";
+  private static final String MAPPING_FILE_NAME = "mapping.dat";
+  private static final String OUTPUTS_DIR_NAME = "out";
+
+  private final File myCacheRoot;
+  private final AtomicInteger myHits = new AtomicInteger();
+  private final AtomicInteger myMisses = new AtomicInteger();
+  private final AtomicInteger myStored = new AtomicInteger();
+
+  private LocalBuildCache(@NotNull File cacheRoot) {
+    myCacheRoot = cacheRoot;
+  }
+
+  @Nullable
+  public static LocalBuildCache createIfEnabled(Map<String, String> builderParams) {
+    final String path = Utils.getBuildOption(builderParams, GlobalOptions.LOCAL_BUILD_CACHE_DIR_OPTION);
+    return StringUtil.isEmptyOrSpaces(path) ? null : new LocalBuildCache(new File(path));
+  }
+
+  /**
+   * @return the key to look the target up by, or null if the target has nothing to compile or can't be cached
+   */
+  @Nullable
+  public CacheKey computeKey(final CompileContext context, final ModuleBuildTarget target) throws IOException {
+    if (!hasFilesToRecompile(context, target) || !isCacheable(context, target)) {
+      return null;
+    }
+
+    final ProjectDescriptor pd = context.getProjectDescriptor();
+    final MessageDigest digest = createDigest();
+    final DataOutputStream out = new DataOutputStream(new DigestOutputStream(new NullOutputStream(), digest));
+
+    out.writeInt(VERSION);
+    out.writeUTF(target.getTargetType().getTypeId());
+    writeCompilerSettings(out, target.getModule());
+
+    final List<String> dependencyKeys = new ArrayList<String>();
+    for (BuildTarget<?> dependency : pd.getBuildTargetIndex().getDependencies(target, context)) {
+      if (dependency instanceof ResourcesTarget) {
+        continue; // resources are copied from the same source roots and don't affect compilation
+      }
+      final String key = dependency instanceof ModuleBuildTarget ? loadTargetKey(context, dependency) : null;
+      if (key == null) {
+        return null;
+      }
+      dependencyKeys.add(key);
+    }
+    Collections.sort(dependencyKeys);
+    out.writeInt(dependencyKeys.size());
+    for (String key : dependencyKeys) {
+      out.writeUTF(key);
+    }
+    writeLibraries(out, context, target);
+
+    final List<JavaSourceRootDescriptor> roots = new ArrayList<JavaSourceRootDescriptor>();
+    final Map<File, Integer> sources = new LinkedHashMap<File, Integer>();
+    final BuildRootIndex rootIndex = pd.getBuildRootIndex();
+    final JpsCompilerExcludes excludes =
+      JpsJavaExtensionService.getInstance().getOrCreateCompilerConfiguration(pd.getProject()).getCompilerExcludes();
+    for (JavaSourceRootDescriptor rd : rootIndex.getTargetRoots(target, context)) {
+      if (rd.isTemp) {
+        continue;
+      }
+      final List<File> files = new ArrayList<File>();
+      collectFiles(rootIndex, rd, rd.getRootFile(), files);
+      final List<String> relativePaths = new ArrayList<String>(files.size());
+      final Map<String, File> relativeToFile = new HashMap<String, File>();
+      for (File file : files) {
+        final String relativePath = FileUtil.getRelativePath(rd.getRootFile(), file);
+        if (relativePath != null) {
+          final String path = FileUtil.toSystemIndependentName(relativePath);
+          relativePaths.add(path);
+          relativeToFile.put(path, file);
+        }
+      }
+      Collections.sort(relativePaths);
+
+      out.writeUTF(rd.getPackagePrefix());
+      out.writeInt(relativePaths.size());
+      for (String path : relativePaths) {
+        final File file = relativeToFile.get(path);
+        final byte[] content = FileUtil.loadFileBytes(file);
+        out.writeUTF(path);
+        out.writeBoolean(excludes.isExcluded(file));
+        out.writeInt(content.length);
+        out.write(content);
+        sources.put(file, roots.size());
+      }
+      roots.add(rd);
+    }
+    out.close();
+
+    return new CacheKey(toHexString(digest.digest()), roots, sources);
+  }
+
+  /**
+   * Replaces the outputs of the target with the ones from the cache entry for the key.
+   * @return true if the target was restored and module-level builders need not run for it
+   */
+  public boolean restore(final CompileContext context, final ModuleChunk chunk, @NotNull CacheKey key) throws IOException {
+    final ModuleBuildTarget target = chunk.representativeTarget();
+    final File entry = new File(myCacheRoot, key.myHash);
+    final File outputDir = target.getOutputDir();
+    final Map<File, List<String>> sourceToOutputs;
+    try {
+      sourceToOutputs = loadMapping(new File(entry, MAPPING_FILE_NAME), key);
+    }
+    catch (FileNotFoundException e) {
+      myMisses.incrementAndGet();
+      return false;
+    }
+    catch (IOException e) {
+      LOG.info("Cannot read local build cache entry " + entry.getPath(), e);
+      myMisses.incrementAndGet();
+      return false;
+    }
+    if (outputDir == null) {
+      myMisses.incrementAndGet();
+      return false;
+    }
+
+    context.processMessage(new ProgressMessage("Restoring compiled classes from local build cache... [" + chunk.getName() + "]"));
+    final ProjectDescriptor pd = context.getProjectDescriptor();
+    IncProjectBuilder.clearOutputFiles(context, target);
+    final SourceToOutputMapping mapping = pd.dataManager.getSourceToOutputMap(target);
+    for (String source : new ArrayList<String>(mapping.getSources())) {
+      mapping.remove(source);
+    }
+
+    final Mappings delta = pd.dataManager.getMappings().createDelta();
+    final Callbacks.Backend callback = delta.getCallback();
+    final BuildOutputConsumerImpl outputConsumer = new BuildOutputConsumerImpl(target, context);
+    final File cachedOutputs = new File(entry, OUTPUTS_DIR_NAME);
+    try {
+      for (Map.Entry<File, List<String>> sourceEntry : sourceToOutputs.entrySet()) {
+        final String sourcePath = sourceEntry.getKey().getPath();
+        for (String relativePath : sourceEntry.getValue()) {
+          final byte[] content = FileUtil.loadFileBytes(new File(cachedOutputs, relativePath));
+          final File output = new File(outputDir, relativePath);
+          FileUtil.writeToFile(output, content);
+          outputConsumer.registerOutputFile(output, Collections.singleton(sourcePath));
+          if (relativePath.endsWith(".class")) {
+            callback.associate(FileUtil.toSystemIndependentName(output.getPath()), FileUtil.toSystemIndependentName(sourcePath),
+                               new ClassReader(content));
+          }
+        }
+      }
+    }
+    catch (IOException e) {
+      // the outputs are already cleared, so the target must be compiled from scratch
+      LOG.info("Cannot restore " + target.getPresentableName() + " from local build cache entry " + entry.getPath(), e);
+      FSOperations.markDirty(context, chunk, null);
+      myMisses.incrementAndGet();
+      return false;
+    }
+    finally {
+      outputConsumer.fireFileGeneratedEvent();
+    }
+
+    final DirtyFilesHolder<JavaSourceRootDescriptor, ModuleBuildTarget> dirtyFilesHolder =
+      new DirtyFilesHolderBase<JavaSourceRootDescriptor, ModuleBuildTarget>(context) {
+        @Override
+        public void processDirtyFiles(@NotNull FileProcessor<JavaSourceRootDescriptor, ModuleBuildTarget> processor) throws IOException {
+          FSOperations.processFilesToRecompile(context, chunk, processor);
+        }
+      };
+    final Set<File> sources = key.mySources.keySet();
+    try {
+      JavaBuilderUtil.updateMappings(context, delta, dirtyFilesHolder, chunk, sources, sources);
+    }
+    finally {
+      JavaBuilderUtil.cleanupChunkResources(context);
+    }
+
+    saveTargetKey(context, target, key.myHash);
+    myHits.incrementAndGet();
+    return true;
+  }
+
+  /**
+   * Should be called after the module-level builders have processed the target.
+   * @param key the key computed before the build, or null if the target wasn't looked up in the cache
+   */
+  public void targetBuilt(CompileContext context, ModuleBuildTarget target, @Nullable CacheKey key, boolean doneSomething) {
+    if (key == null) {
+      if (doneSomething) {
+        forgetTargetKey(context, target);
+      }
+      return;
+    }
+    if (Utils.errorsDetected(context) || context.getCancelStatus().isCanceled()) {
+      forgetTargetKey(context, target);
+      return;
+    }
+    try {
+      store(context, target, key);
+      saveTargetKey(context, target, key.myHash);
+    }
+    catch (IOException e) {
+      LOG.info("Cannot store " + target.getPresentableName() + " in local build cache", e);
+      forgetTargetKey(context, target);
+    }
+  }
+
+  /**
+   * Drops the recorded key of a target built while the cache was disabled, so that dependent targets are not restored from
+   * entries compiled against an older state of it.
+   */
+  public static void forgetTargetKey(CompileContext context, BuildTarget<?> target) {
+    FileUtil.delete(getTargetKeyFile(context, target));
+  }
+
+  public void reportStatistics(CompileContext context) {
+    final int hits = myHits.get();
+    final int misses = myMisses.get();
+    if (hits == 0 && misses == 0) {
+      return;
+    }
+    final String message = "Local build cache: " + hits + " target(s) restored, " + misses + " missed, " + myStored.get() + " stored";
+    LOG.info(message);
+    context.processMessage(new ProgressMessage(message));
+  }
+
+  private void store(CompileContext context, ModuleBuildTarget target, CacheKey key) throws IOException {
+    final File entry = new File(myCacheRoot, key.myHash);
+    final File outputDir = target.getOutputDir();
+    if (entry.exists() || outputDir == null) {
+      return;
+    }
+
+    final SourceToOutputMapping mapping = context.getProjectDescriptor().dataManager.getSourceToOutputMap(target);
+    final Map<File, List<String>> sourceToOutputs = new LinkedHashMap<File, List<String>>();
+    for (File source : key.mySources.keySet()) {
+      final Collection<String> outputs = mapping.getOutputs(source.getPath());
+      if (outputs == null || outputs.isEmpty()) {
+        continue;
+      }
+      final List<String> relativePaths = new ArrayList<String>(outputs.size());
+      for (String output : outputs) {
+        final String relativePath = FileUtil.getRelativePath(FileUtil.toSystemIndependentName(outputDir.getPath()),
+                                                             FileUtil.toSystemIndependentName(output), '/');
+        if (relativePath == null || relativePath.startsWith("../")) {
+          return; // produced something outside of the output directory, can't be restored
+        }
+        relativePaths.add(relativePath);
+      }
+      sourceToOutputs.put(source, relativePaths);
+    }
+
+    FileUtil.createDirectory(myCacheRoot);
+    final File tempEntry = FileUtil.createTempDirectory(myCacheRoot, key.myHash, ".tmp");
+    try {
+      final File cachedOutputs = new File(tempEntry, OUTPUTS_DIR_NAME);
+      final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(tempEntry, MAPPING_FILE_NAME))));
+      try {
+        out.writeInt(VERSION);
+        out.writeInt(sourceToOutputs.size());
+        for (Map.Entry<File, List<String>> sourceEntry : sourceToOutputs.entrySet()) {
+          final File source = sourceEntry.getKey();
+          final int rootIndex = key.mySources.get(source);
+          out.writeInt(rootIndex);
+          out.writeUTF(FileUtil.toSystemIndependentName(FileUtil.getRelativePath(key.myRoots.get(rootIndex).getRootFile(), source)));
+          out.writeInt(sourceEntry.getValue().size());
+          for (String relativePath : sourceEntry.getValue()) {
+            out.writeUTF(relativePath);
+            FileUtil.copy(new File(outputDir, relativePath), new File(cachedOutputs, relativePath));
+          }
+        }
+      }
+      finally {
+        out.close();
+      }
+      // another build process may have stored the same entry meanwhile, the contents are the same then
+      if (tempEntry.renameTo(entry)) {
+        myStored.incrementAndGet();
+      }
+    }
+    finally {
+      if (tempEntry.exists()) {
+        FileUtil.delete(tempEntry);
+      }
+    }
+  }
+
+  private static Map<File, List<String>> loadMapping(File mappingFile, CacheKey key) throws IOException {
+    final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mappingFile)));
+    try {
+      if (in.readInt() != VERSION) {
+        throw new IOException("Unsupported entry version");
+      }
+      final int sourceCount = in.readInt();
+      final Map<File, List<String>> result = new LinkedHashMap<File, List<String>>();
+      for (int i = 0; i < sourceCount; i++) {
+        final int rootIndex = in.readInt();
+        if (rootIndex < 0 || rootIndex >= key.myRoots.size()) {
+          throw new IOException("Invalid root index " + rootIndex);
+        }
+        final File source = new File(key.myRoots.get(rootIndex).getRootFile(), FileUtil.toSystemDependentName(in.readUTF()));
+        final int outputCount = in.readInt();
+        final List<String> outputs = new ArrayList<String>(outputCount);
+        for (int j = 0; j < outputCount; j++) {
+          outputs.add(in.readUTF());
+        }
+        result.put(source, outputs);
+      }
+      return result;
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  private static boolean hasFilesToRecompile(CompileContext context, ModuleBuildTarget target) throws IOException {
+    final Ref<Boolean> found = new Ref<Boolean>(Boolean.FALSE);
+    FSOperations.processFilesToRecompile(context, target, new FileProcessor<JavaSourceRootDescriptor, ModuleBuildTarget>() {
+      @Override
+      public boolean apply(ModuleBuildTarget target, File file, JavaSourceRootDescriptor root) throws IOException {
+        found.set(Boolean.TRUE);
+        return false;
+      }
+    });
+    return found.get();
+  }
+
+  private static boolean isCacheable(CompileContext context, ModuleBuildTarget target) {
+    final JpsModule module = target.getModule();
+    final JpsJavaCompilerConfiguration config =
+      JpsJavaExtensionService.getInstance().getOrCreateCompilerConfiguration(context.getProjectDescriptor().getProject());
+    // generated sources are not part of the key
+    return target.getOutputDir() != null && !config.getAnnotationProcessingProfile(module).isEnabled();
+  }
+
+  private static void writeCompilerSettings(DataOutputStream out, JpsModule module) throws IOException {
+    final JpsJavaCompilerConfiguration config = JpsJavaExtensionService.getInstance().getOrCreateCompilerConfiguration(module.getProject());
+    final JpsJavaCompilerOptions options = config.getCurrentCompilerOptions();
+    final LanguageLevel level = JpsJavaExtensionService.getInstance().getLanguageLevel(module);
+    out.writeUTF(System.getProperty("java.version", ""));
+    out.writeUTF(StringUtil.notNullize(config.getJavaCompilerId()));
+    out.writeBoolean(options.DEBUGGING_INFO);
+    out.writeBoolean(options.GENERATE_NO_WARNINGS);
+    out.writeBoolean(options.DEPRECATION);
+    out.writeUTF(StringUtil.notNullize(options.ADDITIONAL_OPTIONS_STRING));
+    out.writeBoolean(config.isAddNotNullAssertions());
+    out.writeUTF(level != null ? level.name() : "");
+    out.writeUTF(StringUtil.notNullize(config.getByteCodeTargetLevel(module.getName())));
+  }
+
+  private static void writeLibraries(DataOutputStream out, CompileContext context, ModuleBuildTarget target) throws IOException {
+    // outputs of module targets are represented by the keys of the targets
+    final Set<File> moduleOutputs = new THashSet<File>(FileUtil.FILE_HASHING_STRATEGY);
+    for (BuildTarget<?> each : context.getProjectDescriptor().getBuildTargetIndex().getAllTargets()) {
+      if (each instanceof ModuleBuildTarget) {
+        final File outputDir = ((ModuleBuildTarget)each).getOutputDir();
+        if (outputDir != null) {
+          moduleOutputs.add(outputDir);
+        }
+      }
+    }
+    final ModuleChunk chunk = new ModuleChunk(Collections.singleton(target));
+    final List<File> classpath = new ArrayList<File>(ProjectPaths.getPlatformCompilationClasspath(chunk, false));
+    classpath.addAll(ProjectPaths.getCompilationClasspath(chunk, false));
+    for (File file : classpath) {
+      if (moduleOutputs.contains(file)) {
+        continue;
+      }
+      out.writeUTF(FileUtil.toSystemIndependentName(file.getPath()));
+      out.writeLong(file.length());
+      out.writeLong(file.lastModified());
+    }
+  }
+
+  private static void collectFiles(BuildRootIndex rootIndex, BuildRootDescriptor rd, File file, List<File> result) {
+    final File[] children = file.listFiles();
+    if (children != null) {
+      if (rootIndex.isDirectoryAccepted(file, rd)) {
+        for (File child : children) {
+          collectFiles(rootIndex, rd, child, result);
+        }
+      }
+    }
+    else if (rootIndex.isFileAccepted(file, rd)) {
+      result.add(file);
+    }
+  }
+
+  @Nullable
+  private static String loadTargetKey(CompileContext context, BuildTarget<?> target) {
+    final File keyFile = getTargetKeyFile(context, target);
+    try {
+      return keyFile.exists() ? FileUtil.loadFile(keyFile) : null;
+    }
+    catch (IOException e) {
+      LOG.info(e);
+      return null;
+    }
+  }
+
+  private static void saveTargetKey(CompileContext context, BuildTarget<?> target, String key) {
+    try {
+      FileUtil.writeToFile(getTargetKeyFile(context, target), key);
+    }
+    catch (IOException e) {
+      LOG.info(e);
+      forgetTargetKey(context, target);
+    }
+  }
+
+  private static File getTargetKeyFile(CompileContext context, BuildTarget<?> target) {
+    return new File(context.getProjectDescriptor().dataManager.getDataPaths().getTargetDataRoot(target), TARGET_KEY_FILE_NAME);
+  }
+
+  private static MessageDigest createDigest() throws IOException {
+    try {
+      return MessageDigest.getInstance("SHA-1");
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private static String toHexString(byte[] bytes) {
+    final StringBuilder builder = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return builder.toString();
+  }
+
+  public static final class CacheKey {
+    private final String myHash;
+    private final List<JavaSourceRootDescriptor> myRoots;
+    private final Map<File, Integer> mySources;
+
+    private CacheKey(String hash, List<JavaSourceRootDescriptor> roots, Map<File, Integer> sources) {
+      myHash = hash;
+      myRoots = roots;
+      mySources = sources;
+    }
+  }
+
+  private static class NullOutputStream extends OutputStream {
+    @Override
+    public void write(int b) {
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+    }
+  }
+}
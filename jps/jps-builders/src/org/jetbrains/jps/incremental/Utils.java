@@ -127,6 +127,25 @@ public class Utils {
     return new HashSet<JpsModule>(set2).removeAll(set1);
   }
 
+  /**
+   * @return value of the build option passed in builder parameters, or the value of the system property with the same name if the build
+   * wasn't given the option
+   */
+  @Nullable
+  public static String getBuildOption(Map<String, String> builderParams, String name) {
+    final String value = builderParams.get(name);
+    return value != null ? value : System.getProperty(name);
+  }
+
+  public static boolean isBuildOptionEnabled(Map<String, String> builderParams, String name) {
+    return Boolean.parseBoolean(getBuildOption(builderParams, name));
+  }
+
+  public static boolean isBuildOptionEnabled(CompileContext context, String name) {
+    final String value = context.getBuilderParameter(name);
+    return Boolean.parseBoolean(value != null ? value : System.getProperty(name));
+  }
+
   public static boolean errorsDetected(CompileContext context) {
     return ERRORS_DETECTED_KEY.get(context, Boolean.FALSE);
   }
@@ -20,6 +20,7 @@ import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.util.containers.MultiMap;
+import gnu.trove.THashMap;
 import gnu.trove.THashSet;
 import gnu.trove.TIntObjectHashMap;
 import org.jetbrains.annotations.NotNull;
@@ -76,6 +77,7 @@ public class IncArtifactBuilder extends TargetBuilder<ArtifactRootDescriptor, Ar
     }
 
 
+    Map<String, File> previousJars = Collections.emptyMap();
     try {
       final Collection<String> deletedFiles = holder.getRemovedFiles(target);
 
@@ -129,6 +131,7 @@ public class IncArtifactBuilder extends TargetBuilder<ArtifactRootDescriptor, Ar
         }
       });
 
+      previousJars = movePreviousJarsAside(target, filesToDelete.keySet(), context);
       BuildOperations.cleanOutputsCorrespondingToChangedFiles(context, holder);
       for (String outputPath : changedOutputPaths) {
         outSrcMapping.remove(outputPath);
@@ -170,13 +173,45 @@ public class IncArtifactBuilder extends TargetBuilder<ArtifactRootDescriptor, Ar
       }
       context.checkCanceled();
 
-      JarsBuilder builder = new JarsBuilder(changedJars, context, outputConsumer, outSrcMapping);
+      JarsBuilder builder = new JarsBuilder(changedJars, context, outputConsumer, outSrcMapping, previousJars);
       builder.buildJars();
       runArtifactTasks(context, artifact, ArtifactBuildTaskProvider.ArtifactBuildPhase.POST_PROCESSING);
     }
     catch (IOException e) {
       throw new ProjectBuildException(e);
     }
+    finally {
+      for (File previousJar : previousJars.values()) {
+        FileUtil.delete(previousJar);
+      }
+    }
+  }
+
+  /**
+   * Archives which will be rebuilt are moved aside instead of deleting them, so {@link JarsBuilder} can copy the unchanged entries
+   * from them. An archive is renamed within its own directory, so it isn't copied to another file system.
+   * @return output path of an archive -> its previous version
+   */
+  private static Map<String, File> movePreviousJarsAside(ArtifactBuildTarget target, Collection<String> outputsToDelete,
+                                                         CompileContext context) throws IOException {
+    final Set<String> jarPaths = new THashSet<String>(FileUtil.PATH_HASHING_STRATEGY);
+    for (ArtifactRootDescriptor descriptor : context.getProjectDescriptor().getBuildRootIndex().getTargetRoots(target, context)) {
+      final DestinationInfo destination = descriptor.getDestinationInfo();
+      if (destination instanceof JarDestinationInfo) {
+        jarPaths.add(FileUtil.toSystemIndependentName(destination.getOutputFilePath()));
+      }
+    }
+    final Map<String, File> previousJars = new THashMap<String, File>(FileUtil.PATH_HASHING_STRATEGY);
+    for (String outputPath : outputsToDelete) {
+      final String jarPath = FileUtil.toSystemIndependentName(outputPath);
+      final File jarFile = new File(FileUtil.toSystemDependentName(jarPath));
+      if (jarPaths.contains(jarPath) && !previousJars.containsKey(jarPath) && jarFile.isFile()) {
+        final File previousJar = FileUtil.createTempFile(jarFile.getParentFile(), jarFile.getName() + ".", ".previous", false);
+        FileUtil.rename(jarFile, previousJar);
+        previousJars.put(jarPath, previousJar);
+      }
+    }
+    return previousJars;
   }
 
   private static void runArtifactTasks(CompileContext context, JpsArtifact artifact, ArtifactBuildTaskProvider.ArtifactBuildPhase phase)
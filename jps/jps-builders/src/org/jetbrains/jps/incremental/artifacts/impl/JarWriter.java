@@ -0,0 +1,578 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.incremental.artifacts.impl;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.ArrayUtil;
+import com.intellij.util.io.ZipUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.util.*;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.*;
+
+/**
+ * Writes an archive for {@link JarsBuilder}. If the previous version of the archive is available, the entries whose content
+ * didn't change (the same name, size, CRC and time) are copied from it in the compressed form, so only the changed entries
+ * are compressed again. Otherwise the archive is written by {@link JarOutputStream}.
+ */
+class JarWriter {
+  private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.incremental.artifacts.impl.JarWriter");
+  private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+  private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+  private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+  private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+  private static final int END_OF_CENTRAL_DIRECTORY_LENGTH = 22;
+  private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50;
+  private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LENGTH = 56;
+  private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+  private static final int ZIP64_LOCATOR_LENGTH = 20;
+  private static final int LOCAL_HEADER_LENGTH = 30;
+  private static final int DATA_DESCRIPTOR_FLAG = 1 << 3;
+  private static final int UTF8_FLAG = 1 << 11;
+  private static final long MAX_32BIT_VALUE = 0xFFFFFFFFL;
+  private static final int MAX_ENTRIES = 0xFFFF;
+  /**
+   * Extra field marking the first entry of an archive as a jar, written by {@link JarOutputStream} too
+   */
+  private static final byte[] JAR_MAGIC_EXTRA = {(byte)0xFE, (byte)0xCA, 0, 0};
+
+  @Nullable private final JarOutputStream myJarOutput;
+  @Nullable private final CountingOutputStream myOutput;
+  @Nullable private final PreviousArchive myPrevious;
+  private final List<WrittenEntry> myWrittenEntries = new ArrayList<WrittenEntry>();
+  private final byte[] myBuffer = new byte[64 * 1024];
+  private int myCopiedEntries;
+
+  /**
+   * @param previousJar the previous version of the archive to copy unchanged entries from, or {@code null} to write the archive from scratch
+   */
+  JarWriter(@NotNull File jarFile, @Nullable File previousJar, @Nullable Manifest manifest) throws IOException {
+    final PreviousArchive previous = previousJar != null ? PreviousArchive.open(previousJar) : null;
+    final BufferedOutputStream outputStream = new BufferedOutputStream(new FileOutputStream(jarFile));
+    if (previous != null) {
+      myPrevious = previous;
+      myOutput = new CountingOutputStream(outputStream);
+      myJarOutput = null;
+      if (manifest != null) {
+        final ByteArrayOutputStream manifestContent = new ByteArrayOutputStream();
+        manifest.write(manifestContent);
+        addEntry(JarFile.MANIFEST_NAME, System.currentTimeMillis(), new ByteArrayInputStream(manifestContent.toByteArray()), null);
+      }
+    }
+    else {
+      myPrevious = null;
+      myOutput = null;
+      myJarOutput = manifest != null ? new JarOutputStream(outputStream, manifest) : new JarOutputStream(outputStream);
+    }
+  }
+
+  boolean isIncremental() {
+    return myPrevious != null;
+  }
+
+  int getCopiedEntriesCount() {
+    return myCopiedEntries;
+  }
+
+  void addDirectory(@NotNull String relativePath) throws IOException {
+    if (myJarOutput != null) {
+      ZipEntry e = new ZipEntry(relativePath);
+      e.setMethod(ZipEntry.STORED);
+      e.setSize(0);
+      e.setCrc(0);
+      myJarOutput.putNextEntry(e);
+      myJarOutput.closeEntry();
+      return;
+    }
+    writeLocalHeader(new WrittenEntry(relativePath, ZipEntry.STORED, 0, 0, 0, 0, 0));
+  }
+
+  void addFile(@NotNull String relativePath, @NotNull File file) throws IOException {
+    if (myJarOutput != null) {
+      ZipUtil.addFileToZip(myJarOutput, file, relativePath, null, null);
+      return;
+    }
+
+    final long time = file.lastModified();
+    final long size = file.length();
+    final PreviousEntry previous = myPrevious.getEntry(relativePath);
+    if (previous != null && previous.mySize == size && previous.myDosTime == javaToDosTime(time) && previous.myCrc == computeCrc(file)) {
+      copyEntry(relativePath, previous);
+      return;
+    }
+
+    final InputStream input = new BufferedInputStream(new FileInputStream(file));
+    try {
+      if (size == 0) {
+        writeLocalHeader(new WrittenEntry(relativePath, ZipEntry.STORED, javaToDosTime(time), 0, 0, 0, 0));
+      }
+      else {
+        deflateEntry(relativePath, time, input);
+      }
+    }
+    finally {
+      input.close();
+    }
+  }
+
+  /**
+   * @param sourceEntry the entry of another archive the content is taken from, it's used to keep 'stored' entries uncompressed
+   */
+  void addEntry(@NotNull String relativePath, long time, @NotNull InputStream input, @Nullable ZipEntry sourceEntry) throws IOException {
+    final boolean stored = sourceEntry != null && sourceEntry.getMethod() == ZipEntry.STORED;
+    if (myJarOutput != null) {
+      ZipEntry newEntry = new ZipEntry(relativePath);
+      newEntry.setTime(time);
+      if (stored) {
+        newEntry.setMethod(ZipEntry.STORED);
+        newEntry.setSize(sourceEntry.getSize());
+        newEntry.setCrc(sourceEntry.getCrc());
+      }
+      myJarOutput.putNextEntry(newEntry);
+      FileUtil.copy(input, myJarOutput);
+      myJarOutput.closeEntry();
+      return;
+    }
+
+    final PreviousEntry previous = myPrevious.getEntry(relativePath);
+    if (previous != null && sourceEntry != null && previous.mySize == sourceEntry.getSize() && previous.myCrc == sourceEntry.getCrc() &&
+        previous.myDosTime == javaToDosTime(time)) {
+      copyEntry(relativePath, previous);
+      return;
+    }
+
+    if (stored) {
+      final WrittenEntry entry = new WrittenEntry(relativePath, ZipEntry.STORED, javaToDosTime(time), 0, sourceEntry.getCrc(),
+                                                  sourceEntry.getSize(), sourceEntry.getSize());
+      writeLocalHeader(entry);
+      copyData(input, -1);
+    }
+    else {
+      deflateEntry(relativePath, time, input);
+    }
+  }
+
+  void close() throws IOException {
+    if (myJarOutput != null) {
+      myJarOutput.close();
+      return;
+    }
+    try {
+      final long centralDirectoryOffset = myOutput.getCount();
+      for (WrittenEntry entry : myWrittenEntries) {
+        writeInt(CENTRAL_HEADER_SIGNATURE);
+        writeShort(20);
+        writeShort(entry.getVersionNeeded());
+        writeShort(entry.myFlags);
+        writeShort(entry.myMethod);
+        writeInt(entry.myDosTime);
+        writeInt(entry.myCrc);
+        writeInt(entry.myCompressedSize);
+        writeInt(entry.mySize);
+        writeShort(entry.myNameBytes.length);
+        writeShort(entry.myExtra.length);
+        writeShort(0);
+        writeShort(0);
+        writeShort(0);
+        writeInt(0);
+        writeInt(entry.myOffset);
+        myOutput.write(entry.myNameBytes);
+        myOutput.write(entry.myExtra);
+      }
+      final long centralDirectoryLength = myOutput.getCount() - centralDirectoryOffset;
+      if (myOutput.getCount() > MAX_32BIT_VALUE) {
+        throw new ArchiveTooLargeException();
+      }
+      final int entriesCount = myWrittenEntries.size();
+      if (entriesCount >= MAX_ENTRIES) {
+        // only the number of entries may need ZIP64 records here, the sizes and offsets were checked above
+        final long zip64EndOffset = myOutput.getCount();
+        writeInt(ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+        writeLong(ZIP64_END_OF_CENTRAL_DIRECTORY_LENGTH - 12);
+        writeShort(45);
+        writeShort(45);
+        writeInt(0);
+        writeInt(0);
+        writeLong(entriesCount);
+        writeLong(entriesCount);
+        writeLong(centralDirectoryLength);
+        writeLong(centralDirectoryOffset);
+        writeInt(ZIP64_LOCATOR_SIGNATURE);
+        writeInt(0);
+        writeLong(zip64EndOffset);
+        writeInt(1);
+      }
+      writeInt(END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+      writeShort(0);
+      writeShort(0);
+      writeShort(Math.min(entriesCount, MAX_ENTRIES));
+      writeShort(Math.min(entriesCount, MAX_ENTRIES));
+      writeInt(centralDirectoryLength);
+      writeInt(centralDirectoryOffset);
+      writeShort(0);
+    }
+    finally {
+      try {
+        myOutput.close();
+      }
+      finally {
+        myPrevious.close();
+      }
+    }
+  }
+
+  private void copyEntry(String relativePath, PreviousEntry previous) throws IOException {
+    final WrittenEntry entry = new WrittenEntry(relativePath, previous.myMethod, previous.myDosTime, 0, previous.myCrc,
+                                                previous.myCompressedSize, previous.mySize);
+    writeLocalHeader(entry);
+    myPrevious.copyData(previous, myOutput, myBuffer);
+    myCopiedEntries++;
+  }
+
+  private void deflateEntry(String relativePath, long time, InputStream input) throws IOException {
+    final WrittenEntry entry = new WrittenEntry(relativePath, ZipEntry.DEFLATED, javaToDosTime(time), DATA_DESCRIPTOR_FLAG, 0, 0, 0);
+    writeLocalHeader(entry);
+    final long dataStart = myOutput.getCount();
+    final CRC32 crc = new CRC32();
+    final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    try {
+      final DeflaterOutputStream deflaterOutput = new DeflaterOutputStream(myOutput, deflater, 8192);
+      long size = 0;
+      int count;
+      while ((count = input.read(myBuffer)) > 0) {
+        crc.update(myBuffer, 0, count);
+        deflaterOutput.write(myBuffer, 0, count);
+        size += count;
+      }
+      deflaterOutput.finish();
+      entry.mySize = size;
+    }
+    finally {
+      deflater.end();
+    }
+    entry.myCrc = crc.getValue();
+    entry.myCompressedSize = myOutput.getCount() - dataStart;
+    if (entry.mySize > MAX_32BIT_VALUE || entry.myCompressedSize > MAX_32BIT_VALUE) {
+      throw new ArchiveTooLargeException();
+    }
+    writeInt(DATA_DESCRIPTOR_SIGNATURE);
+    writeInt(entry.myCrc);
+    writeInt(entry.myCompressedSize);
+    writeInt(entry.mySize);
+  }
+
+  private void writeLocalHeader(WrittenEntry entry) throws IOException {
+    entry.myOffset = myOutput.getCount();
+    if (entry.myOffset > MAX_32BIT_VALUE) {
+      throw new ArchiveTooLargeException();
+    }
+    if (myWrittenEntries.isEmpty()) {
+      entry.myExtra = JAR_MAGIC_EXTRA;
+    }
+    myWrittenEntries.add(entry);
+    final boolean hasDescriptor = (entry.myFlags & DATA_DESCRIPTOR_FLAG) != 0;
+    writeInt(LOCAL_HEADER_SIGNATURE);
+    writeShort(entry.getVersionNeeded());
+    writeShort(entry.myFlags);
+    writeShort(entry.myMethod);
+    writeInt(entry.myDosTime);
+    writeInt(hasDescriptor ? 0 : entry.myCrc);
+    writeInt(hasDescriptor ? 0 : entry.myCompressedSize);
+    writeInt(hasDescriptor ? 0 : entry.mySize);
+    writeShort(entry.myNameBytes.length);
+    writeShort(entry.myExtra.length);
+    myOutput.write(entry.myNameBytes);
+    myOutput.write(entry.myExtra);
+  }
+
+  private void copyData(InputStream input, long length) throws IOException {
+    int count;
+    while (length != 0 && (count = input.read(myBuffer, 0, length < 0 ? myBuffer.length : (int)Math.min(length, myBuffer.length))) > 0) {
+      myOutput.write(myBuffer, 0, count);
+      if (length > 0) {
+        length -= count;
+      }
+    }
+  }
+
+  private long computeCrc(File file) throws IOException {
+    final CRC32 crc = new CRC32();
+    final InputStream input = new FileInputStream(file);
+    try {
+      int count;
+      while ((count = input.read(myBuffer)) > 0) {
+        crc.update(myBuffer, 0, count);
+      }
+    }
+    finally {
+      input.close();
+    }
+    return crc.getValue();
+  }
+
+  private void writeShort(int value) throws IOException {
+    myOutput.write(value & 0xFF);
+    myOutput.write((value >>> 8) & 0xFF);
+  }
+
+  private void writeInt(long value) throws IOException {
+    writeShort((int)(value & 0xFFFF));
+    writeShort((int)((value >>> 16) & 0xFFFF));
+  }
+
+  private void writeLong(long value) throws IOException {
+    writeInt(value & MAX_32BIT_VALUE);
+    writeInt(value >>> 32);
+  }
+
+  static long javaToDosTime(long time) {
+    final Calendar calendar = Calendar.getInstance();
+    calendar.setTimeInMillis(time);
+    final int year = calendar.get(Calendar.YEAR);
+    if (year < 1980) {
+      return (1 << 21) | (1 << 16);
+    }
+    return (year - 1980) << 25 | (calendar.get(Calendar.MONTH) + 1) << 21 | calendar.get(Calendar.DAY_OF_MONTH) << 16 |
+           calendar.get(Calendar.HOUR_OF_DAY) << 11 | calendar.get(Calendar.MINUTE) << 5 | calendar.get(Calendar.SECOND) >> 1;
+  }
+
+  /**
+   * Thrown if an entry or the archive exceeds 4Gb, ZIP64 extra fields aren't supported by the incremental writer so the archive should be written from scratch.
+   */
+  static class ArchiveTooLargeException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    ArchiveTooLargeException() {
+      super("Archive is too large to be updated incrementally");
+    }
+  }
+
+  private static class WrittenEntry {
+    final byte[] myNameBytes;
+    final int myMethod;
+    final long myDosTime;
+    final int myFlags;
+    long myCrc;
+    long myCompressedSize;
+    long mySize;
+    long myOffset;
+    byte[] myExtra = ArrayUtil.EMPTY_BYTE_ARRAY;
+
+    WrittenEntry(String name, int method, long dosTime, int flags, long crc, long compressedSize, long size) throws IOException {
+      myNameBytes = name.getBytes("UTF-8");
+      myMethod = method;
+      myDosTime = dosTime;
+      myFlags = flags | (myNameBytes.length != name.length() ? UTF8_FLAG : 0);
+      myCrc = crc;
+      myCompressedSize = compressedSize;
+      mySize = size;
+    }
+
+    int getVersionNeeded() {
+      return myMethod == ZipEntry.DEFLATED ? 20 : 10;
+    }
+  }
+
+  private static class PreviousEntry {
+    final int myMethod;
+    final long myDosTime;
+    final long myCrc;
+    final long myCompressedSize;
+    final long mySize;
+    final long myLocalHeaderOffset;
+
+    PreviousEntry(int method, long dosTime, long crc, long compressedSize, long size, long localHeaderOffset) {
+      myMethod = method;
+      myDosTime = dosTime;
+      myCrc = crc;
+      myCompressedSize = compressedSize;
+      mySize = size;
+      myLocalHeaderOffset = localHeaderOffset;
+    }
+  }
+
+  /**
+   * Central directory of the previous version of the archive. If the archive contains encrypted entries or entries exceeding 4Gb
+   * it isn't used.
+   */
+  private static class PreviousArchive {
+    private final RandomAccessFile myFile;
+    private final Map<String, PreviousEntry> myEntries = new HashMap<String, PreviousEntry>();
+
+    private PreviousArchive(RandomAccessFile file) {
+      myFile = file;
+    }
+
+    @Nullable
+    static PreviousArchive open(File jar) {
+      try {
+        final RandomAccessFile file = new RandomAccessFile(jar, "r");
+        final PreviousArchive archive = new PreviousArchive(file);
+        boolean success = false;
+        try {
+          success = archive.readCentralDirectory();
+        }
+        finally {
+          if (!success) {
+            file.close();
+          }
+        }
+        return success ? archive : null;
+      }
+      catch (IOException e) {
+        LOG.info("Cannot read previous version of archive " + jar + ": " + e.getMessage());
+        return null;
+      }
+    }
+
+    @Nullable
+    PreviousEntry getEntry(String name) {
+      return myEntries.get(name);
+    }
+
+    private boolean readCentralDirectory() throws IOException {
+      final long length = myFile.length();
+      if (length < END_OF_CENTRAL_DIRECTORY_LENGTH) {
+        return false;
+      }
+      final int tailLength = (int)Math.min(length, END_OF_CENTRAL_DIRECTORY_LENGTH + 0xFFFF);
+      final byte[] tail = new byte[tailLength];
+      myFile.seek(length - tailLength);
+      myFile.readFully(tail);
+      int endOffset = -1;
+      for (int i = tailLength - END_OF_CENTRAL_DIRECTORY_LENGTH; i >= 0; i--) {
+        if (getInt(tail, i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+          endOffset = i;
+          break;
+        }
+      }
+      if (endOffset < 0) {
+        return false;
+      }
+      long entriesCount = getShort(tail, endOffset + 10);
+      long directoryLength = getInt(tail, endOffset + 12);
+      long directoryOffset = getInt(tail, endOffset + 16);
+      if (entriesCount == MAX_ENTRIES && endOffset >= ZIP64_LOCATOR_LENGTH &&
+          getInt(tail, endOffset - ZIP64_LOCATOR_LENGTH) == ZIP64_LOCATOR_SIGNATURE) {
+        final byte[] zip64End = new byte[ZIP64_END_OF_CENTRAL_DIRECTORY_LENGTH];
+        myFile.seek(getLong(tail, endOffset - ZIP64_LOCATOR_LENGTH + 8));
+        myFile.readFully(zip64End);
+        if (getInt(zip64End, 0) != ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+          return false;
+        }
+        entriesCount = getLong(zip64End, 32);
+        directoryLength = getLong(zip64End, 40);
+        directoryOffset = getLong(zip64End, 48);
+      }
+      if (directoryOffset >= MAX_32BIT_VALUE || directoryLength > Integer.MAX_VALUE || directoryOffset + directoryLength > length) {
+        return false;
+      }
+
+      final byte[] directory = new byte[(int)directoryLength];
+      myFile.seek(directoryOffset);
+      myFile.readFully(directory);
+      int offset = 0;
+      for (long i = 0; i < entriesCount; i++) {
+        if (offset + 46 > directory.length || getInt(directory, offset) != CENTRAL_HEADER_SIGNATURE) {
+          return false;
+        }
+        final int flags = getShort(directory, offset + 8);
+        final int method = getShort(directory, offset + 10);
+        final long dosTime = getInt(directory, offset + 12);
+        final long crc = getInt(directory, offset + 16);
+        final long compressedSize = getInt(directory, offset + 20);
+        final long size = getInt(directory, offset + 24);
+        final int nameLength = getShort(directory, offset + 28);
+        final int extraLength = getShort(directory, offset + 30);
+        final int commentLength = getShort(directory, offset + 32);
+        final long localHeaderOffset = getInt(directory, offset + 42);
+        if ((flags & 1) != 0 || compressedSize == MAX_32BIT_VALUE || size == MAX_32BIT_VALUE || localHeaderOffset == MAX_32BIT_VALUE ||
+            method != ZipEntry.STORED && method != ZipEntry.DEFLATED) {
+          return false;
+        }
+        final String name = new String(directory, offset + 46, nameLength, (flags & UTF8_FLAG) != 0 ? "UTF-8" : "Cp437");
+        myEntries.put(name, new PreviousEntry(method, dosTime, crc, compressedSize, size, localHeaderOffset));
+        offset += 46 + nameLength + extraLength + commentLength;
+      }
+      return true;
+    }
+
+    void copyData(PreviousEntry entry, OutputStream output, byte[] buffer) throws IOException {
+      final byte[] header = new byte[LOCAL_HEADER_LENGTH];
+      myFile.seek(entry.myLocalHeaderOffset);
+      myFile.readFully(header);
+      if (getInt(header, 0) != LOCAL_HEADER_SIGNATURE) {
+        throw new ZipException("Invalid local header in the previous version of archive");
+      }
+      myFile.seek(entry.myLocalHeaderOffset + LOCAL_HEADER_LENGTH + getShort(header, 26) + getShort(header, 28));
+      long remaining = entry.myCompressedSize;
+      while (remaining > 0) {
+        final int count = myFile.read(buffer, 0, (int)Math.min(remaining, buffer.length));
+        if (count < 0) {
+          throw new EOFException();
+        }
+        output.write(buffer, 0, count);
+        remaining -= count;
+      }
+    }
+
+    void close() throws IOException {
+      myFile.close();
+    }
+
+    private static int getShort(byte[] bytes, int offset) {
+      return (bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8;
+    }
+
+    private static long getInt(byte[] bytes, int offset) {
+      return (getShort(bytes, offset) | (long)getShort(bytes, offset + 2) << 16) & MAX_32BIT_VALUE;
+    }
+
+    private static long getLong(byte[] bytes, int offset) {
+      return getInt(bytes, offset) | getInt(bytes, offset + 4) << 32;
+    }
+  }
+
+  private static class CountingOutputStream extends FilterOutputStream {
+    private long myCount;
+
+    CountingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      myCount++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      myCount += len;
+    }
+
+    long getCount() {
+      return myCount;
+    }
+  }
+}
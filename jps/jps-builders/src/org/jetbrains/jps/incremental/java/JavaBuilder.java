@@ -147,6 +147,15 @@ public class JavaBuilder extends ModuleLevelBuilder {
     COMPILER_VERSION_INFO.set(context, new AtomicReference<String>(messageText));
   }
 
+  @Override
+  public void buildFinished(CompileContext context) {
+    if (USE_EMBEDDED_JAVAC) {
+      final ClasspathJarCache jarCache = ClasspathJarCache.getInstance();
+      jarCache.closeJars();
+      LOG.info(jarCache.getStatistics());
+    }
+  }
+
   @Override
   public List<String> getCompilableFileExtensions() {
     return Collections.singletonList(JAVA_EXTENSION);
@@ -285,9 +294,11 @@ public class JavaBuilder extends ModuleLevelBuilder {
       }
     }
     finally {
+      final long start = System.nanoTime();
       if (JavaBuilderUtil.updateMappings(context, delta, dirtyFilesHolder, chunk, files, outputSink.getSuccessfullyCompiled())) {
         exitCode = ExitCode.ADDITIONAL_PASS_REQUIRED;
       }
+      BuildProfile.addTime(context, BuildProfile.DEPENDENCY_ANALYSIS, chunk.getTargets(), System.nanoTime() - start);
     }
 
     return exitCode;
@@ -346,16 +357,18 @@ public class JavaBuilder extends ModuleLevelBuilder {
 
     final Map<File, Set<File>> outs = buildOutputDirectoriesMap(context, chunk);
     final List<String> options = getCompilationOptions(context, chunk, profile);
-    final ClassProcessingConsumer classesConsumer = new ClassProcessingConsumer(context, outputSink);
+    final ClassProcessingConsumer classesConsumer = new ClassProcessingConsumer(context, chunk, outputSink);
     if (LOG.isDebugEnabled()) {
       LOG.debug("Compiling chunk [" + chunk.getName() + "] with options: \"" + StringUtil.join(options, " ") + "\"");
     }
+    final long start = System.nanoTime();
     try {
       final boolean rc;
       if (USE_EMBEDDED_JAVAC) {
         final boolean useEclipse = useEclipseCompiler(context);
         rc = JavacMain.compile(
-          options, files, classpath, platformCp, sourcePath, outs, diagnosticSink, classesConsumer, context.getCancelStatus(), useEclipse
+          options, files, classpath, platformCp, sourcePath, outs, diagnosticSink, classesConsumer, context.getCancelStatus(), useEclipse,
+          useClasspathJarCache(context)
         );
       }
       else {
@@ -373,6 +386,7 @@ public class JavaBuilder extends ModuleLevelBuilder {
       return rc;
     }
     finally {
+      BuildProfile.addTime(context, BuildProfile.JAVAC, chunk.getTargets(), System.nanoTime() - start);
       counter.await();
     }
   }
@@ -384,6 +398,10 @@ public class JavaBuilder extends ModuleLevelBuilder {
     return JavaCompilers.ECLIPSE_ID.equalsIgnoreCase(compilerId) || JavaCompilers.ECLIPSE_EMBEDDED_ID.equalsIgnoreCase(compilerId);
   }
 
+  private static boolean useClasspathJarCache(CompileContext context) {
+    return Utils.isBuildOptionEnabled(context, GlobalOptions.USE_CLASSPATH_JAR_CACHE_OPTION);
+  }
+
   private void submitAsyncTask(CompileContext context, final Runnable taskRunnable) {
     final TasksCounter counter = COUNTER_KEY.get(context);
 
@@ -415,7 +433,8 @@ public class JavaBuilder extends ModuleLevelBuilder {
     final String javaHome = SystemProperties.getJavaHome();
 
     final BaseOSProcessHandler processHandler = JavacServerBootstrap.launchJavacServer(
-      javaHome, heapSize, port, Utils.getSystemRoot(), getCompilationVMOptions(context), useEclipseCompiler(context)
+      javaHome, heapSize, port, Utils.getSystemRoot(), getCompilationVMOptions(context), useEclipseCompiler(context),
+      useClasspathJarCache(context)
     );
     final JavacServerClient client = new JavacServerClient();
     try {
@@ -822,10 +841,12 @@ public class JavaBuilder extends ModuleLevelBuilder {
 
   private class ClassProcessingConsumer implements OutputFileConsumer {
     private final CompileContext myContext;
+    private final ModuleChunk myChunk;
     private final OutputFileConsumer myDelegateOutputFileSink;
 
-    public ClassProcessingConsumer(CompileContext context, OutputFileConsumer sink) {
+    public ClassProcessingConsumer(CompileContext context, ModuleChunk chunk, OutputFileConsumer sink) {
       myContext = context;
+      myChunk = chunk;
       myDelegateOutputFileSink = sink != null ? sink : new OutputFileConsumer() {
         public void save(@NotNull OutputFileObject fileObject) {
           throw new RuntimeException("Output sink for compiler was not specified");
@@ -850,12 +871,14 @@ public class JavaBuilder extends ModuleLevelBuilder {
 
       submitAsyncTask(myContext, new Runnable() {
         public void run() {
+          final long start = System.nanoTime();
           try {
             for (ClassPostProcessor processor : ourClassProcessors) {
               processor.process(myContext, fileObject);
             }
           }
           finally {
+            BuildProfile.addTime(myContext, BuildProfile.CLASS_POST_PROCESSING, myChunk.getTargets(), System.nanoTime() - start);
             myDelegateOutputFileSink.save(fileObject);
           }
         }
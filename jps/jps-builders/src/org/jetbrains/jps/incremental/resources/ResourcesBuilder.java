@@ -16,8 +16,13 @@
 package org.jetbrains.jps.incremental.resources;
 
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.SystemInfo;
+import com.intellij.openapi.util.io.FileSystemUtil;
 import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.concurrency.BoundedTaskExecutor;
+import gnu.trove.THashMap;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.jetbrains.jps.builders.BuildOutputConsumer;
 import org.jetbrains.jps.builders.DirtyFilesHolder;
 import org.jetbrains.jps.builders.FileProcessor;
@@ -31,10 +36,16 @@ import org.jetbrains.jps.incremental.messages.BuildMessage;
 import org.jetbrains.jps.incremental.messages.CompilerMessage;
 import org.jetbrains.jps.incremental.messages.ProgressMessage;
 import org.jetbrains.jps.model.module.JpsModule;
+import org.jetbrains.jps.service.SharedThreadPool;
 
-import java.io.File;
-import java.io.IOException;
+import java.io.*;
+import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * @author Eugene Zhuravlev
@@ -43,6 +54,9 @@ import java.util.*;
 public class ResourcesBuilder extends TargetBuilder<ResourceRootDescriptor, ResourcesTarget> {
   private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.incremental.resourses.ResourcesBuilder");
   public static final String BUILDER_NAME = "Resource Compiler";
+  private static final int COMPARE_BUFFER_SIZE = 16 * 1024;
+  private static final BoundedTaskExecutor ourCopyExecutor =
+    new BoundedTaskExecutor(SharedThreadPool.getInstance(), Runtime.getRuntime().availableProcessors());
   private static final List<StandardResourceBuilderEnabler> ourEnablers = Collections.synchronizedList(new ArrayList<StandardResourceBuilderEnabler>());
 
   public ResourcesBuilder() {
@@ -67,6 +81,9 @@ public class ResourcesBuilder extends TargetBuilder<ResourceRootDescriptor, Reso
       return;
     }
 
+    final List<CopyTask> copyTasks = new ArrayList<CopyTask>();
+    final Map<File, CopyTask> tasksByTarget = new THashMap<File, CopyTask>(FileUtil.FILE_HASHING_STRATEGY);
+    final AtomicBoolean stopped = new AtomicBoolean();
     try {
       holder.processDirtyFiles(new FileProcessor<ResourceRootDescriptor, ResourcesTarget>() {
         private final Map<ResourceRootDescriptor, Boolean> mySkippedRoots = new HashMap<ResourceRootDescriptor, Boolean>();
@@ -80,22 +97,48 @@ public class ResourcesBuilder extends TargetBuilder<ResourceRootDescriptor, Reso
           if (isSkipped.booleanValue()) {
             return true;
           }
-          try {
-            copyResource(context, sourceRoot, file, outputConsumer);
-          }
-          catch (IOException e) {
-            LOG.info(e);
-            context.processMessage(
-              new CompilerMessage(
-                "resources", BuildMessage.Kind.ERROR, e.getMessage(), FileUtil.toSystemIndependentName(file.getPath())
-              )
-            );
-            return false;
+          final CopyTask task = createCopyTask(context, sourceRoot, file, stopped);
+          if (task != null) {
+            final CopyTask previous = tasksByTarget.put(task.myTarget, task);
+            if (previous != null) {
+              // files from different roots are copied to the same place, the last one should win as if they were copied sequentially
+              waitFor(previous);
+            }
+            copyTasks.add(task);
+            task.myFuture = ourCopyExecutor.submit(task);
           }
           return !context.getCancelStatus().isCanceled();
         }
       });
 
+      for (CopyTask task : copyTasks) {
+        try {
+          if (!task.myFuture.get()) {
+            // the build was canceled before the file was copied
+            continue;
+          }
+        }
+        catch (ExecutionException e) {
+          final Throwable cause = e.getCause();
+          if (!(cause instanceof IOException)) {
+            throw e;
+          }
+          LOG.info(cause);
+          context.processMessage(
+            new CompilerMessage(
+              "resources", BuildMessage.Kind.ERROR, cause.getMessage(), FileUtil.toSystemIndependentName(task.mySource.getPath())
+            )
+          );
+          continue;
+        }
+        try {
+          outputConsumer.registerOutputFile(task.myTarget, Collections.singletonList(task.mySource.getPath()));
+        }
+        catch (Exception e) {
+          context.processMessage(new CompilerMessage(BUILDER_NAME, e));
+        }
+      }
+
       context.checkCanceled();
 
       context.processMessage(new ProgressMessage(""));
@@ -106,6 +149,14 @@ public class ResourcesBuilder extends TargetBuilder<ResourceRootDescriptor, Reso
     catch (Exception e) {
       throw new ProjectBuildException(e.getMessage(), e);
     }
+    finally {
+      // if collecting the results failed the remaining tasks are skipped, and the running ones are waited for, so no copying
+      // goes on after the builder returns
+      stopped.set(true);
+      for (CopyTask task : copyTasks) {
+        waitFor(task);
+      }
+    }
   }
 
   private static boolean isResourceProcessingEnabled(JpsModule module) {
@@ -119,10 +170,11 @@ public class ResourcesBuilder extends TargetBuilder<ResourceRootDescriptor, Reso
     return true;
   }
 
-  private static void copyResource(CompileContext context, ResourceRootDescriptor rd, File file, BuildOutputConsumer outputConsumer) throws IOException {
+  @Nullable
+  private static CopyTask createCopyTask(CompileContext context, ResourceRootDescriptor rd, File file, AtomicBoolean stopped) {
     final File outputRoot = rd.getTarget().getOutputDir();
     if (outputRoot == null) {
-      return;
+      return null;
     }
     final String sourceRootPath = FileUtil.toSystemIndependentName(rd.getRootFile().getAbsolutePath());
     final String relativePath = FileUtil.getRelativePath(sourceRootPath, FileUtil.toSystemIndependentName(file.getPath()), '/');
@@ -138,13 +190,135 @@ public class ResourcesBuilder extends TargetBuilder<ResourceRootDescriptor, Reso
     context.processMessage(new ProgressMessage("Copying resources... [" + rd.getTarget().getModule().getName() + "]"));
 
     final String outputPath = targetPath.toString();
-    final File targetFile = new File(outputPath);
-    FileUtil.copyContent(file, targetFile);
+    return new CopyTask(context, file, new File(outputPath), stopped);
+  }
+
+  /**
+   * Copies the file unless the target already has the same content, so unchanged resources aren't rewritten and keep their timestamps.
+   */
+  private static void copyIfContentChanged(File from, File to) throws IOException {
+    if (to.isFile() && to.length() == from.length() && contentEquals(from, to)) {
+      return;
+    }
+    final FileOutputStream output;
     try {
-      outputConsumer.registerOutputFile(targetFile, Collections.singletonList(file.getPath()));
+      output = new FileOutputStream(to);
     }
-    catch (Exception e) {
-      context.processMessage(new CompilerMessage(BUILDER_NAME, e));
+    catch (FileNotFoundException e) {
+      // the parent directory doesn't exist yet or the file is write-protected, FileUtil handles both cases
+      FileUtil.copyContent(from, to);
+      return;
+    }
+    try {
+      final FileInputStream input = new FileInputStream(from);
+      try {
+        final FileChannel source = input.getChannel();
+        final FileChannel target = output.getChannel();
+        final long size = source.size();
+        long position = 0;
+        while (position < size) {
+          final long count = source.transferTo(position, size - position, target);
+          if (count <= 0) {
+            // the file was truncated while being copied
+            break;
+          }
+          position += count;
+        }
+      }
+      finally {
+        input.close();
+      }
+    }
+    finally {
+      output.close();
+    }
+    if (SystemInfo.isUnix && from.canExecute()) {
+      final int oldPermissions = FileSystemUtil.getPermissions(from);
+      final int newPermissions = FileSystemUtil.getPermissions(to);
+      if (oldPermissions != -1 && newPermissions != -1) {
+        FileSystemUtil.setPermissions(to, oldPermissions | newPermissions);
+      }
+    }
+  }
+
+  private static boolean contentEquals(File file1, File file2) throws IOException {
+    final InputStream input1 = new FileInputStream(file1);
+    try {
+      final InputStream input2 = new FileInputStream(file2);
+      try {
+        final byte[] buffer1 = new byte[COMPARE_BUFFER_SIZE];
+        final byte[] buffer2 = new byte[COMPARE_BUFFER_SIZE];
+        while (true) {
+          final int count = read(input1, buffer1);
+          if (count != read(input2, buffer2)) {
+            return false;
+          }
+          if (count <= 0) {
+            return true;
+          }
+          for (int i = 0; i < count; i++) {
+            if (buffer1[i] != buffer2[i]) {
+              return false;
+            }
+          }
+        }
+      }
+      finally {
+        input2.close();
+      }
+    }
+    finally {
+      input1.close();
+    }
+  }
+
+  private static void waitFor(CopyTask task) {
+    try {
+      task.myFuture.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    catch (CancellationException ignored) {
+    }
+    catch (ExecutionException ignored) {
+      // will be reported when the results are collected
+    }
+  }
+
+  private static int read(InputStream input, byte[] buffer) throws IOException {
+    int total = 0;
+    int count;
+    while (total < buffer.length && (count = input.read(buffer, total, buffer.length - total)) > 0) {
+      total += count;
+    }
+    return total;
+  }
+
+  private static class CopyTask implements Callable<Boolean> {
+    private final CompileContext myContext;
+    private final File mySource;
+    private final File myTarget;
+    private final AtomicBoolean myStopped;
+    private Future<Boolean> myFuture;
+
+    private CopyTask(CompileContext context, File source, File target, AtomicBoolean stopped) {
+      myContext = context;
+      mySource = source;
+      myTarget = target;
+      myStopped = stopped;
+    }
+
+    /**
+     * @return false if the file wasn't copied because the build was canceled or collecting the results failed
+     */
+    @Override
+    public Boolean call() throws IOException {
+      if (myStopped.get() || myContext.getCancelStatus().isCanceled()) {
+        return Boolean.FALSE;
+      }
+      copyIfContentChanged(mySource, myTarget);
+      return Boolean.TRUE;
     }
   }
 
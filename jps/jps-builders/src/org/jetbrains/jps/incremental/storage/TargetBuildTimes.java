@@ -0,0 +1,120 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.incremental.storage;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.io.IOUtil;
+import gnu.trove.TObjectLongHashMap;
+import gnu.trove.TObjectLongProcedure;
+import org.jetbrains.jps.builders.BuildTarget;
+
+import java.io.*;
+
+/**
+ * Average times of previous builds of the targets which had something to compile. The data is kept in a separate file
+ * in the data storage root, so it survives project rebuilds which wipe the targets state.
+ */
+public class TargetBuildTimes {
+  private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.incremental.storage.TargetBuildTimes");
+  private static final int VERSION = 0;
+  private final File myFile;
+  private final TObjectLongHashMap<String> myTimes = new TObjectLongHashMap<String>();
+
+  public TargetBuildTimes(File dataStorageRoot) {
+    myFile = new File(dataStorageRoot, "target-build-times.dat");
+    load();
+  }
+
+  private void load() {
+    if (!myFile.exists()) {
+      return;
+    }
+    try {
+      DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(myFile)));
+      try {
+        if (input.readInt() != VERSION) {
+          return;
+        }
+        int size = input.readInt();
+        while (size-- > 0) {
+          String key = IOUtil.readString(input);
+          myTimes.put(key, input.readLong());
+        }
+      }
+      finally {
+        input.close();
+      }
+    }
+    catch (IOException e) {
+      LOG.info("Cannot load target build times: " + e.getMessage(), e);
+      myTimes.clear();
+    }
+  }
+
+  public synchronized void save() {
+    try {
+      FileUtil.createParentDirs(myFile);
+      final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(myFile)));
+      try {
+        output.writeInt(VERSION);
+        output.writeInt(myTimes.size());
+        final IOException[] error = new IOException[1];
+        myTimes.forEachEntry(new TObjectLongProcedure<String>() {
+          @Override
+          public boolean execute(String key, long time) {
+            try {
+              IOUtil.writeString(key, output);
+              output.writeLong(time);
+              return true;
+            }
+            catch (IOException e) {
+              error[0] = e;
+              return false;
+            }
+          }
+        });
+        if (error[0] != null) {
+          throw error[0];
+        }
+      }
+      finally {
+        output.close();
+      }
+    }
+    catch (IOException e) {
+      LOG.info("Cannot save target build times: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * @return average build time of the target in milliseconds, or -1 if the target was never built
+   */
+  public synchronized long getAverageTime(BuildTarget<?> target) {
+    final String key = getKey(target);
+    return myTimes.containsKey(key) ? myTimes.get(key) : -1;
+  }
+
+  public synchronized void addBuildTime(BuildTarget<?> target, long time) {
+    final String key = getKey(target);
+    // the recent builds are more representative, so older ones are given less weight
+    myTimes.put(key, myTimes.containsKey(key) ? (myTimes.get(key) + time) / 2 : time);
+  }
+
+  private static String getKey(BuildTarget<?> target) {
+    return target.getTargetType().getTypeId() + ":" + target.getId();
+  }
+}
@@ -15,26 +15,46 @@
  */
 package org.jetbrains.jps.incremental.storage;
 
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.util.ArrayUtil;
 import com.intellij.util.io.DataExternalizer;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.jetbrains.jps.builders.BuildTarget;
 
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.File;
 import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author Eugene Zhuravlev
  *         Date: 10/7/11
  */
 public class TimestampStorage extends AbstractStateStorage<File, TimestampStorage.TimestampPerTarget[]> implements Timestamps {
+  private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.incremental.storage.TimestampStorage");
+  public static final long NO_HASH = 0L;
+
   private final BuildTargetsState myTargetsState;
+  private final boolean myUseContentHashes;
+  private final AtomicInteger myUnchangedContentCount = new AtomicInteger();
 
   public TimestampStorage(File storePath, BuildTargetsState targetsState) throws IOException {
+    this(storePath, targetsState, false);
+  }
+
+  /**
+   * @param useContentHashes if true, a hash of the file content is saved along with the timestamp and a file whose timestamp
+   *                         has changed is considered modified only if its content has changed too
+   */
+  public TimestampStorage(File storePath, BuildTargetsState targetsState, boolean useContentHashes) throws IOException {
     super(storePath, new FileKeyDescriptor(), new StateExternalizer());
     myTargetsState = targetsState;
+    myUseContentHashes = useContentHashes;
   }
 
   @Override
@@ -49,27 +69,77 @@ public class TimestampStorage extends AbstractStateStorage<File, TimestampStorag
 
   @Override
   public long getStamp(File file, BuildTarget<?> target) throws IOException {
+    final TimestampPerTarget stamp = findStamp(getState(file), myTargetsState.getBuildTargetId(target));
+    return stamp != null ? stamp.timestamp : -1L;
+  }
+
+  @Override
+  public boolean isModified(File file, BuildTarget<?> target, long currentStamp) throws IOException {
     final TimestampPerTarget[] state = getState(file);
+    final int targetId = myTargetsState.getBuildTargetId(target);
+    final TimestampPerTarget stamp = findStamp(state, targetId);
+    if (stamp == null) {
+      return true;
+    }
+    if (stamp.timestamp == currentStamp) {
+      return false;
+    }
+    if (!myUseContentHashes || stamp.contentHash == NO_HASH || computeContentHash(file) != stamp.contentHash) {
+      return true;
+    }
+    // only the timestamp has changed (e.g. the file was rewritten by a VCS checkout), remember it to avoid hashing next time
+    update(file, updateTimestamp(state, targetId, currentStamp, stamp.contentHash));
+    myUnchangedContentCount.incrementAndGet();
+    return false;
+  }
+
+  /**
+   * @return the number of files found unchanged by content though their timestamps had changed, since the previous call
+   */
+  public int resetUnchangedContentCount() {
+    return myUnchangedContentCount.getAndSet(0);
+  }
+
+  @Override
+  public void saveStamp(File file, BuildTarget<?> buildTarget, long timestamp) throws IOException {
+    int targetId = myTargetsState.getBuildTargetId(buildTarget);
+    final long contentHash = myUseContentHashes ? computeContentHash(file) : NO_HASH;
+    update(file, updateTimestamp(getState(file), targetId, timestamp, contentHash));
+  }
+
+  @Nullable
+  private static TimestampPerTarget findStamp(@Nullable TimestampPerTarget[] state, int targetId) {
     if (state != null) {
-      int targetId = myTargetsState.getBuildTargetId(target);
       for (TimestampPerTarget timestampPerTarget : state) {
         if (timestampPerTarget.targetId == targetId) {
-          return timestampPerTarget.timestamp;
+          return timestampPerTarget;
         }
       }
     }
-    return -1L;
+    return null;
   }
 
-  @Override
-  public void saveStamp(File file, BuildTarget<?> buildTarget, long timestamp) throws IOException {
-    int targetId = myTargetsState.getBuildTargetId(buildTarget);
-    update(file, updateTimestamp(getState(file), targetId, timestamp));
+  private static long computeContentHash(File file) {
+    try {
+      final byte[] digest = MessageDigest.getInstance("MD5").digest(FileUtil.loadFileBytes(file));
+      long hash = 0;
+      for (int i = 0; i < 8; i++) {
+        hash = (hash << 8) | (digest[i] & 0xFF);
+      }
+      return hash == NO_HASH ? 1 : hash;
+    }
+    catch (NoSuchAlgorithmException e) {
+      LOG.error(e);
+    }
+    catch (IOException e) {
+      LOG.info(e);
+    }
+    return NO_HASH;
   }
 
   @NotNull
-  private static TimestampPerTarget[] updateTimestamp(TimestampPerTarget[] oldState, final int targetId, long timestamp) {
-    final TimestampPerTarget newItem = new TimestampPerTarget(targetId, timestamp);
+  private static TimestampPerTarget[] updateTimestamp(TimestampPerTarget[] oldState, final int targetId, long timestamp, long contentHash) {
+    final TimestampPerTarget newItem = new TimestampPerTarget(targetId, timestamp, contentHash);
     if (oldState == null) {
       return new TimestampPerTarget[]{newItem};
     }
@@ -105,10 +175,16 @@ public class TimestampStorage extends AbstractStateStorage<File, TimestampStorag
   public static class TimestampPerTarget {
     public final int targetId;
     public final long timestamp;
+    public final long contentHash;
 
     public TimestampPerTarget(int targetId, long timestamp) {
+      this(targetId, timestamp, NO_HASH);
+    }
+
+    public TimestampPerTarget(int targetId, long timestamp, long contentHash) {
       this.targetId = targetId;
       this.timestamp = timestamp;
+      this.contentHash = contentHash;
     }
   }
 
@@ -118,6 +194,7 @@ public class TimestampStorage extends AbstractStateStorage<File, TimestampStorag
       for (TimestampPerTarget target : value) {
         out.writeInt(target.targetId);
         out.writeLong(target.timestamp);
+        out.writeLong(target.contentHash);
       }
     }
 
@@ -127,7 +204,8 @@ public class TimestampStorage extends AbstractStateStorage<File, TimestampStorag
       for (int i = 0; i < size; i++) {
         int id = in.readInt();
         long timestamp = in.readLong();
-        targets[i] = new TimestampPerTarget(id, timestamp);
+        long contentHash = in.readLong();
+        targets[i] = new TimestampPerTarget(id, timestamp, contentHash);
       }
       return targets;
     }
@@ -34,4 +34,12 @@ public interface Timestamps {
   void clean() throws IOException;
 
   long getStamp(File file, BuildTarget<?> target) throws IOException;
+
+  /**
+   * @param currentStamp the current timestamp of the file
+   * @return true if the file has changed since its stamp was saved for the target. If content hashes are stored
+   * (see {@link org.jetbrains.jps.api.GlobalOptions#USE_CONTENT_HASHES_OPTION}), a file with a new timestamp but the same content
+   * is not considered changed and its stamp is updated.
+   */
+  boolean isModified(File file, BuildTarget<?> target, long currentStamp) throws IOException;
 }
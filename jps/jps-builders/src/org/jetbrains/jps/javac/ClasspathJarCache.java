@@ -0,0 +1,434 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.javac;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.asm4.ClassReader;
+import org.jetbrains.asm4.ClassVisitor;
+import org.jetbrains.asm4.Opcodes;
+
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.tools.JavaFileObject;
+import java.io.*;
+import java.net.URI;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Listings of classpath jars shared by all compilations in the process. The standard javac file manager opens every classpath
+ * jar and reads its central directory again for each compiled chunk; with many modules depending on the same libraries
+ * this takes a noticeable part of the compilation time.
+ * <p/>
+ * A listing is valid while the length and the timestamp of the jar stay the same. The jar itself is kept open while the listing
+ * is cached, so the central directory is read once per build; the jars which no compilation uses are closed by {@link #closeJars()}
+ * when the build finishes, so they are not locked between builds.
+ */
+public class ClasspathJarCache {
+  private static final long MAX_MEMORY = 64L * 1024 * 1024;
+  private static final ClasspathJarCache ourInstance = new ClasspathJarCache();
+  private final long myMaxMemory;
+  private final LinkedHashMap<File, JarListing> myListings = new LinkedHashMap<File, JarListing>(16, 0.75f, true);
+  private long myEstimatedMemory;
+  private int myHits;
+  private int myMisses;
+
+  ClasspathJarCache() {
+    this(MAX_MEMORY);
+  }
+
+  ClasspathJarCache(long maxMemory) {
+    myMaxMemory = maxMemory;
+  }
+
+  public static ClasspathJarCache getInstance() {
+    return ourInstance;
+  }
+
+  /**
+   * @return up-to-date listing of the jar or {@code null} if the jar cannot be read; the caller must {@link JarListing#release() release}
+   * the returned listing when the compilation finishes
+   */
+  @Nullable
+  public synchronized JarListing acquire(File jar) {
+    final long length = jar.length();
+    final long stamp = jar.lastModified();
+    JarListing listing = myListings.get(jar);
+    if (listing != null && listing.myLength == length && listing.myStamp == stamp) {
+      myHits++;
+    }
+    else {
+      myMisses++;
+      if (listing != null) {
+        removeListing(jar);
+      }
+      try {
+        listing = new JarListing(jar, length, stamp);
+      }
+      catch (IOException e) {
+        return null;
+      }
+      myListings.put(jar, listing);
+      myEstimatedMemory += listing.myEstimatedMemory;
+      evictIfNeeded();
+    }
+    listing.acquire();
+    return listing;
+  }
+
+  private void evictIfNeeded() {
+    // the map is access-ordered, so the values are taken from the entries: get() would reorder the map while iterating
+    final Iterator<Map.Entry<File, JarListing>> iterator = myListings.entrySet().iterator();
+    while (myEstimatedMemory > myMaxMemory && myListings.size() > 1 && iterator.hasNext()) {
+      // the listings being used stay valid for their users, they are only dropped from the cache
+      final JarListing evicted = iterator.next().getValue();
+      iterator.remove();
+      myEstimatedMemory -= evicted.myEstimatedMemory;
+      evicted.drop();
+    }
+  }
+
+  private void removeListing(File jar) {
+    final JarListing removed = myListings.remove(jar);
+    if (removed != null) {
+      myEstimatedMemory -= removed.myEstimatedMemory;
+      removed.drop();
+    }
+  }
+
+  /**
+   * Closes the jars which are not used by any compilation. The listings stay cached, a jar is opened again when its content is read.
+   */
+  public synchronized void closeJars() {
+    for (JarListing listing : myListings.values()) {
+      listing.closeIfUnused();
+    }
+  }
+
+  @NotNull
+  public synchronized String getStatistics() {
+    return "Classpath jar cache: " + myListings.size() + " jars, ~" + myEstimatedMemory / 1024 + "K; " +
+           myHits + " hits, " + myMisses + " misses";
+  }
+
+  public static class JarListing {
+    private static final List<String> EMPTY = Collections.emptyList();
+    private final File myJar;
+    private final long myLength;
+    private final long myStamp;
+    private final long myEstimatedMemory;
+    /**
+     * package path ('/'-separated) -> names of class files in the package
+     */
+    private final Map<String, List<String>> myClassFiles = new HashMap<String, List<String>>();
+    private int myUsages;
+    private boolean myDropped;
+    @Nullable private ZipFile myZipFile;
+
+    private JarListing(File jar, long length, long stamp) throws IOException {
+      myJar = jar;
+      myLength = length;
+      myStamp = stamp;
+      long memory = 0;
+      final ZipFile zipFile = new ZipFile(jar);
+      boolean success = false;
+      try {
+        final Enumeration<? extends ZipEntry> entries = zipFile.entries();
+        while (entries.hasMoreElements()) {
+          final ZipEntry entry = entries.nextElement();
+          final String name = entry.getName();
+          if (entry.isDirectory() || !name.endsWith(JavaFileObject.Kind.CLASS.extension)) {
+            continue;
+          }
+          final int slash = name.lastIndexOf('/');
+          final String packagePath = slash >= 0 ? name.substring(0, slash) : "";
+          List<String> names = myClassFiles.get(packagePath);
+          if (names == null) {
+            names = new ArrayList<String>();
+            myClassFiles.put(packagePath, names);
+            memory += 2 * packagePath.length() + 100;
+          }
+          final String fileName = name.substring(slash + 1);
+          names.add(fileName);
+          memory += 2 * fileName.length() + 50;
+        }
+        success = true;
+      }
+      finally {
+        if (!success) {
+          zipFile.close();
+        }
+      }
+      myZipFile = zipFile;
+      myEstimatedMemory = memory;
+    }
+
+    @NotNull
+    public List<String> getClassFileNames(String packagePath) {
+      final List<String> names = myClassFiles.get(packagePath);
+      return names != null ? names : EMPTY;
+    }
+
+    @NotNull
+    public JavaFileObject createFileObject(String packagePath, String fileName) {
+      return new JarEntryFileObject(this, packagePath.isEmpty() ? fileName : packagePath + "/" + fileName);
+    }
+
+    private synchronized void acquire() {
+      myUsages++;
+    }
+
+    public synchronized void release() {
+      if (--myUsages == 0 && myDropped) {
+        closeZipFile();
+      }
+    }
+
+    /**
+     * Called when the listing is removed from the cache; the jar is closed as soon as no compilation uses it.
+     */
+    private synchronized void drop() {
+      myDropped = true;
+      closeIfUnused();
+    }
+
+    private synchronized void closeIfUnused() {
+      if (myUsages == 0) {
+        closeZipFile();
+      }
+    }
+
+    private void closeZipFile() {
+      if (myZipFile != null) {
+        try {
+          myZipFile.close();
+        }
+        catch (IOException ignored) {
+        }
+        myZipFile = null;
+      }
+    }
+
+    private synchronized ZipFile getZipFile() throws IOException {
+      if (myZipFile == null) {
+        myZipFile = new ZipFile(myJar);
+      }
+      return myZipFile;
+    }
+
+    private InputStream openEntry(String entryName) throws IOException {
+      // the jar isn't closed while the listing is in use, so the entry is inflated without holding the lock
+      final ZipFile zipFile = getZipFile();
+      final ZipEntry entry = zipFile.getEntry(entryName);
+      if (entry == null) {
+        throw new FileNotFoundException(myJar.getPath() + "!/" + entryName);
+      }
+      // javac reads the whole class file at once, so the content is read here to not depend on the jar staying open
+      final InputStream input = zipFile.getInputStream(entry);
+      try {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.max((int)entry.getSize(), 32));
+        final byte[] buffer = new byte[8192];
+        int count;
+        while ((count = input.read(buffer)) > 0) {
+          bytes.write(buffer, 0, count);
+        }
+        return new ByteArrayInputStream(bytes.toByteArray());
+      }
+      finally {
+        input.close();
+      }
+    }
+  }
+
+  static class JarEntryFileObject implements JavaFileObject {
+    private final JarListing myListing;
+    private final String myEntryName;
+    private volatile ClassInfo myClassInfo;
+
+    private JarEntryFileObject(JarListing listing, String entryName) {
+      myListing = listing;
+      myEntryName = entryName;
+    }
+
+    public String getBinaryName() {
+      return myEntryName.substring(0, myEntryName.length() - Kind.CLASS.extension.length()).replace('/', '.');
+    }
+
+    @Override
+    public Kind getKind() {
+      return Kind.CLASS;
+    }
+
+    @Override
+    public boolean isNameCompatible(String simpleName, Kind kind) {
+      if (kind != Kind.CLASS) {
+        return false;
+      }
+      final String fileName = simpleName + kind.extension;
+      return myEntryName.equals(fileName) || myEntryName.endsWith("/" + fileName);
+    }
+
+    @Override
+    public NestingKind getNestingKind() {
+      return getClassInfo().myNestingKind;
+    }
+
+    @Override
+    public Modifier getAccessLevel() {
+      return getClassInfo().myAccessLevel;
+    }
+
+    @NotNull
+    private ClassInfo getClassInfo() {
+      ClassInfo info = myClassInfo;
+      if (info == null) {
+        myClassInfo = info = ClassInfo.read(this);
+      }
+      return info;
+    }
+
+    @Override
+    public URI toUri() {
+      return URI.create("jar:" + myListing.myJar.toURI() + "!/" + myEntryName);
+    }
+
+    @Override
+    public String getName() {
+      return myListing.myJar.getPath() + "(" + myEntryName + ")";
+    }
+
+    @Override
+    public InputStream openInputStream() throws IOException {
+      return myListing.openEntry(myEntryName);
+    }
+
+    @Override
+    public OutputStream openOutputStream() throws IOException {
+      throw new IllegalStateException("Cannot write to a classpath jar entry: " + getName());
+    }
+
+    @Override
+    public Reader openReader(boolean ignoreEncodingErrors) throws IOException {
+      return new InputStreamReader(openInputStream());
+    }
+
+    @Override
+    public CharSequence getCharContent(boolean ignoreEncodingErrors) throws IOException {
+      final Reader reader = openReader(ignoreEncodingErrors);
+      try {
+        final StringBuilder content = new StringBuilder();
+        final char[] buffer = new char[8192];
+        int count;
+        while ((count = reader.read(buffer)) > 0) {
+          content.append(buffer, 0, count);
+        }
+        return content;
+      }
+      finally {
+        reader.close();
+      }
+    }
+
+    @Override
+    public Writer openWriter() throws IOException {
+      throw new IllegalStateException("Cannot write to a classpath jar entry: " + getName());
+    }
+
+    @Override
+    public long getLastModified() {
+      return myListing.myStamp;
+    }
+
+    @Override
+    public boolean delete() {
+      return false;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof JarEntryFileObject)) return false;
+      final JarEntryFileObject that = (JarEntryFileObject)o;
+      return myEntryName.equals(that.myEntryName) && myListing.myJar.equals(that.myListing.myJar);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * myListing.myJar.hashCode() + myEntryName.hashCode();
+    }
+
+    @Override
+    public String toString() {
+      return getName();
+    }
+  }
+
+  /**
+   * The nesting kind and the access level of a class, read from its access flags and InnerClasses attribute.
+   */
+  private static class ClassInfo {
+    private static final ClassInfo UNKNOWN = new ClassInfo(null, null);
+    @Nullable private final NestingKind myNestingKind;
+    @Nullable private final Modifier myAccessLevel;
+
+    private ClassInfo(@Nullable NestingKind nestingKind, @Nullable Modifier accessLevel) {
+      myNestingKind = nestingKind;
+      myAccessLevel = accessLevel;
+    }
+
+    @NotNull
+    static ClassInfo read(@NotNull JarEntryFileObject fileObject) {
+      try {
+        final InputStream input = fileObject.openInputStream();
+        try {
+          final ClassReader reader = new ClassReader(input);
+          final String className = reader.getClassName();
+          final NestingKind[] nestingKind = {NestingKind.TOP_LEVEL};
+          final int[] access = {reader.getAccess()};
+          reader.accept(new ClassVisitor(Opcodes.ASM4) {
+            @Override
+            public void visitInnerClass(String name, String outerName, String innerName, int innerAccess) {
+              if (className.equals(name)) {
+                nestingKind[0] = innerName == null ? NestingKind.ANONYMOUS : outerName == null ? NestingKind.LOCAL : NestingKind.MEMBER;
+                access[0] = innerAccess;
+              }
+            }
+          }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+          return new ClassInfo(nestingKind[0], getAccessLevel(access[0]));
+        }
+        finally {
+          input.close();
+        }
+      }
+      catch (IOException e) {
+        return UNKNOWN;
+      }
+      catch (RuntimeException e) { // malformed class file
+        return UNKNOWN;
+      }
+    }
+
+    @Nullable
+    private static Modifier getAccessLevel(int access) {
+      if ((access & Opcodes.ACC_PUBLIC) != 0) return Modifier.PUBLIC;
+      if ((access & Opcodes.ACC_PROTECTED) != 0) return Modifier.PROTECTED;
+      if ((access & Opcodes.ACC_PRIVATE) != 0) return Modifier.PRIVATE;
+      return null; // package-private
+    }
+  }
+}
@@ -36,6 +36,9 @@ class JavacFileManager extends ForwardingJavaFileManager<StandardJavaFileManager
   private final Context myContext;
   private final Collection<JavaSourceTransformer> mySourceTransformers;
   private Map<File, Set<File>> myOutputsMap = Collections.emptyMap();
+  private final boolean myUseJarCache;
+  private final Map<File, ClasspathJarCache.JarListing> myJarListings = new HashMap<File, ClasspathJarCache.JarListing>();
+  private final Map<File, Boolean> myIsJar = new HashMap<File, Boolean>();
 
   interface Context {
     boolean isCanceled();
@@ -47,10 +50,11 @@ class JavacFileManager extends ForwardingJavaFileManager<StandardJavaFileManager
     void reportMessage(final Diagnostic.Kind kind, String message);
   }
 
-  public JavacFileManager(Context context, Collection<JavaSourceTransformer> transformers) {
+  public JavacFileManager(Context context, Collection<JavaSourceTransformer> transformers, boolean useJarCache) {
     super(context.getStandardFileManager());
     myContext = context;
     mySourceTransformers = transformers;
+    myUseJarCache = useJarCache;
   }
 
   public void setOutputDirectories(final Map<File, Set<File>> outputDirToSrcRoots) throws IOException{
@@ -86,7 +90,8 @@ class JavacFileManager extends ForwardingJavaFileManager<StandardJavaFileManager
   }
 
   public boolean isSameFile(FileObject a, FileObject b) {
-    if (a instanceof OutputFileObject || b instanceof OutputFileObject) {
+    if (a instanceof OutputFileObject || b instanceof OutputFileObject ||
+        a instanceof ClasspathJarCache.JarEntryFileObject || b instanceof ClasspathJarCache.JarEntryFileObject) {
       return a.equals(b);
     }
     return super.isSameFile(a, b);
@@ -105,11 +110,80 @@ class JavacFileManager extends ForwardingJavaFileManager<StandardJavaFileManager
 
   @Override
   public Iterable<JavaFileObject> list(Location location, String packageName, Set<JavaFileObject.Kind> kinds, boolean recurse) throws IOException {
+    if (myUseJarCache && location == StandardLocation.CLASS_PATH && !recurse && kinds.size() == 1 && kinds.contains(JavaFileObject.Kind.CLASS)) {
+      final List<JavaFileObject> classes = listClasspathClasses(packageName);
+      if (classes != null) {
+        return classes;
+      }
+    }
     final Iterable<JavaFileObject> objects = super.list(location, packageName, kinds, recurse);
     //noinspection unchecked
     return kinds.contains(JavaFileObject.Kind.SOURCE)? (Iterable<JavaFileObject>)wrapJavaFileObjects(objects) : objects;
   }
 
+  /**
+   * Lists classes of the package in the classpath roots in their order, taking the content of jars from {@link ClasspathJarCache}
+   * @return {@code null} if there are no jars in the classpath or some of them cannot be read, so javac should list the classes itself
+   */
+  @Nullable
+  private List<JavaFileObject> listClasspathClasses(String packageName) {
+    final Iterable<? extends File> roots = getLocation(StandardLocation.CLASS_PATH);
+    if (roots == null) {
+      return null;
+    }
+    final String packagePath = packageName.replace('.', '/');
+    final List<JavaFileObject> result = new ArrayList<JavaFileObject>();
+    boolean hasJars = false;
+    for (File root : roots) {
+      if (isJar(root)) {
+        ClasspathJarCache.JarListing listing = myJarListings.get(root);
+        if (listing == null) {
+          listing = ClasspathJarCache.getInstance().acquire(root);
+          if (listing == null) {
+            return null;
+          }
+          myJarListings.put(root, listing);
+        }
+        hasJars = true;
+        for (String name : listing.getClassFileNames(packagePath)) {
+          result.add(listing.createFileObject(packagePath, name));
+        }
+      }
+      else {
+        final File[] children = (packagePath.isEmpty() ? root : new File(root, packagePath)).listFiles();
+        if (children != null) {
+          final List<File> classFiles = new ArrayList<File>();
+          for (File child : children) {
+            if (child.getName().endsWith(JavaFileObject.Kind.CLASS.extension)) {
+              classFiles.add(child);
+            }
+          }
+          for (JavaFileObject object : getStdManager().getJavaFileObjectsFromFiles(classFiles)) {
+            result.add(object);
+          }
+        }
+      }
+    }
+    return hasJars ? result : null;
+  }
+
+  private boolean isJar(File root) {
+    Boolean isJar = myIsJar.get(root);
+    if (isJar == null) {
+      isJar = root.isFile();
+      myIsJar.put(root, isJar);
+    }
+    return isJar;
+  }
+
+  @Override
+  public String inferBinaryName(Location location, JavaFileObject file) {
+    if (file instanceof ClasspathJarCache.JarEntryFileObject) {
+      return ((ClasspathJarCache.JarEntryFileObject)file).getBinaryName();
+    }
+    return super.inferBinaryName(location, file);
+  }
+
   private Iterable<? extends JavaFileObject> wrapJavaFileObjects(Iterable<? extends JavaFileObject> originalObjects) {
     if (mySourceTransformers.isEmpty()) {
       return originalObjects;
@@ -230,6 +304,10 @@ class JavacFileManager extends ForwardingJavaFileManager<StandardJavaFileManager
     }
     finally {
       myOutputsMap = Collections.emptyMap();
+      for (ClasspathJarCache.JarListing listing : myJarListings.values()) {
+        listing.release();
+      }
+      myJarListings.clear();
     }
   }
 
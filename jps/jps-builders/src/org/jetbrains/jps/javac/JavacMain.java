@@ -51,7 +51,7 @@ public class JavacMain {
                                 Map<File, Set<File>> outputDirToRoots,
                                 final DiagnosticOutputConsumer outConsumer,
                                 final OutputFileConsumer outputSink,
-                                CanceledStatus canceledStatus, boolean useEclipseCompiler) {
+                                CanceledStatus canceledStatus, boolean useEclipseCompiler, boolean useClasspathJarCache) {
     JavaCompiler compiler = null;
     if (useEclipseCompiler) {
       for (JavaCompiler javaCompiler : ServiceLoader.load(JavaCompiler.class)) {
@@ -83,7 +83,8 @@ public class JavacMain {
     
     final List<JavaSourceTransformer> transformers = getSourceTransformers();
 
-    final JavacFileManager fileManager = new JavacFileManager(new ContextImpl(compiler, outConsumer, outputSink, canceledStatus, nowUsingJavac), transformers);
+    final JavacFileManager fileManager = new JavacFileManager(new ContextImpl(compiler, outConsumer, outputSink, canceledStatus, nowUsingJavac), transformers,
+                                                                useClasspathJarCache && nowUsingJavac);
 
     fileManager.handleOption("-bootclasspath", Collections.singleton("").iterator()); // this will clear cached stuff
     fileManager.handleOption("-extdirs", Collections.singleton("").iterator()); // this will clear cached stuff
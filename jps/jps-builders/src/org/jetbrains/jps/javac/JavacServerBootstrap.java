@@ -25,6 +25,7 @@ import com.intellij.openapi.util.SystemInfo;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.util.concurrency.Semaphore;
+import org.jetbrains.jps.api.GlobalOptions;
 import org.jetbrains.jps.cmdline.ClasspathBootstrap;
 import org.jetbrains.jps.service.SharedThreadPool;
 
@@ -44,7 +45,8 @@ public class JavacServerBootstrap {
                                                        int port,
                                                        File workingDir,
                                                        List<String> vmOptions,
-                                                       boolean useEclipseCompiler) throws Exception {
+                                                       boolean useEclipseCompiler,
+                                                       boolean useClasspathJarCache) throws Exception {
     final List<String> cmdLine = new ArrayList<String>();
     appendParam(cmdLine, getVMExecutablePath(sdkHomePath));
     appendParam(cmdLine, "-XX:MaxPermSize=150m");
@@ -85,6 +87,9 @@ public class JavacServerBootstrap {
     if (useEclipseCompiler) {
       appendParam(cmdLine, "-D" + JavacServer.USE_ECLIPSE_COMPILER_PROPERTY);
     }
+    if (useClasspathJarCache) {
+      appendParam(cmdLine, "-D" + GlobalOptions.USE_CLASSPATH_JAR_CACHE_OPTION + "=true");
+    }
 
     for (String option : vmOptions) {
       appendParam(cmdLine, option);
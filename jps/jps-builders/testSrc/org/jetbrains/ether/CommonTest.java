@@ -15,6 +15,8 @@
  */
 package org.jetbrains.ether;
 
+import org.jetbrains.jps.builders.java.dependencyView.Mappings;
+
 /**
  * @author: db
  * Date: 22.09.11
@@ -78,6 +80,17 @@ public class CommonTest extends IncrementalTestCase {
     doTest();
   }
 
+  public void testParallelDependentChecks() throws Exception {
+    // the same files as in the serial check must be affected
+    Mappings.setParallelChecks(1, 3);
+    try {
+      doTest();
+    }
+    finally {
+      Mappings.setParallelChecks(0, 0);
+    }
+  }
+
   public void testClass2Interface1() throws Exception {
     doTest();
   }
@@ -25,6 +25,8 @@ import org.jetbrains.jps.model.module.JpsModule;
 import org.jetbrains.jps.model.module.JpsModuleSourceRoot;
 import org.jetbrains.jps.model.module.JpsTypedModuleSourceRoot;
 
+import java.io.File;
+
 import static com.intellij.util.io.TestFileSystemItem.fs;
 
 /**
@@ -53,4 +55,30 @@ public class ResourceCopyingTest extends JpsBuildTestCase {
     rebuildAll();
     assertOutput(m, fs().dir("xxx").file("a.xml"));
   }
+
+  public void testCopyChangedFile() {
+    String file = createFile("src/a.xml", "a");
+    createFile("src/b.xml", "b");
+    JpsModule m = addModule("m", PathUtil.getParentPath(file));
+    rebuildAll();
+    assertOutput(m, fs().file("a.xml", "a").file("b.xml", "b"));
+
+    change(file, "a2");
+    makeAll();
+    assertOutput(m, fs().file("a.xml", "a2").file("b.xml", "b"));
+  }
+
+  public void testDoNotRewriteFileWithSameContent() {
+    String file = createFile("src/a.xml", "a");
+    JpsModule m = addModule("m", PathUtil.getParentPath(file));
+    rebuildAll();
+    File output = new File(JpsJavaExtensionService.getInstance().getOutputDirectory(m, false), "a.xml");
+    assertTrue(output.setLastModified(output.lastModified() - 10000));
+    long outputTimestamp = output.lastModified();
+
+    change(file, "a");
+    makeAll();
+    assertEquals(outputTimestamp, output.lastModified());
+    assertOutput(m, fs().file("a.xml", "a"));
+  }
 }
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.incremental;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.PathUtil;
+import org.jetbrains.jps.api.GlobalOptions;
+import org.jetbrains.jps.builders.JpsBuildTestCase;
+import org.jetbrains.jps.incremental.java.JavaBuilder;
+
+import java.io.File;
+import java.io.IOException;
+
+public class BuildProfileTest extends JpsBuildTestCase {
+  public void testProfileSaved() throws IOException {
+    String a = createFile("src/A.java", "public class A {}");
+    addModule("m", PathUtil.getParentPath(a));
+    myBuildParams.put(GlobalOptions.BUILD_PROFILING_REPORT_OPTION, "true");
+    rebuildAll();
+
+    String profile = FileUtil.loadFile(new File(myDataStorageRoot, BuildProfile.FILE_NAME));
+    assertTrue(profile, profile.contains("\"name\": \"" + JavaBuilder.BUILDER_NAME + "\""));
+    assertTrue(profile, profile.contains("\"name\": \"" + BuildProfile.JAVAC + "\""));
+    assertTrue(profile, profile.contains("\"name\": \"" + BuildProfile.DEPENDENCY_ANALYSIS + "\""));
+    assertTrue(profile, profile.contains("\"name\": \"" + BuildProfile.STORAGE_FLUSH + "\""));
+    assertTrue(profile, profile.contains("Module 'm' production"));
+  }
+
+  public void testNothingSavedByDefault() {
+    String a = createFile("src/A.java", "public class A {}");
+    addModule("m", PathUtil.getParentPath(a));
+    rebuildAll();
+    assertFalse(new File(myDataStorageRoot, BuildProfile.FILE_NAME).exists());
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.incremental;
+
+import com.intellij.util.PathUtil;
+import org.jetbrains.jps.api.GlobalOptions;
+import org.jetbrains.jps.builders.JpsBuildTestCase;
+import org.jetbrains.jps.incremental.java.JavaBuilder;
+import org.jetbrains.jps.model.module.JpsModule;
+
+import static com.intellij.util.io.TestFileSystemItem.fs;
+
+public class LocalBuildCacheTest extends JpsBuildTestCase {
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myBuildParams.put(GlobalOptions.LOCAL_BUILD_CACHE_DIR_OPTION, getAbsolutePath("build-cache"));
+  }
+
+  public void testRestoreRevertedChanges() {
+    String a = createFile("src/A.java", "public class A { public void foo() {} }");
+    JpsModule m = addModule("m", PathUtil.getParentPath(a));
+    rebuildAll();
+
+    change(a, "public class A { public void bar() {} }");
+    makeAll().assertSuccessful();
+    assertCompiled(JavaBuilder.BUILDER_NAME, "src/A.java");
+
+    change(a, "public class A { public void foo() {} }");
+    makeAll().assertSuccessful();
+    assertCompiled(JavaBuilder.BUILDER_NAME);
+    assertOutput(m, fs().file("A.class"));
+  }
+
+  public void testRecompileDependentOfRestoredTarget() {
+    String b = createFile("depSrc/B.java", "public class B { public void foo() {} }");
+    String a = createFile("src/A.java", "public class A { { new B().foo(); } }");
+    JpsModule main = addModule("main", PathUtil.getParentPath(a));
+    JpsModule dep = addModule("dep", PathUtil.getParentPath(b));
+    main.getDependenciesList().addModuleDependency(dep);
+    rebuildAll();
+
+    change(b, "public class B { public void foo() {} public void bar() {} }");
+    change(a, "public class A { { new B().bar(); } }");
+    makeAll().assertSuccessful();
+    assertCompiled(JavaBuilder.BUILDER_NAME, "depSrc/B.java", "src/A.java");
+
+    // B is restored, the removal of 'bar' makes A compiled against the old state of B which is taken from the cache too
+    change(b, "public class B { public void foo() {} }");
+    change(a, "public class A { { new B().foo(); } }");
+    makeAll().assertSuccessful();
+    assertCompiled(JavaBuilder.BUILDER_NAME);
+
+    // B is restored while A has no matching entry and must be compiled against the restored B
+    change(b, "public class B { public void foo() {} public void bar() {} }");
+    change(a, "public class A { { new B().bar(); new B().foo(); } }");
+    makeAll().assertSuccessful();
+    assertCompiled(JavaBuilder.BUILDER_NAME, "src/A.java");
+    assertOutput(dep, fs().file("B.class"));
+  }
+}
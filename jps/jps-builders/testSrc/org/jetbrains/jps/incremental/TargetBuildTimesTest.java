@@ -0,0 +1,54 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.incremental;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.PathUtil;
+import org.jetbrains.jps.api.GlobalOptions;
+import org.jetbrains.jps.builders.JpsBuildTestCase;
+import org.jetbrains.jps.builders.java.JavaModuleBuildTargetType;
+import org.jetbrains.jps.incremental.storage.TargetBuildTimes;
+import org.jetbrains.jps.model.module.JpsModule;
+
+import java.io.File;
+import java.io.IOException;
+
+public class TargetBuildTimesTest extends JpsBuildTestCase {
+  public void testTimesRecordedForCompiledTargets() {
+    String a = createFile("src/A.java", "public class A {}");
+    JpsModule m = addModule("m", PathUtil.getParentPath(a));
+    rebuildAll();
+
+    TargetBuildTimes times = new TargetBuildTimes(myDataStorageRoot);
+    assertTrue(times.getAverageTime(new ModuleBuildTarget(m, JavaModuleBuildTargetType.PRODUCTION)) >= 0);
+    assertEquals(-1, times.getAverageTime(new ModuleBuildTarget(m, JavaModuleBuildTargetType.TEST)));
+  }
+
+  public void testTimelineSavedWithProfilingReport() throws IOException {
+    String a = createFile("src/A.java", "public class A {}");
+    addModule("m", PathUtil.getParentPath(a));
+    rebuildAll();
+    File timeline = new File(myDataStorageRoot, BuildTimeline.FILE_NAME);
+    assertFalse(timeline.exists());
+
+    myBuildParams.put(GlobalOptions.BUILD_PROFILING_REPORT_OPTION, "true");
+    makeAll().assertUpToDate();
+    assertTrue(timeline.exists());
+    String text = FileUtil.loadFile(timeline);
+    assertTrue(text, text.startsWith("{\"traceEvents\": ["));
+    assertTrue(text, text.contains("\"compiled\": false"));
+  }
+}
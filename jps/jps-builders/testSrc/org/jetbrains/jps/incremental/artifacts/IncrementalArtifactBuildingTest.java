@@ -24,6 +24,8 @@ import org.jetbrains.jps.model.module.JpsModule;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.ZipFile;
 
 import static com.intellij.util.io.TestFileSystemItem.fs;
 import static org.jetbrains.jps.incremental.artifacts.LayoutElementTestUtil.archive;
@@ -78,6 +80,56 @@ public class IncrementalArtifactBuildingTest extends ArtifactBuilderTestCase {
     buildAllAndAssertUpToDate();
   }
 
+  public void testPackChangedFileWithExtractedAndNestedArchiveContent() {
+    String file1 = createFile("dir/a.txt", "aaa");
+    createFile("dir/b.txt", "bbb");
+    String file2 = createFile("c.txt", "ccc");
+    final JpsArtifact a = addArtifact(archive("a.jar").parentDirCopy(file1).extractedDir(getJUnitJarPath(), "/junit/textui/")
+                                        .archive("n.jar").fileCopy(file2));
+    buildAll();
+    buildAllAndAssertUpToDate();
+
+    change(file1, "xxx");
+    buildAll();
+    assertOutput(a, fs().archive("a.jar").file("a.txt", "xxx").file("b.txt", "bbb")
+                          .file("ResultPrinter.class").file("TestRunner.class")
+                          .archive("n.jar").file("c.txt", "ccc"));
+    buildAllAndAssertUpToDate();
+
+    change(file2, "yyy");
+    buildAll();
+    assertOutput(a, fs().archive("a.jar").file("a.txt", "xxx").file("b.txt", "bbb")
+                          .file("ResultPrinter.class").file("TestRunner.class")
+                          .archive("n.jar").file("c.txt", "yyy"));
+    buildAllAndAssertUpToDate();
+  }
+
+  public void testJarMagicWrittenOnRebuild() throws IOException {
+    String file1 = createFile("dir/a.txt", "aaa");
+    createFile("dir/b.txt", "bbb");
+    final JpsArtifact a = addArtifact(archive("a.jar").parentDirCopy(file1));
+    buildAll();
+    File jar = new File(a.getOutputPath(), "a.jar");
+    assertJarMagic(jar);
+
+    change(file1, "xxx");
+    buildAll();
+    assertOutput(a, fs().archive("a.jar").file("a.txt", "xxx").file("b.txt", "bbb"));
+    assertJarMagic(jar);
+  }
+
+  private static void assertJarMagic(File jar) throws IOException {
+    ZipFile zipFile = new ZipFile(jar);
+    try {
+      byte[] extra = zipFile.entries().nextElement().getExtra();
+      assertNotNull(extra);
+      assertTrue(Arrays.equals(new byte[]{(byte)0xFE, (byte)0xCA, 0, 0}, extra));
+    }
+    finally {
+      zipFile.close();
+    }
+  }
+
   public void testRemoveDeletedFileFromArchive() {
     String file1 = createFile("dir/a.txt");
     createFile("dir/b.txt");
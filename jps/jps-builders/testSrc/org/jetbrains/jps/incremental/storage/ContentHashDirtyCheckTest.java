@@ -0,0 +1,58 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.incremental.storage;
+
+import com.intellij.util.PathUtil;
+import org.jetbrains.jps.api.GlobalOptions;
+import org.jetbrains.jps.builders.JpsBuildTestCase;
+import org.jetbrains.jps.incremental.java.JavaBuilder;
+
+public class ContentHashDirtyCheckTest extends JpsBuildTestCase {
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myBuildParams.put(GlobalOptions.USE_CONTENT_HASHES_OPTION, "true");
+  }
+
+  public void testTouchedFileNotRecompiled() {
+    String a = createFile("src/A.java", "public class A {}");
+    String b = createFile("src/B.java", "public class B {}");
+    addModule("m", PathUtil.getParentPath(a));
+    rebuildAll();
+
+    change(a);
+    change(b, "public class B { int x; }");
+    makeAll().assertSuccessful();
+    assertCompiled(JavaBuilder.BUILDER_NAME, "src/B.java");
+
+    change(b, "public class B { int x; }");
+    makeAll().assertUpToDate();
+  }
+
+  public void testRevertedFileRecompiled() {
+    String a = createFile("src/A.java", "public class A {}");
+    addModule("m", PathUtil.getParentPath(a));
+    rebuildAll();
+
+    change(a, "public class A { int x; }");
+    makeAll().assertSuccessful();
+    assertCompiled(JavaBuilder.BUILDER_NAME, "src/A.java");
+
+    change(a, "public class A {}");
+    makeAll().assertSuccessful();
+    assertCompiled(JavaBuilder.BUILDER_NAME, "src/A.java");
+  }
+}
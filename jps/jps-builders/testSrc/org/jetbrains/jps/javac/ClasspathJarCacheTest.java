@@ -0,0 +1,193 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.javac;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.PathUtil;
+import org.jetbrains.jps.api.GlobalOptions;
+import org.jetbrains.jps.builders.JpsBuildTestCase;
+import org.jetbrains.jps.model.java.JpsJavaLibraryType;
+import org.jetbrains.jps.model.library.JpsLibrary;
+import org.jetbrains.jps.model.library.JpsOrderRootType;
+import org.jetbrains.jps.model.module.JpsModule;
+
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.tools.JavaFileObject;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class ClasspathJarCacheTest extends JpsBuildTestCase {
+  public void testListingShared() throws IOException {
+    File jar = new File(getOrCreateProjectDir(), "lib/a.jar");
+    writeJar(jar, "a/A.class", "a/B.class", "a/res.txt", "C.class");
+    ClasspathJarCache cache = new ClasspathJarCache();
+    ClasspathJarCache.JarListing listing = cache.acquire(jar);
+    assertNotNull(listing);
+    assertSame(listing, cache.acquire(jar));
+    assertEquals(Arrays.asList("A.class", "B.class"), listing.getClassFileNames("a"));
+    assertEquals(Arrays.asList("C.class"), listing.getClassFileNames(""));
+    assertEmpty(listing.getClassFileNames("b"));
+    assertTrue(cache.getStatistics(), cache.getStatistics().endsWith("1 hits, 1 misses"));
+
+    JavaFileObject file = listing.createFileObject("a", "B.class");
+    assertEquals("a/B.class", FileUtil.loadTextAndClose(file.openInputStream()));
+    assertEquals("a/B.class", file.getCharContent(false).toString());
+    listing.release();
+    listing.release();
+  }
+
+  public void testChangedJarInvalidated() throws IOException {
+    File jar = new File(getOrCreateProjectDir(), "lib/a.jar");
+    writeJar(jar, "a/A.class");
+    ClasspathJarCache cache = new ClasspathJarCache();
+    ClasspathJarCache.JarListing listing = cache.acquire(jar);
+    assertNotNull(listing);
+    listing.release();
+    cache.closeJars();
+
+    writeJar(jar, "a/A.class", "a/B.class");
+    ClasspathJarCache.JarListing changed = cache.acquire(jar);
+    assertNotNull(changed);
+    assertNotSame(listing, changed);
+    assertEquals(Arrays.asList("A.class", "B.class"), changed.getClassFileNames("a"));
+    assertTrue(cache.getStatistics(), cache.getStatistics().endsWith("0 hits, 2 misses"));
+    changed.release();
+  }
+
+  public void testEvictedListingStaysReadable() throws IOException {
+    File jarA = new File(getOrCreateProjectDir(), "lib/a.jar");
+    File jarB = new File(getOrCreateProjectDir(), "lib/b.jar");
+    writeJar(jarA, "a/A.class");
+    writeJar(jarB, "b/B.class");
+    ClasspathJarCache cache = new ClasspathJarCache(0);
+    ClasspathJarCache.JarListing listingA = cache.acquire(jarA);
+    assertNotNull(listingA);
+    ClasspathJarCache.JarListing listingB = cache.acquire(jarB);
+    assertNotNull(listingB);
+    assertTrue(cache.getStatistics(), cache.getStatistics().startsWith("Classpath jar cache: 1 jars"));
+    assertEquals("a/A.class", FileUtil.loadTextAndClose(listingA.createFileObject("a", "A.class").openInputStream()));
+    listingA.release();
+
+    ClasspathJarCache.JarListing reacquired = cache.acquire(jarA);
+    assertNotSame(listingA, reacquired);
+    assertTrue(cache.getStatistics(), cache.getStatistics().endsWith("0 hits, 3 misses"));
+    listingB.release();
+    reacquired.release();
+  }
+
+  public void testJarsClosedAfterBuild() throws IOException {
+    File jar = new File(getOrCreateProjectDir(), "lib/a.jar");
+    writeJar(jar, "a/A.class");
+    ClasspathJarCache cache = new ClasspathJarCache();
+    ClasspathJarCache.JarListing listing = cache.acquire(jar);
+    assertNotNull(listing);
+    listing.release();
+    cache.closeJars();
+    assertSame(listing, cache.acquire(jar));
+    assertEquals("a/A.class", FileUtil.loadTextAndClose(listing.createFileObject("a", "A.class").openInputStream()));
+    listing.release();
+    cache.closeJars();
+  }
+
+  public void testNestingKindAndAccessLevel() throws IOException {
+    File jar = new File(getOrCreateProjectDir(), "lib/util.jar");
+    createJar(jar, "package util; public class Util { protected static class Member {} void foo() { new Object() {}; class Local {} } }");
+    ClasspathJarCache cache = new ClasspathJarCache();
+    ClasspathJarCache.JarListing listing = cache.acquire(jar);
+    assertNotNull(listing);
+    assertClass(listing, "Util.class", NestingKind.TOP_LEVEL, Modifier.PUBLIC);
+    assertClass(listing, "Util$Member.class", NestingKind.MEMBER, Modifier.PROTECTED);
+    assertClass(listing, "Util$1.class", NestingKind.ANONYMOUS, null);
+    assertClass(listing, "Util$1Local.class", NestingKind.LOCAL, null);
+    listing.release();
+    cache.closeJars();
+  }
+
+  public void testChangedJarReread() throws IOException {
+    myBuildParams.put(GlobalOptions.USE_CLASSPATH_JAR_CACHE_OPTION, "true");
+    File jar = new File(getOrCreateProjectDir(), "lib/util.jar");
+    createJar(jar, "package util; public class Util { public static void foo() {} }");
+    String a = createFile("src/A.java", "public class A { { util.Util.foo(); } }");
+    JpsModule m = addModule("m", PathUtil.getParentPath(a));
+    JpsLibrary library = myProject.addLibrary("util", JpsJavaLibraryType.INSTANCE);
+    library.addRoot(jar, JpsOrderRootType.COMPILED);
+    m.getDependenciesList().addLibraryDependency(library);
+    rebuildAll();
+
+    createJar(jar, "package util; public class Util { public static void foo() {} public static void bar() {} }");
+    change(a, "public class A { { util.Util.bar(); } }");
+    makeAll().assertSuccessful();
+  }
+
+  private static void assertClass(ClasspathJarCache.JarListing listing, String fileName, NestingKind nestingKind, Modifier accessLevel) {
+    JavaFileObject file = listing.createFileObject("util", fileName);
+    assertEquals(nestingKind, file.getNestingKind());
+    assertEquals(accessLevel, file.getAccessLevel());
+  }
+
+  /**
+   * Writes a jar containing the given entries, the content of an entry is its name
+   */
+  private static void writeJar(File jar, String... entryNames) throws IOException {
+    FileUtil.createParentDirs(jar);
+    ZipOutputStream output = new ZipOutputStream(new FileOutputStream(jar));
+    try {
+      for (String name : entryNames) {
+        output.putNextEntry(new ZipEntry(name));
+        output.write(name.getBytes("UTF-8"));
+        output.closeEntry();
+      }
+    }
+    finally {
+      output.close();
+    }
+  }
+
+  private static void createJar(File jar, String utilText) throws IOException {
+    File tempDir = FileUtil.createTempDirectory("jar-content", null);
+    try {
+      File source = new File(tempDir, "src/util/Util.java");
+      FileUtil.writeToFile(source, utilText);
+      File classes = new File(tempDir, "classes");
+      assertTrue(classes.mkdirs());
+      assertEquals(0, ToolProvider.getSystemJavaCompiler().run(null, null, null, "-d", classes.getPath(), source.getPath()));
+
+      FileUtil.createParentDirs(jar);
+      ZipOutputStream output = new ZipOutputStream(new FileOutputStream(jar));
+      try {
+        File[] classFiles = new File(classes, "util").listFiles();
+        assertNotNull(classFiles);
+        for (File classFile : classFiles) {
+          output.putNextEntry(new ZipEntry("util/" + classFile.getName()));
+          output.write(FileUtil.loadFileBytes(classFile));
+          output.closeEntry();
+        }
+      }
+      finally {
+        output.close();
+      }
+    }
+    finally {
+      FileUtil.delete(tempDir);
+    }
+  }
+}
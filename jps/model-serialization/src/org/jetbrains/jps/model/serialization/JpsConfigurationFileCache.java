@@ -0,0 +1,266 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.model.serialization;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.io.IOUtil;
+import org.jdom.*;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary snapshot of parsed project configuration files (.ipr, .iml, .idea/*.xml). Loading an element from the snapshot is much
+ * faster than parsing xml, so if the files haven't changed since the previous build the model is loaded without reading them.
+ * <p/>
+ * Elements are stored before macro expansion, so the snapshot doesn't depend on path variables. A file is taken from the snapshot
+ * only if the digest of its content is the same as when it was stored: timestamps are too coarse on some file systems to notice
+ * a change made right after the file was read.
+ */
+public class JpsConfigurationFileCache {
+  private static final Logger LOG = Logger.getInstance(JpsConfigurationFileCache.class);
+  private static final int VERSION = 2;
+  private static final int DIGEST_LENGTH = 16;
+  private static final byte ELEMENT = 0;
+  private static final byte TEXT = 1;
+  private static final byte END = 2;
+  private final File myCacheFile;
+  private final Map<String, CachedFile> myCachedFiles = new HashMap<String, CachedFile>();
+  private final Map<String, CachedFile> myUsedFiles = new HashMap<String, CachedFile>();
+  private boolean myChanged;
+  private int myHits;
+  private int myMisses;
+
+  private JpsConfigurationFileCache(File cacheFile) {
+    myCacheFile = cacheFile;
+  }
+
+  /**
+   * @return the cache with the content of {@code cacheFile}, or an empty cache if the file doesn't exist or cannot be read
+   */
+  @NotNull
+  public static JpsConfigurationFileCache load(@NotNull File cacheFile) {
+    final JpsConfigurationFileCache cache = new JpsConfigurationFileCache(cacheFile);
+    if (cacheFile.exists()) {
+      try {
+        final long cacheLength = cacheFile.length();
+        final DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+        try {
+          if (input.readInt() == VERSION) {
+            final int count = input.readInt();
+            for (int i = 0; i < count; i++) {
+              final String path = IOUtil.readString(input);
+              final byte[] digest = new byte[DIGEST_LENGTH];
+              input.readFully(digest);
+              final int length = input.readInt();
+              if (length < 0 || length > cacheLength) {
+                throw new IOException("Invalid length of cached " + path + ": " + length);
+              }
+              final byte[] content = new byte[length];
+              input.readFully(content);
+              cache.myCachedFiles.put(path, new CachedFile(digest, content));
+            }
+          }
+        }
+        finally {
+          input.close();
+        }
+      }
+      catch (IOException e) {
+        LOG.info("Cannot load " + cacheFile + ": " + e.getMessage());
+        cache.myCachedFiles.clear();
+      }
+      catch (RuntimeException e) {
+        LOG.info("Cannot load " + cacheFile + ": " + e);
+        cache.myCachedFiles.clear();
+      }
+    }
+    return cache;
+  }
+
+  /**
+   * @param fileContent the current content of the file
+   * @return a new copy of the root element of the file without macros expanded, or {@code null} if the file changed or isn't cached
+   */
+  @Nullable
+  public synchronized Element getRootElement(@NotNull File file, @NotNull byte[] fileContent) {
+    final String path = getPath(file);
+    CachedFile cached = myUsedFiles.get(path);
+    if (cached == null) {
+      cached = myCachedFiles.get(path);
+    }
+    if (cached != null && Arrays.equals(cached.myDigest, computeDigest(fileContent))) {
+      try {
+        final Element element = readElement(new DataInputStream(new ByteArrayInputStream(cached.myContent)));
+        myUsedFiles.put(path, cached);
+        myHits++;
+        return element;
+      }
+      catch (IOException e) {
+        LOG.info("Cannot read cached " + file + ": " + e.getMessage());
+      }
+      catch (RuntimeException e) {
+        LOG.info("Cannot read cached " + file + ": " + e);
+      }
+    }
+    myMisses++;
+    return null;
+  }
+
+  /**
+   * Stores the root element parsed from the given content of the file; must be called before macros are expanded in the element.
+   */
+  public synchronized void putRootElement(@NotNull File file, @NotNull Element root, @NotNull byte[] fileContent) {
+    final ByteArrayOutputStream content = new ByteArrayOutputStream();
+    try {
+      final DataOutputStream output = new DataOutputStream(content);
+      if (!writeElement(root, output)) {
+        return;
+      }
+      output.close();
+    }
+    catch (IOException e) {
+      LOG.info(e);
+      return;
+    }
+    myUsedFiles.put(getPath(file), new CachedFile(computeDigest(fileContent), content.toByteArray()));
+    myChanged = true;
+  }
+
+  /**
+   * Saves the files used since the cache was loaded; other files are removed from the cache.
+   */
+  public synchronized void save() {
+    if (!myChanged && myUsedFiles.size() == myCachedFiles.size()) {
+      return;
+    }
+    try {
+      FileUtil.createParentDirs(myCacheFile);
+      final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(myCacheFile)));
+      try {
+        output.writeInt(VERSION);
+        output.writeInt(myUsedFiles.size());
+        for (Map.Entry<String, CachedFile> entry : myUsedFiles.entrySet()) {
+          final CachedFile cached = entry.getValue();
+          IOUtil.writeString(entry.getKey(), output);
+          output.write(cached.myDigest);
+          output.writeInt(cached.myContent.length);
+          output.write(cached.myContent);
+        }
+      }
+      finally {
+        output.close();
+      }
+    }
+    catch (IOException e) {
+      LOG.info("Cannot save " + myCacheFile + ": " + e.getMessage());
+      FileUtil.delete(myCacheFile);
+    }
+  }
+
+  @NotNull
+  public synchronized String getStatistics() {
+    return myHits + " configuration files loaded from cache, " + myMisses + " parsed";
+  }
+
+  private static String getPath(File file) {
+    return FileUtil.toSystemIndependentName(file.getAbsolutePath());
+  }
+
+  private static byte[] computeDigest(byte[] content) {
+    try {
+      return MessageDigest.getInstance("MD5").digest(content);
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * @return {@code false} if the element cannot be stored (elements with namespaces aren't supported)
+   */
+  private static boolean writeElement(Element element, DataOutput output) throws IOException {
+    if (!element.getNamespaceURI().isEmpty()) {
+      return false;
+    }
+    IOUtil.writeString(element.getName(), output);
+    final List<?> attributes = element.getAttributes();
+    output.writeInt(attributes.size());
+    for (Object o : attributes) {
+      final Attribute attribute = (Attribute)o;
+      if (!attribute.getNamespaceURI().isEmpty()) {
+        return false;
+      }
+      IOUtil.writeString(attribute.getName(), output);
+      IOUtil.writeString(attribute.getValue(), output);
+    }
+    for (Object o : element.getContent()) {
+      if (o instanceof Element) {
+        output.writeByte(ELEMENT);
+        if (!writeElement((Element)o, output)) {
+          return false;
+        }
+      }
+      else if (o instanceof Text) {
+        output.writeByte(TEXT);
+        IOUtil.writeString(((Text)o).getText(), output);
+      }
+    }
+    output.writeByte(END);
+    return true;
+  }
+
+  private static Element readElement(DataInput input) throws IOException {
+    final Element element = new Element(IOUtil.readString(input));
+    final int attributesCount = input.readInt();
+    for (int i = 0; i < attributesCount; i++) {
+      element.setAttribute(IOUtil.readString(input), IOUtil.readString(input));
+    }
+    while (true) {
+      final byte kind = input.readByte();
+      if (kind == END) {
+        return element;
+      }
+      if (kind == ELEMENT) {
+        element.addContent(readElement(input));
+      }
+      else if (kind == TEXT) {
+        element.addContent(new Text(IOUtil.readString(input)));
+      }
+      else {
+        throw new IOException("Unexpected content kind " + kind);
+      }
+    }
+  }
+
+  private static class CachedFile {
+    private final byte[] myDigest;
+    private final byte[] myContent;
+
+    private CachedFile(byte[] digest, byte[] content) {
+      myDigest = digest;
+      myContent = content;
+    }
+  }
+}
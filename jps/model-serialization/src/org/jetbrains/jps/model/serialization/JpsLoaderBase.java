@@ -22,6 +22,7 @@ import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.io.FileUtilRt;
 import org.jdom.Element;
 import org.jdom.JDOMException;
+import org.jetbrains.annotations.Nullable;
 import org.jetbrains.jps.model.JpsElement;
 
 import java.io.File;
@@ -33,13 +34,24 @@ import java.io.IOException;
 public abstract class JpsLoaderBase {
   private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.model.serialization.JpsLoaderBase");
   private final JpsMacroExpander myMacroExpander;
+  @Nullable private final JpsConfigurationFileCache myFileCache;
 
   protected JpsLoaderBase(JpsMacroExpander macroExpander) {
+    this(macroExpander, null);
+  }
+
+  protected JpsLoaderBase(JpsMacroExpander macroExpander, @Nullable JpsConfigurationFileCache fileCache) {
     myMacroExpander = macroExpander;
+    myFileCache = fileCache;
   }
 
   protected Element loadRootElement(final File file) {
-    return loadRootElement(file, myMacroExpander);
+    return loadRootElement(file, myMacroExpander, myFileCache);
+  }
+
+  @Nullable
+  protected JpsConfigurationFileCache getFileCache() {
+    return myFileCache;
   }
 
   protected <E extends JpsElement> void loadComponents(File dir,
@@ -65,8 +77,24 @@ public abstract class JpsLoaderBase {
   }
 
   protected static Element loadRootElement(final File file, final JpsMacroExpander macroExpander) {
+    return loadRootElement(file, macroExpander, null);
+  }
+
+  protected static Element loadRootElement(final File file, final JpsMacroExpander macroExpander, @Nullable JpsConfigurationFileCache cache) {
     try {
-      final Element element = JDOMUtil.loadDocument(file).getRootElement();
+      Element element;
+      if (cache != null) {
+        // the cached element is checked against the same content which is parsed if it isn't up to date
+        final byte[] content = FileUtil.loadFileBytes(file);
+        element = cache.getRootElement(file, content);
+        if (element == null) {
+          element = JDOMUtil.loadDocument(content).getRootElement();
+          cache.putRootElement(file, element, content);
+        }
+      }
+      else {
+        element = JDOMUtil.loadDocument(file).getRootElement();
+      }
       macroExpander.substitute(element, SystemInfo.isFileSystemCaseSensitive);
       return element;
     }
@@ -64,8 +64,9 @@ public class JpsProjectLoader extends JpsLoaderBase {
   private final JpsProject myProject;
   private final Map<String, String> myPathVariables;
 
-  private JpsProjectLoader(JpsProject project, Map<String, String> pathVariables, File baseDir) {
-    super(createProjectMacroExpander(pathVariables, baseDir));
+  private JpsProjectLoader(JpsProject project, Map<String, String> pathVariables, File baseDir,
+                           @Nullable JpsConfigurationFileCache fileCache) {
+    super(createProjectMacroExpander(pathVariables, baseDir), fileCache);
     myProject = project;
     myPathVariables = pathVariables;
     myProject.getContainer().setChild(JpsProjectSerializationDataExtensionImpl.ROLE, new JpsProjectSerializationDataExtensionImpl(baseDir));
@@ -78,9 +79,17 @@ public class JpsProjectLoader extends JpsLoaderBase {
   }
 
   public static void loadProject(final JpsProject project, Map<String, String> pathVariables, String projectPath) throws IOException {
+    loadProject(project, pathVariables, projectPath, null);
+  }
+
+  /**
+   * @param fileCache if not null, unchanged configuration files are taken from the cache instead of parsing them
+   */
+  public static void loadProject(final JpsProject project, Map<String, String> pathVariables, String projectPath,
+                                 @Nullable JpsConfigurationFileCache fileCache) throws IOException {
     File file = new File(FileUtil.toCanonicalPath(projectPath));
     if (file.isFile() && projectPath.endsWith(".ipr")) {
-      new JpsProjectLoader(project, pathVariables, file.getParentFile()).loadFromIpr(file);
+      new JpsProjectLoader(project, pathVariables, file.getParentFile(), fileCache).loadFromIpr(file);
     }
     else {
       File directory;
@@ -93,7 +102,7 @@ public class JpsProjectLoader extends JpsLoaderBase {
           throw new IOException("Cannot find IntelliJ IDEA project files at " + projectPath);
         }
       }
-      new JpsProjectLoader(project, pathVariables, directory.getParentFile()).loadFromDirectory(directory);
+      new JpsProjectLoader(project, pathVariables, directory.getParentFile(), fileCache).loadFromDirectory(directory);
     }
   }
 
@@ -226,7 +235,7 @@ public class JpsProjectLoader extends JpsLoaderBase {
       }
 
       final JpsMacroExpander expander = createModuleMacroExpander(myPathVariables, file);
-      final Element moduleRoot = loadRootElement(file, expander);
+      final Element moduleRoot = loadRootElement(file, expander, getFileCache());
       final String classpathDir = moduleRoot.getAttributeValue(CLASSPATH_DIR_ATTRIBUTE);
       if (classpathDir != null) {
         classpathDirs.add(classpathDir);
@@ -264,7 +273,7 @@ public class JpsProjectLoader extends JpsLoaderBase {
     }
 
     final JpsMacroExpander expander = createModuleMacroExpander(myPathVariables, file);
-    final Element moduleRoot = loadRootElement(file, expander);
+    final Element moduleRoot = loadRootElement(file, expander, getFileCache());
     final String typeId = moduleRoot.getAttributeValue("type");
     final JpsModulePropertiesSerializer<?> serializer = getModulePropertiesSerializer(typeId);
     final JpsModule module = createModule(name, moduleRoot, serializer);
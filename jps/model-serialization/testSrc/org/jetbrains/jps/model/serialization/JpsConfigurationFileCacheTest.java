@@ -0,0 +1,121 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.model.serialization;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.io.IOUtil;
+import org.jetbrains.jps.model.JpsElementFactory;
+import org.jetbrains.jps.model.JpsProject;
+import org.jetbrains.jps.model.java.JavaSourceRootType;
+import org.jetbrains.jps.model.module.JpsModule;
+import org.jetbrains.jps.model.module.JpsModuleSourceRoot;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class JpsConfigurationFileCacheTest extends JpsSerializationTestCase {
+  private File myProjectDir;
+  private File myCacheFile;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    File tempDir = FileUtil.createTempDirectory("configurationFileCache", null);
+    myProjectDir = new File(tempDir, "project");
+    FileUtil.copyDir(new File(getTestDataFileAbsolutePath(JpsProjectSerializationTest.SAMPLE_PROJECT_PATH)), myProjectDir);
+    myCacheFile = new File(tempDir, "cache.dat");
+  }
+
+  public void testLoadFromCache() throws IOException {
+    JpsConfigurationFileCache cache = JpsConfigurationFileCache.load(myCacheFile);
+    JpsProject parsed = loadProjectWithCache(cache);
+    assertFalse(cache.getStatistics(), cache.getStatistics().endsWith(", 0 parsed"));
+
+    cache = JpsConfigurationFileCache.load(myCacheFile);
+    JpsProject cached = loadProjectWithCache(cache);
+    assertTrue(cache.getStatistics(), cache.getStatistics().endsWith(", 0 parsed"));
+    assertEquals(getModuleNames(parsed), getModuleNames(cached));
+    assertEquals(parsed.getLibraryCollection().getLibraries().size(), cached.getLibraryCollection().getLibraries().size());
+    JpsModule util = cached.getModules().get(1);
+    assertEquals(4, util.getDependenciesList().getDependencies().size());
+    assertTrue(FileUtil.filesEqual(new File(myProjectDir, "util"), JpsModelSerializationDataService.getBaseDirectory(util)));
+  }
+
+  public void testChangedFileParsedAgain() throws IOException {
+    loadProjectWithCache(JpsConfigurationFileCache.load(myCacheFile));
+
+    File moduleFile = new File(myProjectDir, "util/util.iml");
+    String text = FileUtil.loadFile(moduleFile);
+    FileUtil.writeToFile(moduleFile, text.replace("<orderEntry type=\"sourceFolder\" forTests=\"false\" />", ""));
+    JpsConfigurationFileCache cache = JpsConfigurationFileCache.load(myCacheFile);
+    JpsProject project = loadProjectWithCache(cache);
+    assertTrue(cache.getStatistics(), cache.getStatistics().endsWith(", 1 parsed"));
+    assertEquals(3, project.getModules().get(1).getDependenciesList().getDependencies().size());
+  }
+
+  public void testChangeWithSameLengthAndTimestampParsedAgain() throws IOException {
+    loadProjectWithCache(JpsConfigurationFileCache.load(myCacheFile));
+
+    File moduleFile = new File(myProjectDir, "util/util.iml");
+    long timestamp = moduleFile.lastModified();
+    String text = FileUtil.loadFile(moduleFile);
+    FileUtil.writeToFile(moduleFile, text.replace("packagePrefix=\"xxx\"", "packagePrefix=\"yyy\""));
+    assertTrue(moduleFile.setLastModified(timestamp));
+    JpsConfigurationFileCache cache = JpsConfigurationFileCache.load(myCacheFile);
+    JpsProject project = loadProjectWithCache(cache);
+    assertTrue(cache.getStatistics(), cache.getStatistics().endsWith(", 1 parsed"));
+    JpsModuleSourceRoot root = assertOneElement(project.getModules().get(1).getSourceRoots());
+    assertEquals("yyy", root.getProperties(JavaSourceRootType.SOURCE).getData().getPackagePrefix());
+  }
+
+  public void testCorruptedCacheDiscarded() throws IOException {
+    File moduleFile = new File(myProjectDir, "util/util.iml");
+    DataOutputStream output = new DataOutputStream(new FileOutputStream(myCacheFile));
+    try {
+      output.writeInt(2);
+      output.writeInt(1);
+      IOUtil.writeString(FileUtil.toSystemIndependentName(moduleFile.getAbsolutePath()), output);
+      output.write(new byte[16]);
+      output.writeInt(Integer.MAX_VALUE);
+    }
+    finally {
+      output.close();
+    }
+    JpsConfigurationFileCache cache = JpsConfigurationFileCache.load(myCacheFile);
+    assertNull(cache.getRootElement(moduleFile, FileUtil.loadFileBytes(moduleFile)));
+    JpsProject project = loadProjectWithCache(cache);
+    assertEquals(4, project.getModules().get(1).getDependenciesList().getDependencies().size());
+  }
+
+  private JpsProject loadProjectWithCache(JpsConfigurationFileCache cache) throws IOException {
+    JpsProject project = JpsElementFactory.getInstance().createModel().getProject();
+    JpsProjectLoader.loadProject(project, getPathVariables(), myProjectDir.getAbsolutePath(), cache);
+    cache.save();
+    return project;
+  }
+
+  private static List<String> getModuleNames(JpsProject project) {
+    List<String> names = new ArrayList<String>();
+    for (JpsModule module : project.getModules()) {
+      names.add(module.getName());
+    }
+    return names;
+  }
+}
@@ -15,6 +15,7 @@
  */
 package com.intellij.openapi.vfs.impl.jar;
 
+import com.intellij.openapi.Disposable;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.io.BufferExposingByteArrayInputStream;
 import com.intellij.openapi.util.io.FileAttributes;
@@ -32,6 +33,7 @@ import org.jetbrains.annotations.Nullable;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.lang.ref.Reference;
 import java.util.Enumeration;
 import java.util.HashSet;
@@ -47,7 +49,11 @@ public class JarHandlerBase {
   private static final long DEFAULT_TIMESTAMP = -1L;
 
   private final TimedReference<JarFile> myJarFile = new TimedReference<JarFile>(null);
+  private final TimedReference<OpenedFile> myOpenedIndexedFile = new TimedReference<OpenedFile>(null);
   private Reference<Map<String, EntryInfo>> myRelPathsToEntries = new SoftReference<Map<String, EntryInfo>>(null);
+  private Reference<JarIndex> myIndex = new SoftReference<JarIndex>(null);
+  private File myIndexedFile;
+  private boolean myIndexUnavailable;
   private final Object lock = new Object();
 
   protected final String myBasePath;
@@ -56,6 +62,10 @@ public class JarHandlerBase {
     protected final boolean isDirectory;
     protected final String shortName;
     protected final EntryInfo parent;
+    // directories without own entries in the archive keep default values
+    protected long length = DEFAULT_LENGTH;
+    protected long timestamp = DEFAULT_TIMESTAMP;
+    private int indexEntry = -1;
 
     public EntryInfo(final String shortName, final EntryInfo parent, final boolean directory) {
       this.shortName = shortName;
@@ -64,6 +74,31 @@ public class JarHandlerBase {
     }
   }
 
+  /**
+   * The indexed file kept open between reads of its entries; closed when not used for a while.
+   */
+  private static class OpenedFile implements Disposable {
+    private final File myFile;
+    private final RandomAccessFile myRaf;
+
+    private OpenedFile(@NotNull File file) throws IOException {
+      myFile = file;
+      myRaf = new RandomAccessFile(file, "r");
+    }
+
+    @Override
+    public void dispose() {
+      synchronized (myRaf) {
+        try {
+          myRaf.close();
+        }
+        catch (IOException e) {
+          LOG.debug(e);
+        }
+      }
+    }
+  }
+
   public JarHandlerBase(String path) {
     myBasePath = path;
   }
@@ -71,7 +106,15 @@ public class JarHandlerBase {
   protected void clear() {
     synchronized (lock) {
       myRelPathsToEntries = null;
+      myIndex = null;
+      myIndexedFile = null;
+      myIndexUnavailable = false;
       myJarFile.set(null);
+      final OpenedFile opened = myOpenedIndexedFile.get();
+      if (opened != null) {
+        myOpenedIndexedFile.set(null);
+        opened.dispose();
+      }
     }
   }
 
@@ -80,9 +123,25 @@ public class JarHandlerBase {
     synchronized (lock) {
       Map<String, EntryInfo> map = myRelPathsToEntries != null ? myRelPathsToEntries.get() : null;
       if (map == null) {
-        final JarFile zip = getJar();
-
         map = new THashMap<String, EntryInfo>();
+
+        final JarIndex index = getIndex();
+        if (index != null) {
+          map.put("", new EntryInfo("", null, true));
+          for (int i = 0; i < index.getEntryCount(); i++) {
+            final String name = index.getName(i);
+            final boolean isDirectory = StringUtil.endsWithChar(name, '/');
+            final EntryInfo info = getOrCreate(isDirectory ? name.substring(0, name.length() - 1) : name, isDirectory, map);
+            info.length = index.getSize(i);
+            info.timestamp = index.getTime(i);
+            info.indexEntry = i;
+          }
+
+          myRelPathsToEntries = new SoftReference<Map<String, EntryInfo>>(map);
+          return map;
+        }
+
+        final JarFile zip = getJar();
         if (zip != null) {
           map.put("", new EntryInfo("", null, true));
           final Enumeration<? extends JarFile.JarEntry> entries = zip.entries();
@@ -90,7 +149,9 @@ public class JarHandlerBase {
             JarFile.JarEntry entry = entries.nextElement();
             final String name = entry.getName();
             final boolean isDirectory = StringUtil.endsWithChar(name, '/');
-            getOrCreate(isDirectory ? name.substring(0, name.length() - 1) : name, isDirectory, map);
+            final EntryInfo info = getOrCreate(isDirectory ? name.substring(0, name.length() - 1) : name, isDirectory, map);
+            info.length = entry.getSize();
+            info.timestamp = entry.getTime();
           }
 
           myRelPathsToEntries = new SoftReference<Map<String, EntryInfo>>(map);
@@ -100,6 +161,41 @@ public class JarHandlerBase {
     }
   }
 
+  @Nullable
+  private JarIndex getIndex() {
+    synchronized (lock) {
+      JarIndex index = myIndex != null ? myIndex.get() : null;
+      if (index == null && !myIndexUnavailable) {
+        final File file = getMirrorFile(getOriginalFile());
+        index = createIndex(getOriginalFile(), file);
+        if (index != null) {
+          myIndex = new SoftReference<JarIndex>(index);
+          myIndexedFile = file;
+        }
+        else {
+          myIndexUnavailable = true;
+        }
+      }
+      return index;
+    }
+  }
+
+  /**
+   * Returns central directory index of the jar, or null if entries should be read via {@link ZipFile}.
+   *
+   * @param file the file actually read, i.e. {@link #getMirrorFile(File) mirror} of the original one
+   */
+  @Nullable
+  protected JarIndex createIndex(@NotNull File originalFile, @NotNull File file) {
+    try {
+      return JarIndex.build(file);
+    }
+    catch (IOException e) {
+      LOG.debug(e);
+      return null;
+    }
+  }
+
   public File getMirrorFile(File originalFile) {
     return originalFile;
   }
@@ -266,9 +362,9 @@ public class JarHandlerBase {
   }
 
   public long getLength(@NotNull final VirtualFile file) {
-    final JarFile.JarEntry entry = convertToEntry(file);
     synchronized (lock) {
-      return entry == null ? DEFAULT_LENGTH : entry.getSize();
+      final EntryInfo info = getEntryInfo(getRelativePath(file));
+      return info == null ? DEFAULT_LENGTH : info.length;
     }
   }
 
@@ -279,6 +375,24 @@ public class JarHandlerBase {
 
   @NotNull
   public byte[] contentsToByteArray(@NotNull final VirtualFile file) throws IOException {
+    final JarIndex index;
+    final File indexedFile;
+    final EntryInfo info;
+    synchronized (lock) {
+      info = getEntryInfo(getRelativePath(file));
+      index = info != null && info.indexEntry >= 0 ? getIndex() : null;
+      indexedFile = myIndexedFile;
+    }
+    if (index != null && indexedFile != null && info.indexEntry < index.getEntryCount() && index.canRead(info.indexEntry)) {
+      try {
+        return index.read(openIndexedFile(indexedFile), info.indexEntry);
+      }
+      catch (IOException e) {
+        // the jar was changed after it was indexed (it is going to be refreshed anyway), or was closed as unused meanwhile
+        LOG.debug(e);
+      }
+    }
+
     final JarFile.JarEntry entry = convertToEntry(file);
     if (entry == null) {
       return ArrayUtil.EMPTY_BYTE_ARRAY;
@@ -299,11 +413,26 @@ public class JarHandlerBase {
     }
   }
 
+  @NotNull
+  private RandomAccessFile openIndexedFile(@NotNull File file) throws IOException {
+    synchronized (lock) {
+      OpenedFile opened = myOpenedIndexedFile.get();
+      if (opened == null || !opened.myFile.equals(file)) {
+        if (opened != null) {
+          opened.dispose();
+        }
+        opened = new OpenedFile(file);
+        myOpenedIndexedFile.set(opened);
+      }
+      return opened.myRaf;
+    }
+  }
+
   public long getTimeStamp(@NotNull final VirtualFile file) {
     if (file.getParent() == null) return getOriginalFile().lastModified(); // Optimization
-    final JarFile.JarEntry entry = convertToEntry(file);
     synchronized (lock) {
-      return entry == null ? DEFAULT_TIMESTAMP : entry.getTime();
+      final EntryInfo info = getEntryInfo(getRelativePath(file));
+      return info == null ? DEFAULT_TIMESTAMP : info.timestamp;
     }
   }
 
@@ -327,13 +456,10 @@ public class JarHandlerBase {
 
   @Nullable
   public FileAttributes getAttributes(@NotNull final VirtualFile file) {
-    final JarFile.JarEntry entry = convertToEntry(file);
     synchronized (lock) {
       final EntryInfo entryInfo = getEntryInfo(getRelativePath(file));
       if (entryInfo == null) return null;
-      final long length = entry != null ? entry.getSize() : DEFAULT_LENGTH;
-      final long timeStamp = entry != null ? entry.getTime() : DEFAULT_TIMESTAMP;
-      return new FileAttributes(entryInfo.isDirectory, false, false, false, length, timeStamp, false);
+      return new FileAttributes(entryInfo.isDirectory, false, false, false, entryInfo.length, entryInfo.timestamp, false);
     }
   }
 }
@@ -0,0 +1,290 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.vfs.impl.jar;
+
+import com.intellij.openapi.vfs.CharsetToolkit;
+import com.intellij.util.io.DataInputOutputUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.util.Date;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Entries of a zip file read directly from its central directory. Unlike {@link java.util.zip.ZipFile} it knows where
+ * data of each entry starts, so entries can be read without opening (and parsing) the whole archive, and it can be
+ * saved to avoid parsing of the central directory altogether.
+ * <p/>
+ * Zip64 archives, multi-disk archives and compression methods other than stored and deflated aren't supported,
+ * callers are expected to fall back to {@link java.util.zip.ZipFile} for them.
+ */
+public class JarIndex {
+  private static final int VERSION = 2;
+
+  private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+  private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+  private static final int END_SIGNATURE = 0x06054b50;
+  private static final int LOCAL_HEADER_SIZE = 30;
+  private static final int CENTRAL_HEADER_SIZE = 46;
+  private static final int END_SIZE = 22;
+  private static final int MAX_COMMENT_LENGTH = 0xFFFF;
+
+  private static final int STORED = 0;
+  private static final int DEFLATED = 8;
+  private static final int ENCRYPTED_FLAG = 1;
+  private static final int UNSUPPORTED = -1;
+
+  private final String[] myNames;
+  private final int[] myMethods;
+  private final int[] myCrcs;
+  private final long[] mySizes;
+  private final long[] myCompressedSizes;
+  private final long[] myTimes;
+  private final long[] myOffsets;
+
+  private JarIndex(int count) {
+    myNames = new String[count];
+    myMethods = new int[count];
+    myCrcs = new int[count];
+    mySizes = new long[count];
+    myCompressedSizes = new long[count];
+    myTimes = new long[count];
+    myOffsets = new long[count];
+  }
+
+  public int getEntryCount() {
+    return myNames.length;
+  }
+
+  @NotNull
+  public String getName(int entry) {
+    return myNames[entry];
+  }
+
+  public long getSize(int entry) {
+    return mySizes[entry];
+  }
+
+  public long getTime(int entry) {
+    return myTimes[entry];
+  }
+
+  public boolean isDirectory(int entry) {
+    return myNames[entry].endsWith("/");
+  }
+
+  /**
+   * @return false if {@link #read(RandomAccessFile, int)} doesn't support the entry
+   */
+  public boolean canRead(int entry) {
+    return myMethods[entry] != UNSUPPORTED && mySizes[entry] < Integer.MAX_VALUE && myCompressedSizes[entry] < Integer.MAX_VALUE;
+  }
+
+  @NotNull
+  public byte[] read(@NotNull File file, int entry) throws IOException {
+    final RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      return read(raf, entry);
+    }
+    finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Reads the entry data using its local header offset. The data is verified against the CRC from the central directory,
+   * so a stale index results in {@link ZipException} rather than in wrong content.
+   * <p/>
+   * The file may be shared between threads: it is locked only while the data is read, not while it is inflated.
+   */
+  @NotNull
+  public byte[] read(@NotNull RandomAccessFile raf, int entry) throws IOException {
+    if (!canRead(entry)) throw new ZipException("Unsupported entry: " + myNames[entry]);
+    final int size = (int)mySizes[entry];
+    final int compressedSize = (int)myCompressedSizes[entry];
+    // inflater in 'nowrap' mode needs an extra byte at the end of input
+    final byte[] data = new byte[myMethods[entry] == DEFLATED ? compressedSize + 1 : compressedSize];
+
+    //noinspection SynchronizationOnLocalVariableOrMethodParameter
+    synchronized (raf) {
+      final byte[] header = new byte[LOCAL_HEADER_SIZE];
+      raf.seek(myOffsets[entry]);
+      raf.readFully(header);
+      if (readInt(header, 0) != LOCAL_HEADER_SIGNATURE) {
+        throw new ZipException("Invalid local header: " + myNames[entry]);
+      }
+      raf.seek(myOffsets[entry] + LOCAL_HEADER_SIZE + readShort(header, 26) + readShort(header, 28));
+      raf.readFully(data, 0, compressedSize);
+    }
+
+    final byte[] result;
+    if (myMethods[entry] == STORED) {
+      if (compressedSize != size) throw new ZipException("Invalid stored entry size: " + myNames[entry]);
+      result = data;
+    }
+    else {
+      result = new byte[size];
+      final Inflater inflater = new Inflater(true);
+      try {
+        inflater.setInput(data);
+        int offset = 0;
+        while (offset < size) {
+          final int n = inflater.inflate(result, offset, size - offset);
+          if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+            throw new ZipException("Unexpected end of entry: " + myNames[entry]);
+          }
+          offset += n;
+        }
+      }
+      catch (DataFormatException e) {
+        throw new ZipException(e.getMessage() + ": " + myNames[entry]);
+      }
+      finally {
+        inflater.end();
+      }
+    }
+
+    final CRC32 crc = new CRC32();
+    crc.update(result);
+    if ((int)crc.getValue() != myCrcs[entry]) {
+      throw new ZipException("CRC mismatch: " + myNames[entry]);
+    }
+    return result;
+  }
+
+  /**
+   * @return null if the archive is not supported or is corrupted
+   */
+  @Nullable
+  public static JarIndex build(@NotNull File file) throws IOException {
+    final RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      final long length = raf.length();
+      if (length < END_SIZE) return null;
+
+      final byte[] tail = new byte[(int)Math.min(length, END_SIZE + MAX_COMMENT_LENGTH)];
+      raf.seek(length - tail.length);
+      raf.readFully(tail);
+      int end = tail.length - END_SIZE;
+      while (end >= 0 && !(readInt(tail, end) == END_SIGNATURE && end + END_SIZE + readShort(tail, end + 20) <= tail.length)) {
+        end--;
+      }
+      if (end < 0) return null;
+
+      final int count = readShort(tail, end + 10);
+      final long directorySize = readInt(tail, end + 12) & 0xFFFFFFFFL;
+      final long directoryOffset = readInt(tail, end + 16) & 0xFFFFFFFFL;
+      if (readShort(tail, end + 4) != 0 || readShort(tail, end + 6) != 0 || readShort(tail, end + 8) != count ||
+          count == 0xFFFF || directorySize == 0xFFFFFFFFL || directoryOffset == 0xFFFFFFFFL) {
+        return null;  // multi-disk or zip64
+      }
+
+      // there may be some data (e.g. an executable stub) before the archive itself
+      final long directoryStart = length - tail.length + end - directorySize;
+      final long prefix = directoryStart - directoryOffset;
+      if (directoryStart < 0 || prefix < 0) return null;
+
+      final byte[] directory = new byte[(int)directorySize];
+      raf.seek(directoryStart);
+      raf.readFully(directory);
+
+      final JarIndex index = new JarIndex(count);
+      int offset = 0;
+      for (int i = 0; i < count; i++) {
+        if (offset + CENTRAL_HEADER_SIZE > directory.length || readInt(directory, offset) != CENTRAL_HEADER_SIGNATURE) return null;
+        final int flags = readShort(directory, offset + 8);
+        final int method = readShort(directory, offset + 10);
+        final int nameLength = readShort(directory, offset + 28);
+        if (offset + CENTRAL_HEADER_SIZE + nameLength > directory.length) return null;
+
+        index.myNames[i] = new String(directory, offset + CENTRAL_HEADER_SIZE, nameLength, CharsetToolkit.UTF8_CHARSET);
+        index.myMethods[i] = (flags & ENCRYPTED_FLAG) == 0 && (method == STORED || method == DEFLATED) ? method : UNSUPPORTED;
+        final int extraLength = readShort(directory, offset + 30);
+        if (offset + CENTRAL_HEADER_SIZE + nameLength + extraLength > directory.length) return null;
+        index.myTimes[i] = dosToJavaTime(readInt(directory, offset + 12) & 0xFFFFFFFFL);
+        index.myCrcs[i] = readInt(directory, offset + 16);
+        index.myCompressedSizes[i] = readInt(directory, offset + 20) & 0xFFFFFFFFL;
+        index.mySizes[i] = readInt(directory, offset + 24) & 0xFFFFFFFFL;
+        index.myOffsets[i] = prefix + (readInt(directory, offset + 42) & 0xFFFFFFFFL);
+
+        offset += CENTRAL_HEADER_SIZE + nameLength + extraLength + readShort(directory, offset + 32);
+      }
+      return index;
+    }
+    finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * @throws UTFDataFormatException if an entry name is too long to be saved
+   */
+  public void save(@NotNull DataOutput out) throws IOException {
+    DataInputOutputUtil.writeINT(out, VERSION);
+    DataInputOutputUtil.writeINT(out, myNames.length);
+    for (int i = 0; i < myNames.length; i++) {
+      out.writeUTF(myNames[i]);
+      DataInputOutputUtil.writeSINT(out, myMethods[i]);
+      out.writeInt(myCrcs[i]);
+      out.writeLong(mySizes[i]);
+      out.writeLong(myCompressedSizes[i]);
+      out.writeLong(myTimes[i]);
+      out.writeLong(myOffsets[i]);
+    }
+  }
+
+  /**
+   * @return null if the index was saved by an incompatible version
+   */
+  @Nullable
+  public static JarIndex load(@NotNull DataInput in) throws IOException {
+    if (DataInputOutputUtil.readINT(in) != VERSION) return null;
+    final JarIndex index = new JarIndex(DataInputOutputUtil.readINT(in));
+    for (int i = 0; i < index.myNames.length; i++) {
+      index.myNames[i] = in.readUTF();
+      index.myMethods[i] = DataInputOutputUtil.readSINT(in);
+      index.myCrcs[i] = in.readInt();
+      index.mySizes[i] = in.readLong();
+      index.myCompressedSizes[i] = in.readLong();
+      index.myTimes[i] = in.readLong();
+      index.myOffsets[i] = in.readLong();
+    }
+    return index;
+  }
+
+  private static int readShort(byte[] bytes, int offset) {
+    return (bytes[offset] & 0xFF) | ((bytes[offset + 1] & 0xFF) << 8);
+  }
+
+  private static int readInt(byte[] bytes, int offset) {
+    return readShort(bytes, offset) | (readShort(bytes, offset + 2) << 16);
+  }
+
+  /**
+   * Like {@link java.util.zip.ZipEntry#getTime()} before Java 8, uses the DOS time and ignores timestamps in extra fields,
+   * so entries have the same timestamps as when they are read via {@link java.util.zip.ZipFile}.
+   */
+  @SuppressWarnings("deprecation")
+  private static long dosToJavaTime(long time) {
+    final Date date = new Date((int)(((time >> 25) & 0x7f) + 80), (int)(((time >> 21) & 0x0f) - 1), (int)((time >> 16) & 0x1f),
+                               (int)((time >> 11) & 0x1f), (int)((time >> 5) & 0x3f), (int)((time << 1) & 0x3e));
+    return date.getTime();
+  }
+}
@@ -22,6 +22,7 @@ import com.intellij.openapi.application.ReadAction;
 import com.intellij.openapi.application.ReadActionProcessor;
 import com.intellij.openapi.application.Result;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
 import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.progress.ProgressIndicatorProvider;
@@ -45,6 +46,7 @@ import com.intellij.util.indexing.FileBasedIndex;
 import com.intellij.util.text.CharArrayUtil;
 import com.intellij.util.text.StringSearcher;
 import gnu.trove.THashSet;
+import gnu.trove.TObjectIntHashMap;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -214,9 +216,10 @@ public class PsiSearchHelperImpl implements PsiSearchHelper {
       });
   }
 
-  private AsyncFuture<Boolean> processPsiFileRootsAsync(@NotNull List<VirtualFile> files,
+  private AsyncFuture<Boolean> processPsiFileRootsAsync(@NotNull List<VirtualFile> candidates,
                                       @NotNull final Processor<PsiElement> psiRootProcessor,
                                       final ProgressIndicator progress) {
+    final List<VirtualFile> files = prioritizeFiles(candidates);
     myManager.startBatchFilesProcessingMode();
       final AtomicInteger counter = new AtomicInteger(0);
       final AtomicBoolean canceled = new AtomicBoolean(false);
@@ -295,6 +298,49 @@ public class PsiSearchHelperImpl implements PsiSearchHelper {
       });
   }
 
+  /**
+   * Reorders candidate files so that the ones the user is most likely looking at are scanned first:
+   * files with a loaded document (i.e. open in editors or recently edited), then project sources, then everything else.
+   * Job chunks are scheduled in list order, so this makes the first results appear early.
+   */
+  @NotNull
+  private List<VirtualFile> prioritizeFiles(@NotNull final List<VirtualFile> files) {
+    if (files.size() <= 1) return files;
+    final FileDocumentManager documentManager = FileDocumentManager.getInstance();
+    final FileIndexFacade index = FileIndexFacade.getInstance(myManager.getProject());
+    final TObjectIntHashMap<VirtualFile> priorities = new TObjectIntHashMap<VirtualFile>(files.size());
+    ApplicationManager.getApplication().runReadAction(new Runnable() {
+      @Override
+      public void run() {
+        for (VirtualFile file : files) {
+          int priority;
+          if (!file.isValid()) {
+            priority = 3;
+          }
+          else if (documentManager.getCachedDocument(file) != null) {
+            priority = 0;
+          }
+          else if (index.isInSourceContent(file)) {
+            priority = 1;
+          }
+          else {
+            priority = 2;
+          }
+          priorities.put(file, priority);
+        }
+      }
+    });
+    List<VirtualFile> result = new ArrayList<VirtualFile>(files);
+    // stable sort: keeps index order within the same priority
+    Collections.sort(result, new Comparator<VirtualFile>() {
+      @Override
+      public int compare(VirtualFile o1, VirtualFile o2) {
+        return priorities.get(o1) - priorities.get(o2);
+      }
+    });
+    return result;
+  }
+
   @NotNull
   private List<VirtualFile> getFilesWithText(@NotNull GlobalSearchScope scope,
                                              final short searchContext,
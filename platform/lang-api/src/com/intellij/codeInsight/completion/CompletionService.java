@@ -17,16 +17,24 @@ package com.intellij.codeInsight.completion;
 
 import com.intellij.codeInsight.lookup.LookupElement;
 import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.DumbService;
 import com.intellij.openapi.util.Key;
 import com.intellij.psi.Weigher;
 import com.intellij.util.Consumer;
+import com.intellij.util.containers.ContainerUtil;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * For completion FAQ, see {@link CompletionContributor}.
@@ -64,7 +72,8 @@ public abstract class CompletionService {
 
   /**
    * Run all contributors until any of them returns false or the list is exhausted. If from parameter is not null, contributors
-   * will be run starting from the next one after that. 
+   * will be run starting from the next one after that. {@link ConcurrentCompletionContributor}s are started without waiting for them
+   * to finish, the method returns when all started contributors are done.
    * @param parameters
    * @param from
    * @param consumer
@@ -76,18 +85,89 @@ public abstract class CompletionService {
     final List<CompletionContributor> contributors = CompletionContributor.forParameters(parameters);
     final boolean dumb = DumbService.getInstance(parameters.getPosition().getProject()).isDumb();
 
+    List<Future<?>> concurrent = null;
+    Consumer<CompletionResult> target = consumer;
     for (int i = contributors.indexOf(from) + 1; i < contributors.size(); i++) {
       final CompletionContributor contributor = contributors.get(i);
       if (dumb && !DumbService.isDumbAware(contributor)) continue;
 
-      final CompletionResultSet result = createResultSet(parameters, consumer, contributor);
-      contributor.fillCompletionVariants(parameters, result);
+      if (contributor instanceof ConcurrentCompletionContributor) {
+        if (concurrent == null) {
+          concurrent = new ArrayList<Future<?>>();
+          target = synchronizedConsumer(consumer);
+        }
+        ContainerUtil.addIfNotNull(startConcurrently(contributor, parameters, createResultSet(parameters, target, contributor)), concurrent);
+        continue;
+      }
+
+      final CompletionResultSet result = createResultSet(parameters, target, contributor);
+      fillCompletionVariants(contributor, parameters, result);
       if (result.isStopped()) {
+        break;
+      }
+    }
+
+    if (concurrent != null) {
+      for (Future<?> future : concurrent) {
+        waitFor(future);
+      }
+    }
+  }
+
+  private static Consumer<CompletionResult> synchronizedConsumer(final Consumer<CompletionResult> consumer) {
+    return new Consumer<CompletionResult>() {
+      @Override
+      public synchronized void consume(CompletionResult result) {
+        consumer.consume(result);
+      }
+    };
+  }
+
+  private static void waitFor(@NotNull Future<?> future) {
+    while (true) {
+      ProgressManager.checkCanceled();
+      try {
+        future.get(10, TimeUnit.MILLISECONDS);
         return;
       }
+      catch (TimeoutException ignore) {
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new ProcessCanceledException();
+      }
+      catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+        if (cause instanceof Error) throw (Error)cause;
+        throw new RuntimeException(cause);
+      }
     }
   }
 
+  /**
+   * Starts a {@link ConcurrentCompletionContributor}, so that the following contributors don't wait for it.
+   * By default the contributor is run right away in the current thread.
+   * @return the future to wait for before the completion is finished, or null if the contributor has already been run
+   */
+  @Nullable
+  protected Future<?> startConcurrently(@NotNull CompletionContributor contributor,
+                                        @NotNull CompletionParameters parameters,
+                                        @NotNull CompletionResultSet result) {
+    fillCompletionVariants(contributor, parameters, result);
+    return null;
+  }
+
+  /**
+   * Runs a single contributor, may be overridden to measure or otherwise wrap its execution.
+   * Note that contributors may call {@link CompletionResultSet#runRemainingContributors}, so such calls can be nested.
+   */
+  protected void fillCompletionVariants(@NotNull CompletionContributor contributor,
+                                        @NotNull CompletionParameters parameters,
+                                        @NotNull CompletionResultSet result) {
+    contributor.fillCompletionVariants(parameters, result);
+  }
+
   /**
    * Create a {@link com.intellij.codeInsight.completion.CompletionResultSet} that will filter variants based on default camel-hump
    * {@link com.intellij.codeInsight.completion.PrefixMatcher} and give the filtered variants to consumer.  
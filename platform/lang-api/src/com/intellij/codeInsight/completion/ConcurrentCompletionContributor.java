@@ -0,0 +1,28 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.codeInsight.completion;
+
+/**
+ * A marker interface for {@link CompletionContributor}s which may be run in a background thread, concurrently with the contributors
+ * following them. Their variants are passed to the lookup as they arrive, and the completion doesn't finish until they are done.
+ * <p/>
+ * Implementors must be thread-safe, must not call {@link CompletionResultSet#stopHere()} or
+ * {@link CompletionResultSet#runRemainingContributors}, and shouldn't rely on the variants of the other contributors.
+ *
+ * @see CompletionService#getVariantsFromContributors
+ */
+public interface ConcurrentCompletionContributor {
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.navigation;
+
+import com.intellij.openapi.project.Project;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A {@link ChooseByNameContributor} whose names may be shared between "Goto" popups until any of its dependencies changes.
+ * Names of contributors which don't implement it are collected anew for every popup.
+ */
+public interface CachedNamesContributor extends ChooseByNameContributor {
+  /**
+   * @return dependencies of the names, as accepted by {@link com.intellij.psi.util.CachedValueProvider.Result#create(Object, Object...)}
+   */
+  @NotNull
+  Object[] getNamesDependencies(@NotNull Project project);
+}
@@ -18,6 +18,7 @@ package com.intellij.codeInsight.completion;
 
 import com.intellij.codeInsight.AutoPopupController;
 import com.intellij.codeInsight.CodeInsightSettings;
+import com.intellij.codeInsight.completion.impl.CompletionContributorTimings;
 import com.intellij.codeInsight.completion.impl.CompletionServiceImpl;
 import com.intellij.codeInsight.completion.impl.CompletionSorterImpl;
 import com.intellij.codeInsight.editorActions.CompletionAutoPopupHandler;
@@ -69,6 +70,7 @@ import com.intellij.util.messages.MessageBusConnection;
 import com.intellij.util.ui.update.MergingUpdateQueue;
 import com.intellij.util.ui.update.Update;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.jetbrains.annotations.TestOnly;
 
 import javax.swing.*;
@@ -124,6 +126,9 @@ public class CompletionProgressIndicator extends ProgressIndicatorBase implement
       ContainerUtil.<LookupElement>identityStrategy());
   private final PropertyChangeListener myLookupManagerListener;
   private final int myStartCaret;
+  private volatile boolean myAsync;
+  @Nullable private final CompletionContributorTimings myContributorTimings =
+    CompletionContributorTimings.isEnabled() ? new CompletionContributorTimings() : null;
 
   public CompletionProgressIndicator(final Editor editor,
                                      CompletionParameters parameters,
@@ -389,6 +394,9 @@ public class CompletionProgressIndicator extends ProgressIndicatorBase implement
     myItemSorters.put(item.getLookupElement(), (CompletionSorterImpl)item.getSorter());
     myLookup.addItem(item.getLookupElement(), item.getPrefixMatcher());
     myCount++;
+    if (myContributorTimings != null) {
+      myContributorTimings.itemAdded();
+    }
 
     if (myCount == 1) {
       new Alarm(Alarm.ThreadToUse.SHARED_THREAD, this).addRequest(new Runnable() {
@@ -736,6 +744,7 @@ public class CompletionProgressIndicator extends ProgressIndicatorBase implement
   AtomicReference<LookupElement[]> startCompletion(final CompletionInitializationContext initContext) {
     boolean sync = ApplicationManager.getApplication().isUnitTestMode() && !CompletionAutoPopupHandler.ourTestingAutopopup;
     final CompletionThreading strategy = sync ? new SyncCompletion() : new AsyncCompletion();
+    myAsync = !sync;
 
     strategy.startThread(ProgressWrapper.wrap(this), new Runnable() {
       @Override
@@ -764,11 +773,27 @@ public class CompletionProgressIndicator extends ProgressIndicatorBase implement
     return data;
   }
 
+  /**
+   * @return whether the items are calculated in a background thread, so that {@link ConcurrentCompletionContributor}s may be run in
+   * other threads too
+   */
+  public boolean isAsync() {
+    return myAsync;
+  }
+
+  @Nullable
+  public CompletionContributorTimings getContributorTimings() {
+    return myContributorTimings;
+  }
+
   private LookupElement[] calculateItems(CompletionInitializationContext initContext, WeighingDelegate weigher) {
     duringCompletion(initContext);
     ProgressManager.checkCanceled();
 
     LookupElement[] result = CompletionService.getCompletionService().performCompletion(myParameters, weigher);
+    if (myContributorTimings != null) {
+      myContributorTimings.report();
+    }
     ProgressManager.checkCanceled();
 
     weigher.waitFor();
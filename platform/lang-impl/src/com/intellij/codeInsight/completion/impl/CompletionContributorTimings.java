@@ -0,0 +1,120 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.codeInsight.completion.impl;
+
+import com.intellij.codeInsight.completion.CompletionContributor;
+import com.intellij.ide.plugins.PluginManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.extensions.PluginId;
+import gnu.trove.TObjectLongHashMap;
+import gnu.trove.TObjectLongProcedure;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Collects the time each {@link CompletionContributor} spends during one completion session.
+ * Contributors may run the remaining ones from inside (see {@link com.intellij.codeInsight.completion.CompletionResultSet#runRemainingContributors}),
+ * so the time of nested contributors is subtracted from the caller's. {@link com.intellij.codeInsight.completion.ConcurrentCompletionContributor}s
+ * are measured in their own threads.
+ * <p/>
+ * The report is logged on debug level of this class: enable it to find out which plugin makes completion slow.
+ */
+public class CompletionContributorTimings {
+  private static final Logger LOG = Logger.getInstance("#com.intellij.codeInsight.completion.impl.CompletionContributorTimings");
+
+  private final TObjectLongHashMap<CompletionContributor> mySelfTimes = new TObjectLongHashMap<CompletionContributor>();
+  private final ThreadLocal<List<long[]>> myRunning = new ThreadLocal<List<long[]>>() { // {start time, time spent in nested contributors}
+    @Override
+    protected List<long[]> initialValue() {
+      return new ArrayList<long[]>();
+    }
+  };
+  private final long myStartTime = System.nanoTime();
+  private long myFirstItemTime = -1;
+
+  public static boolean isEnabled() {
+    return LOG.isDebugEnabled();
+  }
+
+  public void started() {
+    myRunning.get().add(new long[]{System.nanoTime(), 0});
+  }
+
+  public void finished(@NotNull CompletionContributor contributor) {
+    List<long[]> running = myRunning.get();
+    long[] frame = running.remove(running.size() - 1);
+    long total = System.nanoTime() - frame[0];
+    if (!running.isEmpty()) {
+      running.get(running.size() - 1)[1] += total;
+    }
+    long self = total - frame[1];
+    synchronized (this) {
+      if (!mySelfTimes.adjustValue(contributor, self)) {
+        mySelfTimes.put(contributor, self);
+      }
+    }
+  }
+
+  public synchronized void itemAdded() {
+    if (myFirstItemTime < 0) {
+      myFirstItemTime = System.nanoTime() - myStartTime;
+    }
+  }
+
+  public synchronized void report() {
+    if (!LOG.isDebugEnabled() || mySelfTimes.isEmpty()) return;
+
+    final List<CompletionContributor> contributors = new ArrayList<CompletionContributor>(mySelfTimes.size());
+    mySelfTimes.forEachEntry(new TObjectLongProcedure<CompletionContributor>() {
+      @Override
+      public boolean execute(CompletionContributor contributor, long time) {
+        contributors.add(contributor);
+        return true;
+      }
+    });
+    Collections.sort(contributors, new Comparator<CompletionContributor>() {
+      @Override
+      public int compare(CompletionContributor o1, CompletionContributor o2) {
+        long t1 = mySelfTimes.get(o1);
+        long t2 = mySelfTimes.get(o2);
+        return t1 > t2 ? -1 : t1 == t2 ? 0 : 1;
+      }
+    });
+
+    StringBuilder sb = new StringBuilder("Completion contributors, total ").append(toMs(System.nanoTime() - myStartTime)).append("ms");
+    if (myFirstItemTime >= 0) {
+      sb.append(", first item after ").append(toMs(myFirstItemTime)).append("ms");
+    }
+    sb.append(":");
+    for (CompletionContributor contributor : contributors) {
+      String className = contributor.getClass().getName();
+      PluginId pluginId = PluginManager.getPluginByClassName(className);
+      sb.append("\n  ").append(toMs(mySelfTimes.get(contributor))).append("ms ").append(className);
+      if (pluginId != null) {
+        sb.append(" (plugin ").append(pluginId.getIdString()).append(")");
+      }
+    }
+    LOG.debug(sb.toString());
+  }
+
+  private static long toMs(long nanos) {
+    return nanos / 1000000;
+  }
+}
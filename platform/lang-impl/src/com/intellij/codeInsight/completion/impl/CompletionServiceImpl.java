@@ -19,8 +19,10 @@ import com.intellij.codeInsight.completion.*;
 import com.intellij.codeInsight.lookup.*;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.impl.ProgressManagerImpl;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.project.ProjectManager;
 import com.intellij.openapi.project.ProjectManagerAdapter;
@@ -35,6 +37,7 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
+import java.util.concurrent.Future;
 
 /**
  * @author peter
@@ -95,6 +98,60 @@ public class CompletionServiceImpl extends CompletionService{
     return new CompletionResultSetImpl(consumer, textBeforePosition, matcher, contributor,parameters, sorter, process, null);
   }
 
+  @Override
+  protected void fillCompletionVariants(@NotNull CompletionContributor contributor,
+                                        @NotNull CompletionParameters parameters,
+                                        @NotNull CompletionResultSet result) {
+    ProgressIndicator indicator = ProgressManager.getInstance().getProgressIndicator();
+    CompletionContributorTimings timings =
+      indicator instanceof CompletionProgressIndicator ? ((CompletionProgressIndicator)indicator).getContributorTimings() : null;
+    if (timings == null) {
+      super.fillCompletionVariants(contributor, parameters, result);
+      return;
+    }
+
+    timings.started();
+    try {
+      super.fillCompletionVariants(contributor, parameters, result);
+    }
+    finally {
+      timings.finished(contributor);
+    }
+  }
+
+  @Override
+  protected Future<?> startConcurrently(@NotNull final CompletionContributor contributor,
+                                        @NotNull final CompletionParameters parameters,
+                                        @NotNull final CompletionResultSet result) {
+    ProgressIndicator indicator = ProgressManager.getInstance().getProgressIndicator();
+    if (!(indicator instanceof CompletionProgressIndicator) || !((CompletionProgressIndicator)indicator).isAsync()) {
+      return super.startConcurrently(contributor, parameters, result);
+    }
+
+    final CompletionProgressIndicator process = (CompletionProgressIndicator)indicator;
+    return ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          ((ProgressManagerImpl)ProgressManager.getInstance()).executeProcessUnderProgress(new Runnable() {
+            @Override
+            public void run() {
+              ApplicationManager.getApplication().runReadAction(new Runnable() {
+                @Override
+                public void run() {
+                  ProgressManager.checkCanceled();
+                  fillCompletionVariants(contributor, parameters, result);
+                }
+              });
+            }
+          }, process);
+        }
+        catch (ProcessCanceledException ignored) {
+        }
+      }
+    });
+  }
+
   @Override
   public CompletionProgressIndicator getCurrentCompletion() {
     if (isPhase(CompletionPhase.BgCalculation.class, CompletionPhase.ItemsCalculated.class, CompletionPhase.CommittingDocuments.class,
@@ -19,8 +19,10 @@ import com.intellij.concurrency.JobLauncher;
 import com.intellij.diagnostic.PluginException;
 import com.intellij.ide.plugins.PluginManager;
 import com.intellij.ide.util.NavigationItemListCellRenderer;
+import com.intellij.navigation.CachedNamesContributor;
 import com.intellij.navigation.ChooseByNameContributor;
 import com.intellij.navigation.NavigationItem;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.extensions.PluginId;
 import com.intellij.openapi.progress.ProcessCanceledException;
@@ -30,16 +32,30 @@ import com.intellij.openapi.progress.util.ProgressIndicatorBase;
 import com.intellij.openapi.project.DumbService;
 import com.intellij.openapi.project.IndexNotReadyException;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectRootManager;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.ModificationTracker;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.psi.util.CachedValue;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
+import com.intellij.psi.util.PsiModificationTracker;
 import com.intellij.util.ArrayUtil;
 import com.intellij.util.Processor;
 import com.intellij.util.containers.ConcurrentHashSet;
 import com.intellij.util.containers.ContainerUtil;
+import gnu.trove.THashSet;
 import org.jetbrains.annotations.NotNull;
 
 import javax.swing.*;
 import java.awt.*;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Contributor-based goto model
@@ -47,6 +63,13 @@ import java.util.List;
 public abstract class ContributorsBasedGotoByModel implements ChooseByNameModel {
   public static final Logger LOG = Logger.getInstance("#com.intellij.ide.util.gotoByName.ContributorsBasedGotoByModel");
 
+  /**
+   * Names are expensive to collect on big projects, so names of {@link CachedNamesContributor}s are shared between popups
+   * until their dependencies change
+   */
+  private static final Key<ConcurrentMap<List<Object>, CachedValue<String[]>>> NAMES_CACHE_KEY = Key.create("goto.by.name.names.cache");
+  private static final Key<VfsModificationTracker> VFS_TRACKER_KEY = Key.create("goto.by.name.vfs.tracker");
+
   protected final Project myProject;
   private final ChooseByNameContributor[] myContributors;
 
@@ -74,10 +97,105 @@ public abstract class ContributorsBasedGotoByModel implements ChooseByNameModel
   @NotNull
   @Override
   public String[] getNames(final boolean checkBoxState) {
+    if (DumbService.getInstance(myProject).isDumb()) {
+      return computeNames(checkBoxState, Arrays.asList(myContributors));
+    }
+
+    List<CachedNamesContributor> cachedContributors = new ArrayList<CachedNamesContributor>();
+    List<ChooseByNameContributor> otherContributors = new ArrayList<ChooseByNameContributor>();
+    for (ChooseByNameContributor contributor : myContributors) {
+      if (contributor instanceof CachedNamesContributor) {
+        cachedContributors.add((CachedNamesContributor)contributor);
+      }
+      else {
+        otherContributors.add(contributor);
+      }
+    }
+
+    // callers are free to keep the array, so don't expose the cached one
+    String[] cachedNames = cachedContributors.isEmpty() ? ArrayUtil.EMPTY_STRING_ARRAY : getCachedNames(checkBoxState, cachedContributors);
+    if (otherContributors.isEmpty()) return cachedNames.clone();
+
+    Set<String> names = new THashSet<String>(Arrays.asList(cachedNames));
+    ContainerUtil.addAll(names, computeNames(checkBoxState, otherContributors));
+    return ArrayUtil.toStringArray(names);
+  }
+
+  @NotNull
+  private String[] getCachedNames(final boolean checkBoxState, @NotNull final List<CachedNamesContributor> contributors) {
+    final List<Object> cacheKey = Arrays.<Object>asList(getClass(), checkBoxState, contributors);
+    ConcurrentMap<List<Object>, CachedValue<String[]>> cache;
+    synchronized (NAMES_CACHE_KEY) {
+      cache = myProject.getUserData(NAMES_CACHE_KEY);
+      if (cache == null) {
+        myProject.putUserData(NAMES_CACHE_KEY, cache = new ConcurrentHashMap<List<Object>, CachedValue<String[]>>());
+      }
+    }
+    CachedValue<String[]> cachedNames = cache.get(cacheKey);
+    if (cachedNames == null) {
+      cachedNames = CachedValuesManager.getManager(myProject).createCachedValue(new CachedValueProvider<String[]>() {
+        @Override
+        public Result<String[]> compute() {
+          Set<Object> dependencies = new LinkedHashSet<Object>();
+          for (CachedNamesContributor contributor : contributors) {
+            ContainerUtil.addAll(dependencies, contributor.getNamesDependencies(myProject));
+          }
+          String[] names = computeNames(checkBoxState, contributors);
+          Arrays.sort(names);
+          return Result.create(names, ArrayUtil.toObjectArray(dependencies));
+        }
+      }, false);
+      cache.putIfAbsent(cacheKey, cachedNames);
+      cachedNames = cache.get(cacheKey);
+    }
+    return cachedNames.getValue();
+  }
+
+  /**
+   * Dependencies of names collected from indices: besides PSI changes, files may be added or changed without PSI events
+   * when their directories have never been loaded as PSI.
+   */
+  @NotNull
+  public static Object[] getIndexedNamesDependencies(@NotNull Project project) {
+    return new Object[]{PsiModificationTracker.OUT_OF_CODE_BLOCK_MODIFICATION_COUNT, ProjectRootManager.getInstance(project),
+      getVfsModificationTracker(project)};
+  }
+
+  @NotNull
+  private static ModificationTracker getVfsModificationTracker(@NotNull Project project) {
+    synchronized (VFS_TRACKER_KEY) {
+      VfsModificationTracker tracker = project.getUserData(VFS_TRACKER_KEY);
+      if (tracker == null) {
+        project.putUserData(VFS_TRACKER_KEY, tracker = new VfsModificationTracker(project));
+      }
+      return tracker;
+    }
+  }
+
+  private static class VfsModificationTracker implements ModificationTracker {
+    private final AtomicLong myCount = new AtomicLong();
+
+    private VfsModificationTracker(@NotNull Project project) {
+      ApplicationManager.getApplication().getMessageBus().connect(project).subscribe(VirtualFileManager.VFS_CHANGES, new BulkFileListener.Adapter() {
+        @Override
+        public void after(@NotNull List<? extends VFileEvent> events) {
+          myCount.incrementAndGet();
+        }
+      });
+    }
+
+    @Override
+    public long getModificationCount() {
+      return myCount.get();
+    }
+  }
+
+  @NotNull
+  private String[] computeNames(final boolean checkBoxState, @NotNull List<? extends ChooseByNameContributor> contributors) {
     final Set<String> names = new ConcurrentHashSet<String>();
 
     long start = System.currentTimeMillis();
-    List<ChooseByNameContributor> liveContribs = filterDumb(myContributors);
+    List<ChooseByNameContributor> liveContribs = filterDumb(contributors);
     JobLauncher.getInstance().invokeConcurrentlyUnderProgress(liveContribs, ProgressManager.getInstance().getProgressIndicator(), false,
                                                 new Processor<ChooseByNameContributor>() {
                                                   @Override
@@ -106,9 +224,9 @@ public abstract class ContributorsBasedGotoByModel implements ChooseByNameModel
     return ArrayUtil.toStringArray(names);
   }
 
-  private List<ChooseByNameContributor> filterDumb(ChooseByNameContributor[] contributors) {
-    if (!DumbService.getInstance(myProject).isDumb()) return Arrays.asList(contributors);
-    List<ChooseByNameContributor> answer = new ArrayList<ChooseByNameContributor>(contributors.length);
+  private List<ChooseByNameContributor> filterDumb(List<? extends ChooseByNameContributor> contributors) {
+    if (!DumbService.getInstance(myProject).isDumb()) return new ArrayList<ChooseByNameContributor>(contributors);
+    List<ChooseByNameContributor> answer = new ArrayList<ChooseByNameContributor>(contributors.size());
     for (ChooseByNameContributor contributor : contributors) {
       if (DumbService.isDumbAware(contributor)) {
         answer.add(contributor);
@@ -156,7 +274,7 @@ public abstract class ContributorsBasedGotoByModel implements ChooseByNameModel
         return true;
       }
     };
-    JobLauncher.getInstance().invokeConcurrentlyUnderProgress(filterDumb(myContributors), canceled, false, processor);
+    JobLauncher.getInstance().invokeConcurrentlyUnderProgress(filterDumb(Arrays.asList(myContributors)), canceled, false, processor);
 
     return ArrayUtil.toObjectArray(items);
   }
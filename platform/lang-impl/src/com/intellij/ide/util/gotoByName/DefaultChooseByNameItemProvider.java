@@ -19,6 +19,7 @@ import com.intellij.concurrency.JobLauncher;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressIndicatorProvider;
 import com.intellij.openapi.util.Comparing;
 import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.util.text.StringUtil;
@@ -38,16 +39,19 @@ import org.jetbrains.annotations.Nullable;
 
 import java.lang.ref.WeakReference;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class DefaultChooseByNameItemProvider implements ChooseByNameItemProvider {
   private static final Logger LOG = Logger.getInstance("#com.intellij.ide.util.gotoByName.ChooseByNameIdea");
   private WeakReference<PsiElement> myContext;
+  // names which may match the last pattern, by the checkbox state
+  private final Map<Boolean, Candidates> myCandidates = new ConcurrentHashMap<Boolean, Candidates>();
 
   public DefaultChooseByNameItemProvider(PsiElement context) {
     myContext = new WeakReference<PsiElement>(context);
   }
 
-  private enum MatchingMode {
+  enum MatchingMode {
     CASE_SENSITIVE,
     CASE_INSENSITIVE,
     STRICT_CASE_INSENSITIVE
@@ -119,8 +123,11 @@ public class DefaultChooseByNameItemProvider implements ChooseByNameItemProvider
                                   boolean needSeparator) {
     ChooseByNameModel model = base.getModel();
     List<String> namesList = new ArrayList<String>();
-    getNamesByPattern(base, new ArrayList<String>(allNames), indicator, namesList, namePattern, matchingMode);
-    allNames.removeAll(namesList);
+    for (String name : getMatchingNames(base, everywhere, indicator, namePattern, matchingMode)) {
+      if (allNames.remove(name)) {
+        namesList.add(name);
+      }
+    }
     sortNamesList(namePattern, namesList);
 
     indicator.checkCanceled();
@@ -162,6 +169,94 @@ public class DefaultChooseByNameItemProvider implements ChooseByNameItemProvider
     return elementsConsumed;
   }
 
+  /**
+   * Matches the pattern against the names of the model which contain all letters and digits of the pattern in the same order.
+   * When these letters extend the ones typed before, only the names containing the previous letters are checked.
+   * <p/>
+   * Matched names themselves can't be reused: a longer pattern may match names a shorter one doesn't, e.g. "FBa" matches "Foo Bar"
+   * while "FB" doesn't.
+   */
+  @NotNull
+  private List<String> getMatchingNames(@NotNull ChooseByNameBase base,
+                                        boolean everywhere,
+                                        @NotNull ProgressIndicator indicator,
+                                        @NotNull String namePattern,
+                                        @NotNull MatchingMode matchingMode) {
+    String[] allNames = base.getNames(everywhere);
+    List<String> candidates = Arrays.asList(allNames);
+    if (!(base.getModel() instanceof CustomMatcherModel)) {
+      String requiredChars = getRequiredChars(namePattern);
+      Candidates previous = myCandidates.get(everywhere);
+      if (previous != null && previous.allNames == allNames && requiredChars.startsWith(previous.requiredChars)) {
+        if (previous.requiredChars.equals(requiredChars)) {
+          candidates = previous.names;
+        }
+        else {
+          candidates = filterCandidates(previous.names, requiredChars);
+          myCandidates.put(everywhere, new Candidates(allNames, requiredChars, candidates));
+        }
+      }
+      else {
+        candidates = filterCandidates(candidates, requiredChars);
+        myCandidates.put(everywhere, new Candidates(allNames, requiredChars, candidates));
+      }
+    }
+
+    List<String> result = new ArrayList<String>();
+    getNamesByPattern(base, candidates, indicator, result, namePattern, matchingMode);
+    return result;
+  }
+
+  /**
+   * @return letters and digits of the pattern, which any matching name contains in the same order ignoring case
+   */
+  @NotNull
+  static String getRequiredChars(@NotNull String pattern) {
+    StringBuilder result = new StringBuilder();
+    for (int i = 0; i < pattern.length(); i++) {
+      char c = pattern.charAt(i);
+      if (Character.isLetterOrDigit(c)) {
+        result.append(c);
+      }
+    }
+    return result.toString();
+  }
+
+  @NotNull
+  static List<String> filterCandidates(@NotNull List<String> names, @NotNull String requiredChars) {
+    if (requiredChars.isEmpty()) return names;
+
+    List<String> result = new ArrayList<String>();
+    for (int i = 0; i < names.size(); i++) {
+      if ((i & 0x3FF) == 0) ProgressIndicatorProvider.checkCanceled();
+      String name = names.get(i);
+      if (containsInOrder(name, requiredChars)) {
+        result.add(name);
+      }
+    }
+    return result;
+  }
+
+  private static boolean containsInOrder(@NotNull String name, @NotNull String chars) {
+    int i = 0;
+    for (int j = 0; j < name.length() && i < chars.length(); j++) {
+      if (StringUtil.charsEqualIgnoreCase(name.charAt(j), chars.charAt(i))) i++;
+    }
+    return i == chars.length();
+  }
+
+  private static class Candidates {
+    private final String[] allNames;
+    private final String requiredChars;
+    private final List<String> names;
+
+    private Candidates(@NotNull String[] allNames, @NotNull String requiredChars, @NotNull List<String> names) {
+      this.allNames = allNames;
+      this.requiredChars = requiredChars;
+      this.names = names;
+    }
+  }
+
   protected void sortNamesList(@NotNull String namePattern, @NotNull List<String> namesList) {
     // Here we sort using namePattern to have similar logic with empty qualified patten case
     Collections.sort(namesList, new MatchesComparator(namePattern));
@@ -284,26 +379,7 @@ public class DefaultChooseByNameItemProvider implements ChooseByNameItemProvider
     }
 
     final String finalPattern = pattern;
-    final Matcher matcher;
-
-    switch (matchingMode) {
-      case CASE_SENSITIVE:
-        matcher = buildPatternMatcher(pattern, NameUtil.MatchingCaseSensitivity.ALL);
-        break;
-      case CASE_INSENSITIVE:
-        matcher = buildPatternMatcher(pattern, NameUtil.MatchingCaseSensitivity.NONE);
-        break;
-      case STRICT_CASE_INSENSITIVE:
-        matcher = new Matcher() {
-          @Override
-          public boolean matches(@NotNull String name) {
-            return StringUtil.startsWithIgnoreCase(name, finalPattern);
-          }
-        };
-        break;
-      default:
-        return;
-    }
+    final Matcher matcher = buildMatcher(pattern, matchingMode);
 
     JobLauncher.getInstance().invokeConcurrentlyUnderProgress(names, indicator, false, new Processor<String>() {
       @Override
@@ -337,6 +413,23 @@ public class DefaultChooseByNameItemProvider implements ChooseByNameItemProvider
     return matches;
   }
 
+  @NotNull
+  static Matcher buildMatcher(@NotNull final String pattern, @NotNull MatchingMode matchingMode) {
+    switch (matchingMode) {
+      case CASE_SENSITIVE:
+        return buildPatternMatcher(pattern, NameUtil.MatchingCaseSensitivity.ALL);
+      case STRICT_CASE_INSENSITIVE:
+        return new Matcher() {
+          @Override
+          public boolean matches(@NotNull String name) {
+            return StringUtil.startsWithIgnoreCase(name, pattern);
+          }
+        };
+      default:
+        return buildPatternMatcher(pattern, NameUtil.MatchingCaseSensitivity.NONE);
+    }
+  }
+
   @NotNull
   private static MinusculeMatcher buildPatternMatcher(@NotNull String pattern, @NotNull NameUtil.MatchingCaseSensitivity caseSensitivity) {
     return NameUtil.buildMatcher(pattern, caseSensitivity);
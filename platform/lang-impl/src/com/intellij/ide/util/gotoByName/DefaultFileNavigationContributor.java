@@ -15,7 +15,7 @@
  */
 package com.intellij.ide.util.gotoByName;
 
-import com.intellij.navigation.ChooseByNameContributor;
+import com.intellij.navigation.CachedNamesContributor;
 import com.intellij.navigation.NavigationItem;
 import com.intellij.openapi.project.DumbAware;
 import com.intellij.openapi.project.Project;
@@ -23,7 +23,7 @@ import com.intellij.psi.search.FilenameIndex;
 import com.intellij.psi.search.ProjectScope;
 import org.jetbrains.annotations.NotNull;
 
-public class DefaultFileNavigationContributor implements ChooseByNameContributor, DumbAware {
+public class DefaultFileNavigationContributor implements CachedNamesContributor, DumbAware {
 
   @Override
   @NotNull
@@ -31,6 +31,12 @@ public class DefaultFileNavigationContributor implements ChooseByNameContributor
     return FilenameIndex.getAllFilenames(project);
   }
 
+  @NotNull
+  @Override
+  public Object[] getNamesDependencies(@NotNull Project project) {
+    return ContributorsBasedGotoByModel.getIndexedNamesDependencies(project);
+  }
+
   @Override
   @NotNull
   public NavigationItem[] getItemsByName(String name, final String pattern, Project project, boolean includeNonProjectItems) {
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.history.core;
+
+import com.intellij.history.core.changes.ChangeSet;
+import com.intellij.history.utils.LocalHistoryLog;
+import com.intellij.util.Consumer;
+import gnu.trove.TIntHashSet;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Write-behind storage: finished change sets are queued and written into the delegate in batches on a background thread,
+ * so the thread which fires VFS events doesn't wait for the disk. When too many changes are pending, the writing thread
+ * flushes the queue itself.
+ * <p/>
+ * Pending sets are served by {@link #readPrevious} before the ones already written; they get negative ids
+ * (<code>-2 - sequence number</code>) which stay valid when the sets are written while being iterated.
+ */
+public class AsyncChangeListStorage implements ChangeListStorage {
+  private static final int MAX_PENDING_CHANGES = 10000;
+
+  private final ChangeListStorage myDelegate;
+  private final Executor myExecutor;
+
+  // held while pending sets are being written into the delegate, always taken before this
+  private final Object myWriteLock = new Object();
+
+  // guarded by this
+  private final List<ChangeSet> myPending = new ArrayList<ChangeSet>();
+  private int myFirstPendingNumber;
+  private int myPendingChanges;
+  private boolean myFlushScheduled;
+
+  private final Runnable myFlushTask = new Runnable() {
+    @Override
+    public void run() {
+      synchronized (AsyncChangeListStorage.this) {
+        myFlushScheduled = false;
+      }
+      try {
+        flush();
+      }
+      catch (Throwable e) {
+        LocalHistoryLog.LOG.error(e);
+      }
+    }
+  };
+
+  public AsyncChangeListStorage(ChangeListStorage delegate, Executor executor) {
+    myDelegate = delegate;
+    myExecutor = executor;
+  }
+
+  @Override
+  public void close() {
+    synchronized (myWriteLock) {
+      flush();
+      myDelegate.close();
+    }
+  }
+
+  @Override
+  public long nextId() {
+    return myDelegate.nextId();
+  }
+
+  @Nullable
+  @Override
+  public ChangeSetHolder readPrevious(int id, TIntHashSet recursionGuard) {
+    synchronized (myWriteLock) {
+      synchronized (this) {
+        if (id == -1) {
+          if (!myPending.isEmpty()) return pendingHolder(myFirstPendingNumber + myPending.size() - 1);
+        }
+        else if (id < -1) {
+          int number = -2 - id - 1; // the set before the given one
+          if (number >= myFirstPendingNumber) return pendingHolder(number);
+
+          // the set has already been written along with the ones after it, which are the last in the delegate
+          int toSkip = myFirstPendingNumber - 1 - number;
+          ChangeSetHolder result = myDelegate.readPrevious(-1, recursionGuard);
+          while (toSkip-- > 0 && result != null) {
+            result = myDelegate.readPrevious(result.id, recursionGuard);
+          }
+          return result;
+        }
+      }
+      return myDelegate.readPrevious(id, recursionGuard);
+    }
+  }
+
+  private ChangeSetHolder pendingHolder(int number) {
+    return new ChangeSetHolder(-2 - number, myPending.get(number - myFirstPendingNumber));
+  }
+
+  @Override
+  public void purge(long period, int intervalBetweenActivities, Consumer<ChangeSet> processor) {
+    synchronized (myWriteLock) {
+      flush();
+      myDelegate.purge(period, intervalBetweenActivities, processor);
+    }
+  }
+
+  @Override
+  public void writeNextSet(ChangeSet changeSet) {
+    boolean flushNow;
+    synchronized (this) {
+      myPending.add(changeSet);
+      myPendingChanges += changeSet.getChanges().size();
+
+      flushNow = myPendingChanges >= MAX_PENDING_CHANGES;
+      if (!flushNow && !myFlushScheduled) {
+        myFlushScheduled = true;
+        myExecutor.execute(myFlushTask);
+      }
+    }
+    if (flushNow) flush();
+  }
+
+  @Override
+  public void writeNextSets(List<ChangeSet> changeSets) {
+    for (ChangeSet each : changeSets) {
+      writeNextSet(each);
+    }
+  }
+
+  /**
+   * Writes all pending sets into the delegate; sets queued while a batch is being written are written with the next one.
+   */
+  public void flush() {
+    synchronized (myWriteLock) {
+      while (true) {
+        List<ChangeSet> batch;
+        synchronized (this) {
+          if (myPending.isEmpty()) return;
+          batch = new ArrayList<ChangeSet>(myPending);
+        }
+
+        myDelegate.writeNextSets(batch);
+
+        synchronized (this) {
+          int changes = 0;
+          for (ChangeSet each : batch) {
+            changes += each.getChanges().size();
+          }
+          myPending.subList(0, batch.size()).clear();
+          myFirstPendingNumber += batch.size();
+          myPendingChanges -= changes;
+        }
+      }
+    }
+  }
+}
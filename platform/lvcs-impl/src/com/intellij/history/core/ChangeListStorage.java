@@ -21,6 +21,8 @@ import com.intellij.util.Consumer;
 import gnu.trove.TIntHashSet;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.List;
+
 public interface ChangeListStorage {
   void close();
 
@@ -32,4 +34,6 @@ public interface ChangeListStorage {
   void purge(long period, int intervalBetweenActivities, Consumer<ChangeSet> processor);
 
   void writeNextSet(ChangeSet changeSet);
+
+  void writeNextSets(List<ChangeSet> changeSets);
 }
\ No newline at end of file
@@ -40,6 +40,8 @@ import java.io.File;
 import java.io.IOException;
 import java.text.DateFormat;
 import java.text.MessageFormat;
+import java.util.Collections;
+import java.util.List;
 
 public class ChangeListStorageImpl implements ChangeListStorage {
   private static final int VERSION = 5;
@@ -204,16 +206,23 @@ public class ChangeListStorageImpl implements ChangeListStorage {
     }
   }
 
-  public synchronized void writeNextSet(ChangeSet changeSet) {
+  public void writeNextSet(ChangeSet changeSet) {
+    writeNextSets(Collections.singletonList(changeSet));
+  }
+
+  public synchronized void writeNextSets(List<ChangeSet> changeSets) {
     if (isCompletelyBroken) return;
 
     try {
-      AbstractStorage.StorageDataOutput out = myStorage.writeStream(myStorage.createNextRecord(), true);
-      try {
-        changeSet.write(out);
-      }
-      finally {
-        out.close();
+      for (ChangeSet changeSet : changeSets) {
+        // the set may be written some time after it has been finished, so it keeps its own timestamp
+        AbstractStorage.StorageDataOutput out = myStorage.writeStream(myStorage.createNextRecord(changeSet.getTimestamp()), true);
+        try {
+          changeSet.write(out);
+        }
+        finally {
+          out.close();
+        }
       }
       myStorage.setLastId(myLastId);
       myStorage.force();
@@ -49,6 +49,11 @@ public class InMemoryChangeListStorage implements ChangeListStorage {
     mySets.add(changeSet);
   }
 
+  @Override
+  public void writeNextSets(List<ChangeSet> changeSets) {
+    mySets.addAll(changeSets);
+  }
+
   @Override
   public void purge(long period, int intervalBetweenActivities, Consumer<ChangeSet> processor) {
   }
@@ -123,7 +123,7 @@ public class LocalHistoryFacade {
   }
 
   private ByteContent getByteContentBefore(RootEntry root, String path, Change change) {
-    root = root.copy();
+    root = root.lazyCopy();
     revertUpTo(root, "", null, change, false, false);
     Entry entry = root.findEntry(path);
     if (entry == null) return new ByteContent(false, null);
@@ -134,14 +134,15 @@ public class LocalHistoryFacade {
 
   public List<RecentChange> getRecentChanges(RootEntry root) {
     List<RecentChange> result = new ArrayList<RecentChange>();
+    RevisionSnapshots snapshots = new RevisionSnapshots(this, root, "");
 
     for (ChangeSet c : myChangeList.iterChanges()) {
       if (c.isContentChangeOnly()) continue;
       if (c.isLabelOnly()) continue;
       if (c.getName() == null) continue;
 
-      Revision before = new ChangeRevision(this, root, "", c, true);
-      Revision after = new ChangeRevision(this, root, "", c, false);
+      Revision before = new ChangeRevision(snapshots, c, true);
+      Revision after = new ChangeRevision(snapshots, c, false);
       result.add(new RecentChange(before, after));
       if (result.size() >= 20) break;
     }
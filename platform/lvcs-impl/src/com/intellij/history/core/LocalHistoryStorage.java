@@ -100,6 +100,10 @@ public class LocalHistoryStorage extends AbstractStorage {
   }
 
   public int createNextRecord() throws IOException {
+    return createNextRecord(Clock.getTime());
+  }
+
+  public int createNextRecord(long timestamp) throws IOException {
     synchronized (myLock) {
       LocalHistoryRecordsTable table = (LocalHistoryRecordsTable)myRecordsTable;
       int id = table.createNewRecord();
@@ -114,7 +118,7 @@ public class LocalHistoryStorage extends AbstractStorage {
       }
       table.setLastRecord(id);
 
-      table.setTimestamp(id, Clock.getTime());
+      table.setTimestamp(id, timestamp);
 
       return id;
     }
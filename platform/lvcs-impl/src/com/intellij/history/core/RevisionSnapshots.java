@@ -0,0 +1,138 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.history.core;
+
+import com.intellij.history.core.changes.*;
+import com.intellij.history.core.tree.Entry;
+import com.intellij.history.core.tree.RootEntry;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds entries of past revisions of a path by reverting changes on lazy copies of the current root.
+ * <p/>
+ * While reverting, the state of the tree is remembered every {@link #SNAPSHOT_INTERVAL} change sets, so that a revision
+ * older than a snapshot is found by reverting only the changes made before it rather than the whole history since now.
+ * Snapshots share all the entries which haven't been touched by the reverted changes.
+ * <p/>
+ * Relies on change set ids growing along with the history. The root must not be modified while it's in use.
+ */
+public class RevisionSnapshots {
+  private static final int SNAPSHOT_INTERVAL = 50;
+
+  private final LocalHistoryFacade myFacade;
+  private final RootEntry myRoot;
+  private final String myPath;
+
+  // ordered from the newest to the oldest, guarded by this
+  private final List<Snapshot> mySnapshots = new ArrayList<Snapshot>();
+
+  public RevisionSnapshots(LocalHistoryFacade facade, RootEntry root, @NotNull String path) {
+    myFacade = facade;
+    myRoot = root;
+    myPath = path;
+  }
+
+  /**
+   * @return the entry of the path as it was right before (or right after, if <code>revertTargetChange</code> is false)
+   *         the target change
+   */
+  @Nullable
+  public Entry findEntry(@NotNull ChangeSet targetChangeSet, final Change targetChange, final boolean revertTargetChange) {
+    Snapshot start = findSnapshotBefore(targetChangeSet.getId());
+
+    final long startId = start == null ? Long.MAX_VALUE : start.changeSetId;
+    final RootEntry[] root = {start == null ? myRoot.lazyCopy() : start.root.lazyCopy()};
+    final String[] path = {start == null ? myPath : start.path};
+
+    myFacade.accept(new ChangeVisitor() {
+      private boolean mySkipping;
+      private int myRevertedSets;
+
+      @Override
+      public void begin(ChangeSet c) throws StopVisitingException {
+        // already reverted in the snapshot
+        mySkipping = c.getId() >= startId;
+      }
+
+      @Override
+      public void end(ChangeSet c) throws StopVisitingException {
+        if (mySkipping) return;
+
+        if (++myRevertedSets % SNAPSHOT_INTERVAL == 0) {
+          RootEntry snapshot = root[0];
+          addSnapshot(new Snapshot(c.getId(), snapshot, path[0]));
+          root[0] = snapshot.lazyCopy();
+        }
+      }
+
+      @Override
+      public void visit(PutLabelChange c) throws StopVisitingException {
+        if (mySkipping) return;
+        if (c.equals(targetChange)) stop();
+      }
+
+      @Override
+      public void visit(StructuralChange c) throws StopVisitingException {
+        if (mySkipping) return;
+        if (!revertTargetChange && c.equals(targetChange)) stop();
+
+        c.revertOn(root[0], true);
+        path[0] = c.revertPath(path[0]);
+
+        if (c.equals(targetChange)) stop();
+      }
+    });
+
+    return root[0].findEntry(path[0]);
+  }
+
+  /**
+   * @return the oldest snapshot which has not reverted the given change set yet
+   */
+  @Nullable
+  private synchronized Snapshot findSnapshotBefore(long changeSetId) {
+    Snapshot result = null;
+    for (Snapshot each : mySnapshots) {
+      if (each.changeSetId <= changeSetId) break;
+      result = each;
+    }
+    return result;
+  }
+
+  private synchronized void addSnapshot(@NotNull Snapshot snapshot) {
+    int i = 0;
+    while (i < mySnapshots.size() && mySnapshots.get(i).changeSetId > snapshot.changeSetId) i++;
+    if (i < mySnapshots.size() && mySnapshots.get(i).changeSetId == snapshot.changeSetId) return;
+    mySnapshots.add(i, snapshot);
+  }
+
+  private static class Snapshot {
+    // the tree with all the change sets up to and including this one reverted
+    final long changeSetId;
+    final RootEntry root;
+    final String path;
+
+    Snapshot(long changeSetId, RootEntry root, String path) {
+      this.changeSetId = changeSetId;
+      this.root = root;
+      this.path = path;
+    }
+  }
+}
@@ -31,6 +31,7 @@ public class RevisionsCollector extends ChangeSetsProcessor {
   private final RootEntry myRoot;
   private final String myProjectId;
   private final String myPattern;
+  private final RevisionSnapshots mySnapshots;
 
   private final List<Revision> myResult = new ArrayList<Revision>();
 
@@ -40,6 +41,7 @@ public class RevisionsCollector extends ChangeSetsProcessor {
     myRoot = rootEntry;
     myProjectId = projectId;
     myPattern = pattern;
+    mySnapshots = new RevisionSnapshots(facade, rootEntry, path);
   }
 
   public List<Revision> getResult() {
@@ -67,6 +69,6 @@ public class RevisionsCollector extends ChangeSetsProcessor {
 
   @Override
   protected void visit(ChangeSet changeSet) {
-    myResult.add(new ChangeRevision(myFacade, myRoot, myPath, changeSet, true));
+    myResult.add(new ChangeRevision(mySnapshots, changeSet, true));
   }
 }
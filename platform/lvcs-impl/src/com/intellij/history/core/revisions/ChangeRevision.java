@@ -18,6 +18,7 @@ package com.intellij.history.core.revisions;
 
 import com.intellij.history.core.LocalHistoryFacade;
 import com.intellij.history.core.Paths;
+import com.intellij.history.core.RevisionSnapshots;
 import com.intellij.history.core.changes.Change;
 import com.intellij.history.core.changes.ChangeSet;
 import com.intellij.history.core.tree.Entry;
@@ -29,9 +30,8 @@ import org.jetbrains.annotations.NotNull;
 import java.util.List;
 
 public class ChangeRevision extends Revision {
-  private final LocalHistoryFacade myFacade;
-  private final RootEntry myRoot;
-  @NotNull private final String myEntryPath;
+  private final RevisionSnapshots mySnapshots;
+  private final ChangeSet myChangeSet;
   private final long myTimestamp;
   private final Change myChangeToRevert;
 
@@ -44,9 +44,15 @@ public class ChangeRevision extends Revision {
   private final Pair<List<String>, Integer> myAffectedFiles;
 
   public ChangeRevision(LocalHistoryFacade facade, RootEntry r, @NotNull String entryPath, ChangeSet changeSet, boolean before) {
-    myFacade = facade;
-    myRoot = r;
-    myEntryPath = entryPath;
+    this(new RevisionSnapshots(facade, r, entryPath), changeSet, before);
+  }
+
+  /**
+   * @param snapshots shared by the revisions of the same path, so that finding their entries doesn't revert the same changes again
+   */
+  public ChangeRevision(@NotNull RevisionSnapshots snapshots, ChangeSet changeSet, boolean before) {
+    mySnapshots = snapshots;
+    myChangeSet = changeSet;
     myBefore = before;
 
     myTimestamp = changeSet.getTimestamp();
@@ -72,12 +78,8 @@ public class ChangeRevision extends Revision {
 
   @Override
   public Entry findEntry() {
-    RootEntry rootCopy = myRoot.copy();
-
     boolean revertThis = myBefore;
-    String path = myFacade.revertUpTo(rootCopy, myEntryPath, null, myChangeToRevert, revertThis, true);
-
-    return rootCopy.findEntry(path);
+    return mySnapshots.findEntry(myChangeSet, myChangeToRevert, revertThis);
   }
 
   @Override
@@ -30,6 +30,8 @@ import java.util.List;
 
 public class DirectoryEntry extends Entry {
   private final ArrayList<Entry> myChildren;
+  // children are copied from it on first access, see lazyCopy()
+  private volatile DirectoryEntry mySource;
 
   public DirectoryEntry(String name) {
     super(name);
@@ -48,8 +50,9 @@ public class DirectoryEntry extends Entry {
   @Override
   public void write(DataOutput out) throws IOException {
     super.write(out);
-    out.writeInt(myChildren.size());
-    for (Entry child : myChildren) {
+    List<Entry> children = children();
+    out.writeInt(children.size());
+    for (Entry child : children) {
       StreamUtil.writeEntry(out, child);
     }
   }
@@ -71,7 +74,8 @@ public class DirectoryEntry extends Entry {
   }
 
   public void addChildren(Collection<Entry> children) {
-    myChildren.ensureCapacity(myChildren.size() + children.size());
+    ArrayList<Entry> existing = children();
+    existing.ensureCapacity(existing.size() + children.size());
     for (Entry each : children) {
       unsafeAddChild(each);
     }
@@ -94,18 +98,35 @@ public class DirectoryEntry extends Entry {
 
   @Override
   public void removeChild(Entry child) {
-    myChildren.remove(child);
+    children().remove(child);
     child.setParent(null);
   }
 
   @Override
   public List<Entry> getChildren() {
+    return children();
+  }
+
+  private ArrayList<Entry> children() {
+    if (mySource != null) loadChildren();
     return myChildren;
   }
 
+  private synchronized void loadChildren() {
+    DirectoryEntry source = mySource;
+    if (source == null) return;
+
+    List<Entry> children = source.getChildren();
+    myChildren.ensureCapacity(children.size());
+    for (Entry child : children) {
+      unsafeAddChild(child instanceof DirectoryEntry ? ((DirectoryEntry)child).lazyCopy() : child.copy());
+    }
+    mySource = null;
+  }
+
   @Override
   public boolean hasUnavailableContent(List<Entry> entriesWithUnavailableContent) {
-    for (Entry e : myChildren) {
+    for (Entry e : children()) {
       e.hasUnavailableContent(entriesWithUnavailableContent);
     }
     return !entriesWithUnavailableContent.isEmpty();
@@ -115,13 +136,26 @@ public class DirectoryEntry extends Entry {
   @Override
   public DirectoryEntry copy() {
     DirectoryEntry result = copyEntry();
-    result.myChildren.ensureCapacity(myChildren.size());
-    for (Entry child : myChildren) {
+    List<Entry> children = children();
+    result.myChildren.ensureCapacity(children.size());
+    for (Entry child : children) {
       result.unsafeAddChild(child.copy());
     }
     return result;
   }
 
+  /**
+   * Same as {@link #copy()}, but the children of each directory are copied only when they are accessed for the first time,
+   * so that copying a large tree costs as much as the part of it which is actually used.
+   * This entry must not be modified after it has been copied this way.
+   */
+  @NotNull
+  public DirectoryEntry lazyCopy() {
+    DirectoryEntry result = copyEntry();
+    result.mySource = this;
+    return result;
+  }
+
   protected DirectoryEntry copyEntry() {
     return new DirectoryEntry(myName);
   }
@@ -140,7 +174,7 @@ public class DirectoryEntry extends Entry {
   }
 
   private void addCreatedChildrenDifferences(DirectoryEntry e, List<Difference> result) {
-    for (Entry child : e.myChildren) {
+    for (Entry child : e.children()) {
       if (findDirectChild(child.getName(), child.isDirectory()) == null) {
         child.collectCreatedDifferences(result);
       }
@@ -148,7 +182,7 @@ public class DirectoryEntry extends Entry {
   }
 
   private void addDeletedChildrenDifferences(DirectoryEntry e, List<Difference> result) {
-    for (Entry child : myChildren) {
+    for (Entry child : children()) {
       if (e.findDirectChild(child.getName(), child.isDirectory()) == null) {
         child.collectDeletedDifferences(result);
       }
@@ -156,7 +190,7 @@ public class DirectoryEntry extends Entry {
   }
 
   private void addModifiedChildrenDifferences(DirectoryEntry e, List<Difference> result) {
-    for (Entry myChild : myChildren) {
+    for (Entry myChild : children()) {
       Entry itsChild = e.findDirectChild(myChild.getName(), myChild.isDirectory());
       if (itsChild != null) {
         myChild.collectDifferencesWith(itsChild, result);
@@ -175,7 +209,7 @@ public class DirectoryEntry extends Entry {
   protected void collectCreatedDifferences(List<Difference> result) {
     result.add(new Difference(false, null, this));
 
-    for (Entry child : myChildren) {
+    for (Entry child : children()) {
       child.collectCreatedDifferences(result);
     }
   }
@@ -184,7 +218,7 @@ public class DirectoryEntry extends Entry {
   protected void collectDeletedDifferences(List<Difference> result) {
     result.add(new Difference(false, this, null));
 
-    for (Entry child : myChildren) {
+    for (Entry child : children()) {
       child.collectDeletedDifferences(result);
     }
   }
@@ -38,6 +38,12 @@ public class RootEntry extends DirectoryEntry {
     return (RootEntry)super.copy();
   }
 
+  @NotNull
+  @Override
+  public RootEntry lazyCopy() {
+    return (RootEntry)super.lazyCopy();
+  }
+
   @Override
   protected DirectoryEntry copyEntry() {
     return new RootEntry();
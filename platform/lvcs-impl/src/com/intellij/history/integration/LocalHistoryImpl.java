@@ -36,6 +36,7 @@ import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.annotations.TestOnly;
+import org.jetbrains.ide.PooledThreadExecutor;
 
 import java.io.File;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -73,7 +74,7 @@ public class LocalHistoryImpl extends LocalHistory implements ApplicationCompone
   protected void initHistory() {
     ChangeListStorage storage;
     try {
-      storage = new ChangeListStorageImpl(getStorageDir());
+      storage = new AsyncChangeListStorage(new ChangeListStorageImpl(getStorageDir()), new PooledThreadExecutor());
     }
     catch (Throwable e) {
       LocalHistoryLog.LOG.warn("cannot create storage, in-memory  implementation will be used", e);
@@ -137,6 +137,16 @@ public class JarFileSystemImpl extends JarFileSystem implements ApplicationCompo
     if (isRunningFromDist) {
       myNoCopyJarDir = new File(new File(PathManager.getLibPath()).getParent());
     }
+
+    final Application app = ApplicationManager.getApplication();
+    if (!app.isUnitTestMode()) {
+      app.executeOnPooledThread(new Runnable() {
+        @Override
+        public void run() {
+          JarHandler.deleteStaleIndices();
+        }
+      });
+    }
   }
 
   @Override
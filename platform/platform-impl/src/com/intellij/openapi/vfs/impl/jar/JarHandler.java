@@ -26,6 +26,7 @@ import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
 import com.intellij.openapi.util.io.FileAttributes;
 import com.intellij.openapi.util.io.FileSystemUtil;
 import com.intellij.openapi.util.io.FileUtil;
@@ -34,16 +35,18 @@ import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VfsBundle;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.vfs.newvfs.NewVirtualFile;
+import com.intellij.util.io.UnsyncByteArrayInputStream;
 import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.io.File;
-import java.io.IOException;
+import java.io.*;
 
 public class JarHandler extends JarHandlerBase {
   private static final Logger LOG = Logger.getInstance("#com.intellij.openapi.vfs.impl.jar.JarHandler");
 
   @NonNls private static final String JARS_FOLDER = "jars";
+  @NonNls private static final String INDEX_FOLDER = "index";
 
   private final JarFileSystemImpl myFileSystem;
 
@@ -95,11 +98,104 @@ public class JarHandler extends JarHandlerBase {
     return mirrorFile;
   }
 
+  /**
+   * Central directory indices are saved between sessions, so entries of unchanged jars are listed without parsing them.
+   * An index is valid for the jar path, length and timestamp it was built for.
+   */
+  @Nullable
+  @Override
+  protected JarIndex createIndex(@NotNull File originalFile, @NotNull File file) {
+    final FileAttributes attributes = FileSystemUtil.getAttributes(originalFile);
+    if (attributes == null) return null;
+
+    final File indexFile = new File(getIndexDir(), originalFile.getName() + "." + Integer.toHexString(originalFile.getPath().hashCode()));
+    if (indexFile.exists()) {
+      try {
+        final DataInputStream in = new DataInputStream(new UnsyncByteArrayInputStream(FileUtil.loadFileBytes(indexFile)));
+        if (originalFile.getPath().equals(in.readUTF()) && attributes.length == in.readLong() && attributes.lastModified == in.readLong()) {
+          final JarIndex index = JarIndex.load(in);
+          if (index != null) return index;
+        }
+      }
+      catch (IOException e) {
+        LOG.info("Corrupted jar index " + indexFile + ": " + e.getMessage());
+      }
+    }
+
+    final JarIndex index = super.createIndex(originalFile, file);
+    if (index != null) {
+      try {
+        final BufferExposingByteArrayOutputStream bytes = new BufferExposingByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(originalFile.getPath());
+        out.writeLong(attributes.length);
+        out.writeLong(attributes.lastModified);
+        index.save(out);
+        out.close();
+        FileUtil.writeToFile(indexFile, bytes.getInternalBuffer(), 0, bytes.size());
+      }
+      catch (UTFDataFormatException e) {
+        // an entry name is too long for the saved index, the jar is indexed anew each session
+        LOG.debug("Jar index is not saved for " + originalFile + ": " + e.getMessage());
+        FileUtil.delete(indexFile);
+      }
+      catch (IOException e) {
+        LOG.info("Cannot save jar index " + indexFile + ": " + e.getMessage());
+      }
+    }
+    return index;
+  }
+
+  /**
+   * Deletes saved indices of jars which don't exist anymore or were changed since they were indexed
+   * (the latter are indexed again when accessed).
+   */
+  static void deleteStaleIndices() {
+    deleteStaleIndices(getIndexDir());
+  }
+
+  static void deleteStaleIndices(@NotNull File indexDir) {
+    final File[] files = indexDir.listFiles();
+    if (files == null) return;
+
+    int deleted = 0;
+    for (File file : files) {
+      if (!isIndexUpToDate(file) && FileUtil.delete(file)) {
+        deleted++;
+      }
+    }
+    if (deleted > 0) {
+      LOG.info(deleted + " stale jar indices deleted");
+    }
+  }
+
+  private static boolean isIndexUpToDate(@NotNull File indexFile) {
+    try {
+      final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+      try {
+        final File originalFile = new File(in.readUTF());
+        final FileAttributes attributes = FileSystemUtil.getAttributes(originalFile);
+        return attributes != null && attributes.length == in.readLong() && attributes.lastModified == in.readLong();
+      }
+      finally {
+        in.close();
+      }
+    }
+    catch (IOException e) {
+      LOG.debug(e);
+      return false;
+    }
+  }
+
   private static String getJarsDir() {
     String dir = System.getProperty("jars_dir");
     return dir == null ? PathManager.getSystemPath() + File.separatorChar + JARS_FOLDER : dir;
   }
 
+  private static File getIndexDir() {
+    return new File(getJarsDir(), INDEX_FOLDER);
+  }
+
   private File copyToMirror(final File original, final File mirror) {
     ProgressIndicator progress = ProgressManager.getInstance().getProgressIndicator();
     if (progress != null) {
@@ -51,6 +51,7 @@ import static com.intellij.util.containers.ContainerUtil.*;
 public class FileWatcher {
   @NonNls public static final String PROPERTY_WATCHER_DISABLED = "idea.filewatcher.disabled";
   @NonNls public static final String PROPERTY_WATCHER_EXECUTABLE_PATH = "idea.filewatcher.executable.path";
+  @NonNls public static final String PROPERTY_WATCHER_NIO = "idea.filewatcher.nio";
 
   public static final NotNullLazyValue<NotificationGroup> NOTIFICATION_GROUP = new NotNullLazyValue<NotificationGroup>() {
     @NotNull @Override
@@ -81,6 +82,7 @@ public class FileWatcher {
   private final ManagingFS myManagingFS;
   private final File myExecutable;
   private volatile MyProcessHandler myProcessHandler;
+  private volatile NioFileWatcher myNioWatcher;
   private volatile int myStartAttemptCount = 0;
   private volatile boolean myIsShuttingDown = false;
   private volatile boolean myFailureShownToTheUser = false;
@@ -95,27 +97,34 @@ public class FileWatcher {
     myManagingFS = managingFS;
 
     boolean disabled = Boolean.parseBoolean(System.getProperty(PROPERTY_WATCHER_DISABLED));
+    boolean preferNio = Boolean.parseBoolean(System.getProperty(PROPERTY_WATCHER_NIO));
     myExecutable = getExecutable();
 
+    String failure = null;
+    NotificationListener failureListener = null;
     if (disabled) {
       LOG.info("Native file watcher is disabled");
     }
+    else if (preferNio) {
+      LOG.info("Native file watcher is replaced with NIO one");
+    }
     else if (myExecutable == null) {
       LOG.info("Native file watcher is not supported on this platform");
     }
     else if (!myExecutable.exists()) {
-      notifyOnFailure(ApplicationBundle.message("watcher.exe.not.found"), null);
+      failure = ApplicationBundle.message("watcher.exe.not.found");
     }
     else if (!myExecutable.canExecute()) {
-      notifyOnFailure(ApplicationBundle.message("watcher.exe.not.exe", myExecutable), new NotificationListener() {
+      failure = ApplicationBundle.message("watcher.exe.not.exe", myExecutable);
+      failureListener = new NotificationListener() {
         @Override
         public void hyperlinkUpdate(@NotNull Notification notification, @NotNull HyperlinkEvent event) {
           ShowFilePathAction.openFile(myExecutable);
         }
-      });
+      };
     }
     else if (!isUpToDate(myExecutable)) {
-      notifyOnFailure(ApplicationBundle.message("watcher.exe.outdated"), null);
+      failure = ApplicationBundle.message("watcher.exe.outdated");
     }
     else {
       try {
@@ -124,7 +133,16 @@ public class FileWatcher {
       }
       catch (IOException e) {
         LOG.warn(e.getMessage());
-        notifyOnFailure(ApplicationBundle.message("watcher.failed.to.start"), null);
+        failure = ApplicationBundle.message("watcher.failed.to.start");
+      }
+    }
+
+    if (!disabled && !isOperational()) {
+      if (failure != null) {
+        LOG.warn(failure);
+      }
+      if (!startNioWatcher() && failure != null) {
+        notifyOnFailure(failure, failureListener);
       }
     }
   }
@@ -132,6 +150,54 @@ public class FileWatcher {
   public void dispose() {
     myIsShuttingDown = true;
     shutdownProcess();
+    final NioFileWatcher nioWatcher = myNioWatcher;
+    if (nioWatcher != null) {
+      myNioWatcher = null;
+      nioWatcher.dispose();
+    }
+  }
+
+  /**
+   * Starts in-process watcher used instead of the native one when the latter isn't available or gave up
+   * (on Linux and Windows only, unless requested explicitly).
+   */
+  private boolean startNioWatcher() {
+    if (myNioWatcher != null) return true;
+    if (ShutDownTracker.isShutdownHookRunning() || !NioFileWatcher.isAvailable()) return false;
+    if (!SystemInfo.isLinux && !SystemInfo.isWindows && !Boolean.parseBoolean(System.getProperty(PROPERTY_WATCHER_NIO))) {
+      // WatchService polls directories on other platforms, which is no better than manual refresh
+      LOG.info("NIO file watcher is not used on " + SystemInfo.OS_NAME);
+      return false;
+    }
+
+    try {
+      final NioFileWatcher nioWatcher = new NioFileWatcher(new NioFileWatcher.Listener() {
+        @Override
+        public void onChange(@NotNull String path, @NotNull WatcherOp op) {
+          processChange(path, op);
+        }
+
+        @Override
+        public void onUnwatchable(@NotNull List<String> paths) {
+          synchronized (myLock) {
+            myManualWatchRoots = paths;
+          }
+          notifyOnEvent();
+        }
+      });
+      synchronized (myLock) {
+        myNioWatcher = nioWatcher;
+        if (myRecursiveWatchRoots.size() + myFlatWatchRoots.size() > 0) {
+          nioWatcher.setRoots(myRecursiveWatchRoots, myFlatWatchRoots);
+        }
+      }
+      LOG.info("NIO file watcher is operational.");
+      return true;
+    }
+    catch (IOException e) {
+      LOG.warn("Cannot start NIO file watcher: " + e.getMessage());
+      return false;
+    }
   }
 
   @Nullable
@@ -202,7 +268,9 @@ public class FileWatcher {
     }
 
     if (myStartAttemptCount++ > MAX_PROCESS_LAUNCH_ATTEMPT_COUNT) {
-      notifyOnFailure(ApplicationBundle.message("watcher.failed.to.start"), null);
+      if (!startNioWatcher()) {
+        notifyOnFailure(ApplicationBundle.message("watcher.failed.to.start"), null);
+      }
       return;
     }
 
@@ -241,10 +309,14 @@ public class FileWatcher {
   }
 
   public boolean isOperational() {
-    return myProcessHandler != null;
+    return myProcessHandler != null || myNioWatcher != null;
   }
 
   public boolean isSettingRoots() {
+    final NioFileWatcher nioWatcher = myNioWatcher;
+    if (nioWatcher != null) {
+      return nioWatcher.isSettingRoots();
+    }
     return isOperational() && mySettingRoots.get() > 0;
   }
 
@@ -281,7 +353,8 @@ public class FileWatcher {
   }
 
   private void setWatchRoots(List<String> recursive, List<String> flat, final boolean restart) {
-    if (myProcessHandler == null || myProcessHandler.isProcessTerminated()) return;
+    final NioFileWatcher nioWatcher = myNioWatcher;
+    if (nioWatcher == null && (myProcessHandler == null || myProcessHandler.isProcessTerminated())) return;
 
     if (ApplicationManager.getApplication().isDisposeInProgress()) {
       recursive = flat = Collections.emptyList();
@@ -292,6 +365,13 @@ public class FileWatcher {
         return;
       }
 
+      if (nioWatcher != null) {
+        nioWatcher.setRoots(recursive, flat);
+        myRecursiveWatchRoots = recursive;
+        myFlatWatchRoots = flat;
+        return;
+      }
+
       mySettingRoots.incrementAndGet();
       myMapping.clear();
 
@@ -397,7 +477,7 @@ public class FileWatcher {
   }
 
   @SuppressWarnings("SpellCheckingInspection")
-  private enum WatcherOp {
+  enum WatcherOp {
     GIVEUP, RESET, UNWATCHEABLE, REMAP, MESSAGE, CREATE, DELETE, STATS, CHANGE, DIRTY, RECDIRTY
   }
 
@@ -441,8 +521,13 @@ public class FileWatcher {
         }
 
         if (watcherOp == WatcherOp.GIVEUP) {
-          notifyOnFailure(ApplicationBundle.message("watcher.gave.up"), null);
           myIsShuttingDown = true;
+          if (startNioWatcher()) {
+            LOG.warn("Native file watcher gave up, switched to NIO one");
+          }
+          else {
+            notifyOnFailure(ApplicationBundle.message("watcher.gave.up"), null);
+          }
         }
         else if (watcherOp == WatcherOp.RESET) {
           reset();
@@ -508,71 +593,71 @@ public class FileWatcher {
 
       notifyOnEvent();
     }
+  }
 
-    private void reset() {
-      synchronized (myLock) {
-        myDirtyPaths.clear();
-        myDirtyDirs.clear();
-        myDirtyRecursivePaths.clear();
+  private void reset() {
+    synchronized (myLock) {
+      myDirtyPaths.clear();
+      myDirtyDirs.clear();
+      myDirtyRecursivePaths.clear();
 
-        for (VirtualFile root : myManagingFS.getLocalRoots()) {
-          ((NewVirtualFile)root).markDirtyRecursively();
-        }
+      for (VirtualFile root : myManagingFS.getLocalRoots()) {
+        ((NewVirtualFile)root).markDirtyRecursively();
+      }
+    }
+
+    notifyOnEvent();
+  }
+
+  private void processChange(final String path, final WatcherOp op) {
+    if (SystemInfo.isWindows && op == WatcherOp.RECDIRTY && path.length() == 3 && Character.isLetter(path.charAt(0))) {
+      final VirtualFile root = LocalFileSystem.getInstance().findFileByPath(path);
+      if (root instanceof NewVirtualFile) {
+        ((NewVirtualFile)root).markDirtyRecursively();
       }
 
       notifyOnEvent();
+      return;
     }
 
-    private void processChange(final String path, final WatcherOp op) {
-      if (SystemInfo.isWindows && op == WatcherOp.RECDIRTY && path.length() == 3 && Character.isLetter(path.charAt(0))) {
-        final VirtualFile root = LocalFileSystem.getInstance().findFileByPath(path);
-        if (root instanceof NewVirtualFile) {
-          ((NewVirtualFile)root).markDirtyRecursively();
-        }
+    synchronized (myLock) {
+      final boolean checkParent = !(op == WatcherOp.DIRTY || op == WatcherOp.RECDIRTY);
+      final Collection<String> paths = checkWatchable(path, checkParent);
 
-        notifyOnEvent();
+      if (paths.isEmpty()) {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Not watchable, filtered: " + path);
+        }
         return;
       }
 
-      synchronized (myLock) {
-        final boolean checkParent = !(op == WatcherOp.DIRTY || op == WatcherOp.RECDIRTY);
-        final Collection<String> paths = checkWatchable(path, checkParent);
-
-        if (paths.isEmpty()) {
-          if (LOG.isDebugEnabled()) {
-            LOG.debug("Not watchable, filtered: " + path);
+      switch (op) {
+        case STATS:
+        case CHANGE:
+          myDirtyPaths.addAll(paths);
+          break;
+
+        case CREATE:
+        case DELETE:
+          for (String p : paths) {
+            final File parent = new File(p).getParentFile();
+            myDirtyPaths.add(parent != null ? parent.getPath() : p);
           }
-          return;
-        }
+          break;
 
-        switch (op) {
-          case STATS:
-          case CHANGE:
-            myDirtyPaths.addAll(paths);
-            break;
-
-          case CREATE:
-          case DELETE:
-            for (String p : paths) {
-              final File parent = new File(p).getParentFile();
-              myDirtyPaths.add(parent != null ? parent.getPath() : p);
-            }
-            break;
-
-          case DIRTY:
-            myDirtyDirs.addAll(paths);
-            break;
-
-          case RECDIRTY:
-            myDirtyRecursivePaths.addAll(paths);
-            break;
-
-          default:
-            LOG.error("Unexpected op: " + op);
-        }
+        case DIRTY:
+          myDirtyDirs.addAll(paths);
+          break;
 
-        notifyOnEvent();
+        case RECDIRTY:
+          myDirtyRecursivePaths.addAll(paths);
+          break;
+
+        default:
+          LOG.error("Unexpected op: " + op);
       }
+
+      notifyOnEvent();
     }
   }
 
@@ -0,0 +1,610 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.vfs.impl.local;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.Pair;
+import com.intellij.openapi.util.SystemInfo;
+import com.intellij.openapi.util.io.FileSystemUtil;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.ArrayUtil;
+import com.intellij.util.TimeoutUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static com.intellij.openapi.vfs.impl.local.FileWatcher.WatcherOp;
+import static com.intellij.util.containers.ContainerUtil.concat;
+
+/**
+ * In-process file watcher built on {@code java.nio.file.WatchService}; used by {@link FileWatcher} when the native watcher isn't
+ * available. Java 7 API is accessed via reflection since the platform must run on Java 6.
+ * <p/>
+ * Unless the platform supports watching whole trees (Windows), every directory under recursive roots is registered separately and
+ * directories created later are registered as soon as they are reported. Changes made in a new directory before its registration
+ * are covered by reporting the directory as recursively dirty. Events are coalesced: duplicates and events under recursively dirty
+ * directories reported in the same batch are dropped. When events are lost due to overflow, the whole watched directory
+ * (recursively for recursive roots) is reported as dirty. Directories which cannot be registered are reported as unwatchable.
+ * When roots are changed, directories which stay watched keep their registration, so their pending events aren't lost.
+ * After repeated failures the watcher stops and reports all roots as unwatchable.
+ */
+class NioFileWatcher {
+  private static final Logger LOG = Logger.getInstance("#com.intellij.openapi.vfs.impl.local.NioFileWatcher");
+
+  private static final long POLL_TIMEOUT = 200;
+  private static final int MAX_KEYS_PER_BATCH = 1000;
+  private static final int MAX_FAILURES = 10;
+  private static final long MAX_FAILURE_DELAY = 10000;
+
+  interface Listener {
+    void onChange(@NotNull String path, @NotNull WatcherOp op);
+
+    /**
+     * Called after new roots are registered and when a new directory cannot be registered, with all roots (or directories under them)
+     * which changes cannot be tracked for.
+     */
+    void onUnwatchable(@NotNull List<String> paths);
+  }
+
+  private final Listener myListener;
+  private final Nio myNio;
+  private final Object myWatchService;
+  private final Thread myThread;
+  private volatile boolean myIsShuttingDown = false;
+
+  private final Object myLock = new Object();
+  private Pair<List<String>, List<String>> myPendingRoots = null;
+  private Pair<List<String>, List<String>> myRoots = Pair.create(Collections.<String>emptyList(), Collections.<String>emptyList());
+  private boolean myRegistering = false;
+  private boolean myStopped = false;
+
+  // accessed only from the watcher thread
+  private final Map<Object, WatchedDir> myKeys = new HashMap<Object, WatchedDir>();
+  private final Map<String, Object> myKeysByPath = new HashMap<String, Object>();
+  private final Set<String> myUnwatchable = new LinkedHashSet<String>();
+
+  private static class WatchedDir {
+    private final String myPath;
+    private final boolean myRecursive;
+
+    private WatchedDir(String path, boolean recursive) {
+      myPath = path;
+      myRecursive = recursive;
+    }
+  }
+
+  static boolean isAvailable() {
+    return Nio.getInstance() != null;
+  }
+
+  NioFileWatcher(@NotNull Listener listener) throws IOException {
+    myListener = listener;
+    myNio = Nio.getInstance();
+    if (myNio == null) {
+      throw new IOException("java.nio.file.WatchService is not available");
+    }
+    myWatchService = myNio.newWatchService();
+
+    myThread = new Thread("File Watcher (NIO)") {
+      @Override
+      public void run() {
+        watch();
+      }
+    };
+    myThread.setDaemon(true);
+    myThread.start();
+  }
+
+  /**
+   * Replaces watched roots; directories are registered asynchronously, {@link Listener#onUnwatchable} is called when it's done.
+   */
+  void setRoots(@NotNull List<String> recursive, @NotNull List<String> flat) {
+    synchronized (myLock) {
+      if (!myStopped) {
+        myPendingRoots = Pair.create(recursive, flat);
+        return;
+      }
+    }
+    myListener.onUnwatchable(concat(recursive, flat));
+  }
+
+  boolean isSettingRoots() {
+    synchronized (myLock) {
+      return !myStopped && (myPendingRoots != null || myRegistering);
+    }
+  }
+
+  void dispose() {
+    myIsShuttingDown = true;
+    try {
+      myThread.join(POLL_TIMEOUT * 5);
+    }
+    catch (InterruptedException ignored) { }
+    try {
+      myNio.close(myWatchService);
+    }
+    catch (IOException e) {
+      LOG.info(e);
+    }
+  }
+
+  private void watch() {
+    int failures = 0;
+    while (!myIsShuttingDown) {
+      try {
+        final Pair<List<String>, List<String>> roots;
+        synchronized (myLock) {
+          roots = myPendingRoots;
+          myPendingRoots = null;
+          myRegistering = roots != null;
+          if (roots != null) {
+            myRoots = roots;
+          }
+        }
+        if (roots != null) {
+          boolean registered = false;
+          try {
+            registerRoots(roots.first, roots.second);
+            registered = true;
+            myListener.onUnwatchable(new ArrayList<String>(myUnwatchable));
+          }
+          finally {
+            synchronized (myLock) {
+              myRegistering = false;
+              if (!registered && myPendingRoots == null) {
+                // retried on the next iteration
+                myPendingRoots = roots;
+              }
+            }
+          }
+        }
+
+        final Object key = myNio.poll(myWatchService, POLL_TIMEOUT);
+        if (key != null) {
+          processKeys(key);
+        }
+        failures = 0;
+      }
+      catch (Throwable t) {
+        if (myIsShuttingDown) break;
+        if (++failures > MAX_FAILURES) {
+          LOG.warn("NIO file watcher stopped after " + MAX_FAILURES + " consecutive failures", t);
+          stop();
+          break;
+        }
+        if (failures == 1) {
+          LOG.error(t);
+        }
+        else {
+          LOG.debug(t);
+        }
+        TimeoutUtil.sleep(Math.min(POLL_TIMEOUT << failures, MAX_FAILURE_DELAY));
+      }
+    }
+  }
+
+  private void processKeys(@NotNull Object key) throws IOException {
+    final Set<Pair<String, WatcherOp>> batch = new LinkedHashSet<Pair<String, WatcherOp>>();
+    final int unwatchable = myUnwatchable.size();
+    int keys = 0;
+    while (key != null) {
+      processKey(key, batch);
+      if (++keys >= MAX_KEYS_PER_BATCH) break;
+      key = myNio.poll(myWatchService);
+    }
+    for (Pair<String, WatcherOp> change : coalesce(batch)) {
+      myListener.onChange(change.first, change.second);
+    }
+    if (myUnwatchable.size() != unwatchable) {
+      myListener.onUnwatchable(new ArrayList<String>(myUnwatchable));
+    }
+  }
+
+  private void stop() {
+    final Pair<List<String>, List<String>> roots;
+    synchronized (myLock) {
+      myStopped = true;
+      roots = myPendingRoots != null ? myPendingRoots : myRoots;
+      myPendingRoots = null;
+    }
+    for (Object key : myKeys.keySet()) {
+      myNio.cancel(key);
+    }
+    myKeys.clear();
+    myKeysByPath.clear();
+    myListener.onUnwatchable(concat(roots.first, roots.second));
+  }
+
+  private void processKey(@NotNull Object key, @NotNull Set<Pair<String, WatcherOp>> batch) throws IOException {
+    final WatchedDir dir = myKeys.get(key);
+    if (dir == null) {
+      myNio.cancel(key);
+      return;
+    }
+
+    for (Object event : myNio.pollEvents(key)) {
+      final Object kind = myNio.kind(event);
+      if (kind == myNio.OVERFLOW) {
+        LOG.debug("overflow: " + dir.myPath);
+        batch.add(Pair.create(dir.myPath, dir.myRecursive ? WatcherOp.RECDIRTY : WatcherOp.DIRTY));
+        if (dir.myRecursive && !myNio.FILE_TREE_SUPPORTED) {
+          // creation of subdirectories might be lost
+          registerChildren(new File(dir.myPath));
+        }
+        continue;
+      }
+
+      final Object context = myNio.context(event);
+      if (context == null) continue;
+      final String path = new File(dir.myPath, context.toString()).getPath();
+      if (kind == myNio.ENTRY_CREATE) {
+        batch.add(Pair.create(path, WatcherOp.CREATE));
+        if (dir.myRecursive && !myNio.FILE_TREE_SUPPORTED && new File(path).isDirectory()) {
+          registerRecursively(new File(path));
+          // changes made before the registration are lost
+          batch.add(Pair.create(path, WatcherOp.RECDIRTY));
+        }
+      }
+      else if (kind == myNio.ENTRY_DELETE) {
+        batch.add(Pair.create(path, WatcherOp.DELETE));
+        if (myKeysByPath.containsKey(path) && !new File(path).isDirectory()) {
+          // the keys become invalid anyway, but a directory with the same name may be created before that is reported
+          unregisterRecursively(path);
+        }
+      }
+      else if (kind == myNio.ENTRY_MODIFY) {
+        batch.add(Pair.create(path, WatcherOp.CHANGE));
+      }
+    }
+
+    if (!myNio.reset(key)) {
+      myKeys.remove(key);
+      if (myKeysByPath.get(dir.myPath) == key) {
+        myKeysByPath.remove(dir.myPath);
+        final File file = new File(dir.myPath);
+        if (file.isDirectory()) {
+          // the directory was replaced by another one with the same name
+          if (dir.myRecursive && !myNio.FILE_TREE_SUPPORTED) {
+            registerRecursively(file);
+          }
+          else {
+            register(file, dir.myRecursive);
+          }
+          batch.add(Pair.create(dir.myPath, dir.myRecursive ? WatcherOp.RECDIRTY : WatcherOp.DIRTY));
+        }
+      }
+    }
+  }
+
+  @NotNull
+  private static List<Pair<String, WatcherOp>> coalesce(@NotNull Set<Pair<String, WatcherOp>> batch) {
+    final Set<String> recursivelyDirty = new HashSet<String>();
+    for (Pair<String, WatcherOp> change : batch) {
+      if (change.second == WatcherOp.RECDIRTY) {
+        recursivelyDirty.add(change.first);
+      }
+    }
+    if (recursivelyDirty.isEmpty()) {
+      return new ArrayList<Pair<String, WatcherOp>>(batch);
+    }
+
+    final List<Pair<String, WatcherOp>> result = new ArrayList<Pair<String, WatcherOp>>(batch.size());
+    for (Pair<String, WatcherOp> change : batch) {
+      // creation and deletion make the parent dirty
+      final boolean strict = change.second == WatcherOp.RECDIRTY || change.second == WatcherOp.CREATE || change.second == WatcherOp.DELETE;
+      if (!isUnder(change.first, recursivelyDirty, strict)) {
+        result.add(change);
+      }
+    }
+    return result;
+  }
+
+  private static boolean isUnder(@NotNull String path, @NotNull Set<String> dirs, boolean strict) {
+    File file = new File(path);
+    if (strict) {
+      file = file.getParentFile();
+    }
+    while (file != null) {
+      if (dirs.contains(file.getPath())) return true;
+      file = file.getParentFile();
+    }
+    return false;
+  }
+
+  private void registerRoots(@NotNull List<String> recursive, @NotNull List<String> flat) {
+    final Map<String, Boolean> roots = new LinkedHashMap<String, Boolean>();
+    final List<String> unwatchable = new ArrayList<String>();
+    for (String root : recursive) {
+      final File file = new File(root);
+      if (file.isDirectory()) {
+        roots.put(file.getPath(), Boolean.TRUE);
+      }
+      else {
+        unwatchable.add(root);
+      }
+    }
+    for (String root : flat) {
+      final File file = new File(root);
+      final File dir = file.isDirectory() ? file : file.getParentFile();
+      if (dir == null || !dir.isDirectory()) {
+        unwatchable.add(root);
+      }
+      else if (!isUnderRecursiveRoot(dir.getPath(), roots, false)) {
+        roots.put(dir.getPath(), Boolean.FALSE);
+      }
+    }
+
+    // only directories which aren't watched anymore (or are watched differently) are unregistered
+    for (Iterator<Map.Entry<Object, WatchedDir>> iterator = myKeys.entrySet().iterator(); iterator.hasNext(); ) {
+      final Map.Entry<Object, WatchedDir> entry = iterator.next();
+      final WatchedDir dir = entry.getValue();
+      if (!isWatched(dir, roots)) {
+        myNio.cancel(entry.getKey());
+        iterator.remove();
+        if (myKeysByPath.get(dir.myPath) == entry.getKey()) {
+          myKeysByPath.remove(dir.myPath);
+        }
+      }
+    }
+    for (Iterator<String> iterator = myUnwatchable.iterator(); iterator.hasNext(); ) {
+      if (!isUnderRecursiveRoot(iterator.next(), roots, true)) {
+        iterator.remove();
+      }
+    }
+    myUnwatchable.addAll(unwatchable);
+
+    int added = 0;
+    for (Map.Entry<String, Boolean> root : roots.entrySet()) {
+      if (myKeysByPath.containsKey(root.getKey())) continue;
+      final File dir = new File(root.getKey());
+      final int before = myKeys.size();
+      if (root.getValue() && !myNio.FILE_TREE_SUPPORTED) {
+        registerRecursively(dir);
+      }
+      else {
+        register(dir, root.getValue());
+      }
+      added += myKeys.size() - before;
+    }
+    myUnwatchable.removeAll(myKeysByPath.keySet());
+
+    LOG.info("NIO file watcher: " + myKeys.size() + " directories registered (" + added + " new), " + myUnwatchable.size() + " unwatchable");
+  }
+
+  private boolean isWatched(@NotNull WatchedDir dir, @NotNull Map<String, Boolean> roots) {
+    if (Boolean.valueOf(dir.myRecursive).equals(roots.get(dir.myPath))) return true;
+    return dir.myRecursive && !myNio.FILE_TREE_SUPPORTED && isUnderRecursiveRoot(dir.myPath, roots, true);
+  }
+
+  private static boolean isUnderRecursiveRoot(@NotNull String path, @NotNull Map<String, Boolean> roots, boolean strict) {
+    File file = new File(path);
+    if (strict) {
+      file = file.getParentFile();
+    }
+    while (file != null) {
+      if (Boolean.TRUE.equals(roots.get(file.getPath()))) return true;
+      file = file.getParentFile();
+    }
+    return false;
+  }
+
+  private void registerRecursively(@NotNull File dir) {
+    if (myIsShuttingDown || myKeysByPath.containsKey(dir.getPath())) return;
+    if (register(dir, true)) {
+      registerChildren(dir);
+    }
+  }
+
+  private void registerChildren(@NotNull File dir) {
+    final File[] children = dir.listFiles();
+    if (children == null) return;
+    for (File child : children) {
+      if (child.isDirectory() && !FileSystemUtil.isSymLink(child)) {
+        registerRecursively(child);
+      }
+    }
+  }
+
+  private void unregisterRecursively(@NotNull String path) {
+    for (Iterator<Map.Entry<String, Object>> iterator = myKeysByPath.entrySet().iterator(); iterator.hasNext(); ) {
+      final Map.Entry<String, Object> entry = iterator.next();
+      if (FileUtil.isAncestor(path, entry.getKey(), false)) {
+        myNio.cancel(entry.getValue());
+        myKeys.remove(entry.getValue());
+        iterator.remove();
+      }
+    }
+  }
+
+  private boolean register(@NotNull File dir, boolean recursive) {
+    try {
+      final Object key = myNio.register(dir.getPath(), myWatchService, recursive && myNio.FILE_TREE_SUPPORTED);
+      myKeys.put(key, new WatchedDir(dir.getPath(), recursive));
+      myKeysByPath.put(dir.getPath(), key);
+      return true;
+    }
+    catch (IOException e) {
+      // e.g. inotify watches limit is reached; the directory (with its subtree) will be refreshed manually
+      LOG.debug(e);
+      myUnwatchable.add(dir.getPath());
+      return false;
+    }
+  }
+
+  private static class Nio {
+    private static Nio ourInstance;
+    private static boolean ourInitialized;
+
+    private final Object myFileSystem;
+    private final Method myGetPath;
+    private final Method myNewWatchService;
+    private final Method myRegister;
+    private final Method myPollWithTimeout;
+    private final Method myPoll;
+    private final Method myClose;
+    private final Method myPollEvents;
+    private final Method myReset;
+    private final Method myCancel;
+    private final Method myKind;
+    private final Method myContext;
+    private final Object myKinds;
+    private final Object myNoModifiers;
+    private final Object myFileTreeModifiers;
+
+    private final Object ENTRY_CREATE;
+    private final Object ENTRY_DELETE;
+    private final Object ENTRY_MODIFY;
+    private final Object OVERFLOW;
+    private final boolean FILE_TREE_SUPPORTED;
+
+    @Nullable
+    private static synchronized Nio getInstance() {
+      if (!ourInitialized) {
+        ourInitialized = true;
+        if (SystemInfo.isJavaVersionAtLeast("1.7")) {
+          try {
+            ourInstance = new Nio();
+          }
+          catch (Throwable t) {
+            LOG.info("java.nio.file.WatchService is not available: " + t.getMessage());
+          }
+        }
+      }
+      return ourInstance;
+    }
+
+    private Nio() throws Exception {
+      final Class<?> fileSystemClass = Class.forName("java.nio.file.FileSystem");
+      final Class<?> pathClass = Class.forName("java.nio.file.Path");
+      final Class<?> watchServiceClass = Class.forName("java.nio.file.WatchService");
+      final Class<?> watchKeyClass = Class.forName("java.nio.file.WatchKey");
+      final Class<?> watchEventClass = Class.forName("java.nio.file.WatchEvent");
+      final Class<?> kindClass = Class.forName("java.nio.file.WatchEvent$Kind");
+      final Class<?> modifierClass = Class.forName("java.nio.file.WatchEvent$Modifier");
+      final Class<?> kindsClass = Class.forName("java.nio.file.StandardWatchEventKinds");
+
+      myFileSystem = Class.forName("java.nio.file.FileSystems").getMethod("getDefault").invoke(null);
+      myGetPath = fileSystemClass.getMethod("getPath", String.class, String[].class);
+      myNewWatchService = fileSystemClass.getMethod("newWatchService");
+      myRegister = pathClass.getMethod("register", watchServiceClass, Array.newInstance(kindClass, 0).getClass(),
+                                       Array.newInstance(modifierClass, 0).getClass());
+      myPollWithTimeout = watchServiceClass.getMethod("poll", long.class, TimeUnit.class);
+      myPoll = watchServiceClass.getMethod("poll");
+      myClose = watchServiceClass.getMethod("close");
+      myPollEvents = watchKeyClass.getMethod("pollEvents");
+      myReset = watchKeyClass.getMethod("reset");
+      myCancel = watchKeyClass.getMethod("cancel");
+      myKind = watchEventClass.getMethod("kind");
+      myContext = watchEventClass.getMethod("context");
+
+      ENTRY_CREATE = kindsClass.getField("ENTRY_CREATE").get(null);
+      ENTRY_DELETE = kindsClass.getField("ENTRY_DELETE").get(null);
+      ENTRY_MODIFY = kindsClass.getField("ENTRY_MODIFY").get(null);
+      OVERFLOW = kindsClass.getField("OVERFLOW").get(null);
+      myKinds = Array.newInstance(kindClass, 3);
+      Array.set(myKinds, 0, ENTRY_CREATE);
+      Array.set(myKinds, 1, ENTRY_DELETE);
+      Array.set(myKinds, 2, ENTRY_MODIFY);
+      myNoModifiers = Array.newInstance(modifierClass, 0);
+
+      Object fileTreeModifiers = null;
+      if (SystemInfo.isWindows) {
+        try {
+          final Object fileTree = Class.forName("com.sun.nio.file.ExtendedWatchEventModifier").getField("FILE_TREE").get(null);
+          fileTreeModifiers = Array.newInstance(modifierClass, 1);
+          Array.set(fileTreeModifiers, 0, fileTree);
+        }
+        catch (Exception e) {
+          LOG.info("FILE_TREE watch modifier is not available: " + e.getMessage());
+        }
+      }
+      myFileTreeModifiers = fileTreeModifiers;
+      FILE_TREE_SUPPORTED = fileTreeModifiers != null;
+    }
+
+    private Object newWatchService() throws IOException {
+      return invoke(myNewWatchService, myFileSystem);
+    }
+
+    private Object register(String path, Object watchService, boolean fileTree) throws IOException {
+      final Object pathObj = invoke(myGetPath, myFileSystem, path, ArrayUtil.EMPTY_STRING_ARRAY);
+      return invoke(myRegister, pathObj, watchService, myKinds, fileTree ? myFileTreeModifiers : myNoModifiers);
+    }
+
+    @Nullable
+    private Object poll(Object watchService, long timeout) throws IOException {
+      return invoke(myPollWithTimeout, watchService, timeout, TimeUnit.MILLISECONDS);
+    }
+
+    @Nullable
+    private Object poll(Object watchService) throws IOException {
+      return invoke(myPoll, watchService);
+    }
+
+    private void close(Object watchService) throws IOException {
+      invoke(myClose, watchService);
+    }
+
+    private List<?> pollEvents(Object key) throws IOException {
+      return (List<?>)invoke(myPollEvents, key);
+    }
+
+    private boolean reset(Object key) throws IOException {
+      return (Boolean)invoke(myReset, key);
+    }
+
+    private void cancel(Object key) {
+      try {
+        invoke(myCancel, key);
+      }
+      catch (IOException e) {
+        LOG.debug(e);
+      }
+    }
+
+    private Object kind(Object event) throws IOException {
+      return invoke(myKind, event);
+    }
+
+    @Nullable
+    private Object context(Object event) throws IOException {
+      return invoke(myContext, event);
+    }
+
+    private static Object invoke(Method method, Object target, Object... args) throws IOException {
+      try {
+        return method.invoke(target, args);
+      }
+      catch (InvocationTargetException e) {
+        final Throwable cause = e.getCause();
+        if (cause instanceof IOException) throw (IOException)cause;
+        if (cause instanceof InterruptedException) throw new IOException("Interrupted");
+        if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+        throw new IOException(cause);
+      }
+      catch (IllegalAccessException e) {
+        throw new IOException(e);
+      }
+    }
+  }
+}
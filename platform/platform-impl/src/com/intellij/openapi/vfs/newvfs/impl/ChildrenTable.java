@@ -0,0 +1,177 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.vfs.newvfs.impl;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Children of a large directory: open addressing hash table (with linear probing) of both real children and fake files with
+ * "suspicious" names, keyed by the name hash. Unlike sorted array used for small directories, it doesn't need to be copied
+ * on every insertion.
+ * <p/>
+ * Modifications must be made under the directory lock, lookups don't need any. Removed slots are marked rather than cleared,
+ * so a lookup never misses an entry that is present during the whole lookup; the table is rehashed into a new one when it
+ * becomes too full.
+ */
+class ChildrenTable {
+  private static final int MIN_CAPACITY = 16;
+  private static final VirtualFileSystemEntry REMOVED = VirtualDirectoryImpl.NULL_VIRTUAL_FILE;
+
+  private final boolean myIgnoreCase;
+  private volatile AtomicReferenceArray<VirtualFileSystemEntry> mySlots;
+  private int mySize;      // guarded by the directory
+  private int myUsedSlots; // including removed ones, guarded by the directory
+  private volatile VirtualFileSystemEntry[] mySortedChildren; // cache, guarded by the directory
+
+  ChildrenTable(@NotNull VirtualFileSystemEntry[] children, boolean ignoreCase) {
+    myIgnoreCase = ignoreCase;
+    mySlots = new AtomicReferenceArray<VirtualFileSystemEntry>(capacityFor(children.length));
+    for (VirtualFileSystemEntry child : children) {
+      put(child);
+    }
+  }
+
+  private static int capacityFor(int size) {
+    int capacity = MIN_CAPACITY;
+    while (capacity < size * 2) capacity <<= 1;
+    return capacity;
+  }
+
+  /**
+   * @return either a real child or a fake file with the suspicious name, or null if there is no such entry
+   */
+  @Nullable
+  VirtualFileSystemEntry get(@NotNull String name) {
+    final AtomicReferenceArray<VirtualFileSystemEntry> slots = mySlots;
+    final int mask = slots.length() - 1;
+    for (int i = VirtualFileSystemEntry.nameHash(name, myIgnoreCase) & mask; ; i = (i + 1) & mask) {
+      final VirtualFileSystemEntry entry = slots.get(i);
+      if (entry == null) return null;
+      if (entry != REMOVED && entry.compareNameTo(name, myIgnoreCase) == 0) return entry;
+    }
+  }
+
+  /**
+   * Adds the entry replacing an existing one with the same name, if any.
+   */
+  void put(@NotNull VirtualFileSystemEntry entry) {
+    mySortedChildren = null;
+    if ((myUsedSlots + 1) * 4 > mySlots.length() * 3) {
+      rehash();
+    }
+
+    final AtomicReferenceArray<VirtualFileSystemEntry> slots = mySlots;
+    final int mask = slots.length() - 1;
+    final String name = entry.getName();
+    int free = -1;
+    for (int i = entry.nameHash(myIgnoreCase) & mask; ; i = (i + 1) & mask) {
+      final VirtualFileSystemEntry existing = slots.get(i);
+      if (existing == null) {
+        if (free < 0) {
+          free = i;
+          myUsedSlots++;
+        }
+        break;
+      }
+      if (existing == REMOVED) {
+        if (free < 0) free = i;
+      }
+      else if (existing.compareNameTo(name, myIgnoreCase) == 0) {
+        slots.set(i, entry);
+        return;
+      }
+    }
+    slots.set(free, entry);
+    mySize++;
+  }
+
+  /**
+   * Removes exactly the given entry.
+   */
+  boolean remove(@NotNull VirtualFileSystemEntry entry) {
+    final AtomicReferenceArray<VirtualFileSystemEntry> slots = mySlots;
+    final int mask = slots.length() - 1;
+    for (int i = entry.nameHash(myIgnoreCase) & mask; ; i = (i + 1) & mask) {
+      final VirtualFileSystemEntry existing = slots.get(i);
+      if (existing == null) return false;
+      if (existing == entry) {
+        slots.set(i, REMOVED);
+        mySize--;
+        mySortedChildren = null;
+        return true;
+      }
+    }
+  }
+
+  int size() {
+    return mySize;
+  }
+
+  private void rehash() {
+    final AtomicReferenceArray<VirtualFileSystemEntry> oldSlots = mySlots;
+    final AtomicReferenceArray<VirtualFileSystemEntry> slots = new AtomicReferenceArray<VirtualFileSystemEntry>(capacityFor(mySize + 1));
+    final int mask = slots.length() - 1;
+    for (int j = 0; j < oldSlots.length(); j++) {
+      final VirtualFileSystemEntry entry = oldSlots.get(j);
+      if (entry == null || entry == REMOVED) continue;
+      int i = entry.nameHash(myIgnoreCase) & mask;
+      while (slots.get(i) != null) i = (i + 1) & mask;
+      slots.set(i, entry);
+    }
+    myUsedSlots = mySize;
+    mySlots = slots;
+  }
+
+  /**
+   * @return real children sorted by name, the array must not be modified
+   */
+  @NotNull
+  VirtualFileSystemEntry[] getSortedChildren() {
+    VirtualFileSystemEntry[] sorted = mySortedChildren;
+    if (sorted == null) {
+      final List<VirtualFileSystemEntry> children = getEntries(false);
+      sorted = children.toArray(new VirtualFileSystemEntry[children.size()]);
+      Arrays.sort(sorted, new Comparator<VirtualFileSystemEntry>() {
+        @Override
+        public int compare(VirtualFileSystemEntry o1, VirtualFileSystemEntry o2) {
+          return o1.compareNameTo(o2.getName(), myIgnoreCase);
+        }
+      });
+      mySortedChildren = sorted;
+    }
+    return sorted;
+  }
+
+  @NotNull
+  List<VirtualFileSystemEntry> getEntries(boolean suspicious) {
+    final AtomicReferenceArray<VirtualFileSystemEntry> slots = mySlots;
+    final List<VirtualFileSystemEntry> result = new ArrayList<VirtualFileSystemEntry>();
+    for (int i = 0; i < slots.length(); i++) {
+      final VirtualFileSystemEntry entry = slots.get(i);
+      if (entry != null && entry != REMOVED && VirtualDirectoryImpl.isSuspiciousName(entry) == suspicious) {
+        result.add(entry);
+      }
+    }
+    return result;
+  }
+}
@@ -59,12 +59,18 @@ public class VirtualDirectoryImpl extends VirtualFileSystemEntry {
     }
   };
 
+  // directories with more children are switched to the hash table; it is not converted back
+  private static final int LARGE_DIRECTORY_SIZE = 256;
+
   private final NewVirtualFileSystem myFS;
 
   // stores child files. The array is logically divided into the two halves:
   // left subarray for storing real files, right subarray for storing fake files with "suspicious" names
   // files in each subarray are sorted according to the compareNameTo() comparator
-  private VirtualFileSystemEntry[] myChildren = EMPTY_ARRAY; // guarded by this, either real file or fake file (meaning it's not a real child but suspicious name)
+  // the array is never modified, it is replaced under the lock, so it can be read without one
+  private volatile VirtualFileSystemEntry[] myChildren = EMPTY_ARRAY; // either real file or fake file (meaning it's not a real child but suspicious name)
+  // children of a large directory; when set, myChildren is empty. Always read it after myChildren
+  private volatile ChildrenTable myTable;
 
   public VirtualDirectoryImpl(@NonNls @NotNull final String name,
                               @Nullable final VirtualDirectoryImpl parent,
@@ -105,6 +111,13 @@ public class VirtualDirectoryImpl extends VirtualFileSystemEntry {
 
   private synchronized void addToSuspiciousNames(@NotNull final String name, final boolean ignoreCase) {
     if (allChildrenLoaded()) return;
+    ChildrenTable table = myTable;
+    if (table != null) {
+      if (table.get(name) == null) {
+        table.put(new VirtualFileImpl(name, NULL_VIRTUAL_FILE, -42, -1));
+      }
+      return;
+    }
     int index = binSearch(myChildren, 0, myChildren.length, new Comparer() {
       @Override
       public int compareMyKeyTo(@NotNull VirtualFileSystemEntry file) {
@@ -117,9 +130,15 @@ public class VirtualDirectoryImpl extends VirtualFileSystemEntry {
   }
 
   @Nullable // null if there can't be a child with this name, NULL_VIRTUAL_FILE
-  private synchronized VirtualFileSystemEntry doFindChildInArray(@NotNull Comparer comparer) {
+  private VirtualFileSystemEntry doFindChildInArray(@NotNull String name, boolean ignoreCase) {
     VirtualFileSystemEntry[] array = myChildren;
-    long r = findIndexInBoth(array, comparer);
+    ChildrenTable table = myTable;
+    if (table != null) {
+      VirtualFileSystemEntry found = table.get(name);
+      return found != null && isSuspiciousName(found) ? NULL_VIRTUAL_FILE : found;
+    }
+
+    long r = findIndexInBoth(array, getComparer(name, ignoreCase));
     int indexInReal = (int)(r >> 32);
     int indexInSuspicious = (int)r;
     if (indexInSuspicious >= 0) return NULL_VIRTUAL_FILE;
@@ -137,11 +156,12 @@ public class VirtualDirectoryImpl extends VirtualFileSystemEntry {
     }
 
     final boolean ignoreCase = !delegate.isCaseSensitive();
-    Comparer comparer = getComparer(name, ignoreCase);
-    VirtualFileSystemEntry found = doFindChildInArray(comparer);
+    // children are set before the flag, so the flag must be read first
+    final boolean allChildrenLoaded = allChildrenLoaded();
+    VirtualFileSystemEntry found = doFindChildInArray(name, ignoreCase);
     if (found != null) return found;
 
-    if (allChildrenLoaded()) {
+    if (allChildrenLoaded) {
       return NULL_VIRTUAL_FILE;
     }
 
@@ -158,8 +178,18 @@ public class VirtualDirectoryImpl extends VirtualFileSystemEntry {
         return null;
       }
       // maybe another doFindChild() sneaked in the middle
+      ChildrenTable table = myTable;
+      if (table != null) {
+        VirtualFileSystemEntry existing = table.get(name);
+        if (existing != null) return isSuspiciousName(existing) ? NULL_VIRTUAL_FILE : existing;
+
+        VirtualFileSystemEntry child = createChild(new String(name), id, delegate);
+        table.put(child);
+        return child;
+      }
+
       VirtualFileSystemEntry[] array = myChildren;
-      long r = findIndexInBoth(array, comparer);
+      long r = findIndexInBoth(array, getComparer(name, ignoreCase));
       int indexInReal = (int)(r >> 32);
       int indexInSuspicious = (int)r;
       if (indexInSuspicious >= 0) return NULL_VIRTUAL_FILE;
@@ -187,7 +217,8 @@ public class VirtualDirectoryImpl extends VirtualFileSystemEntry {
   }
 
   private synchronized VirtualFileSystemEntry[] getArraySafely() {
-    return myChildren;
+    ChildrenTable table = myTable;
+    return table != null ? table.getSortedChildren() : myChildren;
   }
 
   @NotNull
@@ -421,10 +452,9 @@ public class VirtualDirectoryImpl extends VirtualFileSystemEntry {
 
   @Override
   @Nullable
-  public synchronized NewVirtualFile findChildIfCached(@NotNull String name) {
+  public NewVirtualFile findChildIfCached(@NotNull String name) {
     final boolean ignoreCase = !getFileSystem().isCaseSensitive();
-    Comparer comparer = getComparer(name, ignoreCase);
-    VirtualFileSystemEntry found = doFindChildInArray(comparer);
+    VirtualFileSystemEntry found = doFindChildInArray(name, ignoreCase);
     return found == NULL_VIRTUAL_FILE ? null : found;
   }
 
@@ -449,9 +479,11 @@ public class VirtualDirectoryImpl extends VirtualFileSystemEntry {
   @NotNull
   public synchronized VirtualFile[] getChildren() {
     VirtualFileSystemEntry[] children = myChildren;
+    ChildrenTable table = myTable;
     NewVirtualFileSystem delegate = getFileSystem();
     final boolean ignoreCase = !delegate.isCaseSensitive();
     if (allChildrenLoaded()) {
+      if (table != null) return table.getSortedChildren();
       assertConsistency(children, ignoreCase);
       int sas = getSuspiciousArrayStart();
       return sas == children.length ? children : Arrays.copyOf(children, sas);
@@ -475,7 +507,12 @@ public class VirtualDirectoryImpl extends VirtualFileSystemEntry {
       int delegateI = 0;
       int cachedI = 0;
 
-      int cachedEnd = getSuspiciousArrayStart();
+      int cachedEnd = table != null ? 0 : getSuspiciousArrayStart();
+      while (table != null && delegateI < childrenIds.length) {
+        FSRecords.NameId nameId = childrenIds[delegateI];
+        VirtualFileSystemEntry cached = table.get(nameId.name);
+        result[delegateI++] = cached != null && !isSuspiciousName(cached) ? cached : createChild(nameId.name, nameId.id, delegate);
+      }
       while (delegateI < childrenIds.length) {
         FSRecords.NameId nameId = childrenIds[delegateI];
         while (cachedI < cachedEnd && children[cachedI].compareNameTo(nameId.name, ignoreCase) < 0) cachedI++;
@@ -490,11 +527,19 @@ public class VirtualDirectoryImpl extends VirtualFileSystemEntry {
         result[delegateI++] = resultFile;
       }
 
-      assertConsistency(result, ignoreCase);
+      if (result.length <= LARGE_DIRECTORY_SIZE) {
+        assertConsistency(result, ignoreCase);
+      }
     }
 
     if (getId() > 0) {
-      myChildren = result;
+      if (table != null || result.length > LARGE_DIRECTORY_SIZE) {
+        myTable = new ChildrenTable(result, ignoreCase);
+        myChildren = EMPTY_ARRAY;
+      }
+      else {
+        myChildren = result;
+      }
       setChildrenLoaded();
     }
 
@@ -552,6 +597,16 @@ public class VirtualDirectoryImpl extends VirtualFileSystemEntry {
     VirtualFileSystemEntry[] array = myChildren;
     final String childName = child.getName();
     final boolean ignoreCase = !getFileSystem().isCaseSensitive();
+
+    ChildrenTable table = myTable;
+    if (table != null) {
+      VirtualFileSystemEntry existing = table.get(childName);
+      if (existing == null || isSuspiciousName(existing)) {
+        table.put(child);
+      }
+      return;
+    }
+
     long r = findIndexInBoth(array, getComparer(childName, ignoreCase));
     int indexInReal = (int)(r >> 32);
     int indexInSuspicious = (int)r;
@@ -577,6 +632,11 @@ public class VirtualDirectoryImpl extends VirtualFileSystemEntry {
     System.arraycopy(array, 0, appended, 0, i);
     appended[i] = file;
     System.arraycopy(array, i, appended, i+1, array.length - i);
+    if (appended.length > LARGE_DIRECTORY_SIZE) {
+      myTable = new ChildrenTable(appended, ignoreCase);
+      myChildren = EMPTY_ARRAY;
+      return;
+    }
     assertConsistency(appended, ignoreCase);
     myChildren = appended;
   }
@@ -585,6 +645,13 @@ public class VirtualDirectoryImpl extends VirtualFileSystemEntry {
     boolean ignoreCase = !getFileSystem().isCaseSensitive();
     String name = file.getName();
 
+    ChildrenTable table = myTable;
+    if (table != null) {
+      table.remove((VirtualFileSystemEntry)file);
+      addToSuspiciousNames(name, ignoreCase);
+      return;
+    }
+
     myChildren = ArrayUtil.remove(myChildren, (VirtualFileSystemEntry)file, new ArrayFactory<VirtualFileSystemEntry>() {
       @Override
       public VirtualFileSystemEntry[] create(int count) {
@@ -596,7 +663,7 @@ public class VirtualDirectoryImpl extends VirtualFileSystemEntry {
   }
 
   private static final int CHILDREN_CACHED = 0x08;
-  public synchronized boolean allChildrenLoaded() {
+  public boolean allChildrenLoaded() {
     return getFlag(CHILDREN_CACHED);
   }
   private void setChildrenLoaded() {
@@ -605,7 +672,9 @@ public class VirtualDirectoryImpl extends VirtualFileSystemEntry {
 
   @NotNull
   public synchronized List<String> getSuspiciousNames() {
-    List<VirtualFile> suspicious = new SubList<VirtualFile>(myChildren, getSuspiciousArrayStart(), myChildren.length);
+    ChildrenTable table = myTable;
+    List<? extends VirtualFile> suspicious = table != null ? table.getEntries(true)
+                                                           : new SubList<VirtualFile>(myChildren, getSuspiciousArrayStart(), myChildren.length);
     return ContainerUtil.map2List(suspicious, new Function<VirtualFile, String>() {
       @Override
       public String fun(VirtualFile file) {
@@ -624,7 +693,7 @@ public class VirtualDirectoryImpl extends VirtualFileSystemEntry {
     return -index - 1;
   }
 
-  private static boolean isSuspiciousName(@NotNull VirtualFileSystemEntry v) {
+  static boolean isSuspiciousName(@NotNull VirtualFileSystemEntry v) {
     return v.getParent() == NULL_VIRTUAL_FILE;
   }
 
@@ -664,6 +733,11 @@ public class VirtualDirectoryImpl extends VirtualFileSystemEntry {
   @Override
   @NotNull
   public synchronized List<VirtualFile> getCachedChildren() {
+    ChildrenTable table = myTable;
+    if (table != null) {
+      VirtualFileSystemEntry[] children = table.getSortedChildren();
+      return new SubList<VirtualFile>(children, 0, children.length);
+    }
     return new SubList<VirtualFile>(myChildren, 0, getSuspiciousArrayStart());
   }
 
@@ -23,6 +23,7 @@ import com.intellij.openapi.util.ThrowableComputable;
 import com.intellij.openapi.util.io.FileTooBigException;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.util.text.StringUtilRt;
 import com.intellij.openapi.vfs.CharsetToolkit;
 import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VfsBundle;
@@ -200,6 +201,39 @@ public abstract class VirtualFileSystemEntry extends NewVirtualFile {
     return d;
   }
 
+  /**
+   * Hash code consistent with {@link #compareNameTo(String, boolean)}, i.e. names equal ignoring case have equal hashes
+   * when ignoreCase is true.
+   */
+  int nameHash(boolean ignoreCase) {
+    Object rawName = rawName();
+    if (rawName instanceof String) {
+      return nameHash(getName(), ignoreCase);
+    }
+
+    int h = 0;
+    for (byte b : (byte[])rawName) {
+      h = 31 * h + foldCase((char)b, ignoreCase);
+    }
+    for (byte b : getEncodedSuffixBytes()) {
+      h = 31 * h + foldCase((char)b, ignoreCase);
+    }
+    return h ^ (h >>> 16);
+  }
+
+  static int nameHash(@NotNull String name, boolean ignoreCase) {
+    int h = 0;
+    for (int i = 0; i < name.length(); i++) {
+      h = 31 * h + foldCase(name.charAt(i), ignoreCase);
+    }
+    return h ^ (h >>> 16);
+  }
+
+  // see StringUtil.compare(char, char, boolean)
+  private static char foldCase(char c, boolean ignoreCase) {
+    return ignoreCase ? StringUtilRt.toLowerCase(StringUtilRt.toUpperCase(c)) : c;
+  }
+
   static int compareNames(@NotNull String name1, @NotNull String name2, boolean ignoreCase) {
     int d = name1.length() - name2.length();
     if (d != 0) return d;
@@ -41,6 +41,9 @@ import org.jetbrains.annotations.Nullable;
 import javax.swing.*;
 import java.awt.*;
 import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -48,7 +51,7 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 public class FSRecords implements Forceable {
   private static final Logger LOG = Logger.getInstance("#com.intellij.vfs.persistent.FSRecords");
 
-  private static final int VERSION = 18;
+  private static final int VERSION = 20;
 
   private static final int PARENT_OFFSET = 0;
   private static final int PARENT_SIZE = 4;
@@ -71,6 +74,9 @@ public class FSRecords implements Forceable {
 
   private static final byte[] ZEROES = new byte[RECORD_SIZE];
 
+  private static final String CONTENT_HASH_ALGORITHM = "SHA-1";
+  private static final int CONTENT_HASH_SIZE = 20;
+
   private static final int HEADER_VERSION_OFFSET = 0;
   //private static final int HEADER_RESERVED_4BYTES_OFFSET = 4; // reserved
   private static final int HEADER_GLOBAL_MOD_COUNT_OFFSET = 8;
@@ -109,6 +115,9 @@ public class FSRecords implements Forceable {
     private static PersistentStringEnumerator myNames;
     private static Storage myAttributes;
     private static RefCountingStorage myContents;
+    // identical contents share one record in myContents, records are found by content hash
+    private static PersistentHashMap<byte[], Integer> myContentHashes;
+    private static ResizeableMappedFile myContentRecordHashes;
     private static ResizeableMappedFile myRecords;
     private static final TIntArrayList myFreeRecords = new TIntArrayList();
 
@@ -192,6 +201,8 @@ public class FSRecords implements Forceable {
       final File namesFile = new File(basePath, "names.dat");
       final File attributesFile = new File(basePath, "attrib.dat");
       final File contentsFile = new File(basePath, "content.dat");
+      final File contentHashesFile = new File(basePath, "content_hashes.dat");
+      final File contentRecordHashesFile = new File(basePath, "content_record_hashes.dat");
       final File recordsFile = new File(basePath, "records.dat");
 
       if (!namesFile.exists()) {
@@ -208,6 +219,9 @@ public class FSRecords implements Forceable {
         myNames = new PersistentStringEnumerator(namesFile, storageLockContext);
         myAttributes = new Storage(attributesFile.getCanonicalPath(), REASONABLY_SMALL);
         myContents = new RefCountingStorage(contentsFile.getCanonicalPath(), CapacityAllocationPolicy.FIVE_PERCENT_FOR_GROWTH); // sources usually zipped with 4x ratio
+        myContentHashes = new PersistentHashMap<byte[], Integer>(contentHashesFile, new ContentHashDescriptor(), EnumeratorIntegerDescriptor.INSTANCE);
+        myContentRecordHashes = new ResizeableMappedFile(contentRecordHashesFile, 20 * 1024, storageLockContext,
+                                                         PagedFileStorage.BUFFER_SIZE, false);
         boolean aligned = PagedFileStorage.BUFFER_SIZE % RECORD_SIZE == 0;
         assert aligned; // for performance
         myRecords = new ResizeableMappedFile(recordsFile, 20 * 1024, storageLockContext,
@@ -238,6 +252,8 @@ public class FSRecords implements Forceable {
           deleted &= deleteWithSubordinates(namesFile);
           deleted &= AbstractStorage.deleteFiles(attributesFile.getCanonicalPath());
           deleted &= AbstractStorage.deleteFiles(contentsFile.getCanonicalPath());
+          deleted &= deleteWithSubordinates(contentHashesFile);
+          deleted &= deleteWithSubordinates(contentRecordHashesFile);
           deleted &= deleteWithSubordinates(recordsFile);
 
           if (!deleted) {
@@ -354,6 +370,8 @@ public class FSRecords implements Forceable {
           myNames.force();
           myAttributes.force();
           myContents.force();
+          myContentHashes.force();
+          myContentRecordHashes.force();
           myRecords.force();
         }
       }
@@ -375,6 +393,8 @@ public class FSRecords implements Forceable {
         final boolean attribsFlushed = myAttributes.flushSome();
         final boolean contentsFlushed = myContents.flushSome();
         if (attribsFlushed && contentsFlushed) {
+          myContentHashes.force();
+          myContentRecordHashes.force();
           markClean();
           myRecords.force();
         }
@@ -385,7 +405,8 @@ public class FSRecords implements Forceable {
     }
 
     public static boolean isDirty() {
-      return myDirty || myNames.isDirty() || myAttributes.isDirty() || myContents.isDirty() || myRecords.isDirty();
+      return myDirty || myNames.isDirty() || myAttributes.isDirty() || myContents.isDirty() || myContentHashes.isDirty() ||
+             myContentRecordHashes.isDirty() || myRecords.isDirty();
     }
 
 
@@ -441,6 +462,16 @@ public class FSRecords implements Forceable {
         myContents = null;
       }
 
+      if (myContentHashes != null) {
+        myContentHashes.close();
+        myContentHashes = null;
+      }
+
+      if (myContentRecordHashes != null) {
+        myContentRecordHashes.close();
+        myContentRecordHashes = null;
+      }
+
       if (myRecords != null) {
         markClean();
         myRecords.close();
@@ -593,7 +624,7 @@ public class FSRecords implements Forceable {
   private static void deleteContentAndAttributes(int id) throws IOException {
     int content_page = getContentRecordId(id);
     if (content_page != 0) {
-      getContentStorage().releaseRecord(content_page);
+      releaseContentRecord(content_page);
     }
 
     int att_page = getAttributeRecordId(id);
@@ -1120,7 +1151,7 @@ public class FSRecords implements Forceable {
       int page;
       try {
         r.lock();
-        page = findContentPage(fileId, false);
+        page = findContentPage(fileId);
         if (page == 0) return null;
       }
       finally {
@@ -1169,20 +1200,109 @@ public class FSRecords implements Forceable {
     return getAttributesStorage().readStream(page);
   }
 
-  private static int findContentPage(int fileId, boolean toWrite) throws IOException {
+  private static int findContentPage(int fileId) {
     checkFileIsValid(fileId);
 
-    int recordId = getContentRecordId(fileId);
-    if (toWrite) {
-      if (recordId == 0 || getContentStorage().getRefCount(recordId) > 1) {
-        recordId = getContentStorage().acquireNewRecord();
-        setContentRecordId(fileId, recordId);
-      }
+    return getContentRecordId(fileId);
+  }
+
+  /**
+   * @return the record holding the content with the given hash, with a reference to it acquired, or 0 if the content isn't stored
+   */
+  private static int acquireStoredContentRecord(byte[] hash) throws IOException {
+    final Integer recordId;
+    try {
+      r.lock();
+      recordId = DbConnection.myContentHashes.get(hash);
+    }
+    finally {
+      r.unlock();
     }
+    if (recordId == null) return 0;
 
+    try {
+      w.lock();
+      // the record could be released and reused for another content after the lookup
+      if (getContentStorage().getRefCount(recordId) == 0 || !Arrays.equals(hash, getContentRecordHash(recordId))) return 0;
+      getContentStorage().acquireRecord(recordId);
+      return recordId;
+    }
+    finally {
+      w.unlock();
+    }
+  }
+
+  /**
+   * Writes the content to a new record and only then makes the record findable by the content hash, so the writers of the same content
+   * never share a record which isn't written yet. If writing fails the record is released.
+   *
+   * @return the new record with a reference to it acquired
+   */
+  private static int storeNewContentRecord(byte[] hash, ByteSequence bytes, boolean fixedSize) throws IOException {
+    final RefCountingStorage storage = getContentStorage();
+    final int recordId = storage.acquireNewRecord();
+    boolean published = false;
+    try {
+      storage.writeBytes(recordId, bytes, fixedSize);
+      try {
+        w.lock();
+        DbConnection.myContentRecordHashes.put(recordId * CONTENT_HASH_SIZE, hash, 0, CONTENT_HASH_SIZE);
+        DbConnection.myContentHashes.put(hash, recordId);
+        published = true;
+      }
+      finally {
+        w.unlock();
+      }
+    }
+    finally {
+      if (!published) {
+        storage.releaseRecord(recordId);
+      }
+    }
     return recordId;
   }
 
+  // should be called under w lock
+  private static void releaseContentRecord(int recordId) throws IOException {
+    if (getContentStorage().getRefCount(recordId) == 1) {
+      final byte[] hash = getContentRecordHash(recordId);
+      if (hash != null) {
+        final Integer mappedRecordId = DbConnection.myContentHashes.get(hash);
+        if (mappedRecordId != null && mappedRecordId == recordId) {
+          DbConnection.myContentHashes.remove(hash);
+        }
+        // the record id will be reused, a stale mapping must not match it before the new content is written
+        DbConnection.myContentRecordHashes.put(recordId * CONTENT_HASH_SIZE, new byte[CONTENT_HASH_SIZE], 0, CONTENT_HASH_SIZE);
+      }
+    }
+    getContentStorage().releaseRecord(recordId);
+  }
+
+  @Nullable
+  private static byte[] getContentRecordHash(int recordId) {
+    final ResizeableMappedFile hashes = DbConnection.myContentRecordHashes;
+    final int offset = recordId * CONTENT_HASH_SIZE;
+    if (offset + CONTENT_HASH_SIZE > hashes.length()) return null;
+
+    final byte[] hash = new byte[CONTENT_HASH_SIZE];
+    hashes.get(offset, hash, 0, CONTENT_HASH_SIZE);
+    for (byte b : hash) {
+      if (b != 0) return hash;
+    }
+    return null;
+  }
+
+  private static byte[] calculateContentHash(ByteSequence bytes) {
+    try {
+      final MessageDigest digest = MessageDigest.getInstance(CONTENT_HASH_ALGORITHM);
+      digest.update(bytes.getBytes(), bytes.getOffset(), bytes.getLength());
+      return digest.digest();
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
   private static int findAttributePage(int fileId, String attrId, boolean toWrite) throws IOException {
     checkFileIsValid(fileId);
 
@@ -1252,11 +1372,15 @@ public class FSRecords implements Forceable {
 
   public static void releaseContent(int contentId) {
     try {
-      getContentStorage().releaseRecord(contentId);
+      w.lock();
+      releaseContentRecord(contentId);
     }
     catch (Throwable e) {
       throw DbConnection.handleError(e);
     }
+    finally {
+      w.unlock();
+    }
   }
 
   public static int getContentId(int fileId) {
@@ -1285,11 +1409,10 @@ public class FSRecords implements Forceable {
 
   public static int storeUnlinkedContent(byte[] bytes) {
     try {
-      int recordId = getContentStorage().acquireNewRecord();
-      AbstractStorage.StorageDataOutput output = getContentStorage().writeStream(recordId, true);
-      output.write(bytes);
-      output.close();
-      return recordId;
+      final ByteSequence content = new ByteSequence(bytes);
+      final byte[] hash = calculateContentHash(content);
+      final int recordId = acquireStoredContentRecord(hash);
+      return recordId != 0 ? recordId : storeNewContentRecord(hash, content, true);
     }
     catch (IOException e) {
       throw DbConnection.handleError(e);
@@ -1307,13 +1430,36 @@ public class FSRecords implements Forceable {
     }
 
     @Override
-    protected int findOrCreatePage() throws IOException {
-      return findContentPage(myFileId, true);
-    }
+    public void writeBytes(ByteSequence bytes, int fileId) throws IOException {
+      final byte[] hash = calculateContentHash(bytes);
+      int page = acquireStoredContentRecord(hash);
+      if (page == 0) {
+        page = storeNewContentRecord(hash, bytes, myFixedSize);
+      }
 
-    @Override
-    protected AbstractStorage getStorage() {
-      return getContentStorage();
+      try {
+        w.lock();
+        int oldPage = 0;
+        boolean assigned = false;
+        try {
+          incModCount(fileId);
+          checkFileIsValid(fileId);
+          oldPage = getContentRecordId(fileId);
+          setContentRecordId(fileId, page);
+          assigned = true;
+        }
+        finally {
+          if (!assigned) {
+            releaseContentRecord(page);
+          }
+        }
+        if (oldPage != 0) {
+          releaseContentRecord(oldPage);
+        }
+      }
+      finally {
+        w.unlock();
+      }
     }
   }
 
@@ -1333,13 +1479,18 @@ public class FSRecords implements Forceable {
     }
 
     @Override
-    protected int findOrCreatePage() throws IOException {
-      return findAttributePage(myFileId, myAttributeId, true);
-    }
+    public void writeBytes(ByteSequence bytes, int fileId) throws IOException {
+      final int page;
+      try {
+        w.lock();
+        incModCount(fileId);
+        page = findAttributePage(myFileId, myAttributeId, true);
+      }
+      finally {
+        w.unlock();
+      }
 
-    @Override
-    protected AbstractStorage getStorage() {
-      return getAttributesStorage();
+      getAttributesStorage().writeBytes(page, bytes, myFixedSize);
     }
   }
 
@@ -1370,23 +1521,7 @@ public class FSRecords implements Forceable {
       writeBytes(new ByteSequence(_out.getInternalBuffer(), 0, _out.size()), myFileId);
     }
 
-    public void writeBytes(ByteSequence bytes, int fileId) throws IOException {
-      final int page;
-      try {
-        w.lock();
-        incModCount(fileId);
-        page = findOrCreatePage();
-      }
-      finally {
-        w.unlock();
-      }
-
-      getStorage().writeBytes(page, bytes, myFixedSize);
-    }
-
-    protected abstract int findOrCreatePage() throws IOException;
-
-    protected abstract AbstractStorage getStorage();
+    public abstract void writeBytes(ByteSequence bytes, int fileId) throws IOException;
   }
 
   public static void dispose() {
@@ -1508,4 +1643,28 @@ public class FSRecords implements Forceable {
   public static RuntimeException handleError(Throwable e) {
     return DbConnection.handleError(e);   
   }
+
+  private static class ContentHashDescriptor implements KeyDescriptor<byte[]> {
+    @Override
+    public int getHashCode(byte[] value) {
+      return Arrays.hashCode(value);
+    }
+
+    @Override
+    public boolean isEqual(byte[] val1, byte[] val2) {
+      return Arrays.equals(val1, val2);
+    }
+
+    @Override
+    public void save(DataOutput out, byte[] value) throws IOException {
+      out.write(value);
+    }
+
+    @Override
+    public byte[] read(DataInput in) throws IOException {
+      final byte[] value = new byte[CONTENT_HASH_SIZE];
+      in.readFully(value);
+      return value;
+    }
+  }
 }
@@ -21,33 +21,50 @@ import com.intellij.openapi.util.io.FileAttributes;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.vfs.VfsUtil;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.impl.local.LocalFileSystemImpl;
 import com.intellij.openapi.vfs.newvfs.NewVirtualFile;
 import com.intellij.openapi.vfs.newvfs.NewVirtualFileSystem;
 import com.intellij.openapi.vfs.newvfs.events.*;
 import com.intellij.openapi.vfs.newvfs.impl.FakeVirtualFile;
 import com.intellij.openapi.vfs.newvfs.impl.VirtualDirectoryImpl;
 import com.intellij.openapi.vfs.newvfs.impl.VirtualFileSystemEntry;
+import com.intellij.util.concurrency.BoundedTaskExecutor;
 import com.intellij.util.containers.ContainerUtil;
 import com.intellij.util.containers.Queue;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.jetbrains.ide.PooledThreadExecutor;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import static com.intellij.openapi.diagnostic.LogUtil.debug;
 import static com.intellij.util.containers.ContainerUtil.newHashSet;
 
 /**
+ * Scans the file system and collects events for changes not yet reflected in VFS.
+ * <p/>
+ * Files are processed one by one in breadth-first order, so the order of events doesn't depend on timing. For local file system,
+ * listing of queued directories and reading attributes of their children is done in advance on a bounded pool, so by the time
+ * a directory is processed the file system data is usually already at hand.
+ *
  * @author max
  */
 public class RefreshWorker {
   private static final Logger LOG = Logger.getInstance("#com.intellij.openapi.vfs.newvfs.persistent.RefreshWorker");
+  private static final int PREFETCH_THREADS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+  private static final int MAX_PREFETCHED_DIRECTORIES = 1000;
 
   private final boolean myIsRecursive;
   private final Queue<VirtualFile> myRefreshQueue = new Queue<VirtualFile>(100);
   private final List<VFileEvent> myEvents = new ArrayList<VFileEvent>();
   private volatile boolean myCancelled = false;
   private final Map<String, FileAttributes> myFsCache = ContainerUtil.newTroveMap();
+  private BoundedTaskExecutor myPrefetchExecutor;
+  private final Queue<VirtualDirectoryImpl> myPrefetchQueue = new Queue<VirtualDirectoryImpl>(100);
+  private final Map<VirtualFile, Future<DirectoryScan>> myPrefetches = new HashMap<VirtualFile, Future<DirectoryScan>>();
 
   public RefreshWorker(final VirtualFile refreshRoot, final boolean isRecursive) {
     myIsRecursive = isRecursive;
@@ -77,6 +94,10 @@ public class RefreshWorker {
 
     if (rootAttributes != null && rootAttributes.isDirectory()) {
       fs = PersistentFS.replaceWithNativeFS(fs);
+      if (fs instanceof LocalFileSystemImpl && root instanceof VirtualDirectoryImpl) {
+        myPrefetchExecutor = new BoundedTaskExecutor(new PooledThreadExecutor(), PREFETCH_THREADS);
+        myPrefetchQueue.addLast((VirtualDirectoryImpl)root);
+      }
     }
 
     final PersistentFS persistence = PersistentFS.getInstance();
@@ -84,6 +105,7 @@ public class RefreshWorker {
     main:
     while (!myRefreshQueue.isEmpty() && !myCancelled) {
       final VirtualFileSystemEntry file = (VirtualFileSystemEntry)myRefreshQueue.pullFirst();
+      final String[] prefetchedNames = file instanceof VirtualDirectoryImpl ? takePrefetched(fs, (VirtualDirectoryImpl)file) : null;
       final boolean fileDirty = file.isDirty();
       debug(LOG, "file=%s dirty=%b", file, fileDirty);
       if (!fileDirty) continue;
@@ -107,7 +129,8 @@ public class RefreshWorker {
         final boolean fullSync = dir.allChildrenLoaded();
         if (fullSync) {
           final Set<String> currentNames = newHashSet(persistence.list(file));
-          final Set<String> upToDateNames = newHashSet(VfsUtil.filterNames(fs.list(file)));
+          final String[] names = prefetchedNames != null ? prefetchedNames : fs.list(file);
+          final Set<String> upToDateNames = newHashSet(VfsUtil.filterNames(names));
           final Set<String> newNames = newHashSet(upToDateNames);
           newNames.removeAll(currentNames);
           final Set<String> deletedNames = newHashSet(currentNames);
@@ -194,6 +217,7 @@ public class RefreshWorker {
       file.markClean();
     }
 
+    cancelPrefetches();
     myFsCache.clear();
     debug(LOG, "root=%s time=%d", root, System.currentTimeMillis() - t);
   }
@@ -216,10 +240,83 @@ public class RefreshWorker {
       final boolean upToDateIsDirectory = childAttributes.isDirectory();
       if (myIsRecursive || !upToDateIsDirectory) {
         myRefreshQueue.addLast(child);
+        if (myPrefetchExecutor != null && child instanceof VirtualDirectoryImpl && ((VirtualDirectoryImpl)child).isDirty()) {
+          myPrefetchQueue.addLast((VirtualDirectoryImpl)child);
+        }
       }
     }
   }
 
+  /**
+   * Puts attributes of the directory children read in advance to the cache.
+   *
+   * @return names listed in advance if the directory had all children loaded when it was queued for prefetching, {@code null} otherwise
+   */
+  @Nullable
+  private String[] takePrefetched(@NotNull NewVirtualFileSystem fs, @NotNull VirtualDirectoryImpl dir) {
+    if (myPrefetchExecutor == null) return null;
+
+    // the prefetch queue has the same order as the refresh queue, so the directory is submitted here at the latest
+    while (myPrefetches.size() < MAX_PREFETCHED_DIRECTORIES && !myPrefetchQueue.isEmpty()) {
+      final VirtualDirectoryImpl next = myPrefetchQueue.pullFirst();
+      myPrefetches.put(next, myPrefetchExecutor.submit(createPrefetchTask(fs, next)));
+    }
+
+    final Future<DirectoryScan> future = myPrefetches.remove(dir);
+    if (future == null) return null;
+    try {
+      final DirectoryScan scan = future.get();
+      for (Map.Entry<String, FileAttributes> entry : scan.myAttributes.entrySet()) {
+        if (!myFsCache.containsKey(entry.getKey())) {
+          myFsCache.put(entry.getKey(), entry.getValue());
+        }
+      }
+      return scan.myNames;
+    }
+    catch (InterruptedException e) {
+      // keep the interruption for the caller, the directory is listed synchronously
+      Thread.currentThread().interrupt();
+    }
+    catch (ExecutionException e) {
+      LOG.info("cannot prefetch " + dir, e.getCause());
+    }
+    return null;
+  }
+
+  @NotNull
+  private static Callable<DirectoryScan> createPrefetchTask(@NotNull final NewVirtualFileSystem fs, @NotNull final VirtualDirectoryImpl dir) {
+    final boolean fullSync = dir.allChildrenLoaded();
+    final List<String> knownNames = new ArrayList<String>();
+    if (!fullSync) {
+      for (VirtualFile child : dir.getCachedChildren()) {
+        knownNames.add(child.getName());
+      }
+      knownNames.addAll(dir.getSuspiciousNames());
+    }
+
+    return new Callable<DirectoryScan>() {
+      @Override
+      public DirectoryScan call() {
+        final String[] names = fullSync ? fs.list(dir) : null;
+        final Map<String, FileAttributes> attributes = ContainerUtil.newTroveMap();
+        for (String name : names != null ? Arrays.asList(VfsUtil.filterNames(names)) : knownNames) {
+          if (name.isEmpty()) continue;
+          final VirtualFile child = new FakeVirtualFile(dir, name);
+          attributes.put(child.getPath(), fs.getAttributes(child));
+        }
+        return new DirectoryScan(names, attributes);
+      }
+    };
+  }
+
+  private void cancelPrefetches() {
+    for (Future<DirectoryScan> future : myPrefetches.values()) {
+      future.cancel(false);
+    }
+    myPrefetches.clear();
+    myPrefetchQueue.clear();
+  }
+
   private boolean checkAndScheduleAttributesChange(@NotNull VirtualFileSystemEntry parent,
                                                    @NotNull VirtualFile child,
                                                    @NotNull FileAttributes childAttributes) {
@@ -289,4 +386,14 @@ public class RefreshWorker {
   public List<VFileEvent> getEvents() {
     return myEvents;
   }
+
+  private static class DirectoryScan {
+    @Nullable private final String[] myNames;
+    @NotNull private final Map<String, FileAttributes> myAttributes;
+
+    private DirectoryScan(@Nullable String[] names, @NotNull Map<String, FileAttributes> attributes) {
+      myNames = names;
+      myAttributes = attributes;
+    }
+  }
 }
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.history.core;
+
+import com.intellij.history.core.changes.ChangeSet;
+import com.intellij.history.core.changes.CreateFileChange;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+public class AsyncChangeListStorageTest extends LocalHistoryTestCase {
+  private final List<Runnable> myTasks = new ArrayList<Runnable>();
+  private final InMemoryChangeListStorage myDelegate = new InMemoryChangeListStorage();
+  private final AsyncChangeListStorage myStorage = new AsyncChangeListStorage(myDelegate, new Executor() {
+    @Override
+    public void execute(@NotNull Runnable command) {
+      myTasks.add(command);
+    }
+  });
+  private final ChangeList myChangeList = new ChangeList(myStorage);
+
+  @Test
+  public void testWritesInBackground() {
+    addChangeSet("1");
+    addChangeSet("2");
+    assertEquals(1, myTasks.size());
+    assertNames(myDelegate);
+    assertNames(myStorage, "2", "1");
+
+    runTasks();
+    assertNames(myDelegate, "2", "1");
+    assertNames(myStorage, "2", "1");
+
+    addChangeSet("3");
+    assertEquals(1, myTasks.size());
+    assertNames(myStorage, "3", "2", "1");
+  }
+
+  @Test
+  public void testSetsWrittenWhileIterating() {
+    addChangeSet("1");
+    runTasks();
+    addChangeSet("2");
+    addChangeSet("3");
+    addChangeSet("4");
+
+    Iterator<ChangeSet> iterator = myChangeList.iterChanges().iterator();
+    assertEquals("4", iterator.next().getName());
+    runTasks();
+    addChangeSet("5");
+    assertEquals("3", iterator.next().getName());
+    assertEquals("2", iterator.next().getName());
+    assertEquals("1", iterator.next().getName());
+    assertFalse(iterator.hasNext());
+
+    iterator = myChangeList.iterChanges().iterator();
+    assertEquals("5", iterator.next().getName());
+    addChangeSet("6");
+    runTasks();
+    assertEquals("4", iterator.next().getName());
+    assertEquals("3", iterator.next().getName());
+  }
+
+  @Test
+  public void testFlushesWhenTooManyChangesArePending() {
+    for (int i = 0; i < 20000; i++) {
+      addChangeSet(String.valueOf(i));
+    }
+    assertEquals(1, myTasks.size());
+    assertEquals(20000, myDelegate.readPrevious(-1, null).id + 1);
+  }
+
+  @Test
+  public void testFlushesOnClose() {
+    addChangeSet("1");
+    addChangeSet("2");
+    myStorage.close();
+    assertNames(myDelegate, "2", "1");
+  }
+
+  @Test
+  public void testFlushesBeforePurge() {
+    addChangeSet("1");
+    myStorage.purge(1, 1, null);
+    assertNames(myDelegate, "1");
+  }
+
+  private void addChangeSet(String name) {
+    myChangeList.beginChangeSet();
+    myChangeList.addChange(new CreateFileChange(nextId(), "file" + name));
+    myChangeList.endChangeSet(name);
+  }
+
+  private void runTasks() {
+    List<Runnable> tasks = new ArrayList<Runnable>(myTasks);
+    myTasks.clear();
+    for (Runnable each : tasks) {
+      each.run();
+    }
+  }
+
+  private static void assertNames(ChangeListStorage storage, String... expected) {
+    List<String> actual = new ArrayList<String>();
+    ChangeSetHolder each = storage.readPrevious(-1, null);
+    while (each != null) {
+      actual.add(each.changeSet.getName());
+      each = storage.readPrevious(each.id, null);
+    }
+    assertEquals(Arrays.asList(expected), actual);
+  }
+}
@@ -19,11 +19,16 @@ package com.intellij.history.core.revisions;
 import com.intellij.history.core.InMemoryLocalHistoryFacade;
 import com.intellij.history.core.LocalHistoryFacade;
 import com.intellij.history.core.LocalHistoryTestCase;
+import com.intellij.history.core.RevisionSnapshots;
 import com.intellij.history.core.changes.ChangeSet;
 import com.intellij.history.core.changes.CreateFileChange;
+import com.intellij.history.core.tree.Entry;
 import com.intellij.history.core.tree.RootEntry;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class RevisionsTest extends LocalHistoryTestCase {
   ChangeSet cs = cs("Action", new CreateFileChange(nextId(), "f"));
 
@@ -56,4 +61,31 @@ public class RevisionsTest extends LocalHistoryTestCase {
     assertNotNull(e.findEntry("f1"));
     assertNull(e.findEntry("f2"));
   }
+
+  @Test
+  public void testRevisionsOfLongHistory() {
+    RootEntry root = new RootEntry();
+    LocalHistoryFacade facade = new InMemoryLocalHistoryFacade();
+
+    addChangeSet(facade, createDirectory(root, "dir"));
+    List<ChangeSet> sets = new ArrayList<ChangeSet>();
+    for (int i = 0; i < 200; i++) {
+      sets.add(addChangeSet(facade, createFile(root, "dir/f" + i)));
+      if (i % 3 == 0) addChangeSet(facade, createFile(root, "other" + i));
+    }
+    addChangeSet(facade, rename(root, "dir", "renamed"));
+
+    RevisionSnapshots snapshots = new RevisionSnapshots(facade, root, "renamed");
+    for (int i : new int[]{150, 10, 199, 0, 120, 10, 75}) {
+      Entry e = new ChangeRevision(snapshots, sets.get(i), false).findEntry();
+      assertEquals("dir", e.getName());
+      assertEquals(i + 1, e.getChildren().size());
+      assertNotNull(e.findChild("f" + i));
+
+      e = new ChangeRevision(snapshots, sets.get(i), true).findEntry();
+      assertEquals(i, e.getChildren().size());
+      assertNull(e.findChild("f" + i));
+    }
+    assertEquals(200, root.getEntry("renamed").getChildren().size());
+  }
 }
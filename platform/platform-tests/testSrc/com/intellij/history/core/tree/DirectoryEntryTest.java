@@ -185,6 +185,49 @@ public class DirectoryEntryTest extends LocalHistoryTestCase {
     assertSame(copyChild2, copyChild3.getParent());
   }
 
+  @Test
+  public void testLazyCopying() {
+    DirectoryEntry dir = new DirectoryEntry("dir");
+    Entry child1 = new FileEntry("child1", null, -1, false);
+    Entry child2 = new DirectoryEntry("child2");
+    Entry child3 = new FileEntry("child3", null, -1, false);
+
+    dir.addChild(child1);
+    dir.addChild(child2);
+    child2.addChild(child3);
+
+    DirectoryEntry copy = dir.lazyCopy();
+    assertEquals("dir", copy.getName());
+    assertNull(copy.getParent());
+
+    Entry copyChild2 = copy.findChild("child2");
+    assertNotSame(child2, copyChild2);
+    assertSame(copy, copyChild2.getParent());
+    assertSame(copyChild2, copyChild2.findChild("child3").getParent());
+
+    copy.removeChild(copy.findChild("child1"));
+    copyChild2.addChild(new FileEntry("child4", null, -1, false));
+    copyChild2.findChild("child3").setName("renamed");
+
+    assertEquals(2, dir.getChildren().size());
+    assertSame(dir, child1.getParent());
+    assertEquals(1, child2.getChildren().size());
+    assertEquals("child3", child3.getName());
+    assertSame(child2, child3.getParent());
+  }
+
+  @Test
+  public void testLazyCopyOfLazyCopy() {
+    RootEntry root = new RootEntry();
+    root.ensureDirectoryExists("dir/subDir").addChild(new FileEntry("file", null, -1, false));
+
+    RootEntry copy = root.lazyCopy().lazyCopy();
+    assertEquals(RootEntry.class, copy.getClass());
+    assertNotNull(copy.findEntry("dir/subDir/file"));
+    assertNotSame(root.findEntry("dir/subDir/file"), copy.findEntry("dir/subDir/file"));
+    assertEquals("dir/subDir/file", copy.findEntry("dir/subDir/file").getPath());
+  }
+
   @Test
   public void testCopyingContentDoesNotChangeOriginalStructure() {
     Entry dir = new DirectoryEntry(null);
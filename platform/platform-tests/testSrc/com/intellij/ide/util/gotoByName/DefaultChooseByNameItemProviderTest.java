@@ -0,0 +1,76 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.ide.util.gotoByName;
+
+import com.intellij.ide.util.gotoByName.DefaultChooseByNameItemProvider.MatchingMode;
+import com.intellij.testFramework.UsefulTestCase;
+import com.intellij.util.text.Matcher;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class DefaultChooseByNameItemProviderTest extends UsefulTestCase {
+  private static final List<String> NAMES = Arrays.asList(
+    "ArrayList", "AbstractList", "ALongName", "AnotherList", "ArrayIndexOutOfBoundsException", "Array", "arraycopy",
+    "FooBar", "FooBarBaz", "Foo", "FOO", "Fob", "foo_bar", "foo.bar", "FooBarTest", "FileFooBar", "FBI", "fooBarGoo",
+    "HTMLParser", "HtmlParser", "XmlHttpRequest", "XMLHttpRequest", "parseXML", "Foo Bar", "foo bar baz", "getFooBar",
+    "setFoo", "isFoo", "ContributorsBasedGotoByModel", "DefaultChooseByNameItemProvider", "ChooseByNameBase", "CBNB");
+
+  public void testRequiredChars() {
+    assertEquals("FooB", DefaultChooseByNameItemProvider.getRequiredChars("*Foo B*"));
+    assertEquals("fooBar1", DefaultChooseByNameItemProvider.getRequiredChars("@foo.Bar_1 "));
+    assertEquals(Arrays.asList("FooBar", "FooBarBaz", "fooBarGoo", "getFooBar"),
+                 DefaultChooseByNameItemProvider.filterCandidates(Arrays.asList("FooBar", "FooBarBaz", "Foo", "fooBarGoo", "getFooBar"), "fbar"));
+  }
+
+  public void testLongerPatternMayMatchMoreNames() {
+    assertTrue(match(NAMES, "FBa", MatchingMode.CASE_INSENSITIVE).contains("Foo Bar"));
+    assertFalse(match(NAMES, "FB", MatchingMode.CASE_INSENSITIVE).contains("Foo Bar"));
+  }
+
+  public void testNarrowedCandidatesMatchAsAllNames() {
+    for (String typed : Arrays.asList("FooBar", "fooBarBaz", "FBa", "ArrayList", "AL", "arrIOOBE", "HTMLParser", "xmlHR",
+                                      "foo bar", "foo.bar", "foo_b", "CBNB", "CoBaGoByMo", "getFoo", "ZZZ")) {
+      for (MatchingMode mode : MatchingMode.values()) {
+        checkTyping(typed, mode, "");
+        if (mode != MatchingMode.STRICT_CASE_INSENSITIVE) {
+          checkTyping(typed, mode, "*");
+        }
+      }
+    }
+  }
+
+  private static void checkTyping(String typed, MatchingMode mode, String prefix) {
+    List<String> candidates = NAMES;
+    for (int i = 1; i <= typed.length(); i++) {
+      String pattern = prefix + typed.substring(0, i) + (prefix.isEmpty() ? "" : "*");
+      candidates = DefaultChooseByNameItemProvider.filterCandidates(candidates, DefaultChooseByNameItemProvider.getRequiredChars(pattern));
+      assertEquals(pattern + " " + mode, match(NAMES, pattern, mode), match(candidates, pattern, mode));
+    }
+  }
+
+  private static List<String> match(List<String> names, String pattern, MatchingMode mode) {
+    Matcher matcher = DefaultChooseByNameItemProvider.buildMatcher(pattern, mode);
+    List<String> result = new ArrayList<String>();
+    for (String name : names) {
+      if (matcher.matches(name)) {
+        result.add(name);
+      }
+    }
+    return result;
+  }
+}
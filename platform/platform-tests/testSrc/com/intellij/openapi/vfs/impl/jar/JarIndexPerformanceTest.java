@@ -0,0 +1,93 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.vfs.impl.jar;
+
+import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.testFramework.PlatformTestUtil;
+import com.intellij.util.ThrowableRunnable;
+import com.intellij.util.io.UnsyncByteArrayInputStream;
+import junit.framework.TestCase;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class JarIndexPerformanceTest extends TestCase {
+  private static final int ENTRY_COUNT = 60000; // below the zip64 limit
+  private File myDir;
+  private File myJar;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myDir = FileUtil.createTempDirectory("JarIndexPerformanceTest.", "");
+    myJar = new File(myDir, "large.jar");
+    ZipOutputStream out = new ZipOutputStream(new FileOutputStream(myJar));
+    try {
+      for (int i = 0; i < ENTRY_COUNT; i++) {
+        out.putNextEntry(new ZipEntry("com/example/p" + i / 100 + "/Class" + i + ".class"));
+        out.write(i);
+        out.closeEntry();
+      }
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      FileUtil.delete(myDir);
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testBuild() throws Exception {
+    PlatformTestUtil.startPerformanceTest("Reading central directory of a jar with 60K entries is too slow", 500, new ThrowableRunnable() {
+      @Override
+      public void run() throws Exception {
+        JarIndex index = JarIndex.build(myJar);
+        assertNotNull(index);
+        assertEquals(ENTRY_COUNT, index.getEntryCount());
+      }
+    }).ioBound().assertTiming();
+  }
+
+  public void testLoadSaved() throws Exception {
+    JarIndex index = JarIndex.build(myJar);
+    assertNotNull(index);
+    final BufferExposingByteArrayOutputStream bytes = new BufferExposingByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    index.save(out);
+    out.close();
+
+    PlatformTestUtil.startPerformanceTest("Loading saved index of a jar with 60K entries is too slow", 300, new ThrowableRunnable() {
+      @Override
+      public void run() throws Exception {
+        JarIndex loaded = JarIndex.load(new DataInputStream(new UnsyncByteArrayInputStream(bytes.getInternalBuffer(), 0, bytes.size())));
+        assertNotNull(loaded);
+        assertEquals(ENTRY_COUNT, loaded.getEntryCount());
+      }
+    }).cpuBound().assertTiming();
+  }
+}
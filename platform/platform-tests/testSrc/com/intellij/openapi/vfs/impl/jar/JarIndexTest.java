@@ -0,0 +1,331 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.vfs.impl.jar;
+
+import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.io.UnsyncByteArrayInputStream;
+import junit.framework.TestCase;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+public class JarIndexTest extends TestCase {
+  private File myDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myDir = FileUtil.createTempDirectory("JarIndexTest.", "");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      FileUtil.delete(myDir);
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testEntriesMatchZipFile() throws Exception {
+    File jar = createJar();
+    JarIndex index = JarIndex.build(jar);
+    assertNotNull(index);
+    assertSameAsZipFile(jar, index);
+  }
+
+  public void testSavedIndex() throws Exception {
+    File jar = createJar();
+    JarIndex index = JarIndex.build(jar);
+    assertNotNull(index);
+
+    BufferExposingByteArrayOutputStream bytes = new BufferExposingByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    index.save(out);
+    out.close();
+    JarIndex loaded = JarIndex.load(new DataInputStream(new UnsyncByteArrayInputStream(bytes.getInternalBuffer(), 0, bytes.size())));
+    assertNotNull(loaded);
+    assertSameAsZipFile(jar, loaded);
+  }
+
+  public void testPrefixedArchive() throws Exception {
+    File jar = createJar();
+    File prefixed = new File(myDir, "prefixed.jar");
+    FileOutputStream out = new FileOutputStream(prefixed);
+    try {
+      out.write("#!/bin/sh\nexec java -jar \"$0\"\n".getBytes());
+      out.write(FileUtil.loadFileBytes(jar));
+    }
+    finally {
+      out.close();
+    }
+
+    JarIndex index = JarIndex.build(prefixed);
+    assertNotNull(index);
+    assertSameAsZipFile(prefixed, index);
+  }
+
+  public void testNotArchive() throws Exception {
+    File file = new File(myDir, "text.jar");
+    FileUtil.writeToFile(file, "not a jar");
+    assertNull(JarIndex.build(file));
+  }
+
+  public void testChangedArchive() throws Exception {
+    File jar = createJar();
+    JarIndex index = JarIndex.build(jar);
+    assertNotNull(index);
+
+    ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar));
+    try {
+      out.putNextEntry(new ZipEntry("com/example/Another.class"));
+      out.write(new byte[1000]);
+      out.closeEntry();
+    }
+    finally {
+      out.close();
+    }
+
+    int changed = 0;
+    for (int i = 0; i < index.getEntryCount(); i++) {
+      try {
+        index.read(jar, i);
+      }
+      catch (ZipException ignored) {
+        changed++;
+      }
+      catch (EOFException ignored) {
+        changed++;
+      }
+    }
+    assertTrue(changed > 0);
+  }
+
+  public void testDosTimeUsed() throws Exception {
+    long time = 1300000000000L;
+    File jar = new File(myDir, "ntfs.jar");
+    ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar));
+    try {
+      ZipEntry entry = new ZipEntry("file.txt");
+      entry.setExtra(ntfsExtra(time + 100000000L));
+      entry.setTime(time);
+      out.putNextEntry(entry);
+      out.write("text".getBytes());
+      out.closeEntry();
+    }
+    finally {
+      out.close();
+    }
+
+    JarIndex index = JarIndex.build(jar);
+    assertNotNull(index);
+    ZipEntry expected = new ZipEntry("file.txt");
+    expected.setTime(time);
+    assertEquals(expected.getTime(), index.getTime(0));
+  }
+
+  public void testSharedFile() throws Exception {
+    final File jar = createJar();
+    final JarIndex index = JarIndex.build(jar);
+    assertNotNull(index);
+
+    final RandomAccessFile raf = new RandomAccessFile(jar, "r");
+    try {
+      List<Thread> threads = new ArrayList<Thread>();
+      final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+      for (int t = 0; t < 4; t++) {
+        threads.add(new Thread() {
+          @Override
+          public void run() {
+            try {
+              for (int n = 0; n < 100; n++) {
+                for (int i = 0; i < index.getEntryCount(); i++) {
+                  if (!index.isDirectory(i)) {
+                    assertTrue(Arrays.equals(index.read(jar, i), index.read(raf, i)));
+                  }
+                }
+              }
+            }
+            catch (Throwable e) {
+              errors.add(e);
+            }
+          }
+        });
+      }
+      for (Thread thread : threads) thread.start();
+      for (Thread thread : threads) thread.join();
+      assertEquals(errors.toString(), 0, errors.size());
+    }
+    finally {
+      raf.close();
+    }
+  }
+
+  public void testLongNameNotSaved() throws Exception {
+    // names are saved in modified UTF-8, where supplementary characters take 6 bytes instead of 4
+    StringBuilder name = new StringBuilder();
+    for (int i = 0; i < 12000; i++) name.appendCodePoint(0x1F600);
+    File jar = new File(myDir, "long.jar");
+    ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar));
+    try {
+      out.putNextEntry(new ZipEntry(name.toString()));
+      out.write("text".getBytes());
+      out.closeEntry();
+    }
+    finally {
+      out.close();
+    }
+
+    String jarsDir = System.getProperty("jars_dir");
+    System.setProperty("jars_dir", new File(myDir, "jars").getPath());
+    try {
+      JarIndex index = new JarHandler(null, jar.getPath()).createIndex(jar, jar);
+      assertNotNull(index);
+      assertEquals(name.toString(), index.getName(0));
+      assertEquals("text", new String(index.read(jar, 0)));
+      File[] saved = new File(myDir, "jars/index").listFiles();
+      assertTrue(saved == null || saved.length == 0);
+    }
+    finally {
+      if (jarsDir != null) System.setProperty("jars_dir", jarsDir); else System.clearProperty("jars_dir");
+    }
+  }
+
+  public void testStaleIndicesDeleted() throws Exception {
+    File indexDir = new File(myDir, "index");
+    File jar = createJar();
+    File changed = new File(myDir, "changed.jar");
+    FileUtil.writeToFile(changed, "text");
+
+    File upToDate = writeIndexHeader(new File(indexDir, "1"), jar, jar.length(), jar.lastModified());
+    File ofChanged = writeIndexHeader(new File(indexDir, "2"), changed, changed.length() + 1, changed.lastModified());
+    File ofMissing = writeIndexHeader(new File(indexDir, "3"), new File(myDir, "missing.jar"), 0, 0);
+    File corrupted = new File(indexDir, "4");
+    FileUtil.writeToFile(corrupted, "x");
+
+    JarHandler.deleteStaleIndices(indexDir);
+    assertTrue(upToDate.exists());
+    assertFalse(ofChanged.exists());
+    assertFalse(ofMissing.exists());
+    assertFalse(corrupted.exists());
+  }
+
+  private static File writeIndexHeader(File indexFile, File jar, long length, long lastModified) throws IOException {
+    BufferExposingByteArrayOutputStream bytes = new BufferExposingByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeUTF(jar.getPath());
+    out.writeLong(length);
+    out.writeLong(lastModified);
+    out.close();
+    FileUtil.writeToFile(indexFile, bytes.getInternalBuffer(), 0, bytes.size());
+    return indexFile;
+  }
+
+  private static byte[] ntfsExtra(long time) {
+    long ntfsTime = (time * 1000 + 11644473600000000L) * 10;
+    byte[] extra = new byte[36];
+    extra[0] = 0x0a;
+    extra[2] = 32;
+    extra[8] = 1;
+    extra[10] = 24;
+    for (int i = 0; i < 24; i += 8) {
+      for (int b = 0; b < 8; b++) {
+        extra[12 + i + b] = (byte)(ntfsTime >> (8 * b));
+      }
+    }
+    return extra;
+  }
+
+  private File createJar() throws IOException {
+    File jar = new File(myDir, "test.jar");
+    ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar));
+    try {
+      out.setComment("comment");
+      out.putNextEntry(new ZipEntry("META-INF/"));
+      out.closeEntry();
+      out.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+      out.write("Manifest-Version: 1.0\n".getBytes());
+      out.closeEntry();
+
+      StringBuilder text = new StringBuilder();
+      for (int i = 0; i < 1000; i++) text.append("line ").append(i).append('\n');
+      out.putNextEntry(new ZipEntry("com/example/Text.txt"));
+      out.write(text.toString().getBytes());
+      out.closeEntry();
+
+      byte[] stored = "stored content".getBytes();
+      ZipEntry storedEntry = new ZipEntry("com/example/Stored.bin");
+      storedEntry.setMethod(ZipEntry.STORED);
+      storedEntry.setSize(stored.length);
+      CRC32 crc = new CRC32();
+      crc.update(stored);
+      storedEntry.setCrc(crc.getValue());
+      out.putNextEntry(storedEntry);
+      out.write(stored);
+      out.closeEntry();
+
+      out.putNextEntry(new ZipEntry("com/example/Empty.txt"));
+      out.closeEntry();
+      out.putNextEntry(new ZipEntry("com/пример/Unicode.txt"));
+      out.write("unicode".getBytes());
+      out.closeEntry();
+    }
+    finally {
+      out.close();
+    }
+    return jar;
+  }
+
+  private static void assertSameAsZipFile(File jar, JarIndex index) throws IOException {
+    ZipFile zipFile = new ZipFile(jar);
+    try {
+      Set<String> names = new HashSet<String>();
+      for (int i = 0; i < index.getEntryCount(); i++) {
+        String name = index.getName(i);
+        names.add(name);
+        ZipEntry entry = zipFile.getEntry(name);
+        assertNotNull(name, entry);
+        assertEquals(name, entry.isDirectory(), index.isDirectory(i));
+        assertEquals(name, entry.getSize(), index.getSize(i));
+        if (entry.getExtra() == null) {
+          // since Java 8 timestamps from extra fields are preferred to the DOS time
+          assertEquals(name, entry.getTime(), index.getTime(i));
+        }
+        if (!entry.isDirectory()) {
+          assertTrue(name, index.canRead(i));
+          InputStream stream = zipFile.getInputStream(entry);
+          try {
+            assertTrue(name, Arrays.equals(FileUtil.loadBytes(stream), index.read(jar, i)));
+          }
+          finally {
+            stream.close();
+          }
+        }
+      }
+      assertEquals(zipFile.size(), names.size());
+    }
+    finally {
+      zipFile.close();
+    }
+  }
+}
@@ -0,0 +1,350 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.vfs.impl.local;
+
+import com.intellij.openapi.util.Pair;
+import com.intellij.openapi.util.SystemInfo;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.TimeoutUtil;
+import org.jetbrains.annotations.NotNull;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.intellij.openapi.vfs.impl.local.FileWatcher.WatcherOp;
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class NioFileWatcherTest {
+  private static final long TIMEOUT = 10000;
+
+  private File myRoot;
+  private NioFileWatcher myWatcher;
+  private final List<Pair<String, WatcherOp>> myEvents = new ArrayList<Pair<String, WatcherOp>>();
+  private volatile List<String> myUnwatchable = Collections.emptyList();
+  private volatile CountDownLatch myBlocker;
+  private final CountDownLatch myBlocked = new CountDownLatch(1);
+
+  @Before
+  public void setUp() throws Exception {
+    assumeTrue(NioFileWatcher.isAvailable());
+
+    myRoot = FileUtil.createTempDirectory("NioFileWatcherTest.", null);
+    myWatcher = new NioFileWatcher(new NioFileWatcher.Listener() {
+      @Override
+      public void onChange(@NotNull String path, @NotNull WatcherOp op) {
+        final CountDownLatch blocker = myBlocker;
+        if (blocker != null) {
+          myBlocked.countDown();
+          try {
+            blocker.await(TIMEOUT, TimeUnit.MILLISECONDS);
+          }
+          catch (InterruptedException ignored) { }
+        }
+        synchronized (myEvents) {
+          myEvents.add(Pair.create(path, op));
+        }
+      }
+
+      @Override
+      public void onUnwatchable(@NotNull List<String> paths) {
+        myUnwatchable = paths;
+      }
+    });
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (myWatcher != null) {
+      myWatcher.dispose();
+    }
+    if (myRoot != null) {
+      FileUtil.delete(myRoot);
+    }
+  }
+
+  @Test
+  public void fileEvents() throws Exception {
+    watchRecursively(myRoot);
+
+    File file = new File(myRoot, "file.txt");
+    FileUtil.writeToFile(file, "text");
+    waitForEvent(file, WatcherOp.CREATE);
+
+    clearEvents();
+    FileUtil.writeToFile(file, "new text");
+    waitForEvent(file, WatcherOp.CHANGE);
+
+    clearEvents();
+    FileUtil.delete(file);
+    waitForEvent(file, WatcherOp.DELETE);
+  }
+
+  @Test
+  public void newDirectoryIsWatched() throws Exception {
+    watchRecursively(myRoot);
+
+    File dir = new File(myRoot, "dir");
+    assertTrue(dir.mkdir());
+    waitForEvent(dir, WatcherOp.CREATE);
+
+    clearEvents();
+    File file = new File(dir, "file.txt");
+    FileUtil.writeToFile(file, "text");
+    waitForEvent(file, WatcherOp.CREATE);
+  }
+
+  @Test
+  public void treeCreatedAtOnce() throws Exception {
+    watchRecursively(myRoot);
+
+    File file = new File(myRoot, "a/b/c/file.txt");
+    FileUtil.writeToFile(file, "text");
+    waitForDirty(file.getParentFile());
+
+    // the directories may still be being registered, then the change is covered by their parent reported dirty
+    clearEvents();
+    File another = new File(myRoot, "a/b/c/another.txt");
+    FileUtil.writeToFile(another, "text");
+    waitForDirty(another.getParentFile());
+  }
+
+  @Test
+  public void flatRoot() throws Exception {
+    File subDir = new File(myRoot, "sub");
+    assertTrue(subDir.mkdir());
+    setRoots(Collections.<String>emptyList(), Collections.singletonList(myRoot.getPath()));
+
+    FileUtil.writeToFile(new File(subDir, "deep.txt"), "text");
+    File file = new File(myRoot, "file.txt");
+    FileUtil.writeToFile(file, "text");
+    waitForEvent(file, WatcherOp.CREATE);
+    synchronized (myEvents) {
+      for (Pair<String, WatcherOp> event : myEvents) {
+        assertFalse(event.toString(), FileUtil.isAncestor(subDir.getPath(), event.first, true));
+      }
+    }
+  }
+
+  @Test
+  public void unwatchableRoots() throws Exception {
+    File missing = new File(myRoot, "missing");
+    setRoots(Collections.singletonList(missing.getPath()), Collections.<String>emptyList());
+    assertEquals(Collections.singletonList(missing.getPath()), myUnwatchable);
+
+    // becomes watchable when the roots are set again after it's created
+    assertTrue(missing.mkdir());
+    setRoots(Arrays.asList(missing.getPath(), myRoot.getPath()), Collections.<String>emptyList());
+    assertEquals(Collections.<String>emptyList(), myUnwatchable);
+  }
+
+  @Test
+  public void eventsNotLostWhenRootsChange() throws Exception {
+    File dir = new File(myRoot, "dir");
+    assertTrue(dir.mkdir());
+    File other = FileUtil.createTempDirectory("NioFileWatcherTest.", null);
+    try {
+      watchRecursively(dir);
+
+      // block the watcher so that the next event is pending when the roots are changed
+      myBlocker = new CountDownLatch(1);
+      FileUtil.writeToFile(new File(dir, "first.txt"), "text");
+      assertTrue(myBlocked.await(TIMEOUT, TimeUnit.MILLISECONDS));
+      File file = new File(dir, "second.txt");
+      FileUtil.writeToFile(file, "text");
+      myWatcher.setRoots(Arrays.asList(dir.getPath(), other.getPath()), Collections.<String>emptyList());
+      myBlocker.countDown();
+      myBlocker = null;
+      waitForRoots();
+      waitForEvent(file, WatcherOp.CREATE);
+
+      File otherFile = new File(other, "file.txt");
+      FileUtil.writeToFile(otherFile, "text");
+      waitForEvent(otherFile, WatcherOp.CREATE);
+
+      // a removed root isn't watched anymore while the kept one is
+      setRoots(Collections.singletonList(other.getPath()), Collections.<String>emptyList());
+      clearEvents();
+      FileUtil.writeToFile(new File(dir, "third.txt"), "text");
+      File last = new File(other, "last.txt");
+      FileUtil.writeToFile(last, "text");
+      waitForEvent(last, WatcherOp.CREATE);
+      synchronized (myEvents) {
+        for (Pair<String, WatcherOp> event : myEvents) {
+          assertFalse(event.toString(), FileUtil.isAncestor(dir.getPath(), event.first, false));
+        }
+      }
+    }
+    finally {
+      FileUtil.delete(other);
+    }
+  }
+
+  @Test
+  public void createDeleteStorm() throws Exception {
+    assumeTrue(SystemInfo.isLinux);
+
+    final List<File> dirs = new ArrayList<File>();
+    for (int i = 0; i < 10; i++) {
+      File dir = new File(myRoot, "dir" + i);
+      assertTrue(dir.mkdir());
+      dirs.add(dir);
+    }
+    watchRecursively(myRoot);
+
+    List<Thread> threads = new ArrayList<Thread>();
+    for (final File dir : dirs) {
+      threads.add(new Thread("storm " + dir.getName()) {
+        @Override
+        public void run() {
+          try {
+            for (int i = 0; i < 500; i++) {
+              File file = new File(dir, "file" + i);
+              FileUtil.writeToFile(file, "text");
+              FileUtil.delete(file);
+              File subDir = new File(dir, "sub" + (i % 10));
+              FileUtil.writeToFile(new File(subDir, "file" + i), "text");
+              if (i % 3 == 0) {
+                FileUtil.delete(subDir);
+              }
+            }
+          }
+          catch (IOException e) {
+            throw new RuntimeException(e);
+          }
+        }
+      });
+    }
+    for (Thread thread : threads) thread.start();
+    for (Thread thread : threads) thread.join();
+
+    for (File dir : dirs) {
+      waitForDirty(dir);
+      for (File subDir : dir.listFiles()) {
+        waitForDirty(subDir);
+      }
+    }
+
+    // the watcher is still operational after the storm
+    clearEvents();
+    File file = new File(dirs.get(0), "sub1/after.txt");
+    FileUtil.writeToFile(file, "text");
+    waitForDirty(file.getParentFile());
+  }
+
+  @Test
+  public void overflowReportsSubtreeDirty() throws Exception {
+    assumeTrue(SystemInfo.isLinux);
+
+    File dir = new File(myRoot, "dir");
+    assertTrue(dir.mkdir());
+    watchRecursively(myRoot);
+
+    // block the watcher while there are more events than a watch key can hold
+    myBlocker = new CountDownLatch(1);
+    FileUtil.writeToFile(new File(myRoot, "first.txt"), "text");
+    assertTrue(myBlocked.await(TIMEOUT, TimeUnit.MILLISECONDS));
+    for (int i = 0; i < 2000; i++) {
+      File file = new File(dir, "file" + i);
+      FileUtil.writeToFile(file, "text");
+      FileUtil.delete(file);
+    }
+    myBlocker.countDown();
+    myBlocker = null;
+
+    waitForEvent(dir, WatcherOp.RECDIRTY);
+  }
+
+  private void watchRecursively(File root) {
+    setRoots(Collections.singletonList(root.getPath()), Collections.<String>emptyList());
+    assertTrue(myUnwatchable.toString(), myUnwatchable.isEmpty());
+  }
+
+  private void setRoots(List<String> recursive, List<String> flat) {
+    myWatcher.setRoots(recursive, flat);
+    waitForRoots();
+  }
+
+  private void waitForRoots() {
+    long start = System.currentTimeMillis();
+    while (myWatcher.isSettingRoots()) {
+      assertTrue("roots are not set in time", System.currentTimeMillis() - start < TIMEOUT);
+      TimeoutUtil.sleep(10);
+    }
+  }
+
+  private void waitForEvent(File file, WatcherOp op) {
+    Pair<String, WatcherOp> event = Pair.create(file.getPath(), op);
+    long start = System.currentTimeMillis();
+    while (true) {
+      synchronized (myEvents) {
+        if (myEvents.contains(event)) return;
+        if (System.currentTimeMillis() - start > TIMEOUT) fail(op + " " + file + " not in " + myEvents);
+      }
+      TimeoutUtil.sleep(10);
+    }
+  }
+
+  /**
+   * Waits until the reported events make the directory (or its content) refreshed.
+   */
+  private void waitForDirty(File dir) {
+    long start = System.currentTimeMillis();
+    while (true) {
+      synchronized (myEvents) {
+        if (isDirty(dir)) return;
+        if (System.currentTimeMillis() - start > TIMEOUT) fail(dir + " is not reported dirty: " + myEvents);
+      }
+      TimeoutUtil.sleep(10);
+    }
+  }
+
+  private boolean isDirty(File dir) {
+    for (Pair<String, WatcherOp> event : myEvents) {
+      File file = new File(event.first);
+      switch (event.second) {
+        case RECDIRTY:
+          if (FileUtil.isAncestor(file, dir, false)) return true;
+          break;
+        case DIRTY:
+        case CHANGE:
+          if (FileUtil.filesEqual(file, dir)) return true;
+          break;
+        case CREATE:
+        case DELETE:
+          if (FileUtil.filesEqual(file.getParentFile(), dir)) return true;
+          break;
+        default:
+      }
+    }
+    return false;
+  }
+
+  private void clearEvents() {
+    synchronized (myEvents) {
+      myEvents.clear();
+    }
+  }
+}
@@ -16,25 +16,34 @@
 package com.intellij.openapi.vfs.local;
 
 import com.intellij.ide.GeneralSettings;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.util.SystemInfo;
 import com.intellij.openapi.util.io.FileAttributes;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.io.IoTestUtil;
 import com.intellij.openapi.vfs.*;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
 import com.intellij.openapi.vfs.newvfs.ManagingFS;
 import com.intellij.openapi.vfs.newvfs.NewVirtualFileSystem;
 import com.intellij.openapi.vfs.newvfs.RefreshQueue;
+import com.intellij.openapi.vfs.newvfs.events.VFileContentChangeEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileCreateEvent;
 import com.intellij.openapi.vfs.newvfs.events.VFileDeleteEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
 import com.intellij.openapi.vfs.newvfs.impl.VirtualDirectoryImpl;
 import com.intellij.openapi.vfs.newvfs.impl.VirtualFileSystemEntry;
 import com.intellij.openapi.vfs.newvfs.persistent.PersistentFS;
 import com.intellij.openapi.vfs.newvfs.persistent.PersistentFSImpl;
 import com.intellij.testFramework.PlatformLangTestCase;
 import com.intellij.testFramework.PlatformTestUtil;
+import com.intellij.util.messages.MessageBusConnection;
+import org.jetbrains.annotations.NotNull;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Locale;
 
 public class LocalFileSystemTest extends PlatformLangTestCase {
@@ -295,6 +304,59 @@ public class LocalFileSystemTest extends PlatformLangTestCase {
     checkChildCount(virtualDir, 2);
   }
 
+  public void testRecursiveRefreshOfDeepTree() throws Exception {
+    File testDir = FileUtil.createTempDirectory("RefreshTreeTest." + getName(), null);
+    for (int i = 0; i < 5; i++) {
+      for (int j = 0; j < 5; j++) {
+        FileUtil.writeToFile(new File(testDir, "d" + i + "/s" + j + "/f.txt"), "content");
+      }
+    }
+    VirtualFile virtualDir = LocalFileSystem.getInstance().refreshAndFindFileByIoFile(testDir);
+    assertNotNull(virtualDir);
+    loadChildrenRecursively(virtualDir);
+
+    FileUtil.writeToFile(new File(testDir, "d2/s2/f.txt"), "new content");
+    FileUtil.delete(new File(testDir, "d1/s1/f.txt"));
+    FileUtil.writeToFile(new File(testDir, "d0/s4/deep.txt"), "");
+    FileUtil.writeToFile(new File(testDir, "d3/new.txt"), "");
+
+    final String basePath = virtualDir.getPath();
+    final List<String> events = new ArrayList<String>();
+    MessageBusConnection connection = ApplicationManager.getApplication().getMessageBus().connect();
+    try {
+      connection.subscribe(VirtualFileManager.VFS_CHANGES, new BulkFileListener.Adapter() {
+        @Override
+        public void after(@NotNull List<? extends VFileEvent> fileEvents) {
+          for (VFileEvent event : fileEvents) {
+            String kind = event instanceof VFileCreateEvent ? "create" :
+                          event instanceof VFileDeleteEvent ? "delete" :
+                          event instanceof VFileContentChangeEvent ? "update" : event.getClass().getSimpleName();
+            events.add(kind + " " + FileUtil.getRelativePath(basePath, event.getPath(), '/'));
+          }
+        }
+      });
+      ((VirtualFileSystemEntry)virtualDir).markDirtyRecursively();
+      virtualDir.refresh(false, true);
+    }
+    finally {
+      connection.disconnect();
+    }
+
+    // directories are scanned level by level, so events come in the same order regardless of how the file system is read
+    assertEquals(Arrays.asList("create d3/new.txt", "create d0/s4/deep.txt", "delete d1/s1/f.txt", "update d2/s2/f.txt"), events);
+    assertNotNull(virtualDir.findFileByRelativePath("d0/s4/deep.txt"));
+    assertNull(virtualDir.findFileByRelativePath("d1/s1/f.txt"));
+    assertEquals("new content".length(), virtualDir.findFileByRelativePath("d2/s2/f.txt").getLength());
+  }
+
+  private static void loadChildrenRecursively(VirtualFile dir) {
+    for (VirtualFile child : dir.getChildren()) {
+      if (child.isDirectory()) {
+        loadChildrenRecursively(child);
+      }
+    }
+  }
+
   private static void checkChildCount(VirtualFile virtualDir, int expectedCount) {
     VirtualFile[] children = virtualDir.getChildren();
     if (children.length != expectedCount) {
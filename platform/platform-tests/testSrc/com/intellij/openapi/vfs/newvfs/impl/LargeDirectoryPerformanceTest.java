@@ -0,0 +1,119 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.vfs.newvfs.impl;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.testFramework.LightPlatformLangTestCase;
+import com.intellij.testFramework.PlatformTestUtil;
+import com.intellij.util.ThrowableRunnable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+public class LargeDirectoryPerformanceTest extends LightPlatformLangTestCase {
+  private static final int SIZE = 50000;
+
+  private VirtualDirectoryImpl myParent;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    final File dir = FileUtil.createTempDirectory("LargeDirectory", "");
+    disposeOnTearDown(new Disposable() {
+      @Override
+      public void dispose() {
+        FileUtil.delete(dir);
+      }
+    });
+    myParent = (VirtualDirectoryImpl)LocalFileSystem.getInstance().refreshAndFindFileByIoFile(dir);
+    assertNotNull(myParent);
+  }
+
+  public void testBulkInsert() throws Exception {
+    PlatformTestUtil.startPerformanceTest("Inserting children of a large directory is too slow", 2000, new ThrowableRunnable() {
+      @Override
+      public void run() {
+        VirtualDirectoryImpl dir = createDirectory();
+        for (int i = 0; i < SIZE; i++) {
+          dir.addChild(new VirtualFileImpl(name(i), dir, i + 1, 0));
+        }
+        for (int i = 0; i < SIZE; i += 2) {
+          VirtualFile child = dir.findChildIfCached(name(i));
+          assertNotNull(child);
+          dir.removeChild(child);
+        }
+        assertEquals(SIZE / 2, dir.getCachedChildren().size());
+      }
+    }).cpuBound().assertTiming();
+  }
+
+  public void testLookups() throws Exception {
+    final VirtualDirectoryImpl dir = createDirectory();
+    for (int i = 0; i < SIZE; i++) {
+      dir.addChild(new VirtualFileImpl(name(i), dir, i + 1, 0));
+    }
+
+    PlatformTestUtil.startPerformanceTest("Lookups in a large directory are too slow", 2000, new ThrowableRunnable() {
+      @Override
+      public void run() {
+        Random random = new Random(42);
+        for (int i = 0; i < 1000000; i++) {
+          assertNotNull(dir.findChildIfCached(name(random.nextInt(SIZE))));
+        }
+      }
+    }).cpuBound().assertTiming();
+  }
+
+  public void testLargeDirectoryChildren() throws IOException {
+    VirtualDirectoryImpl dir = createDirectory();
+    for (int i = SIZE / 10 - 1; i >= 0; i--) {
+      dir.addChild(new VirtualFileImpl(name(i), dir, i + 1, 0));
+    }
+
+    List<VirtualFile> children = dir.getCachedChildren();
+    assertEquals(SIZE / 10, children.size());
+    for (int i = 1; i < children.size(); i++) {
+      VirtualFileSystemEntry child = (VirtualFileSystemEntry)children.get(i);
+      assertTrue(child.compareNameTo(children.get(i - 1).getName(), false) > 0);
+    }
+
+    VirtualFileSystemEntry child = (VirtualFileSystemEntry)dir.findChildIfCached(name(1));
+    assertNotNull(child);
+    child.setNewName("renamed.txt");
+    assertNull(dir.findChildIfCached(name(1)));
+    assertSame(child, dir.findChildIfCached("renamed.txt"));
+    assertSame(child, dir.findChildById(2, true));
+    assertTrue(dir.getSuspiciousNames().contains(name(1)));
+
+    dir.removeChild(child);
+    assertNull(dir.findChildIfCached("renamed.txt"));
+    assertEquals(SIZE / 10 - 1, dir.getCachedChildren().size());
+  }
+
+  private VirtualDirectoryImpl createDirectory() {
+    // the directory is not persisted, it only keeps cached children
+    return new VirtualDirectoryImpl("large", myParent, myParent.getFileSystem(), myParent.getId(), 0);
+  }
+
+  private static String name(int i) {
+    return "Generated" + i + ".java";
+  }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.vfs.newvfs.persistent;
+
+import com.intellij.openapi.util.io.ByteSequence;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.testFramework.LightPlatformTestCase;
+import com.intellij.util.containers.IntArrayList;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+
+public class FSRecordsContentTest extends LightPlatformTestCase {
+  private final IntArrayList myRecords = new IntArrayList();
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      for (int i = 0; i < myRecords.size(); i++) {
+        FSRecords.deleteRecordRecursively(myRecords.get(i));
+      }
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testIdenticalContentShared() throws IOException {
+    byte[] content = uniqueContent("a");
+    int file1 = createFile(content);
+    int file2 = createFile(content);
+    assertEquals(FSRecords.getContentId(file1), FSRecords.getContentId(file2));
+    assertContent(content, file2);
+
+    byte[] changed = uniqueContent("b");
+    FSRecords.writeContent(file1, new ByteSequence(changed), false);
+    assertFalse(FSRecords.getContentId(file1) == FSRecords.getContentId(file2));
+    assertContent(changed, file1);
+    assertContent(content, file2);
+  }
+
+  public void testRewritingSameContentKeepsRecord() throws IOException {
+    byte[] content = uniqueContent("a");
+    int file = createFile(content);
+    int contentId = FSRecords.getContentId(file);
+    FSRecords.writeContent(file, new ByteSequence(content), false);
+    assertEquals(contentId, FSRecords.getContentId(file));
+
+    FSRecords.writeContent(file, new ByteSequence(uniqueContent("b")), false);
+    FSRecords.writeContent(file, new ByteSequence(content), false);
+    assertContent(content, file);
+  }
+
+  public void testUnlinkedContentShared() throws IOException {
+    byte[] content = uniqueContent("a");
+    int contentId = FSRecords.storeUnlinkedContent(content);
+    int file = createFile(content);
+    assertEquals(contentId, FSRecords.getContentId(file));
+    assertEquals(contentId, FSRecords.storeUnlinkedContent(content));
+
+    FSRecords.releaseContent(contentId);
+    FSRecords.releaseContent(contentId);
+    assertContent(content, file);
+  }
+
+  public void testReleasedRecordNotShared() throws IOException {
+    byte[] content = uniqueContent("a");
+    int contentId = FSRecords.storeUnlinkedContent(content);
+    FSRecords.releaseContent(contentId);
+
+    // the released record may be reused for another content, the first content must not be found in it
+    byte[] other = uniqueContent("b");
+    int otherId = FSRecords.storeUnlinkedContent(other);
+    int file = createFile(content);
+    assertFalse(otherId == FSRecords.getContentId(file));
+    assertContent(content, file);
+    assertContent(other, FSRecords.readContentById(otherId));
+    FSRecords.releaseContent(otherId);
+  }
+
+  public void testContentReleasedWithFile() throws IOException {
+    byte[] content = uniqueContent("a");
+    int file = createFile(content);
+    int contentId = FSRecords.acquireFileContent(file);
+    FSRecords.deleteRecordRecursively(file);
+    myRecords.remove(myRecords.size() - 1);
+
+    // the acquired reference keeps the content alive and findable
+    assertContent(content, FSRecords.readContentById(contentId));
+    int file2 = createFile(content);
+    assertEquals(contentId, FSRecords.getContentId(file2));
+    FSRecords.releaseContent(contentId);
+    assertContent(content, file2);
+  }
+
+  private int createFile(byte[] content) throws IOException {
+    int file = FSRecords.createRecord();
+    myRecords.add(file);
+    FSRecords.writeContent(file, new ByteSequence(content), false);
+    return file;
+  }
+
+  private byte[] uniqueContent(String suffix) {
+    return (getName() + System.nanoTime() + suffix).getBytes();
+  }
+
+  private static void assertContent(byte[] expected, int fileId) throws IOException {
+    assertContent(expected, FSRecords.readContent(fileId));
+  }
+
+  private static void assertContent(byte[] expected, DataInputStream stream) throws IOException {
+    assertNotNull(stream);
+    try {
+      assertEquals(new String(expected), new String(FileUtil.loadBytes(stream)));
+    }
+    finally {
+      stream.close();
+    }
+  }
+}
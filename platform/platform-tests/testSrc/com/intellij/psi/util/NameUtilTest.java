@@ -30,6 +30,7 @@ import org.jetbrains.annotations.NonNls;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 /**
  * @author max
@@ -428,6 +429,23 @@ public class NameUtilTest extends UsefulTestCase {
                         TextRange.from(0, 2));
   }
 
+  public void testExactPrefixIsTheOnlyFragment() {
+    // such names are matched and scored without searching for fragments, so the search must agree
+    for (String name : new String[]{"getCurrentUser", "getCUser", "NPE", "NPException", "_test", "foo.bar.Baz", "FOO_BAR", "a b c", "URLClassLoader"}) {
+      for (int length = 1; length <= name.length(); length++) {
+        String pattern = name.substring(0, length);
+        if (pattern.endsWith(" ")) continue;
+        for (NameUtil.MatchingCaseSensitivity options : NameUtil.MatchingCaseSensitivity.values()) {
+          MinusculeMatcher matcher = new MinusculeMatcher(pattern, options);
+          assertTrue(pattern + " " + name, matcher.matches(name));
+          assertTrue(pattern + " " + name, matcher.isStartMatch(name));
+          assertOrderedEquals(pattern + " " + name, matcher.matchingFragments(name), TextRange.from(0, length));
+        }
+      }
+    }
+    assertPreference("getCU", "getCurrentUser", "getCUser");
+  }
+
   public void testMatchingFragmentsSorted() {
     @NonNls String sample = "SWUPGRADEHDLRFSPR7TEST";
     //                       0        9  12
@@ -560,6 +578,45 @@ public class NameUtilTest extends UsefulTestCase {
     }).cpuBound().assertTiming();
   }
 
+  public void testIdentifierCorpusPerformance() {
+    final List<String> names = generateIdentifiers(100000);
+    final List<MinusculeMatcher> matchers = new ArrayList<MinusculeMatcher>();
+    for (String s : ContainerUtil.ar("St", "AbstMF", "getVal", "*Manager", "*impl", "SMM", "qqq", "ConfigurableProviderImpl")) {
+      matchers.add(new MinusculeMatcher(s, NameUtil.MatchingCaseSensitivity.NONE));
+    }
+
+    PlatformTestUtil.startPerformanceTest("Matching identifiers is slow", 1500, new ThrowableRunnable() {
+      @Override
+      public void run() {
+        for (int i = 0; i < 5; i++) {
+          for (MinusculeMatcher matcher : matchers) {
+            for (String name : names) {
+              if (matcher.matches(name)) {
+                matcher.matchingDegree(name);
+              }
+            }
+          }
+        }
+      }
+    }).cpuBound().assertTiming();
+  }
+
+  private static List<String> generateIdentifiers(int count) {
+    String[] words = {"Abstract", "Base", "Config", "Configurable", "Default", "Editor", "Factory", "File", "get", "Impl", "Java", "List",
+      "Manager", "Model", "Node", "Provider", "Psi", "Ref", "Service", "set", "State", "String", "Util", "Value", "Virtual", "_", "2"};
+    Random random = new Random(239);
+    List<String> result = new ArrayList<String>(count);
+    for (int i = 0; i < count; i++) {
+      StringBuilder name = new StringBuilder();
+      int wordCount = 1 + random.nextInt(5);
+      for (int j = 0; j < wordCount; j++) {
+        name.append(words[random.nextInt(words.length)]);
+      }
+      result.add(name.toString());
+    }
+    return result;
+  }
+
   public void testOnlyUnderscoresPerformance() {
     PlatformTestUtil.startPerformanceTest("Matcher is exponential", 300, new ThrowableRunnable() {
       @Override
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.diff;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.testFramework.PlatformTestUtil;
+import com.intellij.util.ArrayUtil;
+import com.intellij.util.ThrowableRunnable;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class DiffPerformanceTest extends TestCase {
+  public void testMillionLines() throws Exception {
+    // a lock file like input: a lot of similar short lines
+    Random random = new Random(42);
+    final String[] first = new String[1000000];
+    for (int i = 0; i < first.length; i++) {
+      first[i] = i % 4 == 0 ? "  version: " + random.nextInt(100) : i % 4 == 1 ? "  resolved: " + i / 4 : "}";
+    }
+    final String[] second = edit(random, first, 1000);
+
+    PlatformTestUtil.startPerformanceTest("Diff of 1M lines is too slow", 2000, new ThrowableRunnable() {
+      @Override
+      public void run() throws Exception {
+        Diff.buildChanges(first, second);
+      }
+    }).cpuBound().assertTiming();
+  }
+
+  public void testSeparatedLines() throws Exception {
+    // unique lines followed by the same separator, with lines inserted between them
+    final List<String> first = new ArrayList<String>();
+    final List<String> second = new ArrayList<String>();
+    for (int i = 0; i < 100000; i++) {
+      first.add("line " + i);
+      first.add("}");
+      second.add("line " + i);
+      second.add("}");
+      second.add("inserted " + i);
+      second.add("}");
+    }
+
+    PlatformTestUtil.startPerformanceTest("Diff of separated lines is too slow", 1000, new ThrowableRunnable() {
+      @Override
+      public void run() throws Exception {
+        Diff.buildChanges(first.toArray(), second.toArray());
+      }
+    }).cpuBound().assertTiming();
+  }
+
+  public void testSchemaRevisions() throws Exception {
+    // two revisions of the same 14K lines schema
+    String path = PlatformTestUtil.getCommunityPath() + "/xml/tests/testData/xml/";
+    final String before = FileUtil.loadFile(new File(path + "ComplexSchemaValidation18.xsd"));
+    final String after = FileUtil.loadFile(new File(path + "ComplexSchemaValidation19.xsd"));
+
+    PlatformTestUtil.startPerformanceTest("Diff of schema revisions is too slow", 300, new ThrowableRunnable() {
+      @Override
+      public void run() throws Exception {
+        assertNotNull(Diff.buildChanges(before, after));
+      }
+    }).cpuBound().assertTiming();
+  }
+
+  private static String[] edit(Random random, String[] lines, int edits) {
+    List<String> result = new ArrayList<String>();
+    Collections.addAll(result, lines);
+    for (int i = 0; i < edits; i++) {
+      int index = random.nextInt(result.size());
+      int length = Math.min(1 + random.nextInt(5), result.size() - index);
+      switch (random.nextInt(3)) {
+        case 0:
+          result.subList(index, index + length).clear();
+          break;
+        case 1:
+          result.add(index, "inserted " + i);
+          break;
+        default:
+          List<String> moved = new ArrayList<String>(result.subList(index, index + length));
+          result.subList(index, index + length).clear();
+          result.addAll(random.nextInt(result.size() + 1), moved);
+      }
+    }
+    return ArrayUtil.toStringArray(result);
+  }
+}
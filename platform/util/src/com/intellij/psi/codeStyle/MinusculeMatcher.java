@@ -21,6 +21,7 @@ import com.intellij.util.containers.FList;
 import com.intellij.util.io.IOUtil;
 import com.intellij.util.text.CharArrayUtil;
 import com.intellij.util.text.Matcher;
+import gnu.trove.TIntArrayList;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -49,6 +50,7 @@ public class MinusculeMatcher implements Matcher {
   private final char[] toUpperCase;
   private final char[] toLowerCase;
   private final boolean myHasWildCards;
+  private final int[] myMeaningfulCharIndices;
 
   public MinusculeMatcher(@NotNull String pattern, @NotNull NameUtil.MatchingCaseSensitivity options) {
     myOptions = options;
@@ -71,6 +73,17 @@ public class MinusculeMatcher implements Matcher {
     myHasHumps = hasFlag(i + 1, isUpperCase) && hasFlag(i + 1, isLowerCase);
     myHasDots = hasDots(i);
     myHasWildCards = hasWildCards();
+    myMeaningfulCharIndices = getMeaningfulCharIndices();
+  }
+
+  private int[] getMeaningfulCharIndices() {
+    TIntArrayList result = new TIntArrayList(myPattern.length);
+    for (int i = 0; i < myPattern.length; i++) {
+      if (!isWildcard(i)) {
+        result.add(i);
+      }
+    }
+    return result.toNativeArray();
   }
 
   private boolean hasWildCards() {
@@ -109,23 +122,35 @@ public class MinusculeMatcher implements Matcher {
   }
 
   public int matchingDegree(@NotNull String name) {
-    Iterable<TextRange> iterable = matchingFragments(name);
-    if (iterable == null) return Integer.MIN_VALUE;
+    if (isExactPrefix(name)) {
+      return matchingDegree(name, 0, myPattern.length, null);
+    }
+
+    FList<TextRange> fragments = matchingFragments(name);
+    if (fragments == null) return Integer.MIN_VALUE;
+
+    TextRange first = fragments.getHead();
+    if (first == null) {
+      return 0;
+    }
+    return matchingDegree(name, first.getStartOffset(), first.getEndOffset(), fragments.getTail().iterator());
+  }
 
+  /**
+   * @param otherFragments the fragments after the first one, or null if there are none
+   */
+  private int matchingDegree(@NotNull String name, int firstStart, int firstEnd, @Nullable Iterator<TextRange> otherFragments) {
     int fragmentCount = 0;
     int matchingCase = 0;
     int p = -1;
-    TextRange first = null;
 
     int integral = 0; // sum of matching-character-count * hump-index over all matched humps; favors longer fragments matching earlier words
     int humpIndex = 0;
     int nextHumpStart = name.isEmpty() ? 0: NameUtil.nextWord(name, 0);
-    for (TextRange range : iterable) {
-      if (first == null) {
-        first = range;
-      }
-
-      for (int i = range.getStartOffset(); i < range.getEndOffset(); i++) {
+    int start = firstStart;
+    int end = firstEnd;
+    while (true) {
+      for (int i = start; i < end; i++) {
         while (nextHumpStart < i) {
           nextHumpStart = NameUtil.nextWord(name, nextHumpStart);
           humpIndex++;
@@ -137,15 +162,16 @@ public class MinusculeMatcher implements Matcher {
         if (p < 0) {
           break;
         }
-        if (isUpperCase[p] || i == range.getStartOffset()) {
+        if (isUpperCase[p] || i == start) {
           matchingCase += c == myPattern[p] ? 1 : 0;
         }
       }
       fragmentCount++;
-    }
 
-    if (first == null) {
-      return 0;
+      if (otherFragments == null || !otherFragments.hasNext()) break;
+      TextRange range = otherFragments.next();
+      start = range.getStartOffset();
+      end = range.getEndOffset();
     }
 
 
@@ -157,7 +183,7 @@ public class MinusculeMatcher implements Matcher {
       commonStart++;
     }
 
-    int startIndex = first.getStartOffset();
+    int startIndex = firstStart;
     boolean prefixMatching = isStartMatch(name, startIndex);
     boolean middleWordStart = !prefixMatching && startIndex > 0 && NameUtil.isWordStart(name, startIndex) && !NameUtil.isWordStart(name, startIndex - 1);
 
@@ -165,6 +191,8 @@ public class MinusculeMatcher implements Matcher {
   }
 
   public boolean isStartMatch(@NotNull String name) {
+    if (isExactPrefix(name)) return true;
+
     Iterable<TextRange> fragments = matchingFragments(name);
     if (fragments != null) {
       Iterator<TextRange> iterator = fragments.iterator();
@@ -189,11 +217,26 @@ public class MinusculeMatcher implements Matcher {
     // optimisation: name too short for this pattern
     if (!myHasWildCards && name.length() < myPattern.length) return false;
 
-    return matchingFragments(name) != null;
+    return isExactPrefix(name) || matchingFragments(name) != null;
+  }
+
+  /**
+   * The most common match when typing: the name starts with the pattern as is. Its only fragment is the pattern itself,
+   * so it's matched and scored without the recursive search and fragment lists.
+   */
+  private boolean isExactPrefix(@NotNull String name) {
+    if (myHasWildCards || myPattern.length == 0 || name.length() < myPattern.length) return false;
+
+    for (int i = 0; i < myPattern.length; i++) {
+      if (name.charAt(i) != myPattern[i]) return false;
+    }
+    return true;
   }
 
   @Nullable
   public FList<TextRange> matchingFragments(@NotNull String name) {
+    if (!containsPatternCharsInOrder(name)) return null;
+
     MatchingState state = myMatchingState.get();
     state.initializeState(name);
     FList<TextRange> result = matchWildcards(name, 0, 0, state);
@@ -201,6 +244,26 @@ public class MinusculeMatcher implements Matcher {
     return result;
   }
 
+  /**
+   * A necessary condition for any match: every non-wildcard pattern character occurs in the name after the previous one, ignoring case.
+   * It's checked without allocations and rejects most of the non-matching names before the full (recursive) matching.
+   */
+  private boolean containsPatternCharsInOrder(@NotNull String name) {
+    int nameIndex = 0;
+    int nameLength = name.length();
+    for (int patternIndex : myMeaningfulCharIndices) {
+      char p = myPattern[patternIndex];
+      while (nameIndex < nameLength && !charEquals(p, patternIndex, name.charAt(nameIndex), true)) {
+        nameIndex++;
+      }
+      if (nameIndex == nameLength) {
+        return false;
+      }
+      nameIndex++;
+    }
+    return true;
+  }
+
   /**
    * After a wildcard (* or space), search for the first non-wildcard pattern character in the name starting from nameIndex
    * and try to {@link #matchFragment(String, int, int, com.intellij.psi.codeStyle.MinusculeMatcher.MatchingState)} for it.
@@ -54,10 +54,10 @@ public class Diff {
     int[] ints2 = enumerator.enumerate(objects2, startShift, endCut);
     Reindexer reindexer = new Reindexer();
     int[][] discarded = reindexer.discardUnique(ints1, ints2);
-    IntLCS intLCS = new IntLCS(discarded[0], discarded[1]);
-    intLCS.execute();
+    HistogramLCS lcs = new HistogramLCS(discarded[0], discarded[1]);
+    lcs.execute();
     ChangeBuilder builder = new ChangeBuilder(startShift);
-    reindexer.reindex(intLCS.getPaths(), builder);
+    reindexer.reindex(lcs.getChanges(), builder);
     return builder.getFirstChange();
   }
 
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.diff;
+
+import gnu.trove.TIntArrayList;
+
+import java.util.Arrays;
+
+/**
+ * Histogram diff: the sequences are split around the longest common region which contains the element occurring least
+ * frequently in the first one, then both parts are split the same way. Regions small enough are compared by {@link IntLCS}.
+ * <p/>
+ * Needs memory linear in the size of the input, so unlike {@link IntLCS} it can compare sequences of any length.
+ * When a region can be neither split nor compared by {@link IntLCS}, it's considered changed as a whole.
+ * <p/>
+ * Splitting takes quadratic time when every split separates only a few elements (e.g. unique lines followed by the same
+ * separator line, with lines inserted between them), so the total work is limited. When the limit is reached, the remaining
+ * regions are only trimmed by their common prefix and suffix.
+ */
+class HistogramLCS {
+  private static final int SMALL_REGION = 2000;
+  // elements occurring more often are not used to split regions
+  private static final int MAX_OCCURRENCES = 64;
+  private static final int WORK_PER_ELEMENT = 100;
+  private static final long MIN_WORK = 10000000;
+  // about as much as IntLCS does before it gives up
+  private static final long FAILED_COMPARISON_WORK = 10000000;
+
+  private final int[] myFirst;
+  private final int[] mySecond;
+  private final boolean[] myChanges1;
+  private final boolean[] myChanges2;
+
+  // indexed by elements, zero for all elements except the ones of the region being split
+  private final int[] myOccurrences;
+  private final int[] myLastIndex;
+  // indexed by positions in the first sequence: previous position of the same element in the region
+  private final int[] myPrevIndex;
+
+  private final long myMaxWork;
+  private long myWork;
+  private boolean myIncomplete;
+
+  public HistogramLCS(int[] first, int[] second) {
+    this(first, second, Math.max(MIN_WORK, (long)(first.length + second.length) * WORK_PER_ELEMENT));
+  }
+
+  HistogramLCS(int[] first, int[] second, long maxWork) {
+    myMaxWork = maxWork;
+    myFirst = first;
+    mySecond = second;
+    myChanges1 = new boolean[first.length];
+    myChanges2 = new boolean[second.length];
+
+    int max = 0;
+    for (int each : first) max = Math.max(max, each);
+    for (int each : second) max = Math.max(max, each);
+    myOccurrences = new int[max + 1];
+    myLastIndex = new int[max + 1];
+    myPrevIndex = new int[first.length];
+  }
+
+  public void execute() {
+    Arrays.fill(myChanges1, true);
+    Arrays.fill(myChanges2, true);
+
+    TIntArrayList regions = new TIntArrayList();
+    addRegion(regions, 0, myFirst.length, 0, mySecond.length);
+    while (!regions.isEmpty()) {
+      int size = regions.size();
+      int end2 = regions.remove(size - 1);
+      int start2 = regions.remove(size - 2);
+      int end1 = regions.remove(size - 3);
+      int start1 = regions.remove(size - 4);
+      if (myWork < myMaxWork) {
+        split(regions, start1, end1, start2, end2);
+      }
+      else {
+        myIncomplete = true;
+        trim(start1, end1, start2, end2);
+      }
+    }
+  }
+
+  /**
+   * @return false if the work limit was reached and some regions were only trimmed
+   */
+  public boolean isComplete() {
+    return !myIncomplete;
+  }
+
+  /**
+   * @return positions of the first and of the second sequence which are not a part of their common subsequence
+   */
+  public boolean[][] getChanges() {
+    return new boolean[][]{myChanges1, myChanges2};
+  }
+
+  private static void addRegion(TIntArrayList regions, int start1, int end1, int start2, int end2) {
+    if (start1 == end1 || start2 == end2) return;
+    regions.add(start1);
+    regions.add(end1);
+    regions.add(start2);
+    regions.add(end2);
+  }
+
+  private void split(TIntArrayList regions, int start1, int end1, int start2, int end2) {
+    if (end1 - start1 + end2 - start2 <= SMALL_REGION) {
+      compareSmallRegion(start1, end1, start2, end2);
+      return;
+    }
+
+    while (start1 < end1 && start2 < end2 && myFirst[start1] == mySecond[start2]) {
+      setEqual(start1++, start2++);
+    }
+    while (start1 < end1 && start2 < end2 && myFirst[end1 - 1] == mySecond[end2 - 1]) {
+      setEqual(--end1, --end2);
+    }
+    if (start1 == end1 || start2 == end2) return;
+
+    myWork += end1 - start1 + end2 - start2;
+    for (int i = start1; i < end1; i++) {
+      int element = myFirst[i];
+      myPrevIndex[i] = myOccurrences[element] == 0 ? -1 : myLastIndex[element];
+      myLastIndex[element] = i;
+      myOccurrences[element]++;
+    }
+
+    int bestStart1 = -1;
+    int bestStart2 = -1;
+    int bestLength = 0;
+    int bestOccurrences = MAX_OCCURRENCES;
+    for (int j = start2; j < end2; ) {
+      int element = mySecond[j];
+      int occurrences = myOccurrences[element];
+      int next = j + 1;
+      if (occurrences != 0 && occurrences <= bestOccurrences) {
+        for (int i = myLastIndex[element]; i != -1; i = myPrevIndex[i]) {
+          int regionStart1 = i;
+          int regionStart2 = j;
+          int regionEnd1 = i + 1;
+          int regionEnd2 = j + 1;
+          int regionOccurrences = occurrences;
+          while (regionStart1 > start1 && regionStart2 > start2 && myFirst[regionStart1 - 1] == mySecond[regionStart2 - 1]) {
+            regionStart1--;
+            regionStart2--;
+            regionOccurrences = Math.min(regionOccurrences, myOccurrences[myFirst[regionStart1]]);
+          }
+          while (regionEnd1 < end1 && regionEnd2 < end2 && myFirst[regionEnd1] == mySecond[regionEnd2]) {
+            regionOccurrences = Math.min(regionOccurrences, myOccurrences[myFirst[regionEnd1]]);
+            regionEnd1++;
+            regionEnd2++;
+          }
+
+          if (regionEnd1 - regionStart1 > bestLength || regionOccurrences < bestOccurrences) {
+            bestStart1 = regionStart1;
+            bestStart2 = regionStart2;
+            bestLength = regionEnd1 - regionStart1;
+            bestOccurrences = regionOccurrences;
+          }
+          next = Math.max(next, regionEnd2);
+        }
+      }
+      j = next;
+    }
+
+    for (int i = start1; i < end1; i++) {
+      myOccurrences[myFirst[i]] = 0;
+    }
+
+    if (bestStart1 == -1) {
+      compareSmallRegion(start1, end1, start2, end2);
+      return;
+    }
+
+    for (int k = 0; k < bestLength; k++) {
+      setEqual(bestStart1 + k, bestStart2 + k);
+    }
+    addRegion(regions, start1, bestStart1, start2, bestStart2);
+    addRegion(regions, bestStart1 + bestLength, end1, bestStart2 + bestLength, end2);
+  }
+
+  private void compareSmallRegion(int start1, int end1, int start2, int end2) {
+    IntLCS lcs = new IntLCS(Arrays.copyOfRange(myFirst, start1, end1), Arrays.copyOfRange(mySecond, start2, end2));
+    int steps;
+    try {
+      steps = lcs.execute();
+    }
+    catch (FilesTooBigForDiffException e) {
+      myWork += FAILED_COMPARISON_WORK;
+      return;
+    }
+    myWork += (long)(end1 - start1 + end2 - start2) * (steps + 1);
+
+    boolean[][] changes = lcs.getChanges();
+    System.arraycopy(changes[0], 0, myChanges1, start1, end1 - start1);
+    System.arraycopy(changes[1], 0, myChanges2, start2, end2 - start2);
+  }
+
+  private void trim(int start1, int end1, int start2, int end2) {
+    while (start1 < end1 && start2 < end2 && myFirst[start1] == mySecond[start2]) {
+      setEqual(start1++, start2++);
+    }
+    while (start1 < end1 && start2 < end2 && myFirst[end1 - 1] == mySecond[end2 - 1]) {
+      setEqual(--end1, --end2);
+    }
+  }
+
+  private void setEqual(int index1, int index2) {
+    myChanges1[index1] = false;
+    myChanges2[index2] = false;
+  }
+}
@@ -95,6 +95,13 @@ class IntLCS {
     return myPathsMatrix;
   }
 
+  /**
+   * @return positions of the first and of the second sequence which are not a part of the found common subsequence
+   */
+  public boolean[][] getChanges() {
+    return myPathsMatrix.getChanges();
+  }
+
   private int findDiagonalEnd(int prevDiagonal, int prevEnd, boolean isVertical) {
     int x = prevEnd;
     int y = x - prevDiagonal;
@@ -15,6 +15,8 @@
  */
 package com.intellij.util.diff;
 
+import java.util.Arrays;
+
 /**
  * @author dyoma
  */
@@ -47,6 +49,36 @@ final class LinkedDiffPaths {
     return builder;
   }
 
+  /**
+   * @return positions of the first and of the second sequence which are not a part of the common subsequence the path encodes
+   */
+  public boolean[][] getChanges() {
+    final boolean[] changes1 = new boolean[getXSize()];
+    final boolean[] changes2 = new boolean[getYSize()];
+    Arrays.fill(changes1, true);
+    Arrays.fill(changes2, true);
+    decodePath(new LCSBuilder() {
+      // the path is decoded from the end
+      private int x = changes1.length;
+      private int y = changes2.length;
+
+      @Override
+      public void addChange(int first, int second) {
+        x -= first;
+        y -= second;
+      }
+
+      @Override
+      public void addEqual(int length) {
+        for (int i = 0; i < length; i++) {
+          changes1[--x] = false;
+          changes2[--y] = false;
+        }
+      }
+    });
+    return new boolean[][]{changes1, changes2};
+  }
+
   public int getXSize() {
     return myMaxX + 1;
   }
@@ -70,36 +70,26 @@ class Reindexer {
   }
 
   public void reindex(LinkedDiffPaths paths, LCSBuilder builder) {
-    final boolean[] changes1 = new boolean[myOriginalLengths[0]];
-    final boolean[] changes2 = new boolean[myOriginalLengths[1]];
-    Arrays.fill(changes1, true);
-    Arrays.fill(changes2, true);
-    paths.decodePath(new LCSBuilder() {
-      private int x = myOldIndecies[0].length - 1;
-      private int y = myOldIndecies[1].length - 1;
-      private int originalX = myOriginalLengths[0] - 1;
-      private int originalY = myOriginalLengths[1] - 1;
+    reindex(paths.getChanges(), builder);
+  }
 
-      public void addChange(int first, int second) {
-        x -= first;
-        y -= second;
-        originalX = markChanged(changes1, originalX, myOldIndecies[0], x);
-        originalY = markChanged(changes2, originalY, myOldIndecies[1], y);
-      }
+  /**
+   * @param discardedChanges positions of the arrays returned by {@link #discardUnique} which are not a part of their common subsequence
+   */
+  public void reindex(boolean[][] discardedChanges, LCSBuilder builder) {
+    buildChanges(restoreChanges(discardedChanges[0], 0), restoreChanges(discardedChanges[1], 1), builder);
+  }
 
-      public void addEqual(int length) {
-        for (int i = length; i > 0; i--) {
-          originalX = markChanged(changes1, originalX, myOldIndecies[0], x);
-          originalY = markChanged(changes2, originalY, myOldIndecies[1], y);
-          x--;
-          y--;
-          changes1[originalX] = false;
-          changes2[originalY] = false;
-          originalX--;
-          originalY--;
-        }
-      }
-    });
+  private boolean[] restoreChanges(boolean[] discardedChanges, int array) {
+    boolean[] changes = new boolean[myOriginalLengths[array]];
+    Arrays.fill(changes, true);
+    for (int i = 0; i < discardedChanges.length; i++) {
+      if (!discardedChanges[i]) changes[myOldIndecies[array][i]] = false;
+    }
+    return changes;
+  }
+
+  private static void buildChanges(boolean[] changes1, boolean[] changes2, LCSBuilder builder) {
     int x = 0;
     int y = 0;
     while (x < changes1.length && y < changes2.length) {
@@ -124,10 +114,4 @@ class Reindexer {
     if (x != changes1.length || y != changes2.length)
       builder.addChange(changes1.length - x, changes2.length - y);
   }
-
-  private int markChanged(final boolean[] changes, int from, int[] oldIndecies, int newTo) {
-    int oldTo = newTo != -1 ? oldIndecies[newTo] : -1;
-    for (int i = from; i > oldTo; i--) changes[i] = true;
-    return oldTo;
-  }
 }
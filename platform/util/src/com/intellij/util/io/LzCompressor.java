@@ -0,0 +1,196 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.io;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Pure Java LZ77 compressor producing data in LZ4 block format. It compresses worse than Deflate but both compression and
+ * especially decompression are several times faster, so it suits caches which are read much more often than written.
+ * <p/>
+ * The block doesn't contain length of uncompressed data, callers must store it themselves.
+ */
+public class LzCompressor {
+  private static final int MIN_MATCH = 4;
+  private static final int HASH_LOG = 12;
+  private static final int MAX_DISTANCE = 0xFFFF;
+  private static final int LAST_LITERALS = 5;
+  private static final int MATCH_FIND_LIMIT = 12;
+  private static final int SKIP_TRIGGER = 6;
+  private static final int RUN_MASK = 0x0F;
+
+  private LzCompressor() {
+  }
+
+  public static int maxCompressedLength(int length) {
+    return length + length / 255 + 16;
+  }
+
+  /**
+   * @param dest array with at least {@link #maxCompressedLength(int) maxCompressedLength(srcLen)} bytes available from {@code destOff}
+   * @return number of bytes written to {@code dest}
+   */
+  public static int compress(byte[] src, int srcOff, int srcLen, byte[] dest, int destOff) {
+    final int srcEnd = srcOff + srcLen;
+    final int matchLimit = srcEnd - LAST_LITERALS;
+    final int findLimit = srcEnd - MATCH_FIND_LIMIT;
+    int ip = srcOff;
+    int anchor = srcOff;
+    int op = destOff;
+
+    if (srcLen > MATCH_FIND_LIMIT) {
+      final int[] table = new int[1 << HASH_LOG];
+      Arrays.fill(table, -1);
+      while (ip < findLimit) {
+        final int sequence = readInt(src, ip);
+        final int hash = hash(sequence);
+        int ref = table[hash];
+        table[hash] = ip;
+        if (ref < 0 || ip - ref > MAX_DISTANCE || readInt(src, ref) != sequence) {
+          ip += 1 + ((ip - anchor) >>> SKIP_TRIGGER);
+          continue;
+        }
+
+        while (ip > anchor && ref > srcOff && src[ip - 1] == src[ref - 1]) {
+          ip--;
+          ref--;
+        }
+        int matchLength = MIN_MATCH;
+        while (ip + matchLength < matchLimit && src[ip + matchLength] == src[ref + matchLength]) {
+          matchLength++;
+        }
+
+        op = writeSequence(src, anchor, ip - anchor, ip - ref, matchLength - MIN_MATCH, dest, op);
+        ip += matchLength;
+        anchor = ip;
+        if (ip - 2 < findLimit) {
+          table[hash(readInt(src, ip - 2))] = ip - 2;
+        }
+      }
+    }
+
+    final int literalsLength = srcEnd - anchor;
+    final int tokenOffset = op++;
+    dest[tokenOffset] = (byte)(Math.min(literalsLength, RUN_MASK) << 4);
+    if (literalsLength >= RUN_MASK) {
+      op = writeLength(literalsLength - RUN_MASK, dest, op);
+    }
+    System.arraycopy(src, anchor, dest, op, literalsLength);
+    return op + literalsLength - destOff;
+  }
+
+  /**
+   * @param destLen exact length of uncompressed data
+   * @throws IOException if the data is corrupted
+   */
+  public static void decompress(byte[] src, int srcOff, int srcLen, byte[] dest, int destOff, int destLen) throws IOException {
+    final int srcEnd = srcOff + srcLen;
+    final int destEnd = destOff + destLen;
+    int ip = srcOff;
+    int op = destOff;
+    try {
+      while (true) {
+        final int token = src[ip++] & 0xFF;
+        int literalsLength = token >>> 4;
+        if (literalsLength == RUN_MASK) {
+          int b;
+          do {
+            b = src[ip++] & 0xFF;
+            literalsLength += b;
+          }
+          while (b == 255);
+        }
+        if (ip + literalsLength > srcEnd || op + literalsLength > destEnd) {
+          throw new IOException("Corrupted compressed data: literals out of bounds");
+        }
+        System.arraycopy(src, ip, dest, op, literalsLength);
+        ip += literalsLength;
+        op += literalsLength;
+        if (ip >= srcEnd) {
+          break;
+        }
+
+        final int distance = (src[ip++] & 0xFF) | ((src[ip++] & 0xFF) << 8);
+        int matchLength = token & RUN_MASK;
+        if (matchLength == RUN_MASK) {
+          int b;
+          do {
+            b = src[ip++] & 0xFF;
+            matchLength += b;
+          }
+          while (b == 255);
+        }
+        matchLength += MIN_MATCH;
+        final int ref = op - distance;
+        if (distance == 0 || ref < destOff || op + matchLength > destEnd) {
+          throw new IOException("Corrupted compressed data: match out of bounds");
+        }
+        if (distance >= matchLength) {
+          System.arraycopy(dest, ref, dest, op, matchLength);
+          op += matchLength;
+        }
+        else {
+          // overlapping match repeats the last 'distance' bytes
+          for (int i = 0; i < matchLength; i++) {
+            dest[op + i] = dest[ref + i];
+          }
+          op += matchLength;
+        }
+      }
+    }
+    catch (ArrayIndexOutOfBoundsException e) {
+      throw new IOException("Corrupted compressed data: unexpected end of data");
+    }
+    if (op != destEnd) {
+      throw new IOException("Corrupted compressed data: expected " + destLen + " bytes but " + (op - destOff) + " decompressed");
+    }
+  }
+
+  private static int writeSequence(byte[] src, int literalsOffset, int literalsLength, int distance, int matchLength,
+                                   byte[] dest, int op) {
+    final int tokenOffset = op++;
+    dest[tokenOffset] = (byte)((Math.min(literalsLength, RUN_MASK) << 4) | Math.min(matchLength, RUN_MASK));
+    if (literalsLength >= RUN_MASK) {
+      op = writeLength(literalsLength - RUN_MASK, dest, op);
+    }
+    System.arraycopy(src, literalsOffset, dest, op, literalsLength);
+    op += literalsLength;
+    dest[op++] = (byte)distance;
+    dest[op++] = (byte)(distance >>> 8);
+    if (matchLength >= RUN_MASK) {
+      op = writeLength(matchLength - RUN_MASK, dest, op);
+    }
+    return op;
+  }
+
+  private static int writeLength(int length, byte[] dest, int op) {
+    while (length >= 255) {
+      dest[op++] = (byte)255;
+      length -= 255;
+    }
+    dest[op++] = (byte)length;
+    return op;
+  }
+
+  private static int readInt(byte[] bytes, int offset) {
+    return (bytes[offset] & 0xFF) | ((bytes[offset + 1] & 0xFF) << 8) | ((bytes[offset + 2] & 0xFF) << 16) | (bytes[offset + 3] << 24);
+  }
+
+  private static int hash(int sequence) {
+    return (sequence * -1640531535) >>> (32 - HASH_LOG);
+  }
+}
@@ -21,7 +21,10 @@ import java.io.File;
 import java.io.IOException;
 
 class RefCountingRecordsTable extends AbstractRecordsTable {
-  private static final int VERSION = 1;
+  private static final int VERSION = 2;
+
+  private static final int CODEC_ID_OFFSET = DEFAULT_HEADER_SIZE;
+  private static final int HEADER_SIZE = CODEC_ID_OFFSET + 4;
 
   private static final int REF_COUNT_OFFSET = DEFAULT_RECORD_SIZE;
   private static final int RECORD_SIZE = REF_COUNT_OFFSET + 4;
@@ -32,6 +35,11 @@ class RefCountingRecordsTable extends AbstractRecordsTable {
     super(recordsFile, pool);
   }
 
+  @Override
+  protected int getHeaderSize() {
+    return HEADER_SIZE;
+  }
+
   @Override
   protected int getImplVersion() {
     return VERSION;
@@ -47,6 +55,18 @@ class RefCountingRecordsTable extends AbstractRecordsTable {
     return ZEROES;
   }
 
+  /**
+   * @return id of the {@link StorageCodec} the records are compressed with, or 0 if the storage has just been created
+   */
+  public int getCodecId() {
+    return myStorage.getInt(CODEC_ID_OFFSET);
+  }
+
+  public void setCodecId(int id) {
+    markDirty();
+    myStorage.putInt(CODEC_ID_OFFSET, id);
+  }
+
   public void incRefCount(int record) {
     markDirty();
 
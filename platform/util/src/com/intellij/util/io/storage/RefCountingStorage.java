@@ -19,23 +19,18 @@
  */
 package com.intellij.util.io.storage;
 
-import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
 import com.intellij.openapi.util.io.ByteSequence;
-import com.intellij.openapi.util.io.StreamUtil;
 import com.intellij.util.IncorrectOperationException;
 import com.intellij.util.containers.ConcurrentHashMap;
 import com.intellij.util.io.PagePool;
 import com.intellij.util.io.UnsyncByteArrayInputStream;
 
 import java.io.DataInputStream;
-import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.concurrent.*;
-import java.util.zip.DeflaterOutputStream;
-import java.util.zip.Inflater;
-import java.util.zip.InflaterInputStream;
 
 public class RefCountingStorage extends AbstractStorage {
   private final Map<Integer, Future<?>> myPendingWriteRequests = new ConcurrentHashMap<Integer, Future<?>>();
@@ -47,67 +42,64 @@ public class RefCountingStorage extends AbstractStorage {
     }
   });
 
-  private final boolean myDoNotZipCaches = Boolean.valueOf(System.getProperty("idea.doNotZipCaches")).booleanValue();
+  private final StorageCodec myCodec;
   private static final int MAX_PENDING_WRITE_SIZE = 20 * 1024 * 1024;
 
   public RefCountingStorage(String path) throws IOException {
-    super(path);
+    this(path, CapacityAllocationPolicy.DEFAULT);
   }
 
   public RefCountingStorage(String path, CapacityAllocationPolicy capacityAllocationPolicy) throws IOException {
+    this(path, capacityAllocationPolicy, StorageCodec.getDefault());
+  }
+
+  /**
+   * @param codec codec to compress records with if the storage is new; existing storage keeps the codec it was created with
+   */
+  public RefCountingStorage(String path, CapacityAllocationPolicy capacityAllocationPolicy, StorageCodec codec) throws IOException {
     super(path, capacityAllocationPolicy);
+    synchronized (myLock) {
+      RefCountingRecordsTable recordsTable = (RefCountingRecordsTable)myRecordsTable;
+      int codecId = recordsTable.getCodecId();
+      if (codecId == 0) {
+        recordsTable.setCodecId(codec.getId());
+        myCodec = codec;
+      }
+      else {
+        myCodec = StorageCodec.findById(codecId);
+        if (myCodec == null) {
+          super.dispose();
+          throw new IOException("Unknown codec " + codecId + " in storage " + path);
+        }
+      }
+    }
+  }
+
+  public StorageCodec getCodec() {
+    return myCodec;
   }
 
   public DataInputStream readStream(int record) throws IOException {
-    if (myDoNotZipCaches) return super.readStream(record);
-    BufferExposingByteArrayOutputStream stream = internalReadStream(record);
-    return new DataInputStream(new UnsyncByteArrayInputStream(stream.getInternalBuffer(), 0, stream.size()));
+    if (myCodec == StorageCodec.NONE) return super.readStream(record);
+    ByteSequence bytes = internalReadStream(record);
+    return new DataInputStream(new UnsyncByteArrayInputStream(bytes.getBytes(), 0, bytes.getLength()));
   }
 
   @Override
   protected byte[] readBytes(int record) throws IOException {
-    if (myDoNotZipCaches) return super.readBytes(record);
-    return internalReadStream(record).toByteArray();
+    if (myCodec == StorageCodec.NONE) return super.readBytes(record);
+    ByteSequence bytes = internalReadStream(record);
+    return bytes.getLength() == bytes.getBytes().length ? bytes.getBytes() : Arrays.copyOf(bytes.getBytes(), bytes.getLength());
   }
 
-  private BufferExposingByteArrayOutputStream internalReadStream(int record) throws IOException {
+  private ByteSequence internalReadStream(int record) throws IOException {
     waitForPendingWriteForRecord(record);
 
+    byte[] result;
     synchronized (myLock) {
-
-      byte[] result = super.readBytes(record);
-      InflaterInputStream in = new CustomInflaterInputStream(result);
-      try {
-        final BufferExposingByteArrayOutputStream outputStream = new BufferExposingByteArrayOutputStream();
-        StreamUtil.copyStreamContent(in, outputStream);
-        return outputStream;
-      }
-      finally {
-        in.close();
-      }
-    }
-  }
-
-  private static class CustomInflaterInputStream extends InflaterInputStream {
-    public CustomInflaterInputStream(byte[] compressedData) {
-      super(new UnsyncByteArrayInputStream(compressedData), new Inflater(), 1);
-      // force to directly use compressed data, this ensures less round trips with native extraction code and copy streams
-      this.buf = compressedData;
-      this.len = -1;
-    }
-
-    @Override
-    protected void fill() throws IOException {
-      if (len >= 0) throw new EOFException();
-      len = buf.length;
-      inf.setInput(buf, 0, len);
-    }
-
-    @Override
-    public void close() throws IOException {
-      super.close();
-      inf.end(); // custom inflater need explicit dispose
+      result = super.readBytes(record);
     }
+    return myCodec.decompress(result);
   }
 
   private void waitForPendingWriteForRecord(int record) {
@@ -130,7 +122,7 @@ public class RefCountingStorage extends AbstractStorage {
   @Override
   public void writeBytes(final int record, final ByteSequence bytes, final boolean fixedSize) throws IOException {
 
-    if (myDoNotZipCaches) {
+    if (myCodec == StorageCodec.NONE) {
       super.writeBytes(record, bytes, fixedSize);
       return;
     }
@@ -154,26 +146,15 @@ public class RefCountingStorage extends AbstractStorage {
   }
 
   private void zipAndWrite(ByteSequence bytes, int record, boolean fixedSize) throws IOException {
-    BufferExposingByteArrayOutputStream s = new BufferExposingByteArrayOutputStream();
-    DeflaterOutputStream out = new DeflaterOutputStream(s);
-    try {
-      out.write(bytes.getBytes(), bytes.getOffset(), bytes.getLength());
-    }
-    finally {
-      out.close();
-    }
+    ByteSequence compressed = myCodec.compress(bytes);
 
     synchronized (myLock) {
-      doWrite(record, fixedSize, s);
+      super.writeBytes(record, compressed, fixedSize);
       myPendingWriteRequestsSize -= bytes.getLength();
       myPendingWriteRequests.remove(record);
     }
   }
 
-  private void doWrite(int record, boolean fixedSize, BufferExposingByteArrayOutputStream s) throws IOException {
-    super.writeBytes(record, new ByteSequence(s.getInternalBuffer(), 0, s.size()), fixedSize);
-  }
-
   @Override
   protected AbstractRecordsTable createRecordsTable(PagePool pool, File recordsFile) throws IOException {
     return new RefCountingRecordsTable(recordsFile, pool);
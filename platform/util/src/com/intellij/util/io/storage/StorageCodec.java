@@ -0,0 +1,200 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.io.storage;
+
+import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
+import com.intellij.openapi.util.io.ByteSequence;
+import com.intellij.openapi.util.io.StreamUtil;
+import com.intellij.util.io.LzCompressor;
+import com.intellij.util.io.UnsyncByteArrayInputStream;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compression applied by {@link RefCountingStorage} to its records. The codec is chosen when the storage is created and its id is
+ * saved in the storage header, so an existing storage is always read with the codec it was written with.
+ */
+public abstract class StorageCodec {
+  @NonNls public static final String CODEC_PROPERTY = "idea.caches.compression";
+
+  public static final StorageCodec NONE = new StorageCodec(1, "none") {
+    @NotNull
+    @Override
+    public ByteSequence compress(@NotNull ByteSequence bytes) {
+      return bytes;
+    }
+
+    @NotNull
+    @Override
+    public ByteSequence decompress(@NotNull byte[] bytes) {
+      return new ByteSequence(bytes);
+    }
+  };
+
+  public static final StorageCodec DEFLATE = new StorageCodec(2, "deflate") {
+    @NotNull
+    @Override
+    public ByteSequence compress(@NotNull ByteSequence bytes) throws IOException {
+      BufferExposingByteArrayOutputStream s = new BufferExposingByteArrayOutputStream();
+      DeflaterOutputStream out = new DeflaterOutputStream(s);
+      try {
+        out.write(bytes.getBytes(), bytes.getOffset(), bytes.getLength());
+      }
+      finally {
+        out.close();
+      }
+      return new ByteSequence(s.getInternalBuffer(), 0, s.size());
+    }
+
+    @NotNull
+    @Override
+    public ByteSequence decompress(@NotNull byte[] bytes) throws IOException {
+      InflaterInputStream in = new CustomInflaterInputStream(bytes);
+      try {
+        final BufferExposingByteArrayOutputStream outputStream = new BufferExposingByteArrayOutputStream();
+        StreamUtil.copyStreamContent(in, outputStream);
+        return new ByteSequence(outputStream.getInternalBuffer(), 0, outputStream.size());
+      }
+      finally {
+        in.close();
+      }
+    }
+  };
+
+  /**
+   * {@link LzCompressor} block prefixed with 4 bytes of uncompressed length.
+   */
+  public static final StorageCodec LZ = new StorageCodec(3, "lz") {
+    @NotNull
+    @Override
+    public ByteSequence compress(@NotNull ByteSequence bytes) {
+      final int length = bytes.getLength();
+      final byte[] result = new byte[4 + LzCompressor.maxCompressedLength(length)];
+      result[0] = (byte)(length >>> 24);
+      result[1] = (byte)(length >>> 16);
+      result[2] = (byte)(length >>> 8);
+      result[3] = (byte)length;
+      final int compressedLength = LzCompressor.compress(bytes.getBytes(), bytes.getOffset(), length, result, 4);
+      return new ByteSequence(result, 0, 4 + compressedLength);
+    }
+
+    @NotNull
+    @Override
+    public ByteSequence decompress(@NotNull byte[] bytes) throws IOException {
+      if (bytes.length < 5) {
+        throw new IOException("Corrupted compressed data: " + bytes.length + " bytes");
+      }
+      final int length = ((bytes[0] & 0xFF) << 24) | ((bytes[1] & 0xFF) << 16) | ((bytes[2] & 0xFF) << 8) | (bytes[3] & 0xFF);
+      if (length < 0) {
+        throw new IOException("Corrupted compressed data: negative length");
+      }
+      final byte[] result = new byte[length];
+      LzCompressor.decompress(bytes, 4, bytes.length - 4, result, 0, length);
+      return new ByteSequence(result);
+    }
+  };
+
+  private static final StorageCodec[] ALL = {NONE, DEFLATE, LZ};
+
+  private final int myId;
+  private final String myName;
+
+  private StorageCodec(int id, @NonNls String name) {
+    myId = id;
+    myName = name;
+  }
+
+  /**
+   * Id saved in the storage header, must never change for existing codecs.
+   */
+  public int getId() {
+    return myId;
+  }
+
+  @NotNull
+  public String getName() {
+    return myName;
+  }
+
+  @NotNull
+  public abstract ByteSequence compress(@NotNull ByteSequence bytes) throws IOException;
+
+  @NotNull
+  public abstract ByteSequence decompress(@NotNull byte[] bytes) throws IOException;
+
+  @Nullable
+  public static StorageCodec findById(int id) {
+    for (StorageCodec codec : ALL) {
+      if (codec.myId == id) return codec;
+    }
+    return null;
+  }
+
+  @Nullable
+  public static StorageCodec findByName(@Nullable String name) {
+    for (StorageCodec codec : ALL) {
+      if (codec.myName.equalsIgnoreCase(name)) return codec;
+    }
+    return null;
+  }
+
+  /**
+   * Codec for new storages: {@link #NONE} if caches zipping is switched off by "idea.doNotZipCaches", the codec named by
+   * {@link #CODEC_PROPERTY} system property if any, {@link #DEFLATE} otherwise.
+   */
+  @NotNull
+  public static StorageCodec getDefault() {
+    if (Boolean.valueOf(System.getProperty("idea.doNotZipCaches")).booleanValue()) {
+      return NONE;
+    }
+    final StorageCodec codec = findByName(System.getProperty(CODEC_PROPERTY));
+    return codec != null ? codec : DEFLATE;
+  }
+
+  @Override
+  public String toString() {
+    return myName;
+  }
+
+  private static class CustomInflaterInputStream extends InflaterInputStream {
+    public CustomInflaterInputStream(byte[] compressedData) {
+      super(new UnsyncByteArrayInputStream(compressedData), new Inflater(), 1);
+      // force to directly use compressed data, this ensures less round trips with native extraction code and copy streams
+      this.buf = compressedData;
+      this.len = -1;
+    }
+
+    @Override
+    protected void fill() throws IOException {
+      if (len >= 0) throw new EOFException();
+      len = buf.length;
+      inf.setInput(buf, 0, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+      super.close();
+      inf.end(); // custom inflater need explicit dispose
+    }
+  }
+}
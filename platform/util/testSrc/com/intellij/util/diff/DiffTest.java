@@ -19,6 +19,9 @@ import com.intellij.util.ArrayUtil;
 import junit.framework.TestCase;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
 
 /**
  * @author dyoma
@@ -85,4 +88,157 @@ public class DiffTest extends TestCase {
     System.out.println("Duration: " +(System.currentTimeMillis() - start));
   }
 
+  public void testSmallInputsAsIntLCS() throws FilesTooBigForDiffException {
+    Random random = new Random(42);
+    for (int i = 0; i < 500; i++) {
+      String[] first = randomLines(random, random.nextInt(100), 5);
+      String[] second = randomLines(random, random.nextInt(100), 5);
+      Diff.Change change = Diff.buildChanges(first, second);
+      assertEquals(countEqual(first, second, buildChangesWithIntLCS(first, second)), countEqual(first, second, change));
+    }
+  }
+
+  public void testLargeInputs() throws FilesTooBigForDiffException {
+    Random random = new Random(42);
+    for (int alphabet : new int[]{10, 1000, 100000}) {
+      String[] first = randomLines(random, 20000, alphabet);
+      String[] second = edit(random, first, 500);
+      countEqual(first, second, Diff.buildChanges(first, second));
+    }
+  }
+
+  public void testSeparatedLines() throws FilesTooBigForDiffException {
+    // every split separates only a few lines, so splitting the whole input would take quadratic time
+    int count = 100000;
+    int[] first = new int[2 * count];
+    int[] second = new int[4 * count];
+    for (int i = 0; i < count; i++) {
+      first[2 * i] = second[4 * i] = i + 1;
+      second[4 * i + 2] = count + i + 1;
+    }
+    HistogramLCS lcs = new HistogramLCS(first, second);
+    lcs.execute();
+    assertFalse(lcs.isComplete());
+
+    String[] lines1 = toLines(first);
+    String[] lines2 = toLines(second);
+    assertTrue(countEqual(lines1, lines2, Diff.buildChanges(lines1, lines2)) >= 2);
+  }
+
+  public void testWorkLimit() throws FilesTooBigForDiffException {
+    Random random = new Random(42);
+    int[] first = new int[20000];
+    for (int i = 0; i < first.length; i++) first[i] = random.nextInt(1000);
+    int[] second = first.clone();
+    for (int i = 0; i < 100; i++) second[i * 200 + random.nextInt(200)] = 1000 + i;
+
+    HistogramLCS complete = new HistogramLCS(first, second);
+    complete.execute();
+    assertTrue(complete.isComplete());
+    assertEquals(first.length - 100, countEqual(complete.getChanges()));
+
+    // only the common prefix and suffix are found when there is no work left
+    HistogramLCS trimmed = new HistogramLCS(first, second, 0);
+    trimmed.execute();
+    assertFalse(trimmed.isComplete());
+    boolean[][] changes = trimmed.getChanges();
+    int prefix = 0;
+    while (first[prefix] == second[prefix]) prefix++;
+    int suffix = 0;
+    while (first[first.length - 1 - suffix] == second[second.length - 1 - suffix]) suffix++;
+    assertEquals(prefix + suffix, countEqual(changes));
+    assertFalse(changes[0][prefix - 1]);
+    assertTrue(changes[0][prefix]);
+  }
+
+  private static String[] randomLines(Random random, int count, int alphabet) {
+    String[] result = new String[count];
+    for (int i = 0; i < count; i++) {
+      result[i] = String.valueOf(random.nextInt(alphabet));
+    }
+    return result;
+  }
+
+  private static String[] edit(Random random, String[] lines, int edits) {
+    List<String> result = new ArrayList<String>();
+    Collections.addAll(result, lines);
+    for (int i = 0; i < edits && !result.isEmpty(); i++) {
+      int index = random.nextInt(result.size());
+      int length = Math.min(1 + random.nextInt(5), result.size() - index);
+      switch (random.nextInt(3)) {
+        case 0:
+          result.subList(index, index + length).clear();
+          break;
+        case 1:
+          result.add(index, "inserted " + i);
+          break;
+        default:
+          List<String> moved = new ArrayList<String>(result.subList(index, index + length));
+          result.subList(index, index + length).clear();
+          result.addAll(random.nextInt(result.size() + 1), moved);
+      }
+    }
+    return ArrayUtil.toStringArray(result);
+  }
+
+  private static String[] toLines(int[] elements) {
+    String[] result = new String[elements.length];
+    for (int i = 0; i < elements.length; i++) {
+      result[i] = elements[i] == 0 ? "}" : "line " + elements[i];
+    }
+    return result;
+  }
+
+  private static int countEqual(boolean[][] changes) {
+    int equal = 0;
+    for (boolean changed : changes[0]) {
+      if (!changed) equal++;
+    }
+    int equal2 = 0;
+    for (boolean changed : changes[1]) {
+      if (!changed) equal2++;
+    }
+    assertEquals(equal, equal2);
+    return equal;
+  }
+
+  private static Diff.Change buildChangesWithIntLCS(Object[] first, Object[] second) throws FilesTooBigForDiffException {
+    int[] ints1 = new int[first.length];
+    int[] ints2 = new int[second.length];
+    for (int i = 0; i < first.length; i++) ints1[i] = Integer.parseInt((String)first[i]);
+    for (int i = 0; i < second.length; i++) ints2[i] = Integer.parseInt((String)second[i]);
+    IntLCS intLCS = new IntLCS(ints1, ints2);
+    intLCS.execute();
+    Reindexer reindexer = new Reindexer();
+    reindexer.idInit(first.length, second.length);
+    Diff.ChangeBuilder builder = new Diff.ChangeBuilder(0);
+    reindexer.reindex(intLCS.getPaths(), builder);
+    return builder.getFirstChange();
+  }
+
+  /**
+   * Checks that the changes turn the first sequence into the second one.
+   *
+   * @return the number of unchanged elements
+   */
+  private static int countEqual(Object[] first, Object[] second, Diff.Change change) {
+    int x = 0;
+    int y = 0;
+    int equal = 0;
+    for (; change != null; change = change.link) {
+      assertEquals(change.line0 - x, change.line1 - y);
+      while (x < change.line0) {
+        assertEquals(first[x++], second[y++]);
+        equal++;
+      }
+      x += change.deleted;
+      y += change.inserted;
+    }
+    assertEquals(first.length - x, second.length - y);
+    while (x < first.length) {
+      assertEquals(first[x++], second[y++]);
+      equal++;
+    }
+    return equal;
+  }
 }
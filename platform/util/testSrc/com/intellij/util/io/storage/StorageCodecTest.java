@@ -0,0 +1,112 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.io.storage;
+
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.io.ByteSequence;
+import com.intellij.openapi.util.io.FileUtil;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+public class StorageCodecTest extends TestCase {
+  private static final StorageCodec[] CODECS = {StorageCodec.NONE, StorageCodec.DEFLATE, StorageCodec.LZ};
+
+  private String getFileName() {
+    return FileUtil.getTempDirectory() + File.separatorChar + getName();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    RefCountingStorage.deleteFiles(getFileName());
+    super.tearDown();
+  }
+
+  public void testRoundTrip() throws Exception {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      text.append("public void method").append(i % 17).append("() { return; }\n");
+    }
+    byte[] random = new byte[100000];
+    new Random(42).nextBytes(random);
+    byte[] zeros = new byte[70000];
+
+    for (StorageCodec codec : CODECS) {
+      assertRoundTrip(codec, new byte[0]);
+      assertRoundTrip(codec, "a".getBytes());
+      assertRoundTrip(codec, "Hello, world!".getBytes());
+      assertRoundTrip(codec, "abababababababababababababababababab".getBytes());
+      assertRoundTrip(codec, text.toString().getBytes());
+      assertRoundTrip(codec, random);
+      assertRoundTrip(codec, zeros);
+    }
+  }
+
+  public void testLzCompressesSourceText() throws Exception {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      text.append("public void method").append(i % 17).append("() { return; }\n");
+    }
+    byte[] bytes = text.toString().getBytes();
+    assertTrue(StorageCodec.LZ.compress(new ByteSequence(bytes)).getLength() < bytes.length / 4);
+  }
+
+  public void testLzRejectsCorruptedData() throws Exception {
+    byte[] bytes = "Hello, Hello, Hello, Hello, Hello, Hello, Hello!".getBytes();
+    ByteSequence compressed = StorageCodec.LZ.compress(new ByteSequence(bytes));
+    byte[] truncated = Arrays.copyOf(compressed.getBytes(), compressed.getLength() - 3);
+    try {
+      StorageCodec.LZ.decompress(truncated);
+      fail();
+    }
+    catch (IOException ignored) {
+    }
+  }
+
+  public void testCodecSavedInHeader() throws Exception {
+    RefCountingStorage storage = new RefCountingStorage(getFileName(), CapacityAllocationPolicy.DEFAULT, StorageCodec.LZ);
+    int record;
+    try {
+      record = storage.acquireNewRecord();
+      storage.writeBytes(record, new ByteSequence("Hello".getBytes()), false);
+    }
+    finally {
+      Disposer.dispose(storage);
+    }
+
+    storage = new RefCountingStorage(getFileName(), CapacityAllocationPolicy.DEFAULT, StorageCodec.DEFLATE);
+    try {
+      assertSame(StorageCodec.LZ, storage.getCodec());
+      assertEquals("Hello", new String(storage.readBytes(record)));
+    }
+    finally {
+      Disposer.dispose(storage);
+    }
+  }
+
+  private static void assertRoundTrip(StorageCodec codec, byte[] bytes) throws IOException {
+    byte[] padded = new byte[bytes.length + 10];
+    System.arraycopy(bytes, 0, padded, 5, bytes.length);
+    ByteSequence compressed = codec.compress(new ByteSequence(padded, 5, bytes.length));
+    byte[] stored = Arrays.copyOfRange(compressed.getBytes(), compressed.getOffset(), compressed.getOffset() + compressed.getLength());
+    ByteSequence decompressed = codec.decompress(stored);
+    byte[] result = Arrays.copyOfRange(decompressed.getBytes(), decompressed.getOffset(), decompressed.getOffset() + decompressed.getLength());
+    assertTrue(codec + ": " + bytes.length, Arrays.equals(bytes, result));
+  }
+}
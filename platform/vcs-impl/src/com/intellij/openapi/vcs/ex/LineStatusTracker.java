@@ -17,6 +17,7 @@ package com.intellij.openapi.vcs.ex;
 
 import com.intellij.openapi.application.Application;
 import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ModalityState;
 import com.intellij.openapi.command.undo.UndoConstants;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.editor.Document;
@@ -31,6 +32,7 @@ import com.intellij.openapi.fileEditor.FileEditorManager;
 import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.Ref;
 import com.intellij.openapi.util.TextRange;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.vcs.VcsBundle;
@@ -41,14 +43,17 @@ import com.intellij.ui.EditorNotificationPanel;
 import com.intellij.util.diff.FilesTooBigForDiffException;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.TestOnly;
 
 import javax.swing.*;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
-import java.util.ListIterator;
 
 /**
+ * Ranges are kept sorted by lines and never touch each other. On typing only the window of lines around the change is
+ * compared with the base revision; the whole document is compared on a pooled thread, while the old ranges stay in place
+ * until the new ones replace them at once. The lines typed meanwhile are compared again when the new ranges are installed.
+ *
  * @author irengrig
  * author: lesya
  */
@@ -70,6 +75,8 @@ public class LineStatusTracker {
   private MyDocumentListener myDocumentListener;
 
   private boolean myBulkUpdate;
+  // the ranges were dropped by a bulk update and aren't tracked incrementally until they are recalculated
+  private boolean myRangesOutdated;
   private final Application myApplication;
   @Nullable
   private RevisionPack myBaseRevisionNumber;
@@ -79,6 +86,22 @@ public class LineStatusTracker {
   private final VirtualFile myVirtualFile;
   private boolean myReleased = false;
 
+  // incremented by every full recalculation of the ranges, so that results of the outdated ones are dropped
+  private int myRecalculationCount;
+  // base revision content which is put into the up-to-date document along with the ranges being calculated
+  @Nullable
+  private String myPendingBaseContent;
+  // content of the up-to-date document, passed to the recalculations instead of a copy of the document
+  @NotNull
+  private String myBaseContent = "";
+  private boolean myRecalculating;
+  // the lines [first, last] of the document were changed since the text of the last recalculation was taken, they were
+  // the lines [first, last - shift] there; first is -1 if there were no changes
+  private int myEditedFirstLine = -1;
+  private int myEditedLastLine;
+  private int myEditedLinesShift;
+  private RecalculationScheduler myRecalculationScheduler;
+
   private LineStatusTracker(final Document document, final Document upToDateDocument, final Project project, final VirtualFile virtualFile) {
     myVirtualFile = virtualFile;
     myApplication = ApplicationManager.getApplication();
@@ -92,32 +115,27 @@ public class LineStatusTracker {
     }
     myAnathemaThrown = false;
     myFileEditorManager = FileEditorManager.getInstance(myProject);
+    myRecalculationScheduler = myApplication.isUnitTestMode() ? SYNCHRONOUS : POOLED;
   }
 
   public void initialize(@NotNull final String upToDateContent, @NotNull RevisionPack baseRevisionNumber) {
     ApplicationManager.getApplication().assertIsDispatchThread();
 
     synchronized (myLock) {
-      try {
-        if (myReleased) return;
-        if (myBaseRevisionNumber != null && myBaseRevisionNumber.after(baseRevisionNumber)) return;
-
-        myBaseRevisionNumber = baseRevisionNumber;
-        myPreviousBaseRevision = null;
+      if (myReleased || myBaseRevisionNumber != null && myBaseRevisionNumber.after(baseRevisionNumber)) {
+        myBaseLoaded = BaseLoadState.LOADED;
+        return;
+      }
 
-        myUpToDateDocument.setReadOnly(false);
-        myUpToDateDocument.replaceString(0, myUpToDateDocument.getTextLength(), upToDateContent);
-        myUpToDateDocument.setReadOnly(true);
-        reinstallRanges();
+      myBaseRevisionNumber = baseRevisionNumber;
+      myPreviousBaseRevision = null;
 
-        if (myDocumentListener == null) {
-          myDocumentListener = new MyDocumentListener();
-          myDocument.addDocumentListener(myDocumentListener);
-        }
-      }
-      finally {
-        myBaseLoaded = BaseLoadState.LOADED;
+      if (myDocumentListener == null) {
+        myDocumentListener = new MyDocumentListener();
+        myDocument.addDocumentListener(myDocumentListener);
       }
+      // the up-to-date document is replaced when the ranges are ready, till then the old ranges are kept up to date
+      recalculateRanges(upToDateContent);
     }
   }
 
@@ -135,24 +153,203 @@ public class LineStatusTracker {
     }
   }
 
-  private void reinstallRanges() {
-    myApplication.assertReadAccessAllowed();
+  /**
+   * Compares the whole document with the base revision on a pooled thread. If the document is changed meanwhile, the
+   * result is brought up to date by comparing only the changed lines when it is installed.
+   *
+   * @param newBaseContent content to replace the up-to-date document with, or null to keep the current one
+   */
+  private void recalculateRanges(@Nullable String newBaseContent) {
+    myApplication.assertIsDispatchThread();
 
     synchronized (myLock) {
+      if (newBaseContent != null) myPendingBaseContent = newBaseContent;
+
+      final int count = ++myRecalculationCount;
+      final String text = myDocument.getText();
+      final String baseContent = myPendingBaseContent;
+      final String upToDateText = baseContent != null ? baseContent : myBaseContent;
+      myRecalculating = true;
+      myEditedFirstLine = -1;
+      myEditedLinesShift = 0;
+
+      final Ref<List<Range>> ranges = new Ref<List<Range>>();
+      myRecalculationScheduler.schedule(new Runnable() {
+        @Override
+        public void run() {
+          ranges.set(calculateRanges(text, upToDateText));
+        }
+      }, new Runnable() {
+        @Override
+        public void run() {
+          applyRanges(count, baseContent, ranges.get());
+        }
+      });
+    }
+  }
+
+  /**
+   * @return null if the diff can't be calculated
+   */
+  @Nullable
+  private static List<Range> calculateRanges(@NotNull String text, @NotNull String upToDateText) {
+    try {
+      return new RangesBuilder(new DocumentImpl(text, true), new DocumentImpl(upToDateText, true)).getRanges();
+    }
+    catch (FilesTooBigForDiffException e) {
+      return null;
+    }
+  }
+
+  private void applyRanges(int count, @Nullable String baseContent, @Nullable List<Range> ranges) {
+    synchronized (myLock) {
+      if (myReleased || myBulkUpdate || count != myRecalculationCount) return;
+      myRecalculating = false;
+
+      if (baseContent != null) {
+        myPendingBaseContent = null;
+        myBaseContent = baseContent;
+        myUpToDateDocument.setReadOnly(false);
+        myUpToDateDocument.replaceString(0, myUpToDateDocument.getTextLength(), baseContent);
+        myUpToDateDocument.setReadOnly(true);
+        myBaseLoaded = BaseLoadState.LOADED;
+      }
+      myRangesOutdated = false;
+
       removeAnathema();
       removeHighlightersFromMarkupModel();
-      try {
-        myRanges = new RangesBuilder(myDocument, myUpToDateDocument).getRanges();
-      }
-      catch (FilesTooBigForDiffException e) {
-        myRanges.clear();
+      if (ranges == null) {
         installAnathema();
         return;
       }
+      myRanges = ranges;
+      if (myEditedFirstLine != -1) {
+        try {
+          updateRanges(myEditedFirstLine, myEditedLastLine - myEditedLinesShift, myEditedLinesShift);
+        }
+        catch (FilesTooBigForDiffException e) {
+          removeHighlightersFromMarkupModel();
+          installAnathema();
+          return;
+        }
+      }
       for (final Range range : myRanges) {
-        range.setHighlighter(createHighlighter(range));
+        if (!range.hasHighlighter()) range.setHighlighter(createHighlighter(range));
+      }
+    }
+  }
+
+  /**
+   * Records the change of the lines [firstLine, lastLine] into [firstLine, lastLine + linesShift] made while the ranges
+   * are being recalculated.
+   */
+  private void recordEdit(int firstLine, int lastLine, int linesShift) {
+    if (myEditedFirstLine == -1) {
+      myEditedFirstLine = firstLine;
+      myEditedLastLine = lastLine + linesShift;
+    }
+    else {
+      // the lines between the edits are compared again as well
+      myEditedFirstLine = Math.min(myEditedFirstLine, firstLine);
+      myEditedLastLine = Math.max(myEditedLastLine, lastLine) + linesShift;
+    }
+    myEditedLinesShift += linesShift;
+  }
+
+  /**
+   * Brings the ranges up to date after the lines [firstLine, lastLine] of the document were replaced by the lines
+   * [firstLine, lastLine + linesShift]: the ranges touching them are replaced by comparing these lines with the base
+   * revision again, the ranges after them are shifted.
+   *
+   * @return false if the ranges weren't changed
+   */
+  private boolean updateRanges(int firstLine, int lastLine, int linesShift) throws FilesTooBigForDiffException {
+    // ranges in [firstChanged, afterChange) intersect or touch the changed lines, they are compared again along with them
+    int firstChanged = getFirstRangeNotBefore(myRanges, firstLine);
+    int afterChange = getFirstRangeAfter(myRanges, lastLine);
+    if (afterChange < firstChanged) {
+      LOG.info("Ranges: " + myRanges + "; first changed line: " + firstLine + "; last changed line: " + lastLine);
+      LOG.assertTrue(false);
+      return false;
+    }
+    if (firstChanged < afterChange) {
+      firstLine = Math.min(firstLine, myRanges.get(firstChanged).getOffset1());
+      lastLine = Math.max(lastLine, myRanges.get(afterChange - 1).getOffset2());
+    }
+    int upToDateFirstLine = getUpToDateLine(firstChanged - 1, firstLine);
+    int upToDateLastLine = getUpToDateLine(afterChange - 1, lastLine);
+
+    List<Range> changedRanges = new ArrayList<Range>(myRanges.subList(firstChanged, afterChange));
+
+    List<String> lines = new DocumentWrapper(myDocument).getLines(firstLine, lastLine + linesShift);
+    List<String> uLines = new DocumentWrapper(myUpToDateDocument).getLines(upToDateFirstLine, upToDateLastLine);
+    List<Range> newChangedRanges = new RangesBuilder(lines, uLines, firstLine, upToDateFirstLine).getRanges();
+
+    for (Range range : myRanges.subList(afterChange, myRanges.size())) {
+      range.shift(linesShift);
+    }
+
+    if (changedRanges.equals(newChangedRanges)) return false;
+
+    for (Range range : changedRanges) {
+      if (range.getHighlighter() != null) {
+        range.getHighlighter().dispose();
+        range.setHighlighter(null);
+      }
+    }
+    for (Range range : newChangedRanges) {
+      range.setHighlighter(createHighlighter(range));
+    }
+
+    List<Range> window = myRanges.subList(firstChanged, afterChange);
+    window.clear();
+    window.addAll(newChangedRanges);
+
+    // only the new ranges and their neighbours can touch each other
+    int from = Math.max(firstChanged - 1, 0);
+    int to = mergeRanges(from, Math.min(firstChanged + newChangedRanges.size() + 1, myRanges.size()));
+    for (Range range : myRanges.subList(from, to)) {
+      if (!range.hasHighlighter()) range.setHighlighter(createHighlighter(range));
+    }
+    return true;
+  }
+
+  /**
+   * @return the line of the base revision matching the line of the document, which is neither before the range at the
+   * index nor in any range
+   */
+  private int getUpToDateLine(int rangeIndex, int line) {
+    if (rangeIndex < 0) return line;
+    Range range = myRanges.get(rangeIndex);
+    return range.getUOffset2() + line - range.getOffset2();
+  }
+
+  /**
+   * Merges the ranges touching each other among the ones in [from, to).
+   *
+   * @return the end of the merged ranges
+   */
+  private int mergeRanges(int from, int to) {
+    int i = from;
+    while (i + 1 < to) {
+      Range prev = myRanges.get(i);
+      Range range = myRanges.get(i + 1);
+      if (prev.canBeMergedWith(range)) {
+        if (range.getHighlighter() != null) {
+          range.getHighlighter().dispose();
+        }
+        if (prev.getHighlighter() != null) {
+          prev.getHighlighter().dispose();
+        }
+        myRanges.set(i, prev.mergeWith(range, this));
+        myRanges.remove(i + 1);
+        to--;
+      }
+      else {
+        i++;
       }
     }
+    return to;
   }
 
   private void removeAnathema() {
@@ -208,6 +405,8 @@ public class LineStatusTracker {
       removeAnathema();
       removeHighlightersFromMarkupModel();
       myReleased = true;
+      myRecalculationCount++;
+      myRecalculating = false;
     }
   }
 
@@ -237,6 +436,7 @@ public class LineStatusTracker {
       if (myReleased) return;
 
       myBulkUpdate = true;
+      myRangesOutdated = true;
       removeAnathema();
       removeHighlightersFromMarkupModel();
     }
@@ -258,7 +458,7 @@ public class LineStatusTracker {
       if (myReleased) return;
 
       myBulkUpdate = false;
-      reinstallRanges();
+      recalculateRanges(null);
     }
   }
 
@@ -272,9 +472,15 @@ public class LineStatusTracker {
     synchronized (myLock) {
       // there can be multiple resets before init -> take from document only firts time -> when right after install(),
       // where myPreviousBaseRevision become null
-      if (BaseLoadState.LOADED.equals(myBaseLoaded) && myPreviousBaseRevision == null) {
-        myPreviousBaseRevision = myUpToDateDocument.getText();
+      if (myPendingBaseContent != null) {
+        if (myPreviousBaseRevision == null) myPreviousBaseRevision = myPendingBaseContent;
+        myPendingBaseContent = null;
       }
+      else if (BaseLoadState.LOADED.equals(myBaseLoaded) && myPreviousBaseRevision == null) {
+        myPreviousBaseRevision = myBaseContent;
+      }
+      myRecalculationCount++;
+      myBaseContent = "";
       myUpToDateDocument.setReadOnly(false);
       myUpToDateDocument.setText("");
       myUpToDateDocument.setReadOnly(true);
@@ -286,10 +492,8 @@ public class LineStatusTracker {
 
   private class MyDocumentListener extends DocumentAdapter {
     private int myFirstChangedLine;
-    private int myUpToDateFirstLine;
-    private int myUpToDateLastLine;
     private int myLastChangedLine;
-    private int myLinesBeforeChange;
+    private int myLineCountBeforeChange;
     private final VcsDirtyScopeManager myVcsDirtyScopeManager = VcsDirtyScopeManager.getInstance(myProject);
 
     @Override
@@ -297,118 +501,44 @@ public class LineStatusTracker {
       myApplication.assertWriteAccessAllowed();
 
       synchronized (myLock) {
-        if (myReleased) return;
-        if (myBulkUpdate || myAnathemaThrown || BaseLoadState.LOADED != myBaseLoaded) return;
+        if (myReleased || myBulkUpdate) return;
         try {
           myFirstChangedLine = myDocument.getLineNumber(e.getOffset());
           myLastChangedLine = myDocument.getLineNumber(e.getOffset() + e.getOldLength());
+          myLineCountBeforeChange = myDocument.getLineCount();
           if (StringUtil.endsWithChar(e.getOldFragment(), '\n')) myLastChangedLine++;
-
-          myLinesBeforeChange = myDocument.getLineNumber(e.getOffset() + e.getOldLength()) - myDocument.getLineNumber(e.getOffset());
-
-          Range firstChangedRange = getLastRangeBeforeLine(myFirstChangedLine);
-
-          if (firstChangedRange == null) {
-            myUpToDateFirstLine = myFirstChangedLine;
-          }
-          else if (firstChangedRange.containsLine(myFirstChangedLine)) {
-            myFirstChangedLine = firstChangedRange.getOffset1();
-            myUpToDateFirstLine = firstChangedRange.getUOffset1();
-          }
-          else {
-            myUpToDateFirstLine = firstChangedRange.getUOffset2() + myFirstChangedLine - firstChangedRange.getOffset2();
-          }
-
-          Range myLastChangedRange = getLastRangeBeforeLine(myLastChangedLine);
-
-          if (myLastChangedRange == null) {
-            myUpToDateLastLine = myLastChangedLine;
-          }
-          else if (myLastChangedRange.containsLine(myLastChangedLine)) {
-            myUpToDateLastLine = myLastChangedRange.getUOffset2();
-            myLastChangedLine = myLastChangedRange.getOffset2();
-          }
-          else {
-            myUpToDateLastLine = myLastChangedRange.getUOffset2() + myLastChangedLine - myLastChangedRange.getOffset2();
-          }
         } catch (ProcessCanceledException ignore) {
         }
       }
     }
 
-    @Nullable
-    private Range getLastRangeBeforeLine(int line) {
-      Range result = null;
-      for (Range range : myRanges) {
-        if (range.isMoreThen(line)) return result;
-        result = range;
-      }
-      return result;
-    }
-
     @Override
     public void documentChanged(final DocumentEvent e) {
       myApplication.assertWriteAccessAllowed();
 
       synchronized (myLock) {
-        if (myReleased) return;
-        if (myBulkUpdate || myAnathemaThrown || BaseLoadState.LOADED != myBaseLoaded) return;
+        if (myReleased || myBulkUpdate) return;
         try {
-
-          int line = myDocument.getLineNumber(e.getOffset() + e.getNewLength());
-          int linesAfterChange = line - myDocument.getLineNumber(e.getOffset());
-          int linesShift = linesAfterChange - myLinesBeforeChange;
-
-          List<Range> rangesAfterChange = getRangesAfter(myRanges, myLastChangedLine);
-          List<Range> rangesBeforeChange = getRangesBefore(myRanges, myFirstChangedLine);
-
-          List<Range> changedRanges = getChangedRanges(myFirstChangedLine, myLastChangedLine);
-
-          int newSize = rangesBeforeChange.size() + changedRanges.size() + rangesAfterChange.size();
-          if (myRanges.size() != newSize) {
-            LOG.info("Ranges: " + myRanges + "; first changed line: " + myFirstChangedLine + "; last changed line: " + myLastChangedLine);
-            LOG.assertTrue(false);
-          }
-
-
-          myLastChangedLine += linesShift;
-
-
-          List<Range> newChangedRanges = getNewChangedRanges();
-
-          shiftRanges(rangesAfterChange, linesShift);
-
-          if (!changedRanges.equals(newChangedRanges)) {
-            replaceRanges(changedRanges, newChangedRanges);
-
-            myRanges = new ArrayList<Range>();
-
-            myRanges.addAll(rangesBeforeChange);
-            myRanges.addAll(newChangedRanges);
-            myRanges.addAll(rangesAfterChange);
-
-            myRanges = mergeRanges(myRanges);
-
-            for (Range range : myRanges) {
-              if (!range.hasHighlighter()) range.setHighlighter(createHighlighter(range));
-            }
-
-            if (myRanges.isEmpty() && myVirtualFile != null) {
-              SwingUtilities.invokeLater(new Runnable() {
-                @Override
-                public void run() {
-                  FileDocumentManager.getInstance().saveDocument(e.getDocument());
-                  boolean[] stillEmpty = new boolean[1];
-                  synchronized (myLock) {
-                    stillEmpty[0] = myRanges.isEmpty();
-                  }
-                  if (stillEmpty[0]) {
-                    // file was modified, and now it's not -> dirty local change
-                    myVcsDirtyScopeManager.fileDirty(myVirtualFile);
-                  }
+          // an empty document has no lines at all, unlike the one with an empty last line
+          int linesShift = myDocument.getLineCount() - myLineCountBeforeChange;
+          if (myRecalculating) recordEdit(myFirstChangedLine, myLastChangedLine, linesShift);
+
+          if (myRangesOutdated || myAnathemaThrown || BaseLoadState.LOADED != myBaseLoaded) return;
+          if (updateRanges(myFirstChangedLine, myLastChangedLine, linesShift) && myRanges.isEmpty() && myVirtualFile != null) {
+            SwingUtilities.invokeLater(new Runnable() {
+              @Override
+              public void run() {
+                FileDocumentManager.getInstance().saveDocument(e.getDocument());
+                boolean[] stillEmpty = new boolean[1];
+                synchronized (myLock) {
+                  stillEmpty[0] = myRanges.isEmpty();
+                }
+                if (stillEmpty[0]) {
+                  // file was modified, and now it's not -> dirty local change
+                  myVcsDirtyScopeManager.fileDirty(myVirtualFile);
                 }
-              });
-            }
+              }
+            });
           }
         } catch (ProcessCanceledException ignore) {
         } catch (FilesTooBigForDiffException e1) {
@@ -417,59 +547,42 @@ public class LineStatusTracker {
         }
       }
     }
+  }
 
-    private List<Range> getNewChangedRanges() throws FilesTooBigForDiffException {
-      List<String> lines = new DocumentWrapper(myDocument).getLines(myFirstChangedLine, myLastChangedLine);
-      List<String> uLines = new DocumentWrapper(myUpToDateDocument)
-        .getLines(myUpToDateFirstLine, myUpToDateLastLine);
-      return new RangesBuilder(lines, uLines, myFirstChangedLine, myUpToDateFirstLine).getRanges();
-    }
-
-    private List<Range> mergeRanges(List<Range> ranges) {
-      ArrayList<Range> result = new ArrayList<Range>();
-      Iterator<Range> iterator = ranges.iterator();
-      if (!iterator.hasNext()) return result;
-      Range prev = iterator.next();
-      while (iterator.hasNext()) {
-        Range range = iterator.next();
-        if (prev.canBeMergedWith(range)) {
-          if (range.getHighlighter() != null) {
-            range.getHighlighter().dispose();
-          }
-          if (prev.getHighlighter() != null) {
-            prev.getHighlighter().dispose();
-          }
-          prev = prev.mergeWith(range, LineStatusTracker.this);
-        }
-        else {
-          result.add(prev);
-          prev = range;
-        }
-      }
-      result.add(prev);
-      return result;
-    }
-
-    private void replaceRanges(List<Range> rangesInChange, List<Range> newRangesInChange) {
-      for (Range range : rangesInChange) {
-        range.getHighlighter().dispose();
-        range.setHighlighter(null);
+  /**
+   * @return index of the first of the sorted ranges which doesn't end before the line
+   */
+  private static int getFirstRangeNotBefore(List<Range> ranges, int line) {
+    int low = 0;
+    int high = ranges.size();
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (ranges.get(middle).getOffset2() >= line) {
+        high = middle;
       }
-      for (Range range : newRangesInChange) {
-        range.setHighlighter(createHighlighter(range));
+      else {
+        low = middle + 1;
       }
     }
+    return low;
+  }
 
-    private void shiftRanges(List<Range> rangesAfterChange, int shift) {
-      for (final Range aRangesAfterChange : rangesAfterChange) {
-        aRangesAfterChange.shift(shift);
+  /**
+   * @return index of the first of the sorted ranges which starts after the line
+   */
+  private static int getFirstRangeAfter(List<Range> ranges, int line) {
+    int low = 0;
+    int high = ranges.size();
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (ranges.get(middle).getOffset1() > line) {
+        high = middle;
+      }
+      else {
+        low = middle + 1;
       }
     }
-
-  }
-
-  private List<Range> getChangedRanges(int from, int to) {
-    return getChangedRanges(myRanges, from, to);
+    return low;
   }
 
   public static List<Range> getChangedRanges(List<Range> ranges, int from, int to) {
@@ -507,13 +620,8 @@ public class LineStatusTracker {
         return getNextRange(currentRange);
       }
 
-      for (final Range range : myRanges) {
-        if (line > range.getOffset1() || line > range.getOffset2()) {
-          continue;
-        }
-        return range;
-      }
-      return null;
+      final int index = getFirstRangeAfter(myRanges, line - 1);
+      return index < myRanges.size() ? myRanges.get(index) : null;
     }
   }
 
@@ -525,14 +633,8 @@ public class LineStatusTracker {
         return getPrevRange(currentRange);
       }
 
-      for (ListIterator<Range> iterator = myRanges.listIterator(myRanges.size()); iterator.hasPrevious();) {
-        final Range range = iterator.previous();
-        if (range.getOffset1() > line) {
-          continue;
-        }
-        return range;
-      }
-      return null;
+      final int index = getFirstRangeAfter(myRanges, line) - 1;
+      return index >= 0 ? myRanges.get(index) : null;
     }
   }
 
@@ -557,13 +659,16 @@ public class LineStatusTracker {
   @Nullable
   public Range getRangeForLine(final int line) {
     synchronized (myLock) {
-      for (final Range range : myRanges) {
-        if (range.getType() == Range.DELETED && line == range.getOffset1()) {
-          return range;
-        }
-        else if (line >= range.getOffset1() && line < range.getOffset2()) {
-          return range;
-        }
+      // the only range which can contain the line is the last one starting not after it
+      final int index = getFirstRangeAfter(myRanges, line) - 1;
+      if (index < 0) return null;
+
+      final Range range = myRanges.get(index);
+      if (range.getType() == Range.DELETED && line == range.getOffset1()) {
+        return range;
+      }
+      else if (line >= range.getOffset1() && line < range.getOffset2()) {
+        return range;
       }
       return null;
     }
@@ -656,6 +761,40 @@ public class LineStatusTracker {
     }
   }
 
+  @TestOnly
+  void setRecalculationScheduler(@NotNull RecalculationScheduler scheduler) {
+    myRecalculationScheduler = scheduler;
+  }
+
+  /**
+   * Runs the comparison of a full recalculation, and then the application of its result on the EDT.
+   */
+  interface RecalculationScheduler {
+    void schedule(@NotNull Runnable calculation, @NotNull Runnable application);
+  }
+
+  static final RecalculationScheduler SYNCHRONOUS = new RecalculationScheduler() {
+    @Override
+    public void schedule(@NotNull Runnable calculation, @NotNull Runnable application) {
+      calculation.run();
+      application.run();
+    }
+  };
+
+  static final RecalculationScheduler POOLED = new RecalculationScheduler() {
+    @Override
+    public void schedule(@NotNull final Runnable calculation, @NotNull final Runnable application) {
+      final Application app = ApplicationManager.getApplication();
+      app.executeOnPooledThread(new Runnable() {
+        @Override
+        public void run() {
+          calculation.run();
+          app.invokeLater(application, ModalityState.any());
+        }
+      });
+    }
+  };
+
   public static enum BaseLoadState {
     LOADING,
     FAILED,
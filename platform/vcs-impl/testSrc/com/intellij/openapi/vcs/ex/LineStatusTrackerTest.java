@@ -0,0 +1,329 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.vcs.ex;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.EditorFactory;
+import com.intellij.openapi.vcs.history.VcsRevisionNumber;
+import com.intellij.testFramework.LightPlatformTestCase;
+import com.intellij.util.ui.UIUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class LineStatusTrackerTest extends LightPlatformTestCase {
+  private Document myDocument;
+  private LineStatusTracker myTracker;
+  private int myRevision;
+  private final List<Runnable> myRecalculations = new ArrayList<Runnable>();
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      if (myTracker != null) myTracker.release();
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testTypingInsideRange() throws Exception {
+    createTracker("1\n2\n3\n4\n5\n", "1\n2a\n3a\n4\n5\n");
+    assertRanges(range(1, 3, 1, 3, Range.MODIFIED));
+
+    insert(lineStart(2) + 2, "b");
+    assertRanges(range(1, 3, 1, 3, Range.MODIFIED));
+
+    replace(lineStart(1), lineStart(3), "2\n3\n");
+    assertRanges();
+  }
+
+  public void testTypingBetweenRanges() throws Exception {
+    createTracker("1\n2\n3\n4\n5\n6\n7\n", "1\n2a\n3\n4\n5\n6a\n7\n");
+    assertRanges(range(1, 2, 1, 2, Range.MODIFIED), range(5, 6, 5, 6, Range.MODIFIED));
+
+    insert(lineStart(3), "new\n");
+    assertRanges(range(1, 2, 1, 2, Range.MODIFIED), range(3, 4, 3, 3, Range.INSERTED), range(6, 7, 5, 6, Range.MODIFIED));
+
+    replace(lineStart(3), lineStart(4), "");
+    assertRanges(range(1, 2, 1, 2, Range.MODIFIED), range(5, 6, 5, 6, Range.MODIFIED));
+  }
+
+  public void testTypingAcrossRanges() throws Exception {
+    createTracker("1\n2\n3\n4\n5\n6\n7\n", "1\n2a\n3\n4\n5\n6a\n7\n");
+
+    replace(lineStart(1) + 1, lineStart(5) + 1, "b\nnew\n6");
+    assertRanges(range(1, 4, 1, 6, Range.MODIFIED));
+    assertEquals("1\n2b\nnew\n6a\n7\n", myDocument.getText());
+    assertFullDiff();
+  }
+
+  public void testMergeAtWindowEdges() throws Exception {
+    createTracker("1\n2\n3\n4\n5\n6\n7\n", "1\n2a\n3\n4\n5\n6a\n7\n");
+
+    // the changed line touches the ranges both before and after it, they all become one range
+    replace(lineStart(2), lineStart(3), "3a\n");
+    assertRanges(range(1, 3, 1, 3, Range.MODIFIED), range(5, 6, 5, 6, Range.MODIFIED));
+
+    replace(lineStart(3), lineStart(5), "4a\n5a\n");
+    assertRanges(range(1, 6, 1, 6, Range.MODIFIED));
+
+    replace(lineStart(2), lineStart(3), "3\n");
+    assertRanges(range(1, 2, 1, 2, Range.MODIFIED), range(3, 6, 3, 6, Range.MODIFIED));
+  }
+
+  public void testDeletionAtRangeEdge() throws Exception {
+    createTracker("1\n2\n3\n4\n5\n", "1\n2a\n3\n4\n5\n");
+
+    replace(lineStart(2), lineStart(3), "");
+    assertRanges(range(1, 2, 1, 3, Range.MODIFIED));
+
+    replace(lineStart(1), lineStart(2), "");
+    assertRanges(range(1, 1, 1, 3, Range.DELETED));
+    assertFullDiff();
+  }
+
+  public void testTypingBeforeDeletedRange() throws Exception {
+    createTracker("1\n2\n3\n4\n", "1\n4\n");
+    assertRanges(range(1, 1, 1, 3, Range.DELETED));
+
+    insert(lineStart(0) + 1, "x");
+    assertRanges(range(0, 1, 0, 3, Range.MODIFIED));
+    assertFullDiff();
+  }
+
+  public void testTypingBetweenDeletedRanges() throws Exception {
+    createTracker("1\n2\n3\n", "2\n");
+    assertRanges(range(0, 0, 0, 1, Range.DELETED), range(1, 1, 2, 3, Range.DELETED));
+
+    replace(lineStart(0), lineStart(0) + 1, "x");
+    assertRanges(range(0, 1, 0, 3, Range.MODIFIED));
+    assertFullDiff();
+  }
+
+  public void testDeletingWholeDocument() throws Exception {
+    createTracker("1\n2\n3\n", "1\n2a\n3");
+
+    replace(0, myDocument.getTextLength(), "");
+    assertRanges(range(0, 0, 0, 4, Range.DELETED));
+    assertFullDiff();
+  }
+
+  public void testRangeForLine() throws Exception {
+    createTracker("1\n2\n3\n4\n5\n6\n7\n", "1\n2a\n3\n5\n6\n7\nnew\n");
+    Range modified = range(1, 2, 1, 2, Range.MODIFIED);
+    Range deleted = range(3, 3, 3, 4, Range.DELETED);
+    Range inserted = range(6, 7, 7, 7, Range.INSERTED);
+    assertRanges(modified, deleted, inserted);
+
+    assertNull(myTracker.getRangeForLine(0));
+    assertEquals(modified, myTracker.getRangeForLine(1));
+    assertNull(myTracker.getRangeForLine(2));
+    assertEquals(deleted, myTracker.getRangeForLine(3));
+    assertNull(myTracker.getRangeForLine(4));
+    assertEquals(inserted, myTracker.getRangeForLine(6));
+    assertNull(myTracker.getRangeForLine(7));
+  }
+
+  public void testNextAndPrevRange() throws Exception {
+    createTracker("1\n2\n3\n4\n5\n6\n7\n", "1\n2a\n3\n5\n6\n7\nnew\n");
+    Range modified = range(1, 2, 1, 2, Range.MODIFIED);
+    Range deleted = range(3, 3, 3, 4, Range.DELETED);
+    Range inserted = range(6, 7, 7, 7, Range.INSERTED);
+
+    assertEquals(modified, myTracker.getNextRange(0));
+    assertEquals(deleted, myTracker.getNextRange(1));
+    assertEquals(deleted, myTracker.getNextRange(2));
+    assertEquals(inserted, myTracker.getNextRange(3));
+    assertEquals(inserted, myTracker.getNextRange(5));
+    assertNull(myTracker.getNextRange(6));
+    assertNull(myTracker.getNextRange(7));
+
+    assertNull(myTracker.getPrevRange(0));
+    assertNull(myTracker.getPrevRange(1));
+    assertEquals(modified, myTracker.getPrevRange(2));
+    assertEquals(modified, myTracker.getPrevRange(3));
+    assertEquals(deleted, myTracker.getPrevRange(4));
+    assertEquals(deleted, myTracker.getPrevRange(6));
+    assertEquals(inserted, myTracker.getPrevRange(7));
+
+    assertEquals(deleted, myTracker.getNextRange(myTracker.getRangeForLine(1)));
+    assertNull(myTracker.getNextRange(myTracker.getRangeForLine(6)));
+    assertEquals(deleted, myTracker.getPrevRange(myTracker.getRangeForLine(6)));
+    assertNull(myTracker.getPrevRange(myTracker.getRangeForLine(1)));
+  }
+
+  public void testRecalculationAppliedAfterTyping() throws Exception {
+    createTracker("1\n2\n3\n4\n5\n6\n7\n8\n", "1\n2\n3\n4\n5\n6\n7\n8\n");
+    queueRecalculations();
+
+    setBase("1\n2a\n3\n4\n5\n6\n7a\n8\n");
+    insert(lineStart(4), "new\n");
+    replace(lineStart(1), lineStart(2), "2b\n");
+    replace(lineStart(7), lineStart(8), "");
+    // the ranges are kept up to date against the old base till the new one is installed
+    assertRanges(range(1, 2, 1, 2, Range.MODIFIED), range(4, 5, 4, 4, Range.INSERTED), range(7, 7, 6, 7, Range.DELETED));
+
+    runRecalculation(0);
+    assertEquals("1\n2a\n3\n4\n5\n6\n7a\n8\n", myTracker.getUpToDateDocument().getText());
+    assertRanges(range(1, 2, 1, 2, Range.MODIFIED), range(4, 5, 4, 4, Range.INSERTED), range(7, 7, 6, 7, Range.DELETED));
+    assertFullDiff();
+  }
+
+  public void testRecalculationAppliedAfterTypingAcrossRanges() throws Exception {
+    createTracker("1\n2\n3\n4\n5\n6\n7\n8\n", "1\n2\n3\n4\n5\n6\n7\n8\n");
+    queueRecalculations();
+
+    setBase("1\n2a\n3\n4\n5\n6a\n7\n8\n");
+    replace(lineStart(1), lineStart(2), "2a\n");
+    replace(lineStart(5) + 1, lineStart(7) + 1, "x\n7\nnew\n8");
+    replace(lineStart(6), lineStart(7), "");
+
+    runRecalculation(0);
+    assertEquals("1\n2a\n3\n4\n5\n6x\nnew\n8\n", myDocument.getText());
+    assertRanges(range(5, 7, 5, 7, Range.MODIFIED));
+    assertFullDiff();
+  }
+
+  public void testSupersededRecalculationDropped() throws Exception {
+    createTracker("1\n2\n3\n", "1\n2\n3\n");
+    queueRecalculations();
+
+    setBase("1\n2a\n3\n");
+    setBase("1a\n2\n3\n");
+    runRecalculation(0);
+    assertEquals("1\n2\n3\n", myTracker.getUpToDateDocument().getText());
+    assertRanges();
+
+    insert(lineStart(2), "new\n");
+    runRecalculation(1);
+    assertEquals("1a\n2\n3\n", myTracker.getUpToDateDocument().getText());
+    assertRanges(range(0, 1, 0, 1, Range.MODIFIED), range(2, 3, 2, 2, Range.INSERTED));
+    assertFullDiff();
+  }
+
+  public void testRecalculationDroppedAfterRelease() throws Exception {
+    createTracker("1\n2\n3\n", "1\n2\n3\n");
+    queueRecalculations();
+
+    setBase("1\n2a\n3\n");
+    LineStatusTracker tracker = myTracker;
+    myTracker = null;
+    tracker.release();
+    runRecalculation(0);
+    assertEquals("1\n2\n3\n", tracker.getUpToDateDocument().getText());
+  }
+
+  public void testRecalculationAfterBulkUpdate() throws Exception {
+    createTracker("1\n2\n3\n4\n", "1\n2\n3\n4\n");
+    queueRecalculations();
+
+    myTracker.startBulkUpdate();
+    replace(lineStart(1), lineStart(2), "2a\n");
+    myTracker.finishBulkUpdate();
+    assertRanges();
+
+    insert(lineStart(3), "new\n");
+    runRecalculation(0);
+    assertRanges(range(1, 2, 1, 2, Range.MODIFIED), range(3, 4, 3, 3, Range.INSERTED));
+    assertFullDiff();
+  }
+
+  public void testPooledRecalculation() throws Exception {
+    createTracker("1\n2\n3\n4\n", "1\n2\n3\n4\n");
+    myTracker.setRecalculationScheduler(LineStatusTracker.POOLED);
+
+    setBase("1\n2a\n3\n4\n");
+    insert(lineStart(3), "new\n");
+
+    long deadline = System.currentTimeMillis() + 10000;
+    while (!"1\n2a\n3\n4\n".equals(myTracker.getUpToDateDocument().getText())) {
+      assertTrue("The ranges weren't recalculated", System.currentTimeMillis() < deadline);
+      UIUtil.dispatchAllInvocationEvents();
+      Thread.sleep(10);
+    }
+    assertRanges(range(1, 2, 1, 2, Range.MODIFIED), range(3, 4, 3, 3, Range.INSERTED));
+    assertFullDiff();
+  }
+
+  private void createTracker(@NotNull String base, @NotNull String text) {
+    myDocument = EditorFactory.getInstance().createDocument(text);
+    myTracker = LineStatusTracker.createOn(null, myDocument, getProject());
+    setBase(base);
+  }
+
+  private void setBase(@NotNull String base) {
+    myRevision++;
+    myTracker.initialize(base, new LineStatusTracker.RevisionPack(myRevision, new VcsRevisionNumber.Int(myRevision)));
+  }
+
+  private void queueRecalculations() {
+    myTracker.setRecalculationScheduler(new LineStatusTracker.RecalculationScheduler() {
+      @Override
+      public void schedule(@NotNull final Runnable calculation, @NotNull final Runnable application) {
+        myRecalculations.add(new Runnable() {
+          @Override
+          public void run() {
+            calculation.run();
+            application.run();
+          }
+        });
+      }
+    });
+  }
+
+  private void runRecalculation(int index) {
+    myRecalculations.get(index).run();
+  }
+
+  private int lineStart(int line) {
+    return myDocument.getLineStartOffset(line);
+  }
+
+  private void insert(int offset, @NotNull String text) {
+    replace(offset, offset, text);
+  }
+
+  private void replace(final int startOffset, final int endOffset, @NotNull final String text) {
+    ApplicationManager.getApplication().runWriteAction(new Runnable() {
+      @Override
+      public void run() {
+        myDocument.replaceString(startOffset, endOffset, text);
+      }
+    });
+  }
+
+  private static Range range(int offset1, int offset2, int uOffset1, int uOffset2, byte type) {
+    return new Range(offset1, offset2, uOffset1, uOffset2, type);
+  }
+
+  private void assertRanges(Range... expected) {
+    List<Range> ranges = myTracker.getRanges();
+    assertEquals(Arrays.asList(expected).toString(), ranges.toString());
+    for (Range range : ranges) {
+      assertTrue(range.hasHighlighter());
+    }
+  }
+
+  // the diff of the whole document must agree with the ranges which were updated incrementally
+  private void assertFullDiff() throws Exception {
+    List<Range> expected = new RangesBuilder(myDocument, myTracker.getUpToDateDocument()).getRanges();
+    assertEquals(expected.toString(), myTracker.getRanges().toString());
+  }
+}